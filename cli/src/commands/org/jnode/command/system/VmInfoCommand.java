@@ -26,8 +26,11 @@ import java.util.List;
 import org.jnode.shell.AbstractCommand;
 import org.jnode.shell.syntax.Argument;
 import org.jnode.shell.syntax.FlagArgument;
+import org.jnode.shell.syntax.IntegerArgument;
+import org.jnode.vm.LoadCompileService;
 import org.jnode.vm.facade.VmProcessor;
 import org.jnode.vm.facade.VmUtils;
+import org.jnode.vm.scheduler.MonitorManager;
 
 /**
  * @author Ewout Prangsma (epr@users.sourceforge.net)
@@ -36,17 +39,20 @@ import org.jnode.vm.facade.VmUtils;
 public class VmInfoCommand extends AbstractCommand {
     
     private static final String help_reset = "if set, reset the JNode VM counters";
+    private static final String help_hot = "the number of hot methods to show";
     private static final String help_super = "Prints JNode VM info";
     private static final String fmt_vm = "JNode VM %s%n";
     private static final String fmt_sm = "Security Manager %s%n";
     private static final String fmt_proc = "Processor %s (%s)%n";
     
     private final FlagArgument argReset;
+    private final IntegerArgument argHot;
     
     public VmInfoCommand() {
         super(help_super);
         argReset = new FlagArgument("reset", Argument.OPTIONAL, help_reset);
-        registerArguments(argReset);
+        argHot = new IntegerArgument("hot", Argument.OPTIONAL, 1, Integer.MAX_VALUE, help_hot);
+        registerArguments(argReset, argHot);
     }
 
     public static void main(String[] args) throws Exception {
@@ -62,6 +68,7 @@ public class VmInfoCommand extends AbstractCommand {
             VmUtils.dumpStatistics(out);
             vm.getSharedStatics().dumpStatistics(out);
             VmUtils.getVm().getHeapManager().dumpStatistics(out);
+            MonitorManager.dumpStatistics(out);
             final SecurityManager sm = System.getSecurityManager();
             out.format(fmt_sm, sm);
             List<VmProcessor> processors = vm.getProcessors();
@@ -69,6 +76,9 @@ public class VmInfoCommand extends AbstractCommand {
                 out.format(fmt_proc, processors.indexOf(cpu), cpu.getIdString());
                 cpu.dumpStatistics(out);
             }
+            if (argHot.isSet()) {
+                LoadCompileService.dumpHotMethods(out, argHot.getValue());
+            }
             if (argReset.isSet()) {
                 VmUtils.resetCounters();
             }
@@ -20,9 +20,15 @@
  
 package org.jnode.util;
 
-import java.util.ArrayList;
+import java.util.Collection;
 
 /**
+ * A FIFO queue on top of a circular array.
+ * <p/>
+ * A queue is either unbounded (its array grows when needed) or bounded,
+ * in which case {@link #offer(Object)} refuses elements once the queue is full.
+ * Adding an element wakes up a single waiting thread only.
+ *
  * @author epr
  */
 public class Queue<T> {
@@ -30,11 +36,62 @@ public class Queue<T> {
     public static final int NO_WAIT = -1;
 
     /**
-     * The actual queue
+     * Capacity value of an unbounded queue
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * Initial array size of an unbounded queue
+     */
+    private static final int INITIAL_SIZE = 16;
+
+    /**
+     * The elements, starting at head and wrapping around at the end of the array
+     */
+    private Object[] elements;
+
+    /**
+     * Index of the first element
      */
-    private final ArrayList<T> queue = new ArrayList<T>();
+    private int head;
+
+    /**
+     * Number of elements in the queue
+     */
+    private int count;
+
+    /**
+     * Maximum number of elements in the queue
+     */
+    private final int capacity;
+
+    /**
+     * Number of threads waiting in get
+     */
+    private int waiters;
+
     private boolean closed = false;
 
+    /**
+     * Create an unbounded queue.
+     */
+    public Queue() {
+        this(UNBOUNDED);
+    }
+
+    /**
+     * Create a queue that holds at most the given number of elements.
+     *
+     * @param capacity
+     */
+    public Queue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.elements = new Object[Math.min(capacity, INITIAL_SIZE)];
+    }
+
     /**
      * Gets the first element out of the queue. Blocks until an element is available
      * and the returns element is remove from the queue.
@@ -47,23 +104,30 @@ public class Queue<T> {
      *         been closed, a timeout occurs, or the current thread is interrupted (and ignoreInterruptions is false).
      */
     public synchronized T get(boolean ignoreInteruptions, long timeout) {
-        while (queue.isEmpty()) {
+        while (count == 0) {
             if (closed || timeout == NO_WAIT) {
                 return null;
             }
+            waiters++;
             try {
                 wait(timeout);
             } catch (InterruptedException ex) {
                 if (!ignoreInteruptions) {
+                    // We may have consumed a notification, pass it on
+                    if ((count > 0) && (waiters > 1)) {
+                        notify();
+                    }
                     return null;
                 }
                 /* ignore */
+            } finally {
+                waiters--;
             }
-            if ((timeout != 0) && (queue.isEmpty())) {
+            if ((timeout != 0) && (count == 0)) {
                 return null;
             }
         }
-        return queue.remove(0);
+        return removeFirst();
     }
 
     /**
@@ -102,20 +166,65 @@ public class Queue<T> {
         return get(true, 0);
     }
 
+    /**
+     * Remove up to the given number of elements from this queue and add them
+     * to the given collection. This method never blocks.
+     *
+     * @param c
+     * @param maxElements
+     * @return The number of elements added to the collection.
+     */
+    public synchronized int drainTo(Collection<? super T> c, int maxElements) {
+        final int n = Math.min(count, maxElements);
+        for (int i = 0; i < n; i++) {
+            c.add(removeFirst());
+        }
+        return n;
+    }
+
     /**
      * Add an element to this queue.
      *
      * @param object
      * @throws SecurityException If the queue has been closed.
+     * @throws IllegalStateException If the queue is full.
      */
     public synchronized void add(T object)
+        throws SecurityException {
+        if (!offer(object)) {
+            throw new IllegalStateException("Queue full");
+        }
+    }
+
+    /**
+     * Add an element to this queue, unless the queue is full.
+     *
+     * @param object
+     * @return True if the element has been added, false if the queue is full.
+     * @throws SecurityException If the queue has been closed.
+     */
+    public synchronized boolean offer(T object)
         throws SecurityException {
         if (closed) {
             throw new SecurityException("Cannot add to a closed queue.");
-        } else {
-            queue.add(object);
-            notifyAll();
         }
+        if (count == elements.length) {
+            if (count == capacity) {
+                return false;
+            }
+            grow();
+        }
+        int tail = head + count;
+        if (tail >= elements.length) {
+            tail -= elements.length;
+        }
+        elements[tail] = object;
+        count++;
+        if (waiters > 0) {
+            // A single element can satisfy a single waiter only
+            notify();
+        }
+        return true;
     }
 
     /**
@@ -129,8 +238,19 @@ public class Queue<T> {
         if (closed) {
             throw new SecurityException("Cannot remove from a closed queue.");
         } else {
-            queue.remove(object);
-            notifyAll();
+            final int idx = indexOf(object);
+            if (idx >= 0) {
+                // Shift the elements after idx one position back
+                final int length = elements.length;
+                int pos = head + idx;
+                for (int i = idx + 1; i < count; i++) {
+                    final int next = (pos + 1) % length;
+                    elements[pos % length] = elements[next];
+                    pos = next;
+                }
+                elements[pos % length] = null;
+                count--;
+            }
         }
     }
 
@@ -140,8 +260,8 @@ public class Queue<T> {
      * @param object
      * @return boolean
      */
-    public boolean contains(T object) {
-        return queue.contains(object);
+    public synchronized boolean contains(T object) {
+        return (indexOf(object) >= 0);
     }
 
     /**
@@ -150,7 +270,16 @@ public class Queue<T> {
      * @return int
      */
     public int size() {
-        return queue.size();
+        return count;
+    }
+
+    /**
+     * Gets the maximum number of elements in this queue.
+     *
+     * @return The capacity, or {@link #UNBOUNDED}.
+     */
+    public int getCapacity() {
+        return capacity;
     }
 
     /**
@@ -159,7 +288,7 @@ public class Queue<T> {
      * @return boolean
      */
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return (count == 0);
     }
 
     /**
@@ -178,5 +307,51 @@ public class Queue<T> {
     public boolean isClosed() {
         return closed;
     }
-}
 
+    /**
+     * Remove the first element. The queue must not be empty.
+     *
+     * @return the first element
+     */
+    @SuppressWarnings("unchecked")
+    private T removeFirst() {
+        final T result = (T) elements[head];
+        elements[head] = null;
+        head++;
+        if (head == elements.length) {
+            head = 0;
+        }
+        count--;
+        return result;
+    }
+
+    /**
+     * Gets the position of the given object relative to the head of the queue.
+     *
+     * @param object
+     * @return the position, or -1 if not found
+     */
+    private int indexOf(T object) {
+        final int length = elements.length;
+        for (int i = 0; i < count; i++) {
+            final Object e = elements[(head + i) % length];
+            if ((object == null) ? (e == null) : object.equals(e)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Double the size of the array, up to the capacity.
+     */
+    private void grow() {
+        final int newLength = (int) Math.min((long) capacity, 2L * elements.length);
+        final Object[] newElements = new Object[newLength];
+        for (int i = 0; i < count; i++) {
+            newElements[i] = elements[(head + i) % elements.length];
+        }
+        elements = newElements;
+        head = 0;
+    }
+}
@@ -20,6 +20,8 @@
  
 package org.jnode.util;
 
+import java.util.ArrayList;
+
 import org.jnode.bootlog.BootLogInstance;
 
 /**
@@ -27,6 +29,11 @@ import org.jnode.bootlog.BootLogInstance;
  */
 public class QueueProcessorThread<T> extends Thread {
 
+    /**
+     * Maximum number of objects taken from the queue at once
+     */
+    private static final int BATCH_SIZE = 32;
+
     /**
      * The queue i'm processing
      */
@@ -98,16 +105,24 @@ public class QueueProcessorThread<T> extends Thread {
      * @see java.lang.Runnable#run()
      */
     public void run() {
+        final ArrayList<T> batch = new ArrayList<T>(BATCH_SIZE);
         while (!stop) {
-            try {
-                final T object = queue.get(false);
-                if (object != null) {
-                    processor.process(object);
+            final T object = queue.get(false);
+            if (object != null) {
+                batch.add(object);
+                // Take whatever else is available without waiting again
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                final int cnt = batch.size();
+                for (int i = 0; i < cnt; i++) {
+                    try {
+                        processor.process(batch.get(i));
+                    } catch (Exception ex) {
+                        handleException(ex);
+                    } catch (Error ex) {
+                        handleError(ex);
+                    }
                 }
-            } catch (Exception ex) {
-                handleException(ex);
-            } catch (Error ex) {
-                handleError(ex);
+                batch.clear();
             }
         }
     }
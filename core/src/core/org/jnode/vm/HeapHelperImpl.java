@@ -189,6 +189,13 @@ final class HeapHelperImpl extends HeapHelper {
         return end.sub(start).toExtent();
     }
 
+    /**
+     * @see org.jnode.vm.memmgr.HeapHelper#getMemoryEnd()
+     */
+    public final Address getMemoryEnd() {
+        return Unsafe.getMemoryEnd();
+    }
+
     /**
      * @see org.jnode.vm.memmgr.HeapHelper#getInflatedMonitor(java.lang.Object,
      *      org.jnode.vm.BaseVmArchitecture)
@@ -197,6 +204,14 @@ final class HeapHelperImpl extends HeapHelper {
         return MonitorManager.getInflatedMonitor(object);
     }
 
+    /**
+     * @see org.jnode.vm.memmgr.HeapHelper#deflateMonitor(java.lang.Object,
+     *      org.jnode.vm.scheduler.Monitor)
+     */
+    public final boolean deflateMonitor(Object object, Monitor monitor) {
+        return MonitorManager.deflateMonitor(object, monitor);
+    }
+
     /**
      * @see org.jnode.vm.memmgr.HeapHelper#invokeFinalizer(org.jnode.vm.classmgr.VmMethod,
      *      java.lang.Object)
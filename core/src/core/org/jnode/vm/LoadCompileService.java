@@ -20,9 +20,12 @@
  
 package org.jnode.vm;
 
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import org.jnode.assembler.ObjectResolver;
 import org.jnode.annotation.Inline;
@@ -38,6 +41,10 @@ import org.jnode.vm.compiler.NativeCodeCompiler;
 
 /**
  * Service used to load classes and compile methods.
+ * <p/>
+ * Methods that become hot in the baseline compiled code are queued by
+ * {@link #promote(VmMethod)} and recompiled in the background by the
+ * optimizing test compiler.
  *
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
@@ -55,6 +62,21 @@ public final class LoadCompileService {
 
     private final NativeCodeCompiler[] testCompilers;
 
+    /**
+     * Methods that have been compiled at runtime by the baseline compiler
+     */
+    private final ArrayList<VmMethod> compiledMethods = new ArrayList<VmMethod>();
+
+    /**
+     * Number of methods recompiled by the optimizing compiler
+     */
+    private int promotedCount;
+
+    /**
+     * Number of methods the optimizing compiler could not recompile
+     */
+    private int promoteFailedCount;
+
     private static boolean started = false;
 
     private static final int threadCount = 2; //4
@@ -93,6 +115,52 @@ public final class LoadCompileService {
         }
     }
 
+    /**
+     * Queue the given method for recompilation by the optimizing compiler.
+     * Unlike {@link #compile(VmMethod, int, boolean)} this method does not wait
+     * until the method has been compiled.
+     *
+     * @param method
+     */
+    public static final void promote(VmMethod method) {
+        if (!started) {
+            return;
+        }
+        final NativeCodeCompiler[] cmps = service.testCompilers;
+        if ((cmps == null) || (cmps.length == 0)) {
+            return;
+        }
+        service.enqueue(new PromoteRequest(method));
+    }
+
+    /**
+     * Print the baseline compiled methods with the highest invocation and
+     * backedge counts.
+     *
+     * @param out
+     * @param count The maximum number of methods to print
+     */
+    public static final void dumpHotMethods(PrintWriter out, int count) {
+        if (service == null) {
+            return;
+        }
+        final VmMethod[] methods;
+        final ArrayList<VmMethod> list = service.compiledMethods;
+        synchronized (list) {
+            methods = list.toArray(new VmMethod[list.size()]);
+        }
+        Arrays.sort(methods, new HotnessComparator());
+        out.println("Hot methods (" + service.promotedCount + " promoted, "
+            + service.promoteFailedCount + " failed)");
+        out.println("invocations  backedges level method");
+        final int max = Math.min(count, methods.length);
+        for (int i = 0; i < max; i++) {
+            final VmMethod m = methods[i];
+            out.format("%11d %10d %5d %s%n", m.getInvocationCount(), m.getBackEdgeCount(),
+                m.getNativeCodeOptLevel(), m.getFullName());
+        }
+    }
+
     /**
      * Get the highest supported optimization level for the regular or test compilers.
      */
@@ -172,12 +240,21 @@ public final class LoadCompileService {
      */
     private void enqueAndWait(Request request) {
         // Put request in queue
+        enqueue(request);
+        // Wait for request to finish
+        request.waitUntilFinished();
+    }
+
+    /**
+     * Put request in queue.
+     *
+     * @param request
+     */
+    private void enqueue(Request request) {
         synchronized (requestQueue) {
             requestQueue.add(request);
             requestQueue.notify();
         }
-        // Wait for request to finish
-        request.waitUntilFinished();
     }
 
     /**
@@ -231,9 +308,35 @@ public final class LoadCompileService {
         } else if (index >= cmps.length) {
             index = cmps.length - 1;
         }
-        if (vmMethod.getNativeCodeOptLevel() < optLevel) {
+        final int oldOptLevel = vmMethod.getNativeCodeOptLevel();
+        if (oldOptLevel < optLevel) {
             cmp = cmps[index];
             cmp.compileRuntime(vmMethod, resolver, optLevel, null);
+            if (!enableTestCompilers && (index > 0) && (oldOptLevel < 1)) {
+                // First baseline code of this method, it counts its invocations
+                synchronized (compiledMethods) {
+                    compiledMethods.add(vmMethod);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recompile the given method with the optimizing compiler.
+     *
+     * @param vmMethod
+     */
+    private void doPromote(VmMethod vmMethod) {
+        final int oldOptLevel = vmMethod.getNativeCodeOptLevel();
+        try {
+            doCompile(vmMethod, 0, true);
+        } catch (Throwable ex) {
+            // Keep the baseline code
+        }
+        if (vmMethod.getNativeCodeOptLevel() > oldOptLevel) {
+            promotedCount++;
+        } else {
+            promoteFailedCount++;
         }
     }
 
@@ -333,6 +436,51 @@ public final class LoadCompileService {
         }
     }
 
+    static final class PromoteRequest extends Request {
+
+        private final VmMethod method;
+
+        /**
+         * @param method
+         */
+        PromoteRequest(final VmMethod method) {
+            this.method = method;
+        }
+
+        /**
+         * Execute this request.
+         *
+         * @see org.jnode.vm.LoadCompileService.Request#execute()
+         */
+        void doExecute() {
+            service.doPromote(method);
+        }
+
+        /**
+         * @see org.jnode.vm.LoadCompileService.Request#errorMessage()
+         */
+        @Override
+        String errorMessage() {
+            return "Error in recompilation: ";
+        }
+    }
+
+    /**
+     * Sorts methods by the sum of their invocation and backedge counts,
+     * hottest first.
+     */
+    private static final class HotnessComparator implements Comparator<VmMethod> {
+
+        /**
+         * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(VmMethod m1, VmMethod m2) {
+            final long h1 = (long) m1.getInvocationCount() + m1.getBackEdgeCount();
+            final long h2 = (long) m2.getInvocationCount() + m2.getBackEdgeCount();
+            return (h1 > h2) ? -1 : ((h1 == h2) ? 0 : 1);
+        }
+    }
+
     static final class LoadRequest extends Request {
         private final String name;
 
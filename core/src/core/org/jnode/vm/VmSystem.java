@@ -809,7 +809,7 @@ public final class VmSystem {
         if (isObjectArray) {
             final VmWriteBarrier wb = VmUtils.getVm().getHeapManager().getWriteBarrier();
             if (wb != null) {
-                wb.arrayCopyWriteBarrier(src, srcPos, srcPos + length);
+                wb.arrayCopyWriteBarrier(dst, dstPos, dstPos + length);
             }
         }
     }
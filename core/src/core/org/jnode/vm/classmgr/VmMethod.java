@@ -34,6 +34,18 @@ import sun.reflect.ReflectionFactory;
 @MagicPermission
 public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry {
 
+    /**
+     * Number of invocations after which the baseline compiled code of a
+     * method asks for recompilation by the optimizing compiler.
+     */
+    public static final int PROMOTE_INVOCATION_COUNT = 10000;
+
+    /**
+     * Number of backward branches after which the baseline compiled code of
+     * a method asks for recompilation by the optimizing compiler.
+     */
+    public static final int PROMOTE_BACKEDGE_COUNT = 100000;
+
     /**
      * Address of native code of this method
      */
@@ -84,6 +96,22 @@ public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry
      */
     private short nativeCodeOptLevel = -1;
 
+    /**
+     * Number of invocations of the baseline compiled code of this method
+     */
+    private int invocationCount;
+
+    /**
+     * Number of backward branches taken by the baseline compiled code of
+     * this method
+     */
+    private int backEdgeCount;
+
+    /**
+     * Has this method been queued for recompilation by the optimizing compiler?
+     */
+    private boolean promoted;
+
     /**
      * The index in the statics table
      */
@@ -303,6 +331,47 @@ public abstract class VmMethod extends VmMember implements VmSharedStaticsEntry
         method.recompile();
     }
 
+    /**
+     * Called by the baseline compiled code of the given method when its
+     * invocation count or its backedge count has reached the promotion
+     * threshold. The method is queued for recompilation by the optimizing
+     * compiler. Until the recompiled code is installed, this method is called
+     * on every invocation, so it queues the method only once.
+     *
+     * @param method
+     * @see #PROMOTE_INVOCATION_COUNT
+     * @see #PROMOTE_BACKEDGE_COUNT
+     */
+    static final void promoteMethod(VmMethod method) {
+        if (method.backEdgeCount == PROMOTE_BACKEDGE_COUNT) {
+            // The backedge counter stops at the threshold until we get here,
+            // let it continue, so this method is called only once.
+            method.backEdgeCount++;
+        }
+        if (!method.promoted) {
+            method.promoted = true;
+            LoadCompileService.promote(method);
+        }
+    }
+
+    /**
+     * Gets the number of invocations of the baseline compiled code of this method.
+     *
+     * @return the invocation count
+     */
+    public final int getInvocationCount() {
+        return invocationCount;
+    }
+
+    /**
+     * Gets the number of backward branches taken by the baseline compiled code of this method.
+     *
+     * @return the backedge count
+     */
+    public final int getBackEdgeCount() {
+        return backEdgeCount;
+    }
+
     public final boolean isAbstract() {
         return Modifier.isAbstract(getModifiers());
     }
@@ -122,6 +122,12 @@ public class EntryPoints extends VmSystemObject {
 
     private final VmMethod recompileMethod;
 
+    private final VmMethod promoteMethod;
+
+    private final VmInstanceField vmMethodInvocationCountField;
+
+    private final VmInstanceField vmMethodBackEdgeCountField;
+
     private final int magic;
 
     /**
@@ -250,6 +256,10 @@ public class EntryPoints extends VmSystemObject {
             // VmMethod
             final VmType vmMethodClass = loader.loadClass("org.jnode.vm.classmgr.VmMethod", true);
             recompileMethod = testMethod(vmMethodClass.getDeclaredMethod("recompileMethod", "(II)V"));
+            promoteMethod = testMethod(vmMethodClass.getDeclaredMethod("promoteMethod",
+                "(Lorg/jnode/vm/classmgr/VmMethod;)V"));
+            vmMethodInvocationCountField = (VmInstanceField) testField(vmMethodClass.getField("invocationCount"));
+            vmMethodBackEdgeCountField = (VmInstanceField) testField(vmMethodClass.getField("backEdgeCount"));
 
         } catch (ClassNotFoundException ex) {
             throw new NoClassDefFoundError(ex.getMessage());
@@ -607,6 +617,28 @@ public class EntryPoints extends VmSystemObject {
         return recompileMethod;
     }
 
+    /**
+     * @return Returns the promoteMethod.
+     * @see VmMethod#promoteMethod(VmMethod)
+     */
+    public final VmMethod getPromoteMethod() {
+        return promoteMethod;
+    }
+
+    /**
+     * @return Returns the VmMethod.invocationCount field.
+     */
+    public final VmInstanceField getVmMethodInvocationCountField() {
+        return vmMethodInvocationCountField;
+    }
+
+    /**
+     * @return Returns the VmMethod.backEdgeCount field.
+     */
+    public final VmInstanceField getVmMethodBackEdgeCountField() {
+        return vmMethodBackEdgeCountField;
+    }
+
     /**
      * @return Returns the getClassForVmTypeMethod.
      * @see org.jnode.vm.SoftByteCodes#getClassForVmType(VmType)
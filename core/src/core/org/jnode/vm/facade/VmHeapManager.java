@@ -163,4 +163,12 @@ public interface VmHeapManager {
      * @param vmProcessor
      */
     Object createProcessorHeapData(VmProcessor vmProcessor);
+
+    /**
+     * Do a small amount of background work (such as sweeping) on an
+     * otherwise idle processor.
+     *
+     * @return True if some work has been done, false if there is nothing to do.
+     */
+    boolean doIdleWork();
 }
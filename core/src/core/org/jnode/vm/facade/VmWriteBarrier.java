@@ -61,7 +61,7 @@ public interface VmWriteBarrier {
      * This method generates write barrier entries needed as a consequence of
      * an explicit user array copies.
      *
-     * @param array The referring (source) array.
+     * @param array The array that has been copied into (destination).
      * @param start The first "natural" index into the array (e.g. for
      *              <code>a[1]</code>, index = 1).
      * @param end   The last "natural" index into the array
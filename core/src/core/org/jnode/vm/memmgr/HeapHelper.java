@@ -83,6 +83,11 @@ public abstract class HeapHelper implements Uninterruptible {
      */
     public abstract Extent getHeapSize();
 
+    /**
+     * Gets the end address of the memory available to the memory manager
+     */
+    public abstract Address getMemoryEnd();
+
     public abstract void invokeFinalizer(VmMethod finalizer, Object object);
 
     public abstract void die(String msg);
@@ -97,6 +102,16 @@ public abstract class HeapHelper implements Uninterruptible {
      */
     public abstract Monitor getInflatedMonitor(Object object, BaseVmArchitecture arch);
 
+    /**
+     * Detach the inflated monitor of an object if it is no longer in use.
+     * Must only be called while no other processor can run a thread.
+     *
+     * @param object
+     * @param monitor The inflated monitor of the given object
+     * @return true if the monitor has been detached, false otherwise.
+     */
+    public abstract boolean deflateMonitor(Object object, Monitor monitor);
+
     /**
      * Stop and block all threads (on all processors) on a GC safe point.
      * Only the calling thread (the GC thread) will continue.
@@ -328,6 +328,13 @@ public abstract class VmHeapManager extends VmSystemObject implements org.jnode.
      */
     public abstract Object createProcessorHeapData(VmProcessor cpu);
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean doIdleWork() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,171 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.annotation.Inline;
+import org.jnode.annotation.MagicPermission;
+import org.jnode.vm.VmMagic;
+import org.jnode.vm.classmgr.ObjectFlags;
+import org.jnode.vm.classmgr.ObjectLayout;
+import org.jnode.vm.memmgr.HeapHelper;
+import org.jnode.vm.objects.VmSystemObject;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.Extent;
+import org.vmmagic.unboxed.ObjectReference;
+import org.vmmagic.unboxed.Offset;
+import org.vmmagic.unboxed.Word;
+
+/**
+ * Card table used as remembered set by the generational heap manager.
+ * <p/>
+ * The memory from the start of the boot image up to the end of memory is
+ * divided in cards of {@link #CARD_SIZE} bytes, each represented by a single
+ * byte in the table. The write barrier dirties the card that contains the
+ * start of the object that is written to. A minor collection rescans the old
+ * objects that start in a dirty card, since they may refer to young objects.
+ *
+ * @author epr
+ */
+@MagicPermission
+final class CardTable extends VmSystemObject implements ObjectFlags, Uninterruptible {
+
+    /**
+     * Log2 of the card size
+     */
+    static final int CARD_SHIFT = 9;
+
+    /**
+     * Number of bytes covered by a single card
+     */
+    static final int CARD_SIZE = 1 << CARD_SHIFT;
+
+    /**
+     * Start of the memory covered by this table
+     */
+    private final Address base;
+
+    /**
+     * End (exclusive) of the memory covered by this table
+     */
+    private final Address limit;
+
+    /**
+     * Start of the table itself
+     */
+    private final Address table;
+
+    /**
+     * Number of cards in the table
+     */
+    private final int cards;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param helper
+     * @param base   Start of the memory to cover
+     * @param limit  End (exclusive) of the memory to cover
+     */
+    public CardTable(HeapHelper helper, Address base, Address limit) {
+        this.base = base;
+        this.limit = limit;
+        this.cards = limit.toWord().sub(base.toWord()).rshl(CARD_SHIFT).toInt() + 1;
+        this.table = helper.allocateBlock(Extent.fromIntZeroExtend(cards));
+        helper.clear(table, cards);
+    }
+
+    /**
+     * Mark the card containing the start of the given object as dirty.
+     *
+     * @param object
+     */
+    @Inline
+    final void dirty(Object object) {
+        final Address addr = ObjectReference.fromObject(object).toAddress();
+        if (addr.GE(base) && addr.LT(limit)) {
+            table.store((byte) 1, cardOffset(addr));
+        }
+    }
+
+    /**
+     * Mark all cards as clean.
+     */
+    final void clear() {
+        for (int i = 0; i < cards; i++) {
+            table.store((byte) 0, Offset.fromIntZeroExtend(i));
+        }
+    }
+
+    /**
+     * Rescan all old (black) objects of the given heap that start in a dirty
+     * card and clean those cards. A card is cleaned before its objects are
+     * scanned, so writes that happen during the scan dirty the card again.
+     *
+     * @param heap
+     * @param visitor
+     * @return The number of dirty cards found
+     */
+    final int scan(VmAbstractHeap heap, GCMarkVisitor visitor) {
+        final Address start = heap.start;
+        final Address end = heap.end;
+        final Word cardMask = Word.fromIntZeroExtend(CARD_SIZE - 1);
+        int dirtyCards = 0;
+        Address card = start.toWord().and(cardMask.not()).toAddress();
+        while (card.LT(end)) {
+            final Address next = card.add(CARD_SIZE);
+            if (card.GE(base) && card.LT(limit)) {
+                final Offset idx = cardOffset(card);
+                if (table.loadByte(idx) != 0) {
+                    dirtyCards++;
+                    // Cards shared with another heap are left dirty,
+                    // they are cleaned by the heap that covers them fully.
+                    if (card.GE(start) && next.LE(end)) {
+                        table.store((byte) 0, idx);
+                    }
+                    Address ptr = card.GE(start) ? card : start;
+                    while (ptr.LT(next) && ptr.LT(end)) {
+                        if (heap.isObject(ptr)) {
+                            final Object object = ptr.toObjectReference().toObject();
+                            if (VmMagic.getObjectColor(object) == GC_BLACK) {
+                                visitor.rescan(object);
+                            }
+                        }
+                        ptr = ptr.add(ObjectLayout.OBJECT_ALIGN);
+                    }
+                }
+            }
+            card = next;
+        }
+        return dirtyCards;
+    }
+
+    /**
+     * Gets the offset in the table of the card containing the given address.
+     *
+     * @param addr
+     * @return the offset
+     */
+    @Inline
+    private Offset cardOffset(Address addr) {
+        return addr.toWord().sub(base.toWord()).rshl(CARD_SHIFT).toOffset();
+    }
+}
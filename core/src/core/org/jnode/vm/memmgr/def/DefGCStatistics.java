@@ -36,15 +36,31 @@ final class DefGCStatistics extends VmSystemObject implements GCStatistics {
     long lastVerifyDuration;
     long lastFreedBytes;
     long lastMarkedObjects;
+    int lastDeflatedMonitors;
+    long lastPauseDuration;
+    long lastLazySweepCycles;
+    int lastLazySweptHeaps;
+    boolean lastCollectionMinor;
+    int lastDirtyCards;
+    int minorCollections;
+    int majorCollections;
 
     public String toString() {
         return "lastGCTime          " + lastGCTime + '\n' +
+            "lastCollectionMinor " + lastCollectionMinor + '\n' +
+            "minorCollections    " + minorCollections + '\n' +
+            "majorCollections    " + majorCollections + '\n' +
+            "lastDirtyCards      " + lastDirtyCards + '\n' +
             "lastMarkIterations  " + lastMarkIterations + '\n' +
+            "lastPauseDuration   " + lastPauseDuration + '\n' +
             "lastMarkDuration    " + lastMarkDuration + '\n' +
             "lastSweepDuration   " + lastSweepDuration + '\n' +
+            "lastLazySweepCycles " + lastLazySweepCycles + '\n' +
+            "lastLazySweptHeaps  " + lastLazySweptHeaps + '\n' +
             "lastCleanupDuration " + lastCleanupDuration + '\n' +
             "lastVerifyDuration  " + lastVerifyDuration + '\n' +
             "lastMarkedObjects   " + lastMarkedObjects + '\n' +
+            "lastDeflatedMonitors " + lastDeflatedMonitors + '\n' +
             "lastFreedBytes      " + lastFreedBytes;
     }
 
@@ -38,6 +38,11 @@ final class DefHeapStatistics extends VmSystemObject implements HeapStatistics {
     private long minTotalSize = 0;
     private ObjectFilter objectFilter = NoObjectFilter.INSTANCE;
     private final TreeMap<String, HeapCounter> countData = new TreeMap<String, HeapCounter>();
+    private int bufferRefills;
+    private long bufferWastedBytes;
+    private long bufferAllocatedBytes;
+    private int[] freeBinCounts;
+    private long[] freeBinSizes;
 
     private static final char NEWLINE = '\n';
     private static final String USAGE = " memory usage=";
@@ -45,6 +50,12 @@ final class DefHeapStatistics extends VmSystemObject implements HeapStatistics {
     private static final String SUMMARY = "Summary : ";
     private static final String CLASSES = " classe(s) ";
     private static final String INSTANCES = " instances(s) ";
+    private static final String BUFFERS = "Allocation buffers : ";
+    private static final String REFILLS = " refill(s), allocated=";
+    private static final String WASTED = ", wasted=";
+    private static final String FREE_BIN = "Free blocks <= ";
+    private static final String FREE_BIN_LARGE = "Free blocks large";
+    private static final String BLOCKS = " : #";
 
     public boolean contains(String classname) {
         // If we don't accept this class, we pretend to have it already to (maybe) avoid unnecessary work
@@ -85,6 +96,30 @@ final class DefHeapStatistics extends VmSystemObject implements HeapStatistics {
         this.minTotalSize = bytes;
     }
 
+    /**
+     * Sets the statistics of the allocation buffers of all processors.
+     *
+     * @param refills        the number of buffer refills
+     * @param wastedBytes    the number of unused bytes given back to the heap by retired buffers
+     * @param allocatedBytes the number of bytes allocated from buffers
+     */
+    void setAllocationBufferStatistics(int refills, long wastedBytes, long allocatedBytes) {
+        this.bufferRefills = refills;
+        this.bufferWastedBytes = wastedBytes;
+        this.bufferAllocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Sets the occupancy of the free block bins of all heaps.
+     *
+     * @param counts the number of free blocks, indexed by bin
+     * @param sizes  the total size of the free blocks, indexed by bin
+     */
+    void setFreeBinStatistics(int[] counts, long[] sizes) {
+        this.freeBinCounts = counts;
+        this.freeBinSizes = sizes;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -133,6 +168,25 @@ final class DefHeapStatistics extends VmSystemObject implements HeapStatistics {
             }
         }
         a.append(NEWLINE);
+        a.append(BUFFERS).append(Integer.toString(bufferRefills)).append(REFILLS);
+        a.append(NumberUtils.toBinaryByte(bufferAllocatedBytes));
+        a.append(WASTED).append(NumberUtils.toBinaryByte(bufferWastedBytes));
+        a.append(NEWLINE);
+        if (freeBinCounts != null) {
+            for (int bin = 0; bin < freeBinCounts.length; bin++) {
+                if (freeBinCounts[bin] > 0) {
+                    final int maxSize = VmDefaultHeap.getBinMaxSize(bin);
+                    if (maxSize == Integer.MAX_VALUE) {
+                        a.append(FREE_BIN_LARGE);
+                    } else {
+                        a.append(FREE_BIN).append(Integer.toString(maxSize)).append('b');
+                    }
+                    a.append(BLOCKS).append(Integer.toString(freeBinCounts[bin]));
+                    appendUsage(a, freeBinSizes[bin]);
+                    a.append(NEWLINE);
+                }
+            }
+        }
     }
 
     private static void appendUsage(Appendable a, long size) throws IOException {
@@ -43,10 +43,11 @@ import org.jnode.vm.memmgr.VmHeapManager;
 import org.jnode.vm.scheduler.Monitor;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.Extent;
+import org.vmmagic.unboxed.ObjectReference;
 import org.vmmagic.unboxed.Word;
 
 @MagicPermission
-public final class DefaultHeapManager extends VmHeapManager {
+public class DefaultHeapManager extends VmHeapManager {
 
     /**
      * Default size in bytes of a new heap
@@ -120,6 +121,16 @@ public final class DefaultHeapManager extends VmHeapManager {
 
     private GCManager gcManager;
 
+    /**
+     * Linked list of the allocation buffers of all processors
+     */
+    private VmAllocationBuffer allocationBuffers;
+
+    /**
+     * Are the allocation buffers used?
+     */
+    private boolean useAllocationBuffers;
+
     /**
      * Make this private, so we cannot be instantiated
      */
@@ -264,6 +275,8 @@ public final class DefaultHeapManager extends VmHeapManager {
         // Calculate the trigger size
         triggerSize = (int) Math.min(Integer.MAX_VALUE, getFreeMemory()
             * GC_TRIGGER_PERCENTAGE);
+        // Allocation buffers can only be refilled now that we have a monitor
+        useAllocationBuffers = true;
     }
 
     /**
@@ -282,6 +295,13 @@ public final class DefaultHeapManager extends VmHeapManager {
         final int alignedSize = ObjectLayout.objectAlign(size);
         // final Monitor mon = heapMonitor;
 
+        if (useAllocationBuffers && !gcActive && (alignedSize <= VmAllocationBuffer.MAX_OBJECT_SIZE)) {
+            final Object result = allocFromBuffer(vmClass, alignedSize);
+            if (result != null) {
+                return result;
+            }
+        }
+
         VmDefaultHeap heap = currentHeap;
         Object result = null;
         int oomCount = 0;
@@ -347,6 +367,9 @@ public final class DefaultHeapManager extends VmHeapManager {
                         }
                     }
 
+                    if (heap.isSweepPending()) {
+                        gcManager.completeSweep(heap);
+                    }
                     result = heap.alloc(vmClass, alignedSize);
 
                     if (result == null) {
@@ -378,6 +401,85 @@ public final class DefaultHeapManager extends VmHeapManager {
         return result;
     }
 
+    /**
+     * Allocate a new instance for the given class from the allocation buffer of
+     * the current processor. Only if the buffer has to be refilled, the heap monitor
+     * is entered.
+     *
+     * @param vmClass
+     * @param alignedSize
+     * @return The new object, or null if the allocation buffer cannot be refilled.
+     */
+    private Object allocFromBuffer(VmClassType<?> vmClass, int alignedSize) {
+        final Object tib = vmClass.getTIB();
+        if (tib == null) {
+            throw new IllegalArgumentException("vmClass.TIB is null");
+        }
+        Object result = VmAllocationBuffer.alloc(tib, alignedSize);
+
+        if (result == null) {
+            final Monitor m = heapMonitor;
+            m.enter();
+            try {
+                if (gcActive) {
+                    return null;
+                }
+                VmDefaultHeap heap = currentHeap;
+                int reserved = 0;
+                while ((heap != null) && (result == null)) {
+                    if (heap.isSweepPending()) {
+                        gcManager.completeSweep(heap);
+                    }
+                    final Address ptr = heap.reserveBuffer(VmAllocationBuffer.MIN_BUFFER_SIZE,
+                        VmAllocationBuffer.BUFFER_SIZE);
+                    if (!ptr.isZero()) {
+                        reserved = heap.getBlockSize(ptr);
+                        result = VmAllocationBuffer.refillAndAlloc(heap, ptr, tib, alignedSize);
+                    } else {
+                        heap = heap.getNext();
+                    }
+                }
+                if (result == null) {
+                    // Let the normal allocation path find or create a heap
+                    return null;
+                }
+                currentHeap = heap;
+
+                allocatedSinceGcTrigger += reserved;
+                if ((allocatedSinceGcTrigger > triggerSize)
+                    && (gcThread != null)) {
+                    if ((heapFlags & TRACE_TRIGGER) != 0) {
+                        debug("<alloc:GC trigger/>");
+                    }
+                    allocatedSinceGcTrigger = 0;
+                    gcThread.trigger(false);
+                }
+            } finally {
+                m.exit();
+            }
+        }
+
+        // Clear the contents of the object.
+        helper.clear(ObjectReference.fromObject(result).toAddress(), alignedSize);
+        vmClass.incInstanceCount();
+        // Allocated objects are initially black.
+        VmMagic.setObjectFlags(result, Word
+            .fromIntZeroExtend(ObjectFlags.GC_DEFAULT_COLOR));
+        return result;
+    }
+
+    /**
+     * Give the unused part of the allocation buffers of all processors back to
+     * the heaps. This method must be called while all threads are stopped.
+     */
+    final void retireAllocationBuffers() {
+        VmAllocationBuffer buffer = allocationBuffers;
+        while (buffer != null) {
+            buffer.retire();
+            buffer = buffer.getNext();
+        }
+    }
+
     /**
      * Allocate a new heap with a given size. The heap object itself is
      * allocated on the new heap, so this method can be called even if all other
@@ -413,6 +515,16 @@ public final class DefaultHeapManager extends VmHeapManager {
         out.println("WriteBarrier: " + getWriteBarrier());
     }
 
+    /**
+     * Gets the card table used to find old objects that may refer to
+     * young objects.
+     *
+     * @return The card table, or null if this is not a generational heap manager.
+     */
+    CardTable getCardTable() {
+        return null;
+    }
+
     /**
      * @return Returns the bootHeap.
      */
@@ -438,8 +550,26 @@ public final class DefaultHeapManager extends VmHeapManager {
     }
 
     /**
-     * Sets the currentHeap to the first heap.
+     * Make sure the given heap has been swept.
+     *
+     * @param heap
      */
+    final void completeSweep(VmDefaultHeap heap) {
+        if (heap.isSweepPending()) {
+            gcManager.completeSweep(heap);
+        }
+    }
+
+    /**
+     * Sweep a part of a heap that still needs a sweep.
+     *
+     * @see org.jnode.vm.memmgr.VmHeapManager#doIdleWork()
+     */
+    public boolean doIdleWork() {
+        final GCManager gcManager = this.gcManager;
+        return (gcManager != null) && gcManager.sweepIdle();
+    }
+
     final void triggerFinalization() {
         finalizerThread.trigger(false);
     }
@@ -454,6 +584,28 @@ public final class DefaultHeapManager extends VmHeapManager {
     public HeapStatistics getHeapStatistics(ObjectFilter objectFilter) {
         final DefHeapStatistics heapStatistics = new DefHeapStatistics();
         heapStatistics.setObjectFilter(objectFilter);
+
+        int refills = 0;
+        long wastedBytes = 0;
+        long bufferBytes = 0;
+        VmAllocationBuffer buffer = allocationBuffers;
+        while (buffer != null) {
+            refills += buffer.getRefillCount();
+            wastedBytes += buffer.getWastedBytes();
+            bufferBytes += buffer.getAllocatedBytes();
+            buffer = buffer.getNext();
+        }
+        heapStatistics.setAllocationBufferStatistics(refills, wastedBytes, bufferBytes);
+
+        final int[] binCounts = new int[VmDefaultHeap.NR_BINS];
+        final long[] binSizes = new long[VmDefaultHeap.NR_BINS];
+        VmDefaultHeap heap = firstNormalHeap;
+        while (heap != null) {
+            heap.getBinOccupancy(binCounts, binSizes);
+            heap = heap.getNext();
+        }
+        heapStatistics.setFreeBinStatistics(binCounts, binSizes);
+
         final HeapStatisticsVisitor heapStatisticsVisitor = new HeapStatisticsVisitor(
             heapStatistics);
 
@@ -476,8 +628,10 @@ public final class DefaultHeapManager extends VmHeapManager {
      * @see org.jnode.vm.memmgr.VmHeapManager#createProcessorHeapData(org.jnode.vm.facade.VmProcessor)
      */
     public Object createProcessorHeapData(VmProcessor cpu) {
-        // No need here, so return null.
-        return null;
+        // Each processor gets its own allocation buffer
+        final VmAllocationBuffer buffer = new VmAllocationBuffer(allocationBuffers);
+        allocationBuffers = buffer;
+        return buffer;
     }
 
     /**
@@ -493,5 +647,6 @@ public final class DefaultHeapManager extends VmHeapManager {
     public void loadClasses(VmClassLoader loader) throws ClassNotFoundException {
         loader.loadClass("org.jnode.vm.memmgr.def.VmBootHeap", true);
         loader.loadClass("org.jnode.vm.memmgr.def.VmDefaultHeap", true);
+        loader.loadClass("org.jnode.vm.memmgr.def.VmAllocationBuffer", true);
     }
 }
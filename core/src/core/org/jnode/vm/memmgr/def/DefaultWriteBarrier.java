@@ -50,6 +50,11 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     private boolean changed;
 
+    /**
+     * The card table that records writes into objects, null if not used
+     */
+    private CardTable cardTable;
+
     private int arrayCopyCount;
 
     private int arrayStoreCount;
@@ -71,9 +76,13 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
      */
     public final void arrayCopyWriteBarrier(Object array, int start, int end)
         throws UninterruptiblePragma {
-        // The source array is already reachable, so by definition, all
-        // entries will be reachable.
-        // So we do nothing here
+        // The copied entries are reachable from the source array, so they
+        // need not be shaded.
+        // The destination array may be old and now refer to young objects.
+        final CardTable cards = cardTable;
+        if (cards != null) {
+            cards.dirty(array);
+        }
         arrayCopyCount++;
     }
 
@@ -86,6 +95,10 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
         if (active) {
             shade(value);
         }
+        final CardTable cards = cardTable;
+        if ((cards != null) && (value != null)) {
+            cards.dirty(ref);
+        }
         arrayStoreCount++;
     }
 
@@ -98,6 +111,10 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
         if (active) {
             shade(value);
         }
+        final CardTable cards = cardTable;
+        if ((cards != null) && (value != null)) {
+            cards.dirty(ref);
+        }
         putFieldCount++;
     }
 
@@ -150,6 +167,15 @@ final class DefaultWriteBarrier extends VmSystemObject implements VmWriteBarrier
         this.active = active;
     }
 
+    /**
+     * Sets the card table used to record writes into objects.
+     *
+     * @param cardTable
+     */
+    final void setCardTable(CardTable cardTable) {
+        this.cardTable = cardTable;
+    }
+
     /**
      * @return Returns the changed.
      */
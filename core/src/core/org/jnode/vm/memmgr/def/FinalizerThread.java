@@ -134,6 +134,8 @@ final class FinalizerThread extends Thread {
         final Word colorMask = Word.fromIntZeroExtend(ObjectFlags.GC_COLOUR_MASK);
         final Word yellow = Word.fromIntZeroExtend(ObjectFlags.GC_YELLOW);
         while (heap != null) {
+            // Objects that need finalization are found by the sweep
+            heapManager.completeSweep(heap);
             visitor.setCurrentHeap(heap);
             heap.walk(visitor, true, colorMask, yellow);
             heap = heap.getNext();
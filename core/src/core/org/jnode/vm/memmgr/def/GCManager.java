@@ -29,6 +29,8 @@ import org.jnode.vm.facade.VmUtils;
 import org.jnode.vm.memmgr.HeapHelper;
 import org.jnode.vm.memmgr.VmHeapManager;
 import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.Monitor;
+import org.jnode.vm.scheduler.ProcessorLock;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.Word;
 
@@ -38,6 +40,32 @@ import org.vmmagic.unboxed.Word;
 @MagicPermission
 final class GCManager extends VmSystemObject implements Uninterruptible {
 
+    /**
+     * Use multiple processors to mark the heap (if available)?
+     */
+    private static final boolean PARALLEL_MARK = true;
+
+    /**
+     * Maximum number of times the GC thread yields while waiting for
+     * the mark workers to claim their processors.
+     */
+    private static final int MAX_RENDEZVOUS_YIELDS = 64;
+
+    /**
+     * Sweep the heaps after the threads have been restarted?
+     */
+    private static final boolean LAZY_SWEEP = true;
+
+    /**
+     * Number of bytes of a heap that are swept at a time
+     */
+    private static final int SWEEP_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of minor collections between two major collections
+     */
+    private static final int MAX_MINOR_COLLECTIONS = 8;
+
     /**
      * The heap manager
      */
@@ -88,12 +116,48 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
      */
     private final boolean debug;
 
+    /**
+     * The architecture
+     */
+    private final BaseVmArchitecture arch;
+
+    /**
+     * Coordinator of the parallel mark phase, null until created
+     */
+    private GCParallelMarker parallelMarker;
+
+    /**
+     * Monitor the mark workers wait on
+     */
+    private Monitor workerMonitor;
+
+    /**
+     * The card table of a generational heap manager, null otherwise
+     */
+    private final CardTable cardTable;
+
+    /**
+     * Number of minor collections since the last major collection
+     */
+    private int minorCount;
+
+    /**
+     * Lock serializing the (lazy) sweeping of heaps
+     */
+    private final ProcessorLock sweepLock;
+
+    /**
+     * Are there heaps that still need a sweep?
+     */
+    private volatile boolean sweepPending;
+
     /**
      * Create a new instance
      */
     public GCManager(DefaultHeapManager heapManager, BaseVmArchitecture arch) {
         this.debug = true || VmUtils.getVm().isDebugMode();
         this.heapManager = heapManager;
+        this.arch = arch;
         this.writeBarrier = (DefaultWriteBarrier) heapManager.getWriteBarrier();
         this.helper = heapManager.getHelper();
         this.markStack = new GCStack();
@@ -101,6 +165,10 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
         this.setWhiteVisitor = new GCSetWhiteVisitor(heapManager);
         this.verifyVisitor = new GCVerifyVisitor(heapManager, arch);
         this.sweepVisitor = new GCSweepVisitor(heapManager);
+        this.cardTable = heapManager.getCardTable();
+        // In a generational heap, surviving objects become old (black)
+        this.sweepVisitor.setSticky(cardTable != null);
+        this.sweepLock = new ProcessorLock();
         this.stats = new DefGCStatistics();
     }
 
@@ -115,9 +183,40 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
 
         final boolean locking = (writeBarrier != null);
         final boolean verbose = (heapManager.getHeapFlags() & VmHeapManager.TRACE_BASIC) != 0;
+        // Let the mark workers claim the other processors before
+        // the threads are stopped.
+        final GCParallelMarker marker = startParallelMark();
         helper.stopThreadsAtSafePoint();
+        final long pauseStartTime = VmSystem.currentKernelMillis();
         heapManager.setGcActive(true);
+        // Give the unused parts of all allocation buffers back to the heaps,
+        // so they are swept and defragmented like any other free block.
+        heapManager.retireAllocationBuffers();
         try {
+            // Heaps that have not been swept since the last cycle
+            // must be swept before we can mark again.
+            finishSweep(firstHeap);
+            stats.lastLazySweepCycles = 0;
+            stats.lastLazySweptHeaps = 0;
+
+            // Decide between a minor and a major collection
+            final boolean minor = (cardTable != null) && (stats.majorCollections > 0)
+                && (minorCount < MAX_MINOR_COLLECTIONS) && !heapManager.isLowOnMemory();
+            stats.lastCollectionMinor = minor;
+            if (minor) {
+                minorCount++;
+                stats.minorCollections++;
+            } else {
+                minorCount = 0;
+                stats.majorCollections++;
+                if (cardTable != null) {
+                    // Old objects stay black between collections,
+                    // so a major collection starts by making them white.
+                    makeAllWhite(bootHeap, firstHeap);
+                    cardTable.clear();
+                }
+            }
+
             // Pre-GC verification
             if (debug) {
                 if (false) {
@@ -136,8 +235,12 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                 if (verbose) {
                     heapManager.debug("<mark/>");
                 }
-                markHeap(bootHeap, firstHeap, locking);
+                markHeap(bootHeap, firstHeap, locking, marker, minor);
             } finally {
+                if (marker != null) {
+                    // Give the processors back
+                    marker.release();
+                }
                 //heapManager.setGcActive(false);
                 //helper.restartThreads();
             }
@@ -146,7 +249,12 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
             if (verbose) {
                 heapManager.debug("<sweep/>");
             }
-            sweep(firstHeap);
+            // After a minor collection only heaps with young objects are swept
+            setSweepPending(firstHeap, minor);
+            if (!LAZY_SWEEP) {
+                sweep(firstHeap);
+            }
+            // Otherwise the heaps are swept on allocation or on idle processors
 
             // Cleanup
             if (verbose) {
@@ -168,19 +276,63 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
             heapManager.setGcActive(false);
             heapManager.resetCurrentHeap();
             helper.restartThreads();
+            stats.lastPauseDuration = VmSystem.currentKernelMillis() - pauseStartTime;
         }
 
         // Start the finalization process
         heapManager.triggerFinalization();
     }
 
+    /**
+     * Wake up the mark workers and wait (for a limited time) until they
+     * have claimed the other processors.
+     *
+     * @return The parallel marker, or null if the heap must be marked by
+     *         the GC thread alone.
+     */
+    private GCParallelMarker startParallelMark() {
+        if (!PARALLEL_MARK) {
+            return null;
+        }
+        GCParallelMarker marker = parallelMarker;
+        if (marker == null) {
+            final int workers = VmUtils.getVm().getProcessors().size() - 1;
+            if (workers < 1) {
+                return null;
+            }
+            // Created lazily, since the application processors are
+            // started after the heap manager.
+            marker = new GCParallelMarker(heapManager, arch, markStack, markVisitor, workers);
+            workerMonitor = new Monitor();
+            for (int i = 1; i <= workers; i++) {
+                new GCMarkWorker(marker, workerMonitor, i).start();
+            }
+            parallelMarker = marker;
+        }
+
+        marker.open();
+        GCMarkWorker.triggerAll(workerMonitor);
+        final int workers = marker.getWorkerCount();
+        for (int i = 0; (i < MAX_RENDEZVOUS_YIELDS) && (marker.getArrivedCount() < workers); i++) {
+            Thread.yield();
+        }
+        if (marker.close() == 0) {
+            marker.release();
+            return null;
+        }
+        return marker;
+    }
+
     /**
      * Mark all live objects in the heap.
      *
      * @param bootHeap
      * @param firstHeap
+     * @param marker    If not null, the marker coordinating the mark workers
+     * @param minor     If true, only young objects are marked
      */
-    private final void markHeap(VmBootHeap bootHeap, VmDefaultHeap firstHeap, boolean locking) {
+    private final void markHeap(VmBootHeap bootHeap, VmDefaultHeap firstHeap, boolean locking,
+                                GCParallelMarker marker, boolean minor) {
 
         if (writeBarrier != null) {
             writeBarrier.setActive(true);
@@ -189,19 +341,39 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
         final long startTime = VmSystem.currentKernelMillis();
         stats.lastMarkIterations = 0;
         long markedObjects = 0;
+        int deflatedMonitors = 0;
         boolean firstIteration = true;
         boolean wbChanged = false;
+        boolean overflowed;
+        // Monitors can only be deflated when no other processor runs a thread,
+        // i.e. every processor has been claimed by a mark worker.
+        if (marker != null) {
+            marker.setDeflateMonitors(marker.getArrivedCount() == marker.getWorkerCount());
+        } else {
+            markVisitor.setDeflateMonitors(VmUtils.getVm().getProcessors().size() == 1);
+        }
         do {
             // Do an iteration reset
             stats.lastMarkIterations++;
-            markStack.reset();
+            if (marker != null) {
+                // The workers start stealing from the mark stack right away
+                marker.startIteration();
+            } else {
+                markStack.reset();
+                markVisitor.reset();
+            }
             if (writeBarrier != null) {
                 writeBarrier.resetChanged();
             }
-            markVisitor.reset();
             markVisitor.setRootSet(true);
             // Mark all roots
             helper.visitAllRoots(markVisitor, heapManager);
+            if (minor) {
+                // Old objects written to since the last collection
+                // may refer to young objects.
+                markVisitor.setRootSet(false);
+                scanDirtyCards(bootHeap, firstHeap);
+            }
 //            statics.walk(markVisitor, resolver);
 //            helper.visitAllThreads(threadMarkVisitor);
             // Mark every object in the rootset
@@ -219,22 +391,36 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
                     heap = heap.getNext();
                 }
             }
+            final int iterationMarked;
+            final boolean overflow;
+            if (marker != null) {
+                marker.finishIteration();
+                iterationMarked = marker.getMarkedObjects();
+                deflatedMonitors += marker.getDeflatedMonitors();
+                overflow = marker.isOverflow();
+            } else {
+                iterationMarked = markVisitor.getMarkedObjects();
+                deflatedMonitors += markVisitor.getDeflatedMonitors();
+                overflow = markStack.isOverflow();
+            }
             // Test for an endless loop
-            if ((markVisitor.getMarkedObjects() == 0) && markStack.isOverflow()) {
+            if ((iterationMarked == 0) && overflow) {
                 // Oops... an endless loop
                 Unsafe.debug("Endless loop in markHeap.... going to die");
                 helper.die("GCManager.markHeap");
             }
             // Do some cleanup
-            markedObjects += markVisitor.getMarkedObjects();
+            markedObjects += iterationMarked;
             firstIteration = false;
             if (writeBarrier != null) {
                 wbChanged = writeBarrier.isChanged();
             }
-        } while (markStack.isOverflow() || wbChanged);
+            overflowed = overflow;
+        } while (overflowed || wbChanged);
         final long endTime = VmSystem.currentKernelMillis();
         stats.lastMarkDuration = endTime - startTime;
         stats.lastMarkedObjects = markedObjects;
+        stats.lastDeflatedMonitors = deflatedMonitors;
 
         if (writeBarrier != null) {
             writeBarrier.setActive(false);
@@ -242,39 +428,154 @@ final class GCManager extends VmSystemObject implements Uninterruptible {
     }
 
     /**
-     * Sweep all heaps for dead objects.
+     * Sweep all heaps that need a sweep for dead objects.
      *
      * @param firstHeap
      */
     private void sweep(VmDefaultHeap firstHeap) {
+        final long startTime = VmSystem.currentKernelMillis();
+        finishSweep(firstHeap);
+        final long endTime = VmSystem.currentKernelMillis();
+        stats.lastSweepDuration = endTime - startTime;
+    }
+
+    /**
+     * Mark all heaps as needing a sweep.
+     *
+     * @param firstHeap
+     * @param minor     If true, only heaps with young objects need a sweep
+     */
+    private void setSweepPending(VmDefaultHeap firstHeap, boolean minor) {
         final long startTime = VmSystem.currentKernelMillis();
         VmDefaultHeap heap = firstHeap;
         while (heap != null) {
-            heap.lock();
-            sweepVisitor.setCurrentHeap(heap);
-            heap.walk(sweepVisitor, false, Word.zero(), Word.zero());
-            heap.unlock();
+            if (!minor || heap.hasYoungObjects()) {
+                heap.setSweepPending();
+            }
             heap = heap.getNext();
         }
+        sweepPending = true;
         final long endTime = VmSystem.currentKernelMillis();
         stats.lastSweepDuration = endTime - startTime;
     }
 
     /**
-     * Mark all objects white, so a next GC action is valid
+     * Make all objects white, so old objects are marked again.
      *
      * @param bootHeap
      * @param firstHeap
      */
-    private void cleanup(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
-        final long startTime = VmSystem.currentKernelMillis();
+    private void makeAllWhite(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
         bootHeap.walk(setWhiteVisitor, true, Word.zero(), Word.zero());
         VmDefaultHeap heap = firstHeap;
         while (heap != null) {
-            heap.defragment();
-            //heap.walk(setWhiteVisitor, locking);
+            heap.walk(setWhiteVisitor, true, Word.zero(), Word.zero());
+            heap = heap.getNext();
+        }
+    }
+
+    /**
+     * Rescan the old objects in all dirty cards.
+     *
+     * @param bootHeap
+     * @param firstHeap
+     */
+    private void scanDirtyCards(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
+        int dirtyCards = cardTable.scan(bootHeap, markVisitor);
+        VmDefaultHeap heap = firstHeap;
+        while ((heap != null) && !markStack.isOverflow()) {
+            dirtyCards += cardTable.scan(heap, markVisitor);
+            heap = heap.getNext();
+        }
+        stats.lastDirtyCards = dirtyCards;
+    }
+
+    /**
+     * Complete the sweep of all heaps that still need a sweep.
+     *
+     * @param firstHeap
+     */
+    private void finishSweep(VmDefaultHeap firstHeap) {
+        // Do not trust the sweepPending hint here, it may have been
+        // cleared by an idle thread that raced with the previous cycle.
+        VmDefaultHeap heap = firstHeap;
+        while (heap != null) {
+            completeSweep(heap);
             heap = heap.getNext();
         }
+        sweepPending = false;
+    }
+
+    /**
+     * Complete the sweep of the given heap, so it can be used for allocation.
+     * The heap is swept one chunk at a time, so idle processors are not kept
+     * waiting for a long time.
+     *
+     * @param heap
+     */
+    final void completeSweep(VmDefaultHeap heap) {
+        boolean done = !heap.isSweepPending();
+        while (!done) {
+            done = sweepChunk(heap);
+        }
+    }
+
+    /**
+     * Sweep a single chunk of a heap that still needs a sweep.
+     * This method is called by the idle threads.
+     *
+     * @return True if a chunk has been swept, false if there is nothing to sweep.
+     */
+    final boolean sweepIdle() {
+        if (!sweepPending) {
+            return false;
+        }
+        VmDefaultHeap heap = heapManager.getHeapList();
+        while ((heap != null) && !heap.isSweepPending()) {
+            heap = heap.getNext();
+        }
+        if (heap == null) {
+            sweepPending = false;
+            return false;
+        }
+        sweepChunk(heap);
+        return true;
+    }
+
+    /**
+     * Sweep the next chunk of the given heap.
+     *
+     * @param heap
+     * @return True if the sweep of this heap has been completed
+     */
+    private boolean sweepChunk(VmDefaultHeap heap) {
+        sweepLock.lock();
+        try {
+            final long start = Unsafe.getCpuCycles();
+            final boolean done = heap.sweep(sweepVisitor, SWEEP_CHUNK_SIZE);
+            stats.lastLazySweepCycles += Unsafe.getCpuCycles() - start;
+            if (done) {
+                stats.lastLazySweptHeaps++;
+            }
+            return done;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Mark all objects white, so a next GC action is valid
+     *
+     * @param bootHeap
+     * @param firstHeap
+     */
+    private void cleanup(VmBootHeap bootHeap, VmDefaultHeap firstHeap) {
+        final long startTime = VmSystem.currentKernelMillis();
+        if (cardTable == null) {
+            // In a generational heap, the boot heap objects stay old
+            bootHeap.walk(setWhiteVisitor, true, Word.zero(), Word.zero());
+        }
+        // The other heaps are defragmented when their sweep completes
         final long endTime = VmSystem.currentKernelMillis();
         stats.lastCleanupDuration = endTime - startTime;
     }
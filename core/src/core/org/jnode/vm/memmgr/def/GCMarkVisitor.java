@@ -55,12 +55,22 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
      */
     private int markedObjects;
 
+    /**
+     * The number of inflated monitors detached from their object.
+     */
+    private int deflatedMonitors;
+
     /**
      * If true, all white and grey objects will be marked, otherwise only the
      * grey objects will be marked
      */
     private boolean rootSet;
 
+    /**
+     * If true, idle inflated monitors are detached from their object.
+     */
+    private boolean deflateMonitors;
+
     private final BaseVmArchitecture arch;
 
 //    private final int slotSize;
@@ -113,11 +123,9 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
                     //Unsafe.die("Corrupted Heap\n");
                     return true;
                 case GC_WHITE: {
-                    final boolean ok;
-                    ok = helper.atomicChangeObjectColor(object, gcColor,
-                        GC_GREY);
-                    if (!ok) {
-                        Unsafe.debug("Could not change object color. ");
+                    if (!helper.atomicChangeObjectColor(object, gcColor, GC_GREY)) {
+                        // Another marker has already claimed this object
+                        return !stack.isOverflow();
                     }
                     break;
                 }                
@@ -137,12 +145,24 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
         return rc;
     }
 
+    /**
+     * Process the children of an old (black) object that may refer to
+     * young objects.
+     *
+     * @param object
+     */
+    final void rescan(Object object) {
+        stack.push(object);
+        mark();
+    }
+
     /**
      * Reset this visitor to its original state.
      */
     @Inline
     public void reset() {
         this.markedObjects = 0;
+        this.deflatedMonitors = 0;
     }
 
     /**
@@ -192,10 +212,19 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
             processChild(VmMagic.getTIB(object));
             final Monitor monitor = helper.getInflatedMonitor(object, arch);
             if (monitor != null) {
+                // Idle monitors are given back to the monitor pool,
+                // which keeps them alive.
+                if (deflateMonitors && helper.deflateMonitor(object, monitor)) {
+                    deflatedMonitors++;
+                }
                 processChild(monitor);
             }
-            final int gcColor = VmMagic.getObjectColor(object);
-            helper.atomicChangeObjectColor(object, gcColor, GC_BLACK);
+            int gcColor = VmMagic.getObjectColor(object);
+            while ((gcColor != GC_BLACK)
+                && !helper.atomicChangeObjectColor(object, gcColor, GC_BLACK)) {
+                // The colour has been changed by another marker
+                gcColor = VmMagic.getObjectColor(object);
+            }
         }
     }
 
@@ -294,20 +323,25 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
      */
     @Inline
     final void processChild(Object child) {
-        final int gcColor = VmMagic.getObjectColor(child);
-        if (gcColor <= GC_WHITE) {
-            // Yellow or White
-            helper.atomicChangeObjectColor(child, gcColor, GC_GREY);
-            try {
-                // TEST for a valid vmclass.
-                stack.push(child);
-            } catch (NullPointerException ex) {
-                Unsafe.debug("\nObject address ");
-                Unsafe.debug(ObjectReference.fromObject(child).toAddress().toInt());
-                Unsafe.debug("\nObject TIB ");
-                Unsafe.debug(ObjectReference.fromObject(VmMagic.getTIB(child)).toAddress().toInt());
-                helper.die("NPE in processChild; probably corrupted heap");
+        int gcColor = VmMagic.getObjectColor(child);
+        while (gcColor <= GC_WHITE) {
+            // Yellow or White.
+            // Only the marker that changes the colour pushes the object,
+            // so concurrent markers never process the same object twice.
+            if (helper.atomicChangeObjectColor(child, gcColor, GC_GREY)) {
+                try {
+                    // TEST for a valid vmclass.
+                    stack.push(child);
+                } catch (NullPointerException ex) {
+                    Unsafe.debug("\nObject address ");
+                    Unsafe.debug(ObjectReference.fromObject(child).toAddress().toInt());
+                    Unsafe.debug("\nObject TIB ");
+                    Unsafe.debug(ObjectReference.fromObject(VmMagic.getTIB(child)).toAddress().toInt());
+                    helper.die("NPE in processChild; probably corrupted heap");
+                }
+                return;
             }
+            gcColor = VmMagic.getObjectColor(child);
         }
     }
 
@@ -321,6 +355,16 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
         return markedObjects;
     }
 
+    /**
+     * Gets the number of inflated monitors detached by this visitor.
+     *
+     * @return int
+     */
+    @Inline
+    public int getDeflatedMonitors() {
+        return deflatedMonitors;
+    }
+
     /**
      * Gets the rootSet attribute.
      *
@@ -341,4 +385,14 @@ final class GCMarkVisitor extends ObjectVisitor implements ObjectFlags,
     public void setRootSet(boolean b) {
         rootSet = b;
     }
+
+    /**
+     * Sets the deflateMonitors attribute.
+     *
+     * @param b If true, idle inflated monitors are detached from their object.
+     *          Only allowed when no other processor can run a thread.
+     */
+    public void setDeflateMonitors(boolean b) {
+        deflateMonitors = b;
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.vm.Unsafe;
+import org.jnode.vm.scheduler.Monitor;
+
+/**
+ * Thread that helps the GC thread during a parallel mark phase.
+ * Once triggered, it claims a processor and marks objects on it until
+ * the mark phase has ended.
+ *
+ * @author epr
+ */
+final class GCMarkWorker extends Thread {
+
+    /**
+     * The coordinator of the parallel mark phase
+     */
+    private final GCParallelMarker marker;
+
+    /**
+     * Monitor used to wait for a trigger
+     */
+    private final Monitor monitor;
+
+    /**
+     * The marker index of this worker
+     */
+    private final int id;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param marker
+     * @param monitor
+     * @param id
+     */
+    public GCMarkWorker(GCParallelMarker marker, Monitor monitor, int id) {
+        super("gc-mark-worker-" + id);
+        this.marker = marker;
+        this.monitor = monitor;
+        this.id = id;
+    }
+
+    /**
+     * Wake up all workers waiting on the given monitor.
+     *
+     * @param monitor
+     */
+    static void triggerAll(Monitor monitor) {
+        monitor.enter();
+        try {
+            monitor.NotifyAll();
+        } finally {
+            monitor.exit();
+        }
+    }
+
+    /**
+     * Continue to help marking.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public final void run() {
+        int seenGeneration = 0;
+        while (true) {
+            try {
+                monitor.enter();
+                try {
+                    while (marker.getGeneration() == seenGeneration) {
+                        monitor.Wait(0L);
+                    }
+                    seenGeneration = marker.getGeneration();
+                } finally {
+                    monitor.exit();
+                }
+
+                // Keep trying until we run on a processor that can be claimed,
+                // or until the GC thread no longer waits for us.
+                while (marker.isAccepting() && !marker.participate(id)) {
+                    Thread.yield();
+                }
+            } catch (Throwable ex) {
+                try {
+                    Unsafe.debug(ex.getMessage());
+                    Unsafe.debug('\n');
+                    Unsafe.debugStackTrace(ex);
+                    Unsafe.die("GCMarkWorker failed");
+                } catch (Throwable ex2) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
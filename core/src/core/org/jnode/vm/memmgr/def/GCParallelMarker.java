@@ -0,0 +1,464 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.annotation.MagicPermission;
+import org.jnode.vm.BaseVmArchitecture;
+import org.jnode.vm.VmMagic;
+import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.ProcessorLock;
+import org.jnode.vm.scheduler.VmProcessor;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * Coordinates the markers of a parallel mark phase.
+ * <p/>
+ * Marker 0 is the GC thread itself, the other markers are {@link GCMarkWorker}s.
+ * Before the threads are stopped, every worker claims a processor (other than the
+ * processor of the GC thread) and keeps it busy in uninterruptible code until the
+ * mark phase has finished. Each marker has its own mark stack; a marker that runs
+ * out of work steals objects from the stacks of the other markers. A mark iteration
+ * ends when all markers are idle.
+ *
+ * @author epr
+ */
+@MagicPermission
+final class GCParallelMarker extends VmSystemObject implements Uninterruptible {
+
+    /**
+     * The mark stacks, indexed by marker
+     */
+    private final GCStack[] stacks;
+
+    /**
+     * The mark visitors, indexed by marker
+     */
+    private final GCMarkVisitor[] visitors;
+
+    /**
+     * The processors claimed by the workers, indexed by marker
+     */
+    private final VmProcessor[] claimed;
+
+    /**
+     * Lock protecting the counters of this marker
+     */
+    private final ProcessorLock lock;
+
+    /**
+     * The processor of the GC thread
+     */
+    private VmProcessor gcProcessor;
+
+    /**
+     * Incremented every time the markers are opened for workers
+     */
+    private volatile int generation;
+
+    /**
+     * Are workers allowed to join?
+     */
+    private volatile boolean accepting;
+
+    /**
+     * Has the mark phase ended?
+     */
+    private volatile boolean released;
+
+    /**
+     * Incremented at the start of every mark iteration
+     */
+    private volatile int epoch;
+
+    /**
+     * Number of workers that have joined
+     */
+    private volatile int arrived;
+
+    /**
+     * Number of markers that are not idle
+     */
+    private volatile int active;
+
+    /**
+     * Number of markers that have not yet left the current iteration
+     */
+    private volatile int draining;
+
+    /**
+     * Has the current iteration terminated?
+     */
+    private volatile boolean terminated;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param heapManager
+     * @param arch
+     * @param markStack   The mark stack of the GC thread
+     * @param markVisitor The mark visitor of the GC thread
+     * @param workers     The number of workers
+     */
+    public GCParallelMarker(DefaultHeapManager heapManager, BaseVmArchitecture arch,
+                            GCStack markStack, GCMarkVisitor markVisitor, int workers) {
+        final int cnt = workers + 1;
+        this.stacks = new GCStack[cnt];
+        this.visitors = new GCMarkVisitor[cnt];
+        this.claimed = new VmProcessor[cnt];
+        this.lock = new ProcessorLock();
+        stacks[0] = markStack;
+        visitors[0] = markVisitor;
+        for (int i = 1; i < cnt; i++) {
+            stacks[i] = new GCStack();
+            stacks[i].setShared(true);
+            visitors[i] = new GCMarkVisitor(heapManager, arch, stacks[i]);
+        }
+    }
+
+    /**
+     * Gets the number of workers.
+     *
+     * @return the number of workers
+     */
+    final int getWorkerCount() {
+        return stacks.length - 1;
+    }
+
+    /**
+     * Gets the number of workers that have joined.
+     *
+     * @return the number of workers that have joined
+     */
+    final int getArrivedCount() {
+        return arrived;
+    }
+
+    /**
+     * Enable or disable the deflation of idle monitors by all markers.
+     *
+     * @param b If true, idle inflated monitors are detached from their object.
+     */
+    final void setDeflateMonitors(boolean b) {
+        for (int i = 0; i < visitors.length; i++) {
+            visitors[i].setDeflateMonitors(b);
+        }
+    }
+
+    /**
+     * Allow workers to join. Called by the GC thread before the threads are stopped.
+     */
+    final void open() {
+        lock.lock();
+        try {
+            for (int i = 0; i < claimed.length; i++) {
+                claimed[i] = null;
+            }
+            gcProcessor = VmMagic.currentProcessor();
+            arrived = 0;
+            released = false;
+            accepting = true;
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting workers. Called by the GC thread before the threads are stopped.
+     *
+     * @return The number of workers that have joined.
+     */
+    final int close() {
+        lock.lock();
+        try {
+            accepting = false;
+            if (arrived > 0) {
+                stacks[0].setShared(true);
+            }
+            return arrived;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * End the mark phase and wait until all workers have left.
+     */
+    final void release() {
+        lock.lock();
+        try {
+            accepting = false;
+            released = true;
+        } finally {
+            lock.unlock();
+        }
+        while (arrived != 0) {
+            // Busy wait
+        }
+        stacks[0].setShared(false);
+    }
+
+    /**
+     * Gets the number of times the markers have been opened for workers.
+     *
+     * @return the generation
+     */
+    final int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Are workers still allowed to join?
+     *
+     * @return boolean
+     */
+    final boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * Join the mark phase as the given worker. If the current processor cannot
+     * be claimed, false is returned immediately. Otherwise this method keeps the
+     * current processor busy, participating in all mark iterations until the
+     * mark phase has been released.
+     *
+     * @param id
+     * @return True if the worker has participated, false otherwise.
+     */
+    final boolean participate(int id) {
+        final VmProcessor current = VmMagic.currentProcessor();
+        int seenEpoch;
+        lock.lock();
+        try {
+            if (!accepting || (current == gcProcessor)) {
+                return false;
+            }
+            for (int i = 1; i < claimed.length; i++) {
+                if (claimed[i] == current) {
+                    return false;
+                }
+            }
+            claimed[id] = current;
+            arrived++;
+            seenEpoch = epoch;
+        } finally {
+            lock.unlock();
+        }
+
+        while (!released) {
+            if (epoch != seenEpoch) {
+                seenEpoch = epoch;
+                drain(id);
+                leave();
+            }
+        }
+
+        lock.lock();
+        try {
+            arrived--;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Start a new mark iteration. Called by the GC thread.
+     */
+    final void startIteration() {
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i].reset();
+            visitors[i].reset();
+        }
+        lock.lock();
+        try {
+            terminated = false;
+            active = arrived + 1;
+            draining = arrived + 1;
+            epoch++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Help the workers until the current iteration has terminated and
+     * wait for all workers to leave the iteration. Called by the GC thread.
+     */
+    final void finishIteration() {
+        drain(0);
+        leave();
+        while (draining != 0) {
+            // Busy wait
+        }
+    }
+
+    /**
+     * Has any of the mark stacks overflowed in the current iteration?
+     *
+     * @return boolean
+     */
+    final boolean isOverflow() {
+        for (int i = 0; i < stacks.length; i++) {
+            if (stacks[i].isOverflow()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of objects marked by all markers in the current iteration.
+     *
+     * @return the number of marked objects
+     */
+    final int getMarkedObjects() {
+        int cnt = 0;
+        for (int i = 0; i < visitors.length; i++) {
+            cnt += visitors[i].getMarkedObjects();
+        }
+        return cnt;
+    }
+
+    /**
+     * Gets the number of monitors deflated by all markers in the current iteration.
+     *
+     * @return the number of deflated monitors
+     */
+    final int getDeflatedMonitors() {
+        int cnt = 0;
+        for (int i = 0; i < visitors.length; i++) {
+            cnt += visitors[i].getDeflatedMonitors();
+        }
+        return cnt;
+    }
+
+    /**
+     * Mark objects as the given marker, until all markers are idle.
+     *
+     * @param id
+     */
+    private void drain(int id) {
+        final GCMarkVisitor visitor = visitors[id];
+        while (true) {
+            visitor.mark();
+            if (steal(id)) {
+                continue;
+            }
+            // Nothing left to do, go idle
+            lock.lock();
+            active--;
+            lock.unlock();
+            while (true) {
+                if (checkTerminated()) {
+                    return;
+                }
+                if (hasWork()) {
+                    if (resume()) {
+                        break;
+                    } else {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Try to steal objects from the stack of another marker.
+     *
+     * @param id
+     * @return True if objects have been stolen, false otherwise
+     */
+    private boolean steal(int id) {
+        final int cnt = stacks.length;
+        final GCStack stack = stacks[id];
+        for (int i = 1; i < cnt; i++) {
+            if (stack.stealFrom(stacks[(id + i) % cnt]) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Is there any mark stack that is not empty?
+     *
+     * @return boolean
+     */
+    private boolean hasWork() {
+        for (int i = 0; i < stacks.length; i++) {
+            if (!stacks[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Have all markers become idle?
+     * Once this is the case, the iteration has terminated, since only
+     * active markers can push objects on a mark stack.
+     *
+     * @return boolean
+     */
+    private boolean checkTerminated() {
+        lock.lock();
+        try {
+            if (active == 0) {
+                terminated = true;
+            }
+            return terminated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Become active again, unless the iteration has terminated.
+     *
+     * @return True if active again, false if the iteration has terminated.
+     */
+    private boolean resume() {
+        lock.lock();
+        try {
+            if (terminated) {
+                return false;
+            }
+            active++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leave the current iteration.
+     */
+    private void leave() {
+        lock.lock();
+        try {
+            draining--;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
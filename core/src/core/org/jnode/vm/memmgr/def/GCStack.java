@@ -21,6 +21,7 @@
 package org.jnode.vm.memmgr.def;
 
 import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.ProcessorLock;
 import org.jnode.annotation.Inline;
 import org.vmmagic.pragma.Uninterruptible;
 
@@ -49,6 +50,18 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
      * Has the stack occurred an overflow?
      */
     private boolean overflow;
+    /**
+     * Lock protecting this stack when it is shared with other markers
+     */
+    private final ProcessorLock lock;
+    /**
+     * Buffer used to transfer stolen objects
+     */
+    private final Object[] stealBuffer;
+    /**
+     * If true, other markers can steal objects from this stack
+     */
+    private boolean shared;
 
     /**
      * Create a new instance
@@ -56,6 +69,8 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
     public GCStack() {
         this.stack = new Object[DEFAULT_STACK_SIZE];
         this.size = stack.length;
+        this.lock = new ProcessorLock();
+        this.stealBuffer = new Object[DEFAULT_STACK_SIZE / 4];
     }
 
     /**
@@ -69,6 +84,20 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
         if (object == null) {
             throw new IllegalArgumentException("Cannot push null object");
         }
+        if (shared) {
+            lock.lock();
+            try {
+                doPush(object);
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            doPush(object);
+        }
+    }
+
+    @Inline
+    private void doPush(Object object) {
         if (stackPtr == size) {
             overflow = true;
         } else {
@@ -83,6 +112,20 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
      */
     @Inline
     public final Object pop() {
+        if (shared) {
+            lock.lock();
+            try {
+                return doPop();
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            return doPop();
+        }
+    }
+
+    @Inline
+    private Object doPop() {
         if (stackPtr == 0) {
             return null;
         } else {
@@ -122,4 +165,51 @@ final class GCStack extends VmSystemObject implements Uninterruptible {
         stackPtr = 0;
         overflow = false;
     }
+
+    /**
+     * Sets the shared attribute. A shared stack is locked on every access,
+     * so other markers can steal objects from it.
+     *
+     * @param shared
+     */
+    final void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Steal up to half of the objects of the given (shared) stack and push
+     * them on this stack. This stack must be owned by the caller.
+     *
+     * @param victim
+     * @return The number of stolen objects
+     */
+    final int stealFrom(GCStack victim) {
+        if (victim.stackPtr == 0) {
+            // Avoid taking the lock on an empty stack
+            return 0;
+        }
+        final Object[] buffer = this.stealBuffer;
+        int count;
+        // Never lock two stacks at the same time, so first copy the stolen
+        // objects into my buffer.
+        victim.lock.lock();
+        try {
+            final int avail = victim.stackPtr;
+            count = Math.min((avail + 1) / 2, buffer.length);
+            final int newPtr = avail - count;
+            final Object[] victimStack = victim.stack;
+            for (int i = 0; i < count; i++) {
+                buffer[i] = victimStack[newPtr + i];
+                victimStack[newPtr + i] = null;
+            }
+            victim.stackPtr = newPtr;
+        } finally {
+            victim.lock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            push(buffer[i]);
+            buffer[i] = null;
+        }
+        return count;
+    }
 }
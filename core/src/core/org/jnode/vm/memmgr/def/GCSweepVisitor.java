@@ -42,6 +42,11 @@ final class GCSweepVisitor extends ObjectVisitor implements ObjectFlags,
      */
     private VmDefaultHeap currentHeap;
 
+    /**
+     * If true, live objects stay black (old) after the sweep
+     */
+    private boolean sticky;
+
     public GCSweepVisitor(DefaultHeapManager heapMgr) {
         this.helper = heapMgr.getHelper();
     }
@@ -68,14 +73,25 @@ final class GCSweepVisitor extends ObjectVisitor implements ObjectFlags,
                 } else {
                     // Mark object for invoke of finalizer on other thread.
                     helper.atomicChangeObjectColor(object, gcColor, GC_YELLOW);
+                    // It becomes white again after finalization
+                    currentHeap.setYoungObjects();
                 }
             }
-        } else if (gcColor != GC_YELLOW) {
+        } else if (gcColor == GC_YELLOW) {
+            currentHeap.setYoungObjects();
+        } else if (!sticky) {
             helper.atomicChangeObjectColor(object, gcColor, GC_WHITE);
         }
         return true;
     }
 
+    /**
+     * @param sticky If true, live objects stay black (old) after the sweep.
+     */
+    public final void setSticky(boolean sticky) {
+        this.sticky = sticky;
+    }
+
     /**
      * @return Returns the currentHeap.
      */
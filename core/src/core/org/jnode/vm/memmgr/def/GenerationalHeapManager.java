@@ -0,0 +1,93 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.vm.classmgr.VmClassLoader;
+import org.jnode.vm.memmgr.HeapHelper;
+
+/**
+ * Generational variant of the default heap manager.
+ * <p/>
+ * Objects are never moved, since thread stacks are scanned conservatively.
+ * Instead the generation of an object is given by its GC color: objects that
+ * survive a collection stay black (old), new objects are white (young).
+ * A minor collection only marks young objects, starting from the roots and
+ * from the old objects in dirty cards of the {@link CardTable}, and only
+ * sweeps the heaps that young objects have been allocated on.
+ * Every few minor collections, a major collection marks and sweeps everything.
+ *
+ * @author epr
+ */
+public final class GenerationalHeapManager extends DefaultHeapManager {
+
+    /**
+     * The write barrier, that records writes into objects in the card table
+     */
+    private final DefaultWriteBarrier writeBarrier;
+
+    /**
+     * The card table, created when the heap is initialized
+     */
+    private CardTable cardTable;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param loader
+     * @param helper
+     * @throws ClassNotFoundException
+     */
+    public GenerationalHeapManager(VmClassLoader loader, HeapHelper helper)
+        throws ClassNotFoundException {
+        super(loader, helper);
+        // The write barrier must exist while the boot image is compiled,
+        // so the compilers emit calls to it.
+        this.writeBarrier = new DefaultWriteBarrier(helper);
+        setWriteBarrier(writeBarrier);
+    }
+
+    /**
+     * @see org.jnode.vm.memmgr.def.DefaultHeapManager#initialize()
+     */
+    protected void initialize() {
+        super.initialize();
+        // Cover the boot image and all memory that heaps can be allocated from
+        final HeapHelper helper = getHelper();
+        cardTable = new CardTable(helper, helper.getBootImageStart(), helper.getMemoryEnd());
+        writeBarrier.setCardTable(cardTable);
+    }
+
+    /**
+     * @see org.jnode.vm.memmgr.def.DefaultHeapManager#getCardTable()
+     */
+    final CardTable getCardTable() {
+        return cardTable;
+    }
+
+    /**
+     * @see org.jnode.vm.memmgr.VmHeapManager#loadClasses(org.jnode.vm.classmgr.VmClassLoader)
+     */
+    public void loadClasses(VmClassLoader loader) throws ClassNotFoundException {
+        super.loadClasses(loader);
+        loader.loadClass("org.jnode.vm.memmgr.def.CardTable", true);
+        loader.loadClass("org.jnode.vm.memmgr.def.DefaultWriteBarrier", true);
+    }
+}
@@ -167,6 +167,32 @@ abstract class VmAbstractHeap extends SpinLock implements Uninterruptible {
         bitmapPtr.store((byte) value, idx);
     }
 
+    /**
+     * Set the bit of the given address in the allocation bitmap.
+     * The bitmap is updated a word at a time using an atomic compare and swap,
+     * so concurrent updates of neighbouring bits are never lost.
+     *
+     * @param addr
+     */
+    @Inline
+    protected final void atomicSetAllocationBit(Address addr) {
+        if (addr.LT(start) || addr.GE(end)) {
+            return;
+        }
+
+        final int offset = addr.toWord().sub(start.toWord()).toInt();
+        final int bit = offset / ObjectLayout.OBJECT_ALIGN;
+        // Little endian: bit n of the byte at index i is bit (i % 4) * 8 + n
+        // of the word containing that byte.
+        final Offset idx = Offset.fromIntZeroExtend((bit / 32) * 4);
+        final int mask = 1 << (bit & 31);
+        final Address bitmapPtr = this.allocationBitmapPtr;
+        int value;
+        do {
+            value = bitmapPtr.prepareInt(idx);
+        } while (!bitmapPtr.attempt(value, value | mask, idx));
+    }
+
     /**
      * Initialize this heap
      *
@@ -0,0 +1,226 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.vm.memmgr.def;
+
+import org.jnode.annotation.MagicPermission;
+import org.jnode.vm.VmMagic;
+import org.jnode.vm.objects.VmSystemObject;
+import org.jnode.vm.scheduler.VmProcessor;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+
+/**
+ * A per processor bump pointer allocation buffer.
+ * <p/>
+ * An allocation buffer is a single free block that has been reserved on a
+ * {@link VmDefaultHeap} for a single processor. Small objects are allocated
+ * from the start of this block without taking the heap monitor; the remaining
+ * part of the buffer is always a valid (reserved) free block, so the heap stays
+ * walkable at any time.
+ * <p/>
+ * Only refilling a buffer takes the heap monitor. All buffers are retired
+ * at the start of a GC cycle, giving the unused space back to the heap.
+ *
+ * @author epr
+ */
+@MagicPermission
+final class VmAllocationBuffer extends VmSystemObject implements Uninterruptible {
+
+    /**
+     * Preferred size in bytes of a single buffer
+     */
+    static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Objects larger than this (aligned) size are never allocated in a buffer
+     */
+    static final int MAX_OBJECT_SIZE = BUFFER_SIZE / 4;
+
+    /**
+     * Minimum size in bytes of a free block that is used as buffer.
+     * Every object that may be allocated in a buffer fits in such a block.
+     */
+    static final int MIN_BUFFER_SIZE = MAX_OBJECT_SIZE;
+
+    /**
+     * Next buffer in the list of all buffers (see DefaultHeapManager)
+     */
+    private final VmAllocationBuffer next;
+
+    /**
+     * The heap that the current buffer is reserved on, null if there is no buffer
+     */
+    private VmDefaultHeap heap;
+
+    /**
+     * Address of the remaining reserved free block, zero if there is no buffer
+     */
+    private Address freePtr;
+
+    /**
+     * End address (exclusive) of the current buffer
+     */
+    private Address limit;
+
+    /**
+     * Number of times this buffer has been refilled
+     */
+    private int refillCount;
+
+    /**
+     * Number of unused bytes given back to the heap when this buffer was retired
+     */
+    private long wastedBytes;
+
+    /**
+     * Number of bytes allocated from this buffer
+     */
+    private long allocatedBytes;
+
+    /**
+     * Initialize this instance.
+     *
+     * @param next
+     */
+    public VmAllocationBuffer(VmAllocationBuffer next) {
+        this.next = next;
+    }
+
+    /**
+     * Allocate an object from the allocation buffer of the current processor.
+     *
+     * @param tib
+     * @param alignedSize
+     * @return The new object (not cleared), or null if the buffer is empty or too small.
+     */
+    static Object alloc(Object tib, int alignedSize) {
+        final VmProcessor proc = VmMagic.currentProcessor();
+        // Make sure we're not preempted by another thread on this processor.
+        proc.disableReschedule(false);
+        try {
+            final VmAllocationBuffer buffer = (VmAllocationBuffer) proc.getHeapData();
+            return buffer.bump(tib, alignedSize);
+        } finally {
+            proc.enableReschedule(false);
+        }
+    }
+
+    /**
+     * Retire the allocation buffer of the current processor and use the given
+     * reserved free block as its new buffer. After that, allocate an object
+     * from the new buffer.
+     *
+     * @param heap
+     * @param ptr
+     * @param tib
+     * @param alignedSize
+     * @return The new object (not cleared), or null if the new buffer is too small.
+     */
+    static Object refillAndAlloc(VmDefaultHeap heap, Address ptr, Object tib, int alignedSize) {
+        final VmProcessor proc = VmMagic.currentProcessor();
+        proc.disableReschedule(false);
+        try {
+            final VmAllocationBuffer buffer = (VmAllocationBuffer) proc.getHeapData();
+            buffer.retire();
+            buffer.heap = heap;
+            buffer.freePtr = ptr;
+            buffer.limit = heap.nextBlock(ptr);
+            buffer.refillCount++;
+            return buffer.bump(tib, alignedSize);
+        } finally {
+            proc.enableReschedule(false);
+        }
+    }
+
+    /**
+     * Allocate an object from this buffer.
+     * This method may only be called on the processor owning this buffer,
+     * with rescheduling disabled.
+     *
+     * @param tib
+     * @param alignedSize
+     * @return The new object (not cleared), or null if the buffer is empty or too small.
+     */
+    private Object bump(Object tib, int alignedSize) {
+        final VmDefaultHeap heap = this.heap;
+        if (heap == null) {
+            return null;
+        }
+        final Address ptr = freePtr;
+        final Object result = heap.allocFromBuffer(ptr, tib, alignedSize);
+        if (result != null) {
+            final Address nextPtr = heap.nextBlock(ptr);
+            if (nextPtr.GE(limit)) {
+                // Buffer is used completely
+                this.heap = null;
+                this.freePtr = Address.zero();
+            } else {
+                this.freePtr = nextPtr;
+            }
+            allocatedBytes += alignedSize;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the next buffer in the list of all buffers.
+     *
+     * @return the next buffer
+     */
+    final VmAllocationBuffer getNext() {
+        return next;
+    }
+
+    /**
+     * Give the unused part of this buffer back to its heap.
+     * This method must be called on the processor owning this buffer
+     * with rescheduling disabled, or during a GC cycle.
+     */
+    final void retire() {
+        final VmDefaultHeap heap = this.heap;
+        if (heap != null) {
+            wastedBytes += heap.releaseBuffer(freePtr);
+            this.heap = null;
+            this.freePtr = Address.zero();
+        }
+    }
+
+    /**
+     * @return Returns the refillCount.
+     */
+    final int getRefillCount() {
+        return refillCount;
+    }
+
+    /**
+     * @return Returns the wastedBytes.
+     */
+    final long getWastedBytes() {
+        return wastedBytes;
+    }
+
+    /**
+     * @return Returns the allocatedBytes.
+     */
+    final long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
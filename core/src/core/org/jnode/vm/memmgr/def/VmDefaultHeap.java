@@ -44,9 +44,60 @@ import org.vmmagic.unboxed.Word;
 final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
 
     /**
-     * Offset within this heap of the next free memory block
+     * Flag set in the flags field of a free block that is reserved as
+     * allocation buffer. The flags of free blocks are not used otherwise.
      */
-    private Address nextFreePtr;
+    private static final int BUFFER_RESERVED = 0x00000008;
+
+    /**
+     * Number of exact size bins for small free blocks. Bin <code>i</code> contains
+     * the free blocks of <code>(i + 1) * OBJECT_ALIGN</code> bytes.
+     */
+    private static final int SMALL_BINS = 32;
+
+    /**
+     * Largest size (in bytes) of a free block in a small bin
+     */
+    private static final int SMALL_MAX_SIZE = SMALL_BINS * ObjectLayout.OBJECT_ALIGN;
+
+    /**
+     * Number of power of two bins for medium free blocks. Medium bin <code>i</code>
+     * contains the free blocks larger than <code>SMALL_MAX_SIZE << i</code> up to
+     * <code>SMALL_MAX_SIZE << (i + 1)</code> bytes.
+     */
+    private static final int MEDIUM_BINS = 5;
+
+    /**
+     * Index of the bin containing all larger free blocks, sorted by increasing size.
+     */
+    private static final int LARGE_BIN = SMALL_BINS + MEDIUM_BINS;
+
+    /**
+     * Total number of free block bins.
+     */
+    static final int NR_BINS = LARGE_BIN + 1;
+
+    /**
+     * Start address of the table of free block bins. Each entry is the address of
+     * the first free block in the bin. The next block is stored in the first word
+     * of each free block.
+     */
+    private Address binTablePtr;
+
+    /**
+     * The table of free block bins as object, so we won't throw it away in a GC cycle
+     */
+    private Object binTable;
+
+    /**
+     * Bit mask of the bins that are not empty
+     */
+    private long binMask;
+
+    /**
+     * Size in bytes of an address
+     */
+    private int slotSize;
 
     /**
      * The allocation bitmap as object, so we won't throw it away in a GC cycle
@@ -58,6 +109,21 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
      */
     private Extent freeSize;
 
+    /**
+     * Offset of the first block that has not been swept yet
+     */
+    private Word sweepCursor;
+
+    /**
+     * Must this heap be swept before it can be used for allocation?
+     */
+    private volatile boolean sweepPending;
+
+    /**
+     * Have (young) objects been allocated on this heap since its last sweep?
+     */
+    private boolean youngObjects;
+
     /**
      * Offset (in bytes) from the start of an object to the size of an object
      */
@@ -176,12 +242,25 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         // Mark the allocation bitmap in the allocation bitmap
         setAllocationBit(allocationBitmap, true);
 
+        // Initialize the table of free block bins
+        this.slotSize = slotSize;
+        final int binTableSize = ObjectLayout.objectAlign(NR_BINS * slotSize);
+        this.binTablePtr = firstObject;
+        binTablePtr.store(Word.fromIntZeroExtend(binTableSize), sizeOffset);
+        binTablePtr.store(Word.fromIntZeroExtend(GC_DEFAULT_COLOR), flagsOffset);
+        binTablePtr.store(ObjectReference.fromObject(VmType.getObjectClass().getTIB()), tibOffset);
+        firstObject = firstObject.add(binTableSize + headerSize);
+        helper.clear(binTablePtr, binTableSize);
+        this.binTable = binTablePtr.toObjectReference().toObject();
+        this.binMask = 0;
+        setAllocationBit(binTable, true);
+
         // Initialize the remaining space as free object.
         final Word remainingSize = end.toWord().sub(firstObject.toWord());
         final Address ptr = firstObject;
         ptr.store(remainingSize, sizeOffset);
         ptr.store(ObjectReference.fromObject(FREE), tibOffset);
-        this.nextFreePtr = ptr;
+        addFreeBlock(ptr, remainingSize);
         this.freeSize = remainingSize.toExtent();
     }
 
@@ -195,7 +274,7 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
      */
     protected Object alloc(VmClassType<?> vmClass, int alignedSize) {
 
-        if (nextFreePtr.EQ(Address.zero())) { /* This heap is full */
+        if (binMask == 0) { /* This heap is full */
             return null;
         }
 
@@ -211,32 +290,14 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
             throw new IllegalArgumentException("vmClass.TIB is null");
         }
         //final int size = getSize();
-        Address objectPtr = Address.zero();
+        final Address objectPtr;
         lock();
         try {
-            // Search for the first free block that is large enough
-            //Screen.debug("a");
-            while (objectPtr == null) {
-                final Address ptr = nextFreePtr;
-                final Word objSize = ptr.loadWord(sizeOffset);
-                final Object objVmt = ptr.loadObjectReference(tibOffset);
-                final Address nextPtr = ptr.add(objSize.add(headerSize));
-                if ((objVmt == FREE) && alignedSizeW.LE(objSize)) {
-                    objectPtr = ptr;
-                } else {
-                    if (!inHeap(nextPtr)) {
-                        // No large enough free space has been found
-                        // A collect may recover smaller free spaces in this
-                        // heap, but we leave that to a GC iteration.
-                        nextFreePtr = Address.zero();
-                        //Screen.debug("B");
-                        return null;
-                    } else {
-                        this.nextFreePtr = nextPtr;
-                    }
-                }
+            // Take a free block that is large enough out of the bins
+            objectPtr = takeFreeBlock(alignedSizeW);
+            if (objectPtr.isZero()) {
+                return null;
             }
-            //Screen.debug("A");
 
             final Word curFreeSize = objectPtr.loadWord(sizeOffset);
             if (curFreeSize.GT(totalSize)) {
@@ -255,8 +316,8 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
                 newFreePtr.store(newFreeSize, sizeOffset);
                 newFreePtr.store(0, flagsOffset);
                 newFreePtr.store(ObjectReference.fromObject(FREE), tibOffset);
-                // Set the next free offset
-                nextFreePtr = newFreePtr;
+                // Put the remaining free block in its bin
+                addFreeBlock(newFreePtr, newFreeSize);
             } else {
                 // The block is not large enough to split up, make the
                 // new object the size of the free block.
@@ -267,11 +328,13 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
             objectPtr.store(alignedSizeW, sizeOffset);
             objectPtr.store(0, flagsOffset);
             objectPtr.store(ObjectReference.fromObject(tib), tibOffset);
-            // Mark the object in the allocation bitmap
-            setAllocationBit(objectPtr, true);
+            // Mark the object in the allocation bitmap. This must be atomic
+            // since allocation buffers on the same heap are used without locking.
+            atomicSetAllocationBit(objectPtr);
 
             // Fix the freeSize
             freeSize = freeSize.sub(alignedSizeW);
+            youngObjects = true;
         } finally {
             unlock();
         }
@@ -282,6 +345,303 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         return objectPtr.toObjectReference().toObject();
     }
 
+    /**
+     * Gets the index of the bin for free blocks of the given size.
+     *
+     * @param size The size (in bytes) of the free block, at least OBJECT_ALIGN
+     * @return The bin index
+     */
+    static int getBinIndex(int size) {
+        if (size <= SMALL_MAX_SIZE) {
+            return (size / ObjectLayout.OBJECT_ALIGN) - 1;
+        }
+        int bin = SMALL_BINS;
+        int max = SMALL_MAX_SIZE << 1;
+        while ((bin < LARGE_BIN) && (size > max)) {
+            bin++;
+            max <<= 1;
+        }
+        return bin;
+    }
+
+    /**
+     * Gets the largest size (in bytes) of a free block in the given bin.
+     *
+     * @param bin
+     * @return The maximum size, or Integer.MAX_VALUE for the large bin.
+     */
+    static int getBinMaxSize(int bin) {
+        if (bin < SMALL_BINS) {
+            return (bin + 1) * ObjectLayout.OBJECT_ALIGN;
+        } else if (bin < LARGE_BIN) {
+            return SMALL_MAX_SIZE << (bin - SMALL_BINS + 1);
+        } else {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Add a free block to its bin. Free blocks that are too small to hold the
+     * link to the next block are left alone, they are recovered by {@link #defragment()}.
+     * This heap must be locked.
+     *
+     * @param ptr
+     * @param size
+     */
+    private void addFreeBlock(Address ptr, Word size) {
+        if (size.LT(Word.fromIntZeroExtend(ObjectLayout.OBJECT_ALIGN))) {
+            return;
+        }
+        final int bin = getBinIndex(size.toInt());
+        final Offset binOffset = Offset.fromIntZeroExtend(bin * slotSize);
+        final Address first = binTablePtr.loadAddress(binOffset);
+        if ((bin == LARGE_BIN) && !first.isZero()) {
+            // Keep the large bin sorted by size, so the first fit is the best fit
+            final Offset sizeOffset = this.sizeOffset;
+            Address prev = Address.zero();
+            Address cur = first;
+            while (!cur.isZero() && cur.loadWord(sizeOffset).LT(size)) {
+                prev = cur;
+                cur = cur.loadAddress();
+            }
+            ptr.store(cur);
+            if (prev.isZero()) {
+                binTablePtr.store(ptr, binOffset);
+            } else {
+                prev.store(ptr);
+            }
+        } else {
+            ptr.store(first);
+            binTablePtr.store(ptr, binOffset);
+        }
+        binMask |= (1L << bin);
+    }
+
+    /**
+     * Take a free block of at least the given size out of its bin.
+     * Small requests are served from the head of a bin in constant time,
+     * the large bin is searched for the best fit. This heap must be locked.
+     *
+     * @param minSize
+     * @return The address of the free block, or zero if no block has been found.
+     */
+    private Address takeFreeBlock(Word minSize) {
+        final int size = minSize.toInt();
+        int bin = getBinIndex(Math.max(size, ObjectLayout.OBJECT_ALIGN));
+        if (bin >= SMALL_BINS) {
+            // Not all blocks in a medium or large bin may be large enough
+            final Address ptr = removeFirstFit(bin, minSize);
+            if (!ptr.isZero()) {
+                return ptr;
+            }
+            bin++;
+        }
+        if (bin >= NR_BINS) {
+            return Address.zero();
+        }
+        // All blocks in the remaining bins are large enough, take the
+        // first block of the first non-empty bin.
+        final long mask = binMask >>> bin;
+        if (mask == 0) {
+            return Address.zero();
+        }
+        return removeFirstFit(bin + Long.numberOfTrailingZeros(mask), minSize);
+    }
+
+    /**
+     * Remove the first free block of at least the given size from the given bin.
+     * This heap must be locked.
+     *
+     * @param bin
+     * @param minSize
+     * @return The address of the free block, or zero if no block has been found.
+     */
+    private Address removeFirstFit(int bin, Word minSize) {
+        final Offset binOffset = Offset.fromIntZeroExtend(bin * slotSize);
+        final Offset sizeOffset = this.sizeOffset;
+        Address prev = Address.zero();
+        Address cur = binTablePtr.loadAddress(binOffset);
+        while (!cur.isZero() && cur.loadWord(sizeOffset).LT(minSize)) {
+            prev = cur;
+            cur = cur.loadAddress();
+        }
+        if (!cur.isZero()) {
+            final Address next = cur.loadAddress();
+            if (prev.isZero()) {
+                binTablePtr.store(next, binOffset);
+                if (next.isZero()) {
+                    binMask &= ~(1L << bin);
+                }
+            } else {
+                prev.store(next);
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * Remove all free blocks from the bins. This heap must be locked.
+     */
+    private void clearBins() {
+        helper.clear(binTablePtr, NR_BINS * slotSize);
+        binMask = 0;
+    }
+
+    /**
+     * Add the number and total size of the free blocks in each bin to the
+     * given arrays.
+     *
+     * @param counts The number of free blocks, indexed by bin
+     * @param sizes  The total size of the free blocks, indexed by bin
+     */
+    final void getBinOccupancy(int[] counts, long[] sizes) {
+        final Offset sizeOffset = this.sizeOffset;
+        lock();
+        try {
+            for (int bin = 0; bin < NR_BINS; bin++) {
+                Address ptr = binTablePtr.loadAddress(Offset.fromIntZeroExtend(bin * slotSize));
+                while (!ptr.isZero()) {
+                    counts[bin]++;
+                    sizes[bin] += ptr.loadWord(sizeOffset).toInt();
+                    ptr = ptr.loadAddress();
+                }
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Reserve a free block to be used as allocation buffer.
+     * The size of the reserved block is counted as used space of this heap,
+     * until the buffer is released.
+     *
+     * @param minSize       The minimum size (in bytes) of the free block
+     * @param preferredSize The size (in bytes) of the block to split off a larger free block
+     * @return The address of the reserved free block, or zero if no block is available.
+     * @see #releaseBuffer(Address)
+     */
+    final Address reserveBuffer(int minSize, int preferredSize) {
+        final Word headerSize = Word.fromIntZeroExtend(this.headerSize);
+        final Offset sizeOffset = this.sizeOffset;
+        final Offset flagsOffset = this.flagsOffset;
+        final Word preferredSizeW = Word.fromIntZeroExtend(preferredSize);
+
+        lock();
+        try {
+            final Address ptr = takeFreeBlock(Word.fromIntZeroExtend(minSize));
+            if (ptr.isZero()) {
+                return ptr;
+            }
+            Word bufferSize = ptr.loadWord(sizeOffset);
+            if (bufferSize.GT(preferredSizeW.add(headerSize))) {
+                // Block is larger then we need, split it up.
+                final Word newFreeSize = bufferSize.sub(preferredSizeW.add(headerSize));
+                final Address newFreePtr = ptr.add(preferredSizeW.add(headerSize));
+                newFreePtr.store(newFreeSize, sizeOffset);
+                newFreePtr.store(0, flagsOffset);
+                newFreePtr.store(ObjectReference.fromObject(FREE), tibOffset);
+                addFreeBlock(newFreePtr, newFreeSize);
+                bufferSize = preferredSizeW;
+                ptr.store(bufferSize, sizeOffset);
+            }
+            ptr.store(BUFFER_RESERVED, flagsOffset);
+            freeSize = freeSize.sub(bufferSize);
+            youngObjects = true;
+            return ptr;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Release the remaining part of an allocation buffer.
+     *
+     * @param ptr The address of the reserved free block
+     * @return The size (in bytes) of the released free block
+     * @see #reserveBuffer(int, int)
+     */
+    final int releaseBuffer(Address ptr) {
+        lock();
+        try {
+            final Word size = ptr.loadWord(sizeOffset);
+            ptr.store(0, flagsOffset);
+            freeSize = freeSize.add(size);
+            addFreeBlock(ptr, size);
+            return size.toInt();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Allocate a new object at the start of the given reserved free block.
+     * The remaining part of the block (if any) is turned into a new reserved
+     * free block directly after the new object. This heap is not locked,
+     * so the caller must be the sole user of the given block.
+     *
+     * @param ptr         The address of the reserved free block
+     * @param tib
+     * @param alignedSize
+     * @return The new object (not cleared) or null if the block is too small.
+     */
+    final Object allocFromBuffer(Address ptr, Object tib, int alignedSize) {
+        final Word headerSize = Word.fromIntZeroExtend(this.headerSize);
+        final Offset sizeOffset = this.sizeOffset;
+        final Offset flagsOffset = this.flagsOffset;
+        final Offset tibOffset = this.tibOffset;
+
+        Word alignedSizeW = Word.fromIntZeroExtend(alignedSize);
+        final Word totalSize = alignedSizeW.add(headerSize);
+        final Word curFreeSize = ptr.loadWord(sizeOffset);
+        if (alignedSizeW.GT(curFreeSize)) {
+            return null;
+        }
+        if (curFreeSize.GT(totalSize)) {
+            // Split up, setup the remaining free block first, so the
+            // heap is walkable at any time.
+            final Address newFreePtr = ptr.add(totalSize);
+            newFreePtr.store(curFreeSize.sub(totalSize), sizeOffset);
+            newFreePtr.store(BUFFER_RESERVED, flagsOffset);
+            newFreePtr.store(ObjectReference.fromObject(FREE), tibOffset);
+        } else {
+            // The block is not large enough to split up, make the
+            // new object the size of the free block.
+            alignedSizeW = curFreeSize;
+        }
+
+        // Create the object header
+        ptr.store(alignedSizeW, sizeOffset);
+        ptr.store(0, flagsOffset);
+        ptr.store(ObjectReference.fromObject(tib), tibOffset);
+        // Mark the object in the allocation bitmap
+        atomicSetAllocationBit(ptr);
+
+        return ptr.toObjectReference().toObject();
+    }
+
+    /**
+     * Gets the size (in bytes) of the block at the given address.
+     *
+     * @param ptr
+     * @return The size of the block, excluding its header.
+     */
+    @Inline
+    final int getBlockSize(Address ptr) {
+        return ptr.loadWord(sizeOffset).toInt();
+    }
+
+    /**
+     * Gets the address of the block following the block at the given address.
+     *
+     * @param ptr
+     * @return The address of the next block, this may be the end of this heap.
+     */
+    @Inline
+    final Address nextBlock(Address ptr) {
+        return ptr.add(ptr.loadWord(sizeOffset).add(Word.fromIntZeroExtend(headerSize)));
+    }
+
     /**
      * Mark the given object as free space.
      *
@@ -305,7 +665,8 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
     }
 
     /**
-     * Join all adjacent free spaces.
+     * Join all adjacent free spaces and rebuild the free block bins.
+     * Free blocks that are reserved as allocation buffer are left alone.
      *
      * @throws UninterruptiblePragma
      */
@@ -315,24 +676,22 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
         Word offset = headerSize;
         final Offset sizeOffset = this.sizeOffset;
         final Offset tibOffset = this.tibOffset;
+        final Offset flagsOffset = this.flagsOffset;
 
 
         lock();
         try {
-            Address firstFreePtr = Address.zero();
+            clearBins();
             while (offset.LT(size)) {
                 final Address ptr = start.add(offset);
                 final Word objSize = ptr.loadWord(sizeOffset);
                 final Word nextOffset = offset.add(objSize).add(headerSize);
                 final Object vmt = ptr.loadObjectReference(tibOffset);
-                if ((firstFreePtr == null) && (vmt == FREE)) {
-                    firstFreePtr = ptr;
-                }
-                if ((vmt == FREE) && (nextOffset.LT(size))) {
-                    final Object nextVmt;
+                if ((vmt == FREE) && ((ptr.loadInt(flagsOffset) & BUFFER_RESERVED) == 0)) {
                     final Address nextObjectPtr = start.add(nextOffset);
-                    nextVmt = nextObjectPtr.loadObjectReference(tibOffset);
-                    if (nextVmt == FREE) {
+                    if (nextOffset.LT(size)
+                        && (nextObjectPtr.loadObjectReference(tibOffset) == FREE)
+                        && ((nextObjectPtr.loadInt(flagsOffset) & BUFFER_RESERVED) == 0)) {
                         // Combine two free spaces
                         Word nextObjSize = nextObjectPtr.loadWord(sizeOffset);
                         Word newObjSize = objSize.add(headerSize).add(nextObjSize);
@@ -341,19 +700,105 @@ final class VmDefaultHeap extends VmAbstractHeap implements ObjectFlags {
                         // another next free object, which we will combine
                         // in the next loop.
                     } else {
+                        // This free space cannot grow any further
+                        addFreeBlock(ptr, objSize);
                         offset = nextOffset;
                     }
                 } else {
                     offset = nextOffset;
                 }
             }
-            // Set the address of the next free block, to the first free block
-            this.nextFreePtr = firstFreePtr;
         } finally {
             unlock();
         }
     }
 
+    /**
+     * Mark this heap as needing a sweep. Until the sweep has been completed,
+     * no objects may be allocated on this heap.
+     */
+    final void setSweepPending() {
+        sweepCursor = Word.fromIntZeroExtend(headerSize);
+        youngObjects = false;
+        sweepPending = true;
+    }
+
+    /**
+     * Have (young) objects been allocated on this heap since its last sweep?
+     * Only such heaps have to be swept after a minor collection.
+     *
+     * @return boolean
+     */
+    @Inline
+    final boolean hasYoungObjects() {
+        return youngObjects;
+    }
+
+    /**
+     * Record that this heap contains young objects.
+     */
+    @Inline
+    final void setYoungObjects() {
+        youngObjects = true;
+    }
+
+    /**
+     * Must this heap be swept before it can be used for allocation?
+     *
+     * @return boolean
+     */
+    @Inline
+    final boolean isSweepPending() {
+        return sweepPending;
+    }
+
+    /**
+     * Sweep the next part of this heap, starting at the sweep cursor.
+     * Once the end of the heap is reached, the heap is defragmented and
+     * can be used for allocation again.
+     *
+     * @param visitor
+     * @param maxBytes The maximum number of bytes to sweep
+     * @return True if the sweep of this heap has been completed
+     * @throws UninterruptiblePragma
+     */
+    final boolean sweep(GCSweepVisitor visitor, int maxBytes) throws UninterruptiblePragma {
+        final Word headerSize = Word.fromIntZeroExtend(this.headerSize);
+        final Offset sizeOffset = this.sizeOffset;
+        final Offset tibOffset = this.tibOffset;
+        final Object FREE = this.FREE;
+        final Word size = Word.fromIntZeroExtend(getSize());
+        final boolean done;
+
+        lock();
+        try {
+            if (!sweepPending) {
+                return true;
+            }
+            visitor.setCurrentHeap(this);
+            Word offset = sweepCursor;
+            final Word limit = offset.add(Word.fromIntZeroExtend(maxBytes));
+            while (offset.LT(size) && offset.LT(limit)) {
+                final Address ptr = start.add(offset);
+                final Object tib = ptr.loadObjectReference(tibOffset);
+                final Word objSize = ptr.loadWord(sizeOffset);
+                if (tib != FREE) {
+                    visitor.visit(ptr.toObjectReference().toObject());
+                }
+                offset = offset.add(objSize).add(headerSize);
+            }
+            sweepCursor = offset;
+            done = !offset.LT(size);
+        } finally {
+            unlock();
+        }
+        if (done) {
+            defragment();
+            sweepPending = false;
+        }
+        return done;
+    }
+
     /**
      * Let all objects in this heap make a visit to the given visitor.
      *
@@ -21,6 +21,8 @@
 package org.jnode.vm.scheduler;
 
 import org.jnode.vm.Unsafe;
+import org.jnode.vm.facade.VmHeapManager;
+import org.jnode.vm.facade.VmUtils;
 
 /**
  * Thread that is run when the processor is idle.
@@ -35,8 +37,12 @@ public class IdleThread extends Thread implements SystemThread {
     }
 
     public void run() {
+        final VmHeapManager heapManager = VmUtils.getVm().getHeapManager();
         while (true) {
-            Unsafe.idle();
+            // Let the heap manager use this processor before halting it
+            if (!heapManager.doIdleWork()) {
+                Unsafe.idle();
+            }
         }
     }
 }
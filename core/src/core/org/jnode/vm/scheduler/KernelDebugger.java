@@ -93,7 +93,7 @@ public class KernelDebugger {
                 debug("' state='");
                 debug(currentThread.getThreadStateName());
                 debug("\n");
-                vmScheduler.getReadyQueue().dump(false, null);
+                vmScheduler.dumpReadyQueues(false, null);
                 vmScheduler.getSleepQueue().dump(false, null);
                 debug("/>\n");
                 break;
@@ -101,7 +101,7 @@ public class KernelDebugger {
             case 'r':
                 debug("<traces: ");
                 debug("\n");
-                vmScheduler.getReadyQueue().dump(true, vmScheduler.getStackReader());
+                vmScheduler.dumpReadyQueues(true, vmScheduler.getStackReader());
                 debug("/>\n");
                 break;
             case 'v':
@@ -40,6 +40,17 @@ import org.vmmagic.unboxed.ObjectReference;
 @MagicPermission
 public final class Monitor {
 
+    /**
+     * Smallest number of cpu cycles a thread spins before it is parked.
+     */
+    private static final long MIN_SPIN_CYCLES = 1000;
+
+    /**
+     * If the average hold time (in cpu cycles) is longer than this, a thread
+     * is parked right away, without spinning.
+     */
+    private static final long MAX_SPIN_CYCLES = 20000;
+
     /**
      * Number of locks on this monitor THIS FIELD MUST BE THE FIRST!!
      */
@@ -70,6 +81,48 @@ public final class Monitor {
      */
     private Monitor previous;
 
+    /**
+     * Cpu cycle counter at the time the current owner claimed this monitor,
+     * 0 if unknown.
+     */
+    private long acquireCycles;
+
+    /**
+     * Running average of the number of cpu cycles this monitor is held.
+     */
+    private long avgHoldCycles;
+
+    /**
+     * Number of times a thread could not claim this monitor right away.
+     */
+    private int contentionCount;
+
+    /**
+     * Number of times a thread claimed this monitor while spinning.
+     */
+    private int spinCount;
+
+    /**
+     * Number of times a thread was parked on the enter queue.
+     */
+    private int parkCount;
+
+    /**
+     * Number of times this monitor was handed over to a parked thread.
+     */
+    private int handoffCount;
+
+    /**
+     * Number of threads that have been parked on this monitor and have not
+     * yet returned from their suspend. Protected by monitorLock.
+     */
+    private int parked;
+
+    /**
+     * The next monitor in the free list of the monitor pool
+     */
+    Monitor nextFree;
+
     /**
      * Create a new instance
      */
@@ -112,6 +165,7 @@ public final class Monitor {
         if (owner != null)
             addToOwner();
         this.lockCount = lockcount;
+        this.acquireCycles = 0;
     }
 
     /**
@@ -136,35 +190,136 @@ public final class Monitor {
     /**
      * Slow path of enter (current thread is not the owner). This is a seperate
      * method to control the inlining of the native code compiler.
+     * <p/>
+     * If the monitor is locked, the current thread first spins for a while
+     * when the owner is running on another processor. Otherwise it is parked
+     * on the enter queue until the monitor is handed over to it.
      */
     @NoInline
     private final void enterSlowPath() {
         // No yet owner, try to obtain the lock
-        boolean loop = true;
         final Address lcAddr = getLCAddress();
-        while (loop) {
-            // Get current thread
-            final VmThread current = VmMagic.currentProcessor().getCurrentThread();
+        // Get current thread
+        final VmThread current = VmMagic.currentProcessor().getCurrentThread();
+        boolean contended = false;
+        while (true) {
+            if (this.owner == current) {
+                // The monitor has been handed over to me
+                break;
+            }
             // Try to claim this monitor
             if (lcAddr.attempt(0, 1)) {
-                loop = false;
-                dropFromOwner();
-                this.owner = current;
-                addToOwner();
+                claim(current);
+                break;
+            }
+            if (!contended) {
+                contended = true;
+                contentionCount++;
+                if (spin(lcAddr)) {
+                    spinCount++;
+                    claim(current);
+                    break;
+                }
+            }
+            // Claim the lock for this monitor
+            lock();
+            final VmProcessor proc = VmMagic.currentProcessor();
+            proc.disableReschedule(true);
+            if (lockCount == 0) {
+                // Given up in the mean time, try again
+                proc.enableReschedule(true);
+                unlock();
+                continue;
+            }
+            try {
+                prepareWait(current, enterQueue, VmThread.WAITING_ENTER, "mon-enter");
+                parkCount++;
+            } finally {
+                unlock();
+            }
+            // Release the monitor lock
+            proc.suspend(true);
+            // When we return here, another thread has handed over
+            // this monitor.
+            lock();
+            parked--;
+            unlock();
+        }
+    }
+
+    /**
+     * Spin until this monitor is given up, as long as its owner is running on
+     * another processor and is expected to give it up soon, judging by the
+     * recent hold times.
+     *
+     * @param lcAddr The address of lockCount
+     * @return true if this monitor has been claimed, false if the current
+     *         thread should be parked.
+     */
+    private final boolean spin(Address lcAddr) {
+        final long budget = Math.max(MIN_SPIN_CYCLES, avgHoldCycles * 2);
+        if (budget > MAX_SPIN_CYCLES) {
+            return false;
+        }
+        final VmProcessor proc = VmMagic.currentProcessor();
+        final long start = Unsafe.getCpuCycles();
+        while (true) {
+            if (!enterQueue.isEmpty()) {
+                // The monitor will be handed over to a parked thread
+                return false;
+            }
+            if (lockCount == 0) {
+                if (lcAddr.attempt(0, 1)) {
+                    return true;
+                }
             } else {
-                // Claim the lock for this monitor
-                lock();
-                try {
-                    VmMagic.currentProcessor().disableReschedule(true);
-                    prepareWait(current, enterQueue, VmThread.WAITING_ENTER, "mon-enter");
-                } finally {
-                    unlock();
+                final VmThread owner = this.owner;
+                if (owner != null) {
+                    final VmProcessor ownerProc = owner.lastProcessor;
+                    if ((ownerProc == null) || (ownerProc == proc) || (ownerProc.currentThread != owner)) {
+                        // Owner is not running
+                        return false;
+                    }
                 }
-                // Release the monitor lock
-                VmMagic.currentProcessor().suspend(true);
-                // When we return here, another thread has given up
-                // this monitor.
             }
+            if (Unsafe.getCpuCycles() - start > budget) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Make the given thread the owner of this monitor, after it has claimed
+     * lockCount.
+     *
+     * @param current
+     */
+    @Inline
+    private final void claim(VmThread current) {
+        dropFromOwner();
+        this.owner = current;
+        addToOwner();
+        this.acquireCycles = Unsafe.getCpuCycles();
+    }
+
+    /**
+     * Give up this monitor. If threads are parked on the enter queue, the
+     * monitor is handed over to the first one, otherwise it is unlocked.
+     * The caller must have either the monitor lock or the scheduler lock.
+     */
+    private final void handoff() {
+        final VmThread next = enterQueue.first();
+        dropFromOwner();
+        if (next != null) {
+            owner = next;
+            addToOwner();
+            lockCount = 1;
+            acquireCycles = Unsafe.getCpuCycles();
+            handoffCount++;
+            notifyThread(next);
+        } else {
+            owner = null;
+            lockCount = 0;
         }
     }
 
@@ -186,12 +341,13 @@ public final class Monitor {
             lockCount--;
         } else {
             // Monitor is locked by current thread and will decrement to 0.
+            final long acquired = acquireCycles;
+            if (acquired != 0) {
+                avgHoldCycles += (Unsafe.getCpuCycles() - acquired - avgHoldCycles) >> 3;
+            }
             lock();
             try {
-                wakeupWaitingThreads(enterQueue, true);
-                dropFromOwner();
-                owner = null;
-                lockCount = 0;
+                handoff();
             } finally {
                 unlock();
             }
@@ -222,14 +378,10 @@ public final class Monitor {
             return;
         }
 
-        // Monitor is locked by current thread, decrement lockcount
-        lockCount = 0;
+        // Monitor is locked by the given thread, give it up
         lock();
         try {
-            wakeupWaitingThreads(enterQueue, true);
-            dropFromOwner();
-            owner = null;
-            lockCount = 0;
+            handoff();
         } finally {
             unlock();
         }
@@ -277,10 +429,7 @@ public final class Monitor {
                 current.wakeupTime = VmSystem.currentKernelMillis() + timeout;
                 VmMagic.currentProcessor().getScheduler().addToSleepQueue(current);
             }
-            dropFromOwner();
-            owner = null;
-            lockCount = 0;
-            wakeupWaitingThreads(enterQueue, true);
+            handoff();
             VmMagic.currentProcessor().suspend(true);
             // When we return here, we have been notified or there
             // was a timeout.
@@ -292,19 +441,20 @@ public final class Monitor {
                 Unsafe.die("Wait");
             }
 
-            if (timeout > 0) {
-                // Screen.debug("<backfromwait-"); Screen.debug(id);
-                // Screen.debug("/>");
-                // Remove the current thread from the notifyQueue.
-                // There is no need to remove myself from the sleep queue,
-                // because this is done either by the scheduler or
-                // indirect by wakeupWaitingThreads.
-                lock();
-                try {
+            lock();
+            try {
+                parked--;
+                if (timeout > 0) {
+                    // Screen.debug("<backfromwait-"); Screen.debug(id);
+                    // Screen.debug("/>");
+                    // Remove the current thread from the notifyQueue.
+                    // There is no need to remove myself from the sleep queue,
+                    // because this is done either by the scheduler or
+                    // indirect by wakeupWaitingThreads.
                     notifyQueue.remove(current);
-                } finally {
-                    unlock();
                 }
+            } finally {
+                unlock();
             }
             enter();
             this.lockCount = oldLockCount;
@@ -402,6 +552,78 @@ public final class Monitor {
         return owner;
     }
 
+    /**
+     * Gets the number of times a thread could not claim this monitor right away.
+     *
+     * @return the contention count
+     */
+    public final int getContentionCount() {
+        return contentionCount;
+    }
+
+    /**
+     * Gets the number of times a thread claimed this monitor while spinning.
+     *
+     * @return the spin count
+     */
+    public final int getSpinCount() {
+        return spinCount;
+    }
+
+    /**
+     * Gets the number of times a thread has been parked, waiting to enter this monitor.
+     *
+     * @return the park count
+     */
+    public final int getParkCount() {
+        return parkCount;
+    }
+
+    /**
+     * Gets the number of times this monitor has been handed over to a parked thread.
+     *
+     * @return the handoff count
+     */
+    public final int getHandoffCount() {
+        return handoffCount;
+    }
+
+    /**
+     * Is this monitor not in use at all? An idle monitor is not locked, has no
+     * waiting threads and is not referenced by a parked thread, so it can be
+     * detached from its object. Only meaningful when all other processors are
+     * parked.
+     *
+     * @return boolean
+     */
+    final boolean isIdle() {
+        return (lockCount == 0) && (owner == null) && (monitorLock == 0) && (parked == 0)
+            && (previous == null) && enterQueue.isEmpty() && notifyQueue.isEmpty();
+    }
+
+    /**
+     * Lock this monitor before it is reused for another object. Only called
+     * from MonitorPool.
+     *
+     * @return false if a thread that read the lock word of the previous object
+     *         has locked this monitor in the mean time.
+     */
+    final boolean claimForReuse() {
+        return getLCAddress().attempt(0, 1);
+    }
+
+    /**
+     * Clear the statistics of this monitor, before it is reused for another
+     * object. Only called from MonitorPool.
+     */
+    final void resetStatistics() {
+        this.avgHoldCycles = 0;
+        this.contentionCount = 0;
+        this.spinCount = 0;
+        this.parkCount = 0;
+        this.handoffCount = 0;
+    }
+
     /**
      * Is this monitor locked?
      *
@@ -432,6 +654,7 @@ public final class Monitor {
         }
         thread.prepareWait(this, waitState);
         queue.add(thread, false, "mon.prepareWait");
+        parked++;
     }
 
     /**
@@ -20,6 +20,8 @@
  
 package org.jnode.vm.scheduler;
 
+import java.io.PrintWriter;
+
 import org.jnode.annotation.Internal;
 import org.jnode.annotation.MagicPermission;
 import org.jnode.annotation.Uninterruptible;
@@ -70,17 +72,20 @@ public final class MonitorManager {
             // object is locked or has an inflated lock.
             if (!oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED)).isZero()) {
                 // slow path 2: high bit of lock word is set --> inflated lock
-                final Monitor m = getMonitor(oldlockword);
-                m.enter();
-                return;
+                if (enterInflated(statusPtr, getMonitor(oldlockword))) {
+                    return;
+                }
+                continue;
             } else if (oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.THREAD_ID_MASK)).EQ(tid)) {
                 // Current thread owns the thinlock
                 final Word counter = oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_COUNT_MASK));
                 if (counter.EQ(Word.fromIntZeroExtend(ObjectFlags.LOCK_COUNT_MASK))) {
                     // thin lock entry counter == max, so we need to inflate
                     // ourselves.
-                    installInflatedLock(object, null).enter();
-                    return;
+                    if (enterInflated(statusPtr, installInflatedLock(object, null))) {
+                        return;
+                    }
+                    continue;
                 } else {
                     // not-quite-so-fast path: locked by current thread.
                     // increment counter.
@@ -108,7 +113,9 @@ public final class MonitorManager {
                     return;
                 } else {
                     // install an inflated lock.
-                    installInflatedLock(object, thread).enter();
+                    if (!enterInflated(statusPtr, installInflatedLock(object, thread))) {
+                        continue;
+                    }
                 }
                 return;
             }
@@ -117,6 +124,27 @@ public final class MonitorManager {
         }
     }
 
+    /**
+     * Enter the inflated monitor of an object. The garbage collector may have
+     * detached the monitor from the object after the lock word has been read,
+     * so once the monitor is owned, the lock word must still refer to it.
+     *
+     * @param statusPtr The address of the lock word of the object
+     * @param m         The inflated monitor read from the lock word
+     * @return true if the object has been locked, false if the caller must try again.
+     */
+    private static boolean enterInflated(Address statusPtr, Monitor m) {
+        m.enter();
+        final Word lockword = statusPtr.loadWord();
+        if (!lockword.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED)).isZero()
+            && (getMonitor(lockword) == m)) {
+            return true;
+        }
+        // Deflated in the mean time
+        m.exit();
+        return false;
+    }
+
     /**
      * Monitorexit runtime routine. Checks for thin lock usage, otherwise falls
      * back to inflated locks.
@@ -248,7 +276,8 @@ public final class MonitorManager {
 
     /**
      * Installs an inflated lock on the given object. Uses a spin-loop to wait
-     * until the object is unlocked or inflated.
+     * until the object is unlocked or inflated. A monitor that has been
+     * deflated by the garbage collector is reused if possible.
      *
      * @param k the object for which the inflated lock is installed
      * @param thread
@@ -265,11 +294,21 @@ public final class MonitorManager {
             final Word oldlockword = statusPtr.prepareWord();
             if (!oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED)).isZero()) {
                 // inflated by another thread, use that one.
+                if (m != null) {
+                    // A thread that still refers to a recycled monitor may be
+                    // waiting for it, so give it up like an owner would.
+                    m.initialize(VmMagic.currentProcessor().getCurrentThread(), 1);
+                    m.exit();
+                    getMonitorPool().release(m);
+                }
                 return getMonitor(oldlockword);
             }
 
             if (m == null) {
-                m = new Monitor(VmMagic.currentProcessor().getCurrentThread(), 1);
+                m = getMonitorPool().allocate();
+                if (m == null) {
+                    m = new Monitor(VmMagic.currentProcessor().getCurrentThread(), 1);
+                }
                 monAddr = ObjectReference.fromObject(m).toAddress().toWord();
                 if (!monAddr.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED
                     | ObjectFlags.STATUS_FLAGS_MASK)).isZero()) {
@@ -291,11 +330,64 @@ public final class MonitorManager {
             final Word newlockword = monAddr.or(statusFlags).or(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED));
             if (statusPtr.attempt(oldlockword, newlockword)) {
                 // successfully obtained inflated lock.
+                getMonitorPool().inflated();
                 return m;
             }
         }
     }
 
+    /**
+     * Detach the given inflated monitor from its object if the monitor is not
+     * in use, so the object is back to an unlocked thin lock and the monitor
+     * can be reused. This method must only be called by the garbage collector,
+     * while all other processors are parked.
+     * A thread that has read the lock word before, finds out that the monitor has been
+     * detached once it owns the monitor (see {@link #enterInflated(Address, Monitor)}).
+     *
+     * @param object
+     * @param m      The inflated monitor of the given object
+     * @return true if the monitor has been detached, false otherwise.
+     */
+    @Internal
+    public static boolean deflateMonitor(Object object, Monitor m) {
+        if (!m.isIdle()) {
+            return false;
+        }
+        final Address statusPtr = ObjectReference.fromObject(object).toAddress().
+            add(ObjectLayout.FLAGS_SLOT * Address.size());
+        final Word oldlockword = statusPtr.prepareWord();
+        if (oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.LOCK_EXPANDED)).isZero()
+            || (getMonitor(oldlockword) != m)) {
+            return false;
+        }
+        final Word statusFlags = oldlockword.and(Word.fromIntZeroExtend(ObjectFlags.STATUS_FLAGS_MASK));
+        if (!statusPtr.attempt(oldlockword, statusFlags)) {
+            // Deflated by another marker
+            return false;
+        }
+        getMonitorPool().deflated(m);
+        return true;
+    }
+
+    /**
+     * Print the statistics of the inflated monitors on out.
+     *
+     * @param out
+     */
+    @Internal
+    public static void dumpStatistics(PrintWriter out) {
+        getMonitorPool().dumpStatistics(out);
+    }
+
+    /**
+     * Gets the pool of monitors used for inflated locks.
+     *
+     * @return The monitor pool
+     */
+    private static MonitorPool getMonitorPool() {
+        return VmMagic.currentProcessor().getScheduler().getMonitorPool();
+    }
+
     /**
      * Get the Monitor object associated with this lockword.
      *
@@ -0,0 +1,164 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.vm.scheduler;
+
+import java.io.PrintWriter;
+
+import org.jnode.annotation.Uninterruptible;
+
+/**
+ * Pool of monitors that have been detached from their object by the garbage
+ * collector. Inflating a lock takes a monitor from this pool before a new one
+ * is allocated. The pool also keeps the monitor statistics.
+ *
+ * @author Ewout Prangsma (epr@users.sourceforge.net)
+ */
+final class MonitorPool {
+
+    /**
+     * Lock protecting the free list and the counters.
+     */
+    private final ProcessorLock lock;
+
+    /**
+     * First monitor of the free list.
+     */
+    private Monitor firstFree;
+
+    /**
+     * Number of monitors in the free list.
+     */
+    private int freeCount;
+
+    /**
+     * Number of locks that have been inflated.
+     */
+    private long inflatedCount;
+
+    /**
+     * Number of monitors that have been detached from their object.
+     */
+    private long deflatedCount;
+
+    /**
+     * Number of inflations that used a monitor from the free list.
+     */
+    private long recycledCount;
+
+    /**
+     * Create a new instance
+     */
+    MonitorPool() {
+        this.lock = new ProcessorLock();
+    }
+
+    /**
+     * Take a monitor from the free list. The monitor is locked, so a thread that
+     * still refers to it from before it was detached cannot lock it as well.
+     * A monitor that is locked by such a thread is dropped from the free list.
+     *
+     * @return The monitor, or null if the free list is empty.
+     */
+    @Uninterruptible
+    final Monitor allocate() {
+        lock.lock();
+        try {
+            while (firstFree != null) {
+                final Monitor m = firstFree;
+                firstFree = m.nextFree;
+                m.nextFree = null;
+                freeCount--;
+                if (m.claimForReuse()) {
+                    recycledCount++;
+                    return m;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A monitor has been attached to an object.
+     */
+    @Uninterruptible
+    final void inflated() {
+        lock.lock();
+        inflatedCount++;
+        lock.unlock();
+    }
+
+    /**
+     * A monitor has been detached from its object. It is added to the free
+     * list.
+     *
+     * @param m
+     */
+    @Uninterruptible
+    final void deflated(Monitor m) {
+        lock.lock();
+        try {
+            deflatedCount++;
+            addFree(m);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a monitor that has not been attached to an object.
+     *
+     * @param m
+     */
+    @Uninterruptible
+    final void release(Monitor m) {
+        lock.lock();
+        try {
+            addFree(m);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a monitor to the free list. The caller must hold the lock.
+     *
+     * @param m
+     */
+    @Uninterruptible
+    private void addFree(Monitor m) {
+        m.resetStatistics();
+        m.nextFree = firstFree;
+        firstFree = m;
+        freeCount++;
+    }
+
+    /**
+     * Print the statistics of this pool on out.
+     *
+     * @param out
+     */
+    final void dumpStatistics(PrintWriter out) {
+        out.println("Monitors   : " + (inflatedCount - deflatedCount) + " inflated, "
+            + deflatedCount + " deflated, " + recycledCount + " recycled, " + freeCount + " free");
+    }
+}
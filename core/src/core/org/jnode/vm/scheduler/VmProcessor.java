@@ -137,6 +137,36 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
      */
     private IdleThread idleThread;
 
+    /**
+     * The VmThread of the idle thread.
+     */
+    volatile VmThread idleVmThread;
+
+    /**
+     * Is this processor running its idle thread?
+     */
+    volatile boolean idle;
+
+    /**
+     * The threads that are ready to run on this processor.
+     */
+    final VmThreadQueue.ReadyQueue readyQueue;
+
+    /**
+     * Lock used to protect the ready queue.
+     */
+    final ProcessorLock readyQueueLock;
+
+    /**
+     * Number of threads this processor has taken from other processors.
+     */
+    int stealCount;
+
+    /**
+     * Number of threads other processors have taken from this processor.
+     */
+    int stolenCount;
+
     private int lockCount;
 
     /**
@@ -233,6 +263,8 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
         this.architecture = architecture;
         this.scheduler = scheduler;
         this.kernelDebugger = new KernelDebugger(scheduler);
+        this.readyQueue = new VmThreadQueue.ReadyQueue("ready");
+        this.readyQueueLock = new ProcessorLock();
         this.staticsTable = sharedStatics.getTable();
         this.isolatedStatics = isolatedStatics;
         this.isolatedStaticsTable = isolatedStatics.getTable();
@@ -247,6 +279,7 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
             compilerIds[i] = compilers[i].getMagic();
             gcMapIterators[i] = compilers[i].createGCMapIterator();
         }
+        scheduler.registerProcessor(this);
     }
 
     /**
@@ -465,8 +498,17 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
             }
 
             newThread.wakeUpByScheduler();
+            newThread.lastProcessor = this;
             this.nextThread = newThread;
 
+            if (newThread == idleVmThread) {
+                idle = true;
+                enterIdle(scheduler.getNextWakeupTime());
+            } else if (idle) {
+                idle = false;
+                exitIdle();
+            }
+
             final int priority = newThread.priority;
             if (priority == lastThreadPriority) {
                 sameThreadPriorityCount++;
@@ -495,6 +537,39 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
         }
     }
 
+    /**
+     * Called by reschedule when this processor is about to run its idle thread.
+     * An architecture can stop the timeslice interrupt of this processor here,
+     * as long as it wakes up in time for the first sleeping thread.
+     *
+     * @param wakeupTime The time (in kernel milliseconds) the first sleeping thread
+     *                   must be woken up, or Long.MAX_VALUE if no thread is sleeping.
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected void enterIdle(long wakeupTime) {
+        // Keep the timeslice interrupt by default
+    }
+
+    /**
+     * Called by reschedule when this processor stops running its idle thread.
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected void exitIdle() {
+        // Keep the timeslice interrupt by default
+    }
+
+    /**
+     * Called by another processor when a thread has been added to the ready
+     * queue of this processor while it is idle.
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected void wakeupFromIdle() {
+        // The timeslice interrupt will do by default
+    }
+
     /**
      * Create a new thread.
      *
@@ -537,6 +612,10 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
     public final void systemReadyForThreadSwitch() {
         if (idleThread == null) {
             idleThread = new IdleThread();
+            // The idle thread must never be taken by another processor
+            final VmThread vmThread = ThreadHelper.getVmThreadKS(idleThread);
+            vmThread.setRequiredProcessor(this);
+            idleVmThread = vmThread;
             idleThread.start();
         }
         getTSIAddress().atomicOr(Word.fromIntSignExtend(TSI_SYSTEM_READY));
@@ -705,6 +784,54 @@ public abstract class VmProcessor extends VmSystemObject implements org.jnode.vm
         this.isolatedStaticsTable = table;
     }
 
+    /**
+     * Gets the number of threads that are ready to run on this processor.
+     *
+     * @return the length of the ready queue
+     */
+    public final int getReadyQueueLength() {
+        return readyQueue.size();
+    }
+
+    /**
+     * Are there threads ready to run on this processor?
+     * Unlike {@link #getReadyQueueLength()} this takes the ready queue lock, so all
+     * earlier writes of this processor are visible to the other processors and a thread
+     * they added before is always seen.
+     *
+     * @return true if the ready queue is not empty
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected final boolean hasReadyThreads() {
+        readyQueueLock.lock();
+        try {
+            return (readyQueue.size() > 0);
+        } finally {
+            readyQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of threads this processor has taken from the ready
+     * queues of other processors.
+     *
+     * @return the number of steals
+     */
+    public final int getStealCount() {
+        return stealCount;
+    }
+
+    /**
+     * Gets the number of threads other processors have taken from the ready
+     * queue of this processor.
+     *
+     * @return the number of stolen threads
+     */
+    public final int getStolenCount() {
+        return stolenCount;
+    }
+
     /**
      * @return the idleThread
      */
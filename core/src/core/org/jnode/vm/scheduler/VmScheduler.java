@@ -36,6 +36,10 @@ import org.jnode.vm.facade.VmUtils;
 /**
  * Thread scheduler. This scheduler is used by all processors in the system, so
  * all access to data structures are protected by processor locks.
+ * <p/>
+ * Every processor has its own ready queue, protected by its own lock. A
+ * processor that has nothing but its idle thread left to run takes work from
+ * the ready queues of the other processors.
  *
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
@@ -58,9 +62,9 @@ public final class VmScheduler {
     private final VmThreadQueue.AllThreadsQueue allThreadsQueue;
 
     /**
-     * My ready queue.
+     * All processors that have a ready queue.
      */
-    private final VmThreadQueue.ScheduleQueue readyQueue;
+    private volatile VmProcessor[] processors = new VmProcessor[0];
 
     /**
      * My sleep queue.
@@ -68,10 +72,20 @@ public final class VmScheduler {
     private final VmThreadQueue.SleepQueue sleepQueue;
 
     /**
-     * Lock used to protect the ready and sleep queue.
+     * Lock used to protect the sleep queue.
      */
     private final ProcessorLock queueLock;
 
+    /**
+     * Number of live threads, protected by allThreadsLock.
+     */
+    private int threadCount;
+
+    /**
+     * Monitors that can be reused for inflated locks.
+     */
+    private final MonitorPool monitorPool;
+
     /**
      * Default constructor.
      */
@@ -81,8 +95,61 @@ public final class VmScheduler {
         this.allThreadsQueue = new VmThreadQueue.AllThreadsQueue("scheduler-all");
 
         this.queueLock = new ProcessorLock();
-        this.readyQueue = new VmThreadQueue.ScheduleQueue("scheduler-ready");
         this.sleepQueue = new VmThreadQueue.SleepQueue("scheduler-sleep");
+        this.monitorPool = new MonitorPool();
+    }
+
+    /**
+     * Gets the pool of monitors used for inflated locks.
+     *
+     * @return the monitor pool
+     */
+    @Uninterruptible
+    final MonitorPool getMonitorPool() {
+        return monitorPool;
+    }
+
+    /**
+     * Register a processor, so other processors can take threads from its
+     * ready queue.
+     *
+     * @param processor
+     */
+    final void registerProcessor(VmProcessor processor) {
+        while (true) {
+            final VmProcessor[] old = this.processors;
+            final VmProcessor[] procs = new VmProcessor[old.length + 1];
+            System.arraycopy(old, 0, procs, 0, old.length);
+            procs[old.length] = processor;
+            if (VmUtils.isWritingImage()) {
+                this.processors = procs;
+                return;
+            }
+            if (replaceProcessors(old, procs)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replace the processors array, unless it has been changed by someone else.
+     *
+     * @param old
+     * @param procs
+     * @return true if the array has been replaced, false otherwise.
+     */
+    @Uninterruptible
+    private boolean replaceProcessors(VmProcessor[] old, VmProcessor[] procs) {
+        queueLock.lock();
+        try {
+            if (this.processors == old) {
+                this.processors = procs;
+                return true;
+            }
+            return false;
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     /**
@@ -109,16 +176,46 @@ public final class VmScheduler {
      * @param thread
      */
     final void registerThread(VmThread thread) {
+        final int count;
         if (VmUtils.isWritingImage()) {
             allThreadsQueue.add(thread, "Vm");
+            count = ++threadCount;
         } else {
             allThreadsLock.lock();
             try {
                 allThreadsQueue.add(thread, "Vm");
+                count = ++threadCount;
             } finally {
                 allThreadsLock.unlock();
             }
         }
+
+        // Every live thread may be asleep at the same time, so make room for
+        // all of them now, since the sleep queue cannot grow in addToSleepQueue.
+        final int capacity = sleepQueue.capacity();
+        if (count > capacity) {
+            final VmThreadQueueEntry[] heap = new VmThreadQueueEntry[capacity * 2];
+            if (VmUtils.isWritingImage()) {
+                sleepQueue.grow(heap);
+            } else {
+                growSleepQueue(heap);
+            }
+        }
+    }
+
+    /**
+     * Let the sleep queue use the given heap.
+     *
+     * @param heap
+     */
+    @Uninterruptible
+    private void growSleepQueue(VmThreadQueueEntry[] heap) {
+        queueLock.lock();
+        try {
+            sleepQueue.grow(heap);
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     /**
@@ -130,13 +227,39 @@ public final class VmScheduler {
         allThreadsLock.lock();
         try {
             allThreadsQueue.remove(thread);
-            //todo recent change, more testing needed
-            //remove the thread from readyQueue and sleepQueue too
-            readyQueue.remove(thread);
-            sleepQueue.remove(thread);
+            threadCount--;
         } finally {
             allThreadsLock.unlock();
         }
+        //todo recent change, more testing needed
+        //remove the thread from the ready queues and sleepQueue too
+        removeFromQueues(thread);
+    }
+
+    /**
+     * Remove the given thread from the ready queues of all processors and
+     * from the sleep queue.
+     *
+     * @param thread
+     */
+    @Uninterruptible
+    private void removeFromQueues(VmThread thread) {
+        final VmProcessor[] procs = this.processors;
+        for (int i = 0; i < procs.length; i++) {
+            final VmProcessor proc = procs[i];
+            proc.readyQueueLock.lock();
+            try {
+                proc.readyQueue.remove(thread);
+            } finally {
+                proc.readyQueueLock.unlock();
+            }
+        }
+        queueLock.lock();
+        try {
+            sleepQueue.remove(thread);
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     /**
@@ -155,8 +278,12 @@ public final class VmScheduler {
     }
 
     /**
-     * Add the given thread to the ready queue to the scheduler and remove it
+     * Add the given thread to the ready queue of a processor and remove it
      * from the sleep queue (if it still was on the sleep queue).
+     * <p/>
+     * A running thread goes back to the ready queue of the current processor.
+     * Otherwise the thread goes to its required processor, its preferred
+     * processor or the processor it last ran on, in that order.
      *
      * @param thread
      * @param ignorePriority If true, the thread is always added to the back of the list,
@@ -168,24 +295,90 @@ public final class VmScheduler {
     @Uninterruptible
     final void addToReadyQueue(VmThread thread, boolean ignorePriority,
                                String caller) {
-        try {
-            // Get access to queues
-            queueLock.lock();
+        if (!(thread.isRunning() || thread.isYielding())) {
+            Unsafe
+                .debug("Thread must be in running state to add to ready queue, not ");
+            Unsafe.debug(thread.getThreadState());
+            architecture.getStackReader().debugStackTrace();
+            Unsafe.die("addToReadyQueue");
+        }
 
-            if (thread.isRunning() || thread.isYielding()) {
+        if (thread.sleepQueueEntry.isInUse()) {
+            queueLock.lock();
+            try {
                 sleepQueue.remove(thread);
-                readyQueue.add(thread, ignorePriority, caller);
-            } else {
-                Unsafe
-                    .debug("Thread must be in running state to add to ready queue, not ");
-                Unsafe.debug(thread.getThreadState());
-                architecture.getStackReader().debugStackTrace();
-                Unsafe.die("addToReadyQueue");
+            } finally {
+                queueLock.unlock();
             }
+        }
+
+        final VmProcessor proc = getReadyProcessor(thread);
+        proc.readyQueueLock.lock();
+        try {
+            proc.readyQueue.add(thread, ignorePriority, caller);
         } finally {
-            // Release access to queues
-            queueLock.unlock();
+            proc.readyQueueLock.unlock();
+        }
+
+        // An idle processor may not take timeslice interrupts, so wake it up
+        if (proc.idle) {
+            if (proc != VmMagic.currentProcessor()) {
+                proc.wakeupFromIdle();
+            }
+        } else if (proc.readyQueue.size() > 1) {
+            wakeupIdleProcessor();
+        }
+    }
+
+    /**
+     * Wake up a single idle processor, so it can take work from the busy ones.
+     */
+    @KernelSpace
+    @Uninterruptible
+    private void wakeupIdleProcessor() {
+        final VmProcessor current = VmMagic.currentProcessor();
+        final VmProcessor[] procs = this.processors;
+        for (int i = 0; i < procs.length; i++) {
+            final VmProcessor proc = procs[i];
+            if (proc.idle && (proc != current)) {
+                proc.wakeupFromIdle();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the processor on whose ready queue the given thread must be added.
+     *
+     * @param thread
+     * @return the processor
+     */
+    @KernelSpace
+    @Uninterruptible
+    private VmProcessor getReadyProcessor(VmThread thread) {
+        final VmProcessor current = VmMagic.currentProcessor();
+        if (current.currentThread == thread) {
+            // Still running on its stack, so it cannot go anywhere else yet
+            return current;
         }
+        VmProcessor proc = thread.getRequiredProcessor();
+        if (proc != null) {
+            return proc;
+        }
+        final VmProcessor last = thread.lastProcessor;
+        if ((last != null) && (last.currentThread == thread)) {
+            // Still running on the stack of another processor, only that
+            // processor may pick it up again after switching away from it
+            return last;
+        }
+        proc = thread.getPreferredProcessor();
+        if ((proc != null) && (proc.idleVmThread != null)) {
+            return proc;
+        }
+        if (last != null) {
+            return last;
+        }
+        return current;
     }
 
     /**
@@ -208,28 +401,113 @@ public final class VmScheduler {
     }
 
     /**
-     * Gets the first thread from the ready queue. If such a thread is
-     * available, it is removed from the ready queue.
+     * Gets the first thread from the ready queue of the current processor. If
+     * such a thread is available, it is removed from the ready queue.
+     * If the current processor has nothing but its idle thread to run, a
+     * thread is taken from the ready queue of another processor instead.
      *
      * @return
      */
     @KernelSpace
     @Uninterruptible
     final VmThread popFirstReadyThread() {
-        try {
-            // Get access to queues
-            queueLock.lock();
+        final VmProcessor current = VmMagic.currentProcessor();
 
-            final VmThread newThread = readyQueue.first(VmMagic.currentProcessor());
-            if (newThread != null) {
-                readyQueue.remove(newThread);
-                return newThread;
+        // This is only a hint, so no need to lock
+        final VmThread first = current.readyQueue.first();
+        if ((first == null) || (first == current.idleVmThread)) {
+            final VmThread stolen = steal(current);
+            if (stolen != null) {
+                return stolen;
             }
-            return null;
+        }
+
+        current.readyQueueLock.lock();
+        try {
+            return current.readyQueue.pop();
         } finally {
-            // Release access to queues
-            queueLock.unlock();
+            current.readyQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Take a thread from the ready queue of another processor.
+     * Only a single ready queue lock is held at a time.
+     *
+     * @param current The processor that is looking for work.
+     * @return the stolen thread, or null if no thread could be taken.
+     */
+    @KernelSpace
+    @Uninterruptible
+    private VmThread steal(VmProcessor current) {
+        final VmProcessor[] procs = this.processors;
+        final int count = procs.length;
+
+        // Start with the processor after the current one, so idle processors
+        // do not all go for the same victim.
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            if (procs[i] == current) {
+                start = i + 1;
+                break;
+            }
         }
+
+        for (int i = 0; i < count; i++) {
+            final VmProcessor victim = procs[(start + i) % count];
+            if ((victim == current) || (victim.readyQueue.size() == 0)) {
+                continue;
+            }
+            victim.readyQueueLock.lock();
+            try {
+                final VmThread thread = victim.readyQueue.steal(victim.currentThread);
+                if (thread != null) {
+                    victim.stolenCount++;
+                    current.stealCount++;
+                    return thread;
+                }
+            } finally {
+                victim.readyQueueLock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the time the first sleeping thread must be woken up.
+     *
+     * @return the wakeup time in kernel milliseconds, or Long.MAX_VALUE if no
+     *         thread is sleeping.
+     */
+    @KernelSpace
+    @Uninterruptible
+    final long getNextWakeupTime() {
+        // This is only a hint, so no need to lock
+        final VmThread first = sleepQueue.first();
+        return (first != null) ? first.wakeupTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the number of processors that use this scheduler.
+     *
+     * @return the number of processors
+     */
+    @KernelSpace
+    @Uninterruptible
+    public final int getProcessorCount() {
+        return processors.length;
+    }
+
+    /**
+     * Gets a processor that uses this scheduler.
+     *
+     * @param index 0 .. getProcessorCount() - 1
+     * @return the processor
+     */
+    @KernelSpace
+    @Uninterruptible
+    public final VmProcessor getProcessor(int index) {
+        return processors[index];
     }
 
     /**
@@ -241,11 +519,16 @@ public final class VmScheduler {
     @KernelSpace
     @Uninterruptible
     final VmThread popFirstSleepingThread() {
+        // Avoid the lock if nobody needs to be woken up, this is only a hint.
+        final VmThread first = sleepQueue.first();
+        if ((first == null) || !first.canWakeup(VmSystem.currentKernelMillis())) {
+            return null;
+        }
         try {
             // Get access to queues
             queueLock.lock();
 
-            final VmThread newThread = sleepQueue.first(VmMagic.currentProcessor());
+            final VmThread newThread = sleepQueue.first();
             if (newThread != null) {
                 final long curTime = VmSystem.currentKernelMillis();
                 if (newThread.canWakeup(curTime)) {
@@ -270,38 +553,64 @@ public final class VmScheduler {
             // Get access to queues
             queueLock.lock();
 
-            readyQueue.dump(false, null);
             sleepQueue.dump(false, null);
         } finally {
             // Release access to queues
             queueLock.unlock();
         }
+        final VmProcessor[] procs = this.processors;
+        for (int i = 0; i < procs.length; i++) {
+            final VmProcessor proc = procs[i];
+            proc.readyQueueLock.lock();
+            try {
+                dumpReadyQueue(proc, false, null);
+            } finally {
+                proc.readyQueueLock.unlock();
+            }
+        }
     }
 
     /**
-     * Lock the queues for access by the current processor.
+     * Dump the ready queues of all processors to the unsafe debug stream,
+     * without taking any locks.
+     *
+     * @param dumpStack
+     * @param stackReader
      */
-    @Inline
+    @KernelSpace
     @Uninterruptible
-    final void lock() {
-        queueLock.lock();
+    final void dumpReadyQueues(boolean dumpStack, VmStackReader stackReader) {
+        final VmProcessor[] procs = this.processors;
+        for (int i = 0; i < procs.length; i++) {
+            dumpReadyQueue(procs[i], dumpStack, stackReader);
+        }
+    }
+
+    @KernelSpace
+    @Uninterruptible
+    private void dumpReadyQueue(VmProcessor proc, boolean dumpStack, VmStackReader stackReader) {
+        Unsafe.debug("processor ");
+        Unsafe.debug(proc.getIdString());
+        Unsafe.debug(" ");
+        proc.readyQueue.dump(dumpStack, stackReader);
     }
 
     /**
-     * Unlock the queues.
+     * Lock the sleep queue for access by the current processor.
      */
     @Inline
     @Uninterruptible
-    final void unlock() {
-        queueLock.unlock();
+    final void lock() {
+        queueLock.lock();
     }
 
     /**
-     * @return The queue containing all ready threads.
+     * Unlock the sleep queue.
      */
     @Inline
-    final VmThreadQueue.ScheduleQueue getReadyQueue() {
-        return readyQueue;
+    @Uninterruptible
+    final void unlock() {
+        queueLock.unlock();
     }
 
     /**
@@ -208,6 +208,17 @@ public abstract class VmThread extends VmSystemObject implements org.jnode.vm.fa
      */
     volatile VmProcessor currentProcessor;
 
+    /**
+     * The processor this thread prefers to run on. This is only a hint, an idle
+     * processor may still take this thread.
+     */
+    private volatile VmProcessor preferredProcessor;
+
+    /**
+     * The processor that has last scheduled this thread.
+     */
+    volatile VmProcessor lastProcessor;
+
     /**
      * State is set to CREATED by the static initializer. Once set to other than
      * CREATED, it should never go back. Alternates between RUNNING and
@@ -1229,6 +1240,25 @@ public abstract class VmThread extends VmSystemObject implements org.jnode.vm.fa
         this.requiredProcessor = requiredProcessor;
     }
 
+    /**
+     * @return the preferredProcessor
+     */
+    @KernelSpace
+    @Uninterruptible
+    public final VmProcessor getPreferredProcessor() {
+        return preferredProcessor;
+    }
+
+    /**
+     * Sets the processor this thread prefers to run on. The hint is used the
+     * next time this thread becomes ready to run.
+     *
+     * @param preferredProcessor the preferred processor, or null for no preference
+     */
+    public final void setPreferredProcessor(VmProcessor preferredProcessor) {
+        this.preferredProcessor = preferredProcessor;
+    }
+
     /**
      * @return the currentProcessor
      */
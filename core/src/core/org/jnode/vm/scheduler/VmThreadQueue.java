@@ -69,28 +69,6 @@ abstract class VmThreadQueue extends VmSystemObject {
         }
     }
 
-    /**
-     * Gets the first thread in the queue that has its currentProcessor field
-     * set to null of the given processor.
-     *
-     * @param currentProcessor The processor making this request.
-     * @return VmThread
-     */
-    @KernelSpace
-    @Uninterruptible
-    final VmThread first(VmProcessor currentProcessor) {
-        VmThreadQueueEntry entry = this.first;
-        while (entry != null) {
-            final VmThread thread = entry.thread;
-            if ((thread.currentProcessor == null)
-                || (thread.currentProcessor == currentProcessor)) {
-                return thread;
-            }
-            entry = entry.next;
-        }
-        return null;
-    }
-
     /**
      * Invoke the visit method of the visitor for all threads in this queue.
      *
@@ -169,44 +147,6 @@ abstract class VmThreadQueue extends VmSystemObject {
         }
     }
 
-    /**
-     * Add the given thread to the given queue such that the queue is sorted by
-     * wakeup time. The nearest wakeup time is the first element in the queue.
-     *
-     * @param queue
-     * @param entry
-     * @param caller
-     * @return The new queue.
-     * @throws UninterruptiblePragma
-     */
-    protected final VmThreadQueueEntry addToQueueSortByWakeupTime(
-        VmThreadQueueEntry queue, VmThreadQueueEntry entry, String caller)
-        throws UninterruptiblePragma {
-        entry.setInUse(this, caller);
-        if (queue == null) {
-            return entry;
-        } else {
-            long threadWakeup = entry.thread.wakeupTime;
-            VmThreadQueueEntry t = queue;
-
-            if (threadWakeup < t.thread.wakeupTime) {
-                entry.next = t;
-                return entry;
-            }
-
-            while (t.next != null) {
-                if (threadWakeup < t.next.thread.wakeupTime) {
-                    entry.next = t.next;
-                    t.next = entry;
-                    return queue;
-                }
-                t = t.next;
-            }
-            t.next = entry;
-            return queue;
-        }
-    }
-
     /**
      * Remove the given thread from the given queue.
      *
@@ -247,7 +187,7 @@ abstract class VmThreadQueue extends VmSystemObject {
      */
     @KernelSpace
     @Uninterruptible
-    final void dump(boolean dumpStack, VmStackReader stackReader) {
+    void dump(boolean dumpStack, VmStackReader stackReader) {
         Unsafe.debug(name);
         Unsafe.debug("-queue:\n");
         VmThreadQueueEntry e = first;
@@ -255,24 +195,33 @@ abstract class VmThreadQueue extends VmSystemObject {
             Unsafe.debug("Empty\n");
         } else {
             while (e != null) {
-                Unsafe.debug(e.thread.getName());
-                Unsafe.debug(" id0x");
-                Unsafe.debug(e.thread.getId());
-                Unsafe.debug(" s0x");
-                Unsafe.debug(e.thread.getThreadState());
-                Unsafe.debug(" p0x");
-                Unsafe.debug(e.thread.priority);
-                Unsafe.debug("\n");
-                if (dumpStack && (stackReader != null)) {
-                    stackReader.debugStackTrace(e.thread);
-                    Unsafe.debug("\n");
-                }
+                dumpEntry(e, dumpStack, stackReader);
                 e = e.getNext();
             }
         }
         Unsafe.debug("\n");
     }
 
+    /**
+     * Dump a single queue entry on Unsafe.debug.
+     */
+    @KernelSpace
+    @Uninterruptible
+    static void dumpEntry(VmThreadQueueEntry e, boolean dumpStack, VmStackReader stackReader) {
+        Unsafe.debug(e.thread.getName());
+        Unsafe.debug(" id0x");
+        Unsafe.debug(e.thread.getId());
+        Unsafe.debug(" s0x");
+        Unsafe.debug(e.thread.getThreadState());
+        Unsafe.debug(" p0x");
+        Unsafe.debug(e.thread.priority);
+        Unsafe.debug("\n");
+        if (dumpStack && (stackReader != null)) {
+            stackReader.debugStackTrace(e.thread);
+            Unsafe.debug("\n");
+        }
+    }
+
     /**
      * Queue for all threads.
      *
@@ -299,11 +248,31 @@ abstract class VmThreadQueue extends VmSystemObject {
 
     /**
      * Queue for all sleeping threads.
+     * <p/>
+     * The threads are kept in a binary heap ordered by wakeup time, so adding
+     * or removing a thread does not walk all sleeping threads and the first
+     * thread to wakeup is always in front.
+     * The heap never grows while a thread is added, see {@link #grow(VmThreadQueueEntry[])}.
      *
      * @author Ewout Prangsma (epr@users.sourceforge.net)
      */
     static final class SleepQueue extends VmThreadQueue {
 
+        /**
+         * Initial number of threads the heap can hold.
+         */
+        static final int INITIAL_CAPACITY = 64;
+
+        /**
+         * The heap, the entry at index 0 has the nearest wakeup time.
+         */
+        private VmThreadQueueEntry[] heap = new VmThreadQueueEntry[INITIAL_CAPACITY];
+
+        /**
+         * Number of threads in the heap.
+         */
+        private int size;
+
         /**
          * Initialize this instance.
          */
@@ -313,14 +282,139 @@ abstract class VmThreadQueue extends VmSystemObject {
 
         @Uninterruptible
         final void add(VmThread thread, String caller) {
-            first = addToQueueSortByWakeupTime(first, thread.sleepQueueEntry,
-                caller);
+            final VmThreadQueueEntry entry = thread.sleepQueueEntry;
+            if (size == heap.length) {
+                Unsafe.debug("Sleep queue is full\n");
+                Unsafe.die("SleepQueue.add");
+            }
+            entry.setInUse(this, caller);
+            heap[size] = entry;
+            siftUp(entry, size);
+            size++;
+            first = heap[0];
         }
 
         @KernelSpace
         @Uninterruptible
         final void remove(VmThread thread) {
-            first = removeFromQueue(first, thread.sleepQueueEntry);
+            final VmThreadQueueEntry entry = thread.sleepQueueEntry;
+            final int index = entry.heapIndex;
+            if ((index >= size) || (heap[index] != entry)) {
+                // Not on this queue
+                return;
+            }
+            size--;
+            final VmThreadQueueEntry last = heap[size];
+            heap[size] = null;
+            if (index < size) {
+                siftDown(last, index);
+                siftUp(last, last.heapIndex);
+            }
+            entry.setInUse(null, null);
+            first = (size > 0) ? heap[0] : null;
+        }
+
+        /**
+         * Gets the number of threads the heap can hold.
+         *
+         * @return the capacity
+         */
+        @Uninterruptible
+        final int capacity() {
+            return heap.length;
+        }
+
+        /**
+         * Replace the heap by the given (larger) array. The array is allocated
+         * by the caller, since no allocation is allowed while the queue is locked.
+         *
+         * @param newHeap
+         */
+        @Uninterruptible
+        final void grow(VmThreadQueueEntry[] newHeap) {
+            if (newHeap.length > heap.length) {
+                System.arraycopy(heap, 0, newHeap, 0, size);
+                heap = newHeap;
+            }
+        }
+
+        /**
+         * @see VmThreadQueue#visit(VmThreadVisitor)
+         */
+        public boolean visit(VmThreadVisitor visitor) {
+            for (int i = 0; i < size; i++) {
+                if (!visitor.visit(heap[i].thread)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Dump the status of this queue on Unsafe.debug. The threads are
+         * dumped in heap order, not in wakeup order.
+         */
+        @KernelSpace
+        @Uninterruptible
+        final void dump(boolean dumpStack, VmStackReader stackReader) {
+            Unsafe.debug(name);
+            Unsafe.debug("-queue:\n");
+            if (size == 0) {
+                Unsafe.debug("Empty\n");
+            } else {
+                for (int i = 0; i < size; i++) {
+                    dumpEntry(heap[i], dumpStack, stackReader);
+                }
+            }
+            Unsafe.debug("\n");
+        }
+
+        /**
+         * Move the given entry towards the front until its parent wakes up earlier.
+         */
+        @KernelSpace
+        @Uninterruptible
+        private void siftUp(VmThreadQueueEntry entry, int index) {
+            final long wakeupTime = entry.thread.wakeupTime;
+            while (index > 0) {
+                final int parent = (index - 1) >> 1;
+                final VmThreadQueueEntry p = heap[parent];
+                if (p.thread.wakeupTime <= wakeupTime) {
+                    break;
+                }
+                heap[index] = p;
+                p.heapIndex = index;
+                index = parent;
+            }
+            heap[index] = entry;
+            entry.heapIndex = index;
+        }
+
+        /**
+         * Move the given entry towards the back until its children wake up later.
+         */
+        @KernelSpace
+        @Uninterruptible
+        private void siftDown(VmThreadQueueEntry entry, int index) {
+            final long wakeupTime = entry.thread.wakeupTime;
+            final int half = size >> 1;
+            while (index < half) {
+                int child = (index << 1) + 1;
+                VmThreadQueueEntry c = heap[child];
+                final int right = child + 1;
+                if ((right < size) && (heap[right].thread.wakeupTime < c.thread.wakeupTime)) {
+                    child = right;
+                    c = heap[child];
+                }
+                if (wakeupTime <= c.thread.wakeupTime) {
+                    break;
+                }
+                heap[index] = c;
+                c.heapIndex = index;
+                index = child;
+            }
+            heap[index] = entry;
+            entry.heapIndex = index;
         }
     }
 
@@ -350,4 +444,167 @@ abstract class VmThreadQueue extends VmSystemObject {
             first = removeFromQueue(first, thread.queueEntry);
         }
     }
+
+    /**
+     * Queue of threads that are ready to run on a single processor.
+     * <p/>
+     * The threads are kept in priority order, just like the ScheduleQueue, but
+     * the last entry of every priority is remembered, so adding a thread or
+     * taking the first thread never has to walk the queue.
+     *
+     * @author Ewout Prangsma (epr@users.sourceforge.net)
+     */
+    static final class ReadyQueue extends VmThreadQueue {
+
+        /**
+         * Bucket of threads that are added to the back of the queue, regardless
+         * of their priority.
+         */
+        private static final int IGNORE_PRIORITY_BUCKET = 0;
+
+        /**
+         * Last entry of every priority bucket, or null if the bucket is empty.
+         */
+        private final VmThreadQueueEntry[] tails = new VmThreadQueueEntry[Thread.MAX_PRIORITY + 1];
+
+        /**
+         * Number of threads in this queue.
+         */
+        private int size;
+
+        /**
+         * Initialize this instance.
+         */
+        public ReadyQueue(String name) {
+            super(name);
+        }
+
+        /**
+         * Add the given thread after all threads with equal or higher priority.
+         *
+         * @param thread
+         * @param ignorePriority If true, the thread is always added to the back of the list,
+         *                       regarding its priority.
+         * @param caller
+         */
+        @KernelSpace
+        @Uninterruptible
+        final void add(VmThread thread, boolean ignorePriority, String caller) {
+            final VmThreadQueueEntry entry = thread.queueEntry;
+            final int bucket;
+            if (ignorePriority) {
+                bucket = IGNORE_PRIORITY_BUCKET;
+            } else {
+                bucket = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, thread.priority));
+            }
+
+            // Find the last entry that has an equal or higher priority
+            VmThreadQueueEntry prev = null;
+            for (int i = bucket; (prev == null) && (i < tails.length); i++) {
+                prev = tails[i];
+            }
+
+            entry.setInUse(this, caller);
+            entry.bucket = bucket;
+            if (prev == null) {
+                entry.next = first;
+                first = entry;
+            } else {
+                entry.next = prev.next;
+                prev.next = entry;
+            }
+            tails[bucket] = entry;
+            size++;
+        }
+
+        /**
+         * Remove the first thread from this queue.
+         *
+         * @return The removed thread, or null if this queue is empty.
+         */
+        @KernelSpace
+        @Uninterruptible
+        final VmThread pop() {
+            final VmThreadQueueEntry entry = first;
+            if (entry == null) {
+                return null;
+            }
+            unlink(null, entry);
+            return entry.thread;
+        }
+
+        /**
+         * Remove the first thread from this queue that is not bound to a
+         * specific processor.
+         *
+         * @param running The thread the owner of this queue is still running,
+         *                this thread is never taken.
+         * @return The removed thread, or null if no such thread was found.
+         */
+        @KernelSpace
+        @Uninterruptible
+        final VmThread steal(VmThread running) {
+            VmThreadQueueEntry prev = null;
+            VmThreadQueueEntry entry = first;
+            while (entry != null) {
+                final VmThread thread = entry.thread;
+                if ((thread != running) && (thread.getRequiredProcessor() == null)) {
+                    unlink(prev, entry);
+                    return thread;
+                }
+                prev = entry;
+                entry = entry.next;
+            }
+            return null;
+        }
+
+        @KernelSpace
+        @Uninterruptible
+        final void remove(VmThread thread) {
+            final VmThreadQueueEntry entry = thread.queueEntry;
+            VmThreadQueueEntry prev = null;
+            VmThreadQueueEntry e = first;
+            while ((e != null) && (e != entry)) {
+                prev = e;
+                e = e.next;
+            }
+            if (e != null) {
+                unlink(prev, e);
+            }
+        }
+
+        /**
+         * Gets the number of threads in this queue.
+         *
+         * @return the number of threads
+         */
+        @KernelSpace
+        @Uninterruptible
+        final int size() {
+            return size;
+        }
+
+        /**
+         * Remove the given entry from this queue.
+         *
+         * @param prev  The entry in front of the given entry, or null if it is the first.
+         * @param entry
+         */
+        @KernelSpace
+        @Uninterruptible
+        private void unlink(VmThreadQueueEntry prev, VmThreadQueueEntry entry) {
+            if (prev == null) {
+                first = entry.next;
+            } else {
+                prev.next = entry.next;
+            }
+            final int bucket = entry.bucket;
+            if (tails[bucket] == entry) {
+                tails[bucket] = ((prev != null) && (prev.bucket == bucket)) ? prev : null;
+            }
+            entry.next = null;
+            entry.setInUse(null, null);
+            size--;
+        }
+    }
 }
@@ -41,6 +41,16 @@ final class VmThreadQueueEntry extends VmSystemObject {
     protected final VmThread thread;
     private String lastCaller;
 
+    /**
+     * The priority bucket of this entry, only valid while it is on a ReadyQueue.
+     */
+    int bucket;
+
+    /**
+     * The index of this entry in the heap, only valid while it is on a SleepQueue.
+     */
+    int heapIndex;
+
     /**
      * Initialize this instance
      *
@@ -68,6 +68,11 @@ final class LocalAPIC {
     static final int SVR_APIC_DISABLED = 0x00 << 8;
     static final int SVR_APIC_ENABLED = 0x01 << 8;
 
+    static final int LVT_MASKED = 0x01 << 16;
+    static final int LVT_TIMER_ONESHOT = 0x00 << 17;
+
+    static final int TIMER_DIVIDE_BY_16 = 0x03;
+
     /**
      * Local APIC ID register
      */
@@ -108,6 +113,22 @@ final class LocalAPIC {
      * Interrupt command register (low part)
      */
     static final int REG_ICR_LOW = 0x0300;
+    /**
+     * Local vector table entry of the timer
+     */
+    static final int REG_LVT_TIMER = 0x0320;
+    /**
+     * Timer initial count register
+     */
+    static final int REG_TIMER_INITIAL_COUNT = 0x0380;
+    /**
+     * Timer current count register (readonly)
+     */
+    static final int REG_TIMER_CURRENT_COUNT = 0x0390;
+    /**
+     * Timer divide configuration register
+     */
+    static final int REG_TIMER_DIVIDE_CONFIG = 0x03E0;
 
     /**
      * Memory region for local APIC
@@ -254,6 +275,51 @@ final class LocalAPIC {
         return ((mem.getInt(REG_ICR_LOW) & ICR_DELIVERY_STATUS_PENDING) != 0);
     }
 
+    /**
+     * Setup the timer in one-shot mode. When it expires, the given interrupt
+     * vector is raised, unless the timer is masked.
+     *
+     * @param vector Interrupt vector
+     * @param masked
+     */
+    final void setupTimer(int vector, boolean masked) {
+        mem.setInt(REG_TIMER_DIVIDE_CONFIG, TIMER_DIVIDE_BY_16);
+        int lvt = LVT_TIMER_ONESHOT | (vector & 0xFF);
+        if (masked) {
+            lvt |= LVT_MASKED;
+        }
+        mem.setInt(REG_LVT_TIMER, lvt);
+    }
+
+    /**
+     * Start the timer, it expires after the given number of timer ticks.
+     *
+     * @param count
+     */
+    @KernelSpace
+    @Uninterruptible
+    @Inline
+    final void startTimer(int count) {
+        mem.setInt(REG_TIMER_INITIAL_COUNT, count);
+    }
+
+    /**
+     * Stop the timer.
+     */
+    @KernelSpace
+    @Uninterruptible
+    @Inline
+    final void stopTimer() {
+        mem.setInt(REG_TIMER_INITIAL_COUNT, 0);
+    }
+
+    /**
+     * Gets the number of timer ticks left before the timer expires.
+     */
+    final int getTimerCount() {
+        return mem.getInt(REG_TIMER_CURRENT_COUNT);
+    }
+
     /**
      * Release all resources.
      */
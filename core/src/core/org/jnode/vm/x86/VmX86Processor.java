@@ -61,6 +61,16 @@ public abstract class VmX86Processor extends VmProcessor {
      */
     private static final int TIMESLICE_VECTOR = 0x33;
 
+    /**
+     * Longest time an idle processor goes without any timeslice interrupt.
+     */
+    private static final int MAX_TICKLESS_MILLIS = 100;
+
+    /**
+     * Time used to measure the speed of the local APIC timer.
+     */
+    private static final int APIC_TIMER_CALIBRATE_MILLIS = 10;
+
     /**
      * The IRQ counters
      */
@@ -96,6 +106,22 @@ public abstract class VmX86Processor extends VmProcessor {
      */
     volatile Word sendTimeSliceInterrupt;
 
+    /**
+     * Number of local APIC timer ticks per millisecond, 0 if the timer cannot
+     * be used to wakeup this processor.
+     */
+    private int apicTimerTicksPerMs;
+
+    /**
+     * Is this processor idle without receiving timeslice interrupts?
+     */
+    private volatile boolean tickless;
+
+    /**
+     * Number of times this processor went idle without timeslice interrupts.
+     */
+    private int ticklessCount;
+
     /**
      * The resource manager
      */
@@ -317,6 +343,9 @@ public abstract class VmX86Processor extends VmProcessor {
         // First force a load of CPUID
         cpu.getCPUID();
 
+        // Measure the local APIC timer, so we can go idle without timeslices
+        cpu.calibrateApicTimer();
+
         // Prepare for threading
         cpu.systemReadyForThreadSwitch();
 
@@ -393,7 +422,11 @@ public abstract class VmX86Processor extends VmProcessor {
         out.println("Local APIC : " + ((localAPIC == null) ? "not present" :
             ((localAPIC.isEnabled() ? "enabled" : "disabled") + NumberUtils.hex(localAPIC.getErrors(), 4))));
         out.println("TimeSliceBC: " + (sendTimeSliceInterrupt.isZero() ? "disabled" : "enabled"));
+        out.println("Tickless   : " + ((apicTimerTicksPerMs == 0) ? "not available" :
+            (apicTimerTicksPerMs + " timer ticks/ms, idle " + ticklessCount + " times")));
         out.println("TSI        : " + MagicUtils.toString(getTSIAddress().loadWord()));
+        out.println("Run queue  : " + getReadyQueueLength() + " ready, " + getStealCount() + " stolen, "
+            + getStolenCount() + " taken by others");
     }
 
     /**
@@ -404,10 +437,119 @@ public abstract class VmX86Processor extends VmProcessor {
     @Uninterruptible
     final void broadcastTimeSliceInterrupt() {
 //        Unsafe.debug("broadcast ts-int\n");
-        localAPIC.sendFixedIPI(0, LocalAPIC.ICR_DESTINATION_SHORTHAND_ALL_EX_SELF, TIMESLICE_VECTOR);
+        final VmScheduler scheduler = getScheduler();
+        final int count = scheduler.getProcessorCount();
+        boolean anyTickless = false;
+        for (int i = 0; i < count; i++) {
+            if (((VmX86Processor) scheduler.getProcessor(i)).tickless) {
+                anyTickless = true;
+                break;
+            }
+        }
+        if (!anyTickless) {
+            localAPIC.sendFixedIPI(0, LocalAPIC.ICR_DESTINATION_SHORTHAND_ALL_EX_SELF, TIMESLICE_VECTOR);
+        } else {
+            // Leave the idle processors alone
+            for (int i = 0; i < count; i++) {
+                final VmX86Processor cpu = (VmX86Processor) scheduler.getProcessor(i);
+                if ((cpu != this) && !cpu.tickless) {
+                    localAPIC.sendFixedIPI(cpu.getId(), LocalAPIC.ICR_DESTINATION_SHORTHAND_NONE, TIMESLICE_VECTOR);
+                }
+            }
+        }
 //        Unsafe.debug("end broadcast ts-int\n");
     }
 
+    /**
+     * Measure the speed of the local APIC timer of the current processor
+     * against the kernel clock of the boot processor.
+     */
+    final void calibrateApicTimer() {
+        final LocalAPIC apic = this.localAPIC;
+        if ((apic == null) || bootProcessor) {
+            return;
+        }
+        apic.setupTimer(TIMESLICE_VECTOR, true);
+
+        // Wait for the start of a new millisecond
+        final long now = VmSystem.currentKernelMillis();
+        long start;
+        while ((start = VmSystem.currentKernelMillis()) == now) {
+            // Wait
+        }
+        apic.startTimer(-1);
+        while (VmSystem.currentKernelMillis() < start + APIC_TIMER_CALIBRATE_MILLIS) {
+            // Wait
+        }
+        final long ticks = 0xFFFFFFFFL - (apic.getTimerCount() & 0xFFFFFFFFL);
+        apic.stopTimer();
+
+        this.apicTimerTicksPerMs = (int) (ticks / APIC_TIMER_CALIBRATE_MILLIS);
+        apic.setupTimer(TIMESLICE_VECTOR, false);
+    }
+
+    /**
+     * Stop receiving timeslice interrupts and let the local APIC timer wake
+     * this processor when the first sleeping thread is due.
+     *
+     * @see VmProcessor#enterIdle(long)
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected final void enterIdle(long wakeupTime) {
+        final int ticksPerMs = this.apicTimerTicksPerMs;
+        if ((ticksPerMs == 0) || (getReadyQueueLength() > 0)) {
+            // No timer, or work has arrived while going idle
+            return;
+        }
+        long millis = wakeupTime - VmSystem.currentKernelMillis();
+        if (millis > MAX_TICKLESS_MILLIS) {
+            millis = MAX_TICKLESS_MILLIS;
+        } else if (millis < 1) {
+            millis = 1;
+        }
+        localAPIC.startTimer((int) (millis * ticksPerMs));
+
+        // Publish tickless before looking at the ready queue again, so a thread
+        // added by another processor is either seen here or sends us an IPI.
+        tickless = true;
+        if (hasReadyThreads()) {
+            tickless = false;
+            localAPIC.stopTimer();
+            return;
+        }
+        ticklessCount++;
+    }
+
+    /**
+     * @see VmProcessor#exitIdle()
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected final void exitIdle() {
+        if (apicTimerTicksPerMs != 0) {
+            tickless = false;
+            localAPIC.stopTimer();
+        }
+    }
+
+    /**
+     * Send a timeslice interrupt to this processor, if it is not receiving them.
+     *
+     * @see VmProcessor#wakeupFromIdle()
+     */
+    @KernelSpace
+    @Uninterruptible
+    protected final void wakeupFromIdle() {
+        if (tickless) {
+            tickless = false;
+            final LocalAPIC apic = ((VmX86Processor) current()).localAPIC;
+            if (apic != null) {
+                apic.sendFixedIPI(getId(), LocalAPIC.ICR_DESTINATION_SHORTHAND_NONE, TIMESLICE_VECTOR);
+            }
+        }
+    }
+
     /**
      * Is this processor the boot processor?
      *
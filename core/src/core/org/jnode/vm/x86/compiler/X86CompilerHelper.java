@@ -106,6 +106,11 @@ public class X86CompilerHelper {
 
     private VmMethod method;
 
+    /**
+     * Is code being compiled for the boot image?
+     */
+    private boolean isBootstrap;
+
     private String labelPrefix;
 
     private String instrLabelPrefix;
@@ -153,14 +158,16 @@ public class X86CompilerHelper {
             this.SLOTSIZE = 8;
         }
         this.entryPoints = entryPoints;
+        this.isBootstrap = isBootstrap;
         this.stackMgr = stackMgr;
         final X86CpuID cpuId = (X86CpuID) os.getCPUID();
         haveCMOV = cpuId.hasFeature(X86CpuID.FEAT_CMOV);
     }
 
-    public void reset(X86Assembler x86Assembler, EntryPoints entryPoints) {
+    public void reset(X86Assembler x86Assembler, EntryPoints entryPoints, boolean isBootstrap) {
         this.os = x86Assembler;
         this.entryPoints = entryPoints;
+        this.isBootstrap = isBootstrap;
     }
 
     /**
@@ -339,6 +346,66 @@ public class X86CompilerHelper {
         }
     }
 
+    /**
+     * Does the code of the current method count its invocations and backward
+     * branches, so it can be recompiled by the optimizing compiler once it
+     * has become hot? Only methods compiled at runtime are counted, since the
+     * boot image selects the optimizing compiler by package.
+     *
+     * @return true if the invocations are counted, false otherwise.
+     */
+    public final boolean isInvocationCounted() {
+        return !isBootstrap && !method.isUninterruptible() && !method.hasLoadStaticsPragma();
+    }
+
+    /**
+     * Insert code that counts an invocation of the current method and that
+     * calls {@link VmMethod#promoteMethod(VmMethod)} when the method has
+     * become hot. This code must be called after the stack frame has been
+     * created. AAX is destroyed.
+     */
+    public final void writeInvocationCounter() {
+        if (isInvocationCounted()) {
+            final Label promoteLabel = genLabel("$$promote");
+            final Label doneLabel = genLabel("$$counted");
+            final int invocationCountOfs = entryPoints.getVmMethodInvocationCountField().getOffset();
+            final int backEdgeCountOfs = entryPoints.getVmMethodBackEdgeCountField().getOffset();
+            os.writeMOV_Const(AAX, method);
+            os.writeINC(BITS32, AAX, invocationCountOfs);
+            // The increment is not atomic, so concurrent invocations may skip the exact threshold
+            os.writeCMP_Const(BITS32, AAX, invocationCountOfs, VmMethod.PROMOTE_INVOCATION_COUNT);
+            os.writeJCC(promoteLabel, X86Constants.JGE);
+            // The backedge counter stops at its threshold until promoteMethod is called
+            os.writeCMP_Const(BITS32, AAX, backEdgeCountOfs, VmMethod.PROMOTE_BACKEDGE_COUNT);
+            os.writeJCC(doneLabel, X86Constants.JNE);
+            os.setObjectRef(promoteLabel);
+            os.writePUSH(AAX);
+            invokeJavaMethod(entryPoints.getPromoteMethod());
+            os.setObjectRef(doneLabel);
+        }
+    }
+
+    /**
+     * Insert code that counts a backward branch of the current method. The
+     * counter stops at the promotion threshold, so the next invocation of the
+     * method can detect it. No registers are changed.
+     *
+     * @param curInstrLabel
+     */
+    public final void writeBackEdgeCounter(Object curInstrLabel) {
+        if (isInvocationCounted()) {
+            final Label doneLabel = new Label(curInstrLabel + "$$be");
+            final int backEdgeCountOfs = entryPoints.getVmMethodBackEdgeCountField().getOffset();
+            os.writePUSH(AAX);
+            os.writeMOV_Const(AAX, method);
+            os.writeCMP_Const(BITS32, AAX, backEdgeCountOfs, VmMethod.PROMOTE_BACKEDGE_COUNT);
+            os.writeJCC(doneLabel, X86Constants.JE);
+            os.writeINC(BITS32, AAX, backEdgeCountOfs);
+            os.setObjectRef(doneLabel);
+            os.writePOP(AAX);
+        }
+    }
+
     /**
      * Write class initialization code
      *
@@ -303,7 +303,7 @@ final class X86BytecodeVisitor extends InlineBytecodeVisitor {
         this.typeSizeInfo = typeSizeInfo;
         this.log = this.os.isLogEnabled();
         this.vstack.reset(eContext);
-        this.helper.reset((X86Assembler) os, entryPoints);
+        this.helper.reset((X86Assembler) os, entryPoints, bootstrap);
         this.eContext.reset((X86Assembler) os, entryPoints);
         this.fpCompiler.reset((X86Assembler) os);
     }
@@ -4424,6 +4424,7 @@ final class X86BytecodeVisitor extends InlineBytecodeVisitor {
      * Insert a yieldpoint into the code
      */
     public final void yieldPoint() {
+        helper.writeBackEdgeCounter(getCurInstrLabel());
         helper.writeYieldPoint(getCurInstrLabel());
     }
 
@@ -220,9 +220,6 @@ final class X86StackFrame {
         // Create class initialization code (if needed)
         helper.writeClassInitialize(method);
 
-        // Increment the invocation count
-        //helper.writeIncInvocationCount(aax); (NOT USED for now, aax is also invalid now)
-
         // Fixed framelayout
         saveRegisters();
         os.writePUSH(abp);
@@ -239,6 +236,9 @@ final class X86StackFrame {
             }
         }
 
+        // Count the invocation, so hot methods can be recompiled
+        helper.writeInvocationCounter();
+
         // Create the synchronization enter code
         emitSynchronizationCode(typeSizeInfo, entryPoints.getMonitorEnterMethod());
 
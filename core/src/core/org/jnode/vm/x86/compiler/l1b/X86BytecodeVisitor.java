@@ -5427,6 +5427,7 @@ final class X86BytecodeVisitor extends InlineBytecodeVisitor implements
      * Insert a yieldpoint into the code
      */
     public final void yieldPoint() {
+        helper.writeBackEdgeCounter(getCurInstrLabel());
         helper.writeYieldPoint(getCurInstrLabel());
     }
 
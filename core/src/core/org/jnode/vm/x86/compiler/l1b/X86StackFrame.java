@@ -213,9 +213,6 @@ final class X86StackFrame implements X86CompilerConstants {
         // Create class initialization code (if needed)
         helper.writeClassInitialize(method);
 
-        // Increment the invocation count
-        //helper.writeIncInvocationCount(aax); (NOT USED for now, aax is also invalid now)
-
         // Fixed framelayout
         saveRegisters();
         os.writePUSH(abp);
@@ -232,6 +229,9 @@ final class X86StackFrame implements X86CompilerConstants {
             }
         }
 
+        // Count the invocation, so hot methods can be recompiled
+        helper.writeInvocationCounter();
+
         // Create the synchronization enter code
         emitSynchronizationCode(typeSizeInfo, entryPoints.getMonitorEnterMethod());
 
@@ -0,0 +1,179 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import org.jnode.util.Queue;
+
+/**
+ * Micro benchmark comparing {@link Queue} with the ArrayList based queue it replaced.
+ * <p/>
+ * Each scenario is run for a number of warmup iterations first, followed by
+ * measured iterations; the best measured iteration is reported, in the style of JMH.
+ * Usage: QueueBenchmark [backlog]
+ *
+ * @author epr
+ */
+public class QueueBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int OPERATIONS = 200000;
+
+    /**
+     * The common operations of the two queue implementations
+     */
+    private interface BenchQueue {
+        void add(Integer object);
+
+        Integer get();
+
+        int drainTo(Collection<Integer> c, int max);
+    }
+
+    /**
+     * The queue implementation as it was before the array ring:
+     * get removes element 0 of an ArrayList and add calls notifyAll.
+     */
+    private static final class ArrayListQueue implements BenchQueue {
+        private final ArrayList<Integer> queue = new ArrayList<Integer>();
+
+        public synchronized void add(Integer object) {
+            queue.add(object);
+            notifyAll();
+        }
+
+        public synchronized Integer get() {
+            while (queue.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+            return queue.remove(0);
+        }
+
+        public synchronized int drainTo(Collection<Integer> c, int max) {
+            // The old queue had no drainTo, so take the elements one by one
+            int n = 0;
+            while ((n < max) && !queue.isEmpty()) {
+                c.add(queue.remove(0));
+                n++;
+            }
+            return n;
+        }
+    }
+
+    private static final class RingQueue implements BenchQueue {
+        private final Queue<Integer> queue = new Queue<Integer>();
+
+        public void add(Integer object) {
+            queue.add(object);
+        }
+
+        public Integer get() {
+            return queue.get();
+        }
+
+        public int drainTo(Collection<Integer> c, int max) {
+            return queue.drainTo(c, max);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int backlog = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        System.out.println("Queue benchmark, " + OPERATIONS + " operations per iteration");
+
+        report("single thread, backlog " + backlog + ", old",
+            singleThread(new ArrayListQueue(), backlog));
+        report("single thread, backlog " + backlog + ", new",
+            singleThread(new RingQueue(), backlog));
+        report("producer/consumer, old", producerConsumer(new ArrayListQueue(), false));
+        report("producer/consumer, new", producerConsumer(new RingQueue(), false));
+        report("producer/consumer with drainTo, old", producerConsumer(new ArrayListQueue(), true));
+        report("producer/consumer with drainTo, new", producerConsumer(new RingQueue(), true));
+    }
+
+    private static void report(String name, long bestNanos) {
+        final long opsPerMs = (OPERATIONS * 1000000L) / Math.max(1, bestNanos);
+        System.out.println(name + ": " + opsPerMs + " ops/ms");
+    }
+
+    /**
+     * Add and get elements in a single thread, while the queue holds
+     * a constant number of other elements.
+     */
+    private static long singleThread(BenchQueue queue, int backlog) {
+        for (int i = 0; i < backlog; i++) {
+            queue.add(i);
+        }
+        long best = Long.MAX_VALUE;
+        for (int iter = 0; iter < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iter++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                queue.add(i);
+                queue.get();
+            }
+            final long time = System.nanoTime() - start;
+            if (iter >= WARMUP_ITERATIONS) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Add elements in one thread and take them in another thread.
+     */
+    private static long producerConsumer(final BenchQueue queue, final boolean drain)
+        throws InterruptedException {
+        long best = Long.MAX_VALUE;
+        for (int iter = 0; iter < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iter++) {
+            final Thread consumer = new Thread() {
+                public void run() {
+                    final ArrayList<Integer> batch = new ArrayList<Integer>();
+                    int received = 0;
+                    while (received < OPERATIONS) {
+                        queue.get();
+                        received++;
+                        if (drain) {
+                            received += queue.drainTo(batch, 32);
+                            batch.clear();
+                        }
+                    }
+                }
+            };
+            final long start = System.nanoTime();
+            consumer.start();
+            for (int i = 0; i < OPERATIONS; i++) {
+                queue.add(i);
+            }
+            consumer.join();
+            final long time = System.nanoTime() - start;
+            if (iter >= WARMUP_ITERATIONS) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jnode.util.Queue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueueTest {
+    @Test
+    public void testFifoOrderAcrossWrapAround() {
+        Queue<Integer> queue = new Queue<Integer>(4);
+        for (int i = 0; i < 100; i++) {
+            queue.add(i);
+            queue.add(i + 1000);
+            assertEquals(Integer.valueOf(i), queue.get(Queue.NO_WAIT));
+            assertEquals(Integer.valueOf(i + 1000), queue.get(Queue.NO_WAIT));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testUnboundedGrows() {
+        Queue<Integer> queue = new Queue<Integer>();
+        queue.add(-1);
+        queue.get(Queue.NO_WAIT);
+        for (int i = 0; i < 1000; i++) {
+            queue.add(i);
+        }
+        assertEquals(1000, queue.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), queue.get(Queue.NO_WAIT));
+        }
+    }
+
+    @Test
+    public void testOfferOnFullQueue() {
+        Queue<Integer> queue = new Queue<Integer>(2);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertEquals(2, queue.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddOnFullQueue() {
+        Queue<Integer> queue = new Queue<Integer>(1);
+        queue.add(1);
+        queue.add(2);
+    }
+
+    @Test
+    public void testDrainTo() {
+        Queue<Integer> queue = new Queue<Integer>(8);
+        for (int i = 0; i < 5; i++) {
+            queue.add(i);
+        }
+        List<Integer> list = new ArrayList<Integer>();
+        assertEquals(3, queue.drainTo(list, 3));
+        assertEquals(3, list.size());
+        assertEquals(Integer.valueOf(2), list.get(2));
+        assertEquals(2, queue.drainTo(list, 10));
+        assertEquals(Integer.valueOf(4), list.get(4));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRemoveFromMiddle() {
+        Queue<Integer> queue = new Queue<Integer>(4);
+        queue.add(0);
+        queue.add(1);
+        queue.get(Queue.NO_WAIT);
+        queue.get(Queue.NO_WAIT);
+        // Elements now wrap around the end of the array
+        queue.add(2);
+        queue.add(3);
+        queue.add(4);
+        queue.add(5);
+        queue.remove(3);
+        assertFalse(queue.contains(3));
+        assertEquals(Integer.valueOf(2), queue.get(Queue.NO_WAIT));
+        assertEquals(Integer.valueOf(4), queue.get(Queue.NO_WAIT));
+        assertEquals(Integer.valueOf(5), queue.get(Queue.NO_WAIT));
+        assertNull(queue.get(Queue.NO_WAIT));
+    }
+
+    @Test
+    public void testWaitersAreWokenUp() throws InterruptedException {
+        final Queue<Integer> queue = new Queue<Integer>(16);
+        final int[] received = new int[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    if (queue.get() != null) {
+                        synchronized (received) {
+                            received[0]++;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            queue.add(i);
+        }
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+        assertEquals(threads.length, received[0]);
+    }
+
+    @Test
+    public void testCloseReleasesWaiters() throws InterruptedException {
+        final Queue<Integer> queue = new Queue<Integer>();
+        final Object[] result = {"not set"};
+        Thread t = new Thread() {
+            public void run() {
+                result[0] = queue.get();
+            }
+        };
+        t.start();
+        queue.close();
+        t.join(5000);
+        assertNull(result[0]);
+    }
+}
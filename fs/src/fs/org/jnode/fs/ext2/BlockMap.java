@@ -0,0 +1,145 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+/**
+ * Run-length map from the logical block indexes of an inode to the physical
+ * block numbers of the filesystem.
+ * <p/>
+ * Each run maps a range of consecutive logical blocks to a range of
+ * consecutive physical blocks, or to a hole (physical block 0).
+ * The runs are sorted by logical index, so a lookup is a binary search.
+ * <p/>
+ * This class is not synchronized, the inode that owns the map guards it.
+ *
+ * @author Andras Nagy
+ */
+final class BlockMap {
+
+    /**
+     * Returned by {@link #lookup(long)} if the block is not mapped
+     */
+    static final long UNMAPPED = -1;
+
+    private long[] logical = new long[8];
+
+    private long[] physical = new long[8];
+
+    private long[] length = new long[8];
+
+    private int runs;
+
+    /**
+     * Gets the physical block number of the given logical block.
+     *
+     * @param index the logical index of the block
+     * @return the physical block number, 0 for a hole or {@link #UNMAPPED}
+     */
+    long lookup(long index) {
+        int low = 0;
+        int high = runs - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (index < logical[middle]) {
+                high = middle - 1;
+            } else if (index >= logical[middle] + length[middle]) {
+                low = middle + 1;
+            } else {
+                final long start = physical[middle];
+                return (start == 0) ? 0 : start + (index - logical[middle]);
+            }
+        }
+        return UNMAPPED;
+    }
+
+    /**
+     * Map a range of logical blocks. Ranges must be added in increasing
+     * logical order; a range that continues the last run extends it.
+     *
+     * @param index   the logical index of the first block
+     * @param blockNr the physical number of the first block, 0 for a hole
+     * @param count   the number of blocks
+     */
+    void add(long index, long blockNr, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (runs > 0) {
+            final int last = runs - 1;
+            final long end = logical[last] + length[last];
+            if (index < end) {
+                throw new IllegalArgumentException("Range " + index + " overlaps with the block map");
+            }
+            final boolean hole = (physical[last] == 0);
+            if ((index == end) && (hole ? (blockNr == 0) : (blockNr == physical[last] + length[last]))) {
+                length[last] += count;
+                return;
+            }
+        }
+        if (runs == logical.length) {
+            logical = grow(logical);
+            physical = grow(physical);
+            length = grow(length);
+        }
+        logical[runs] = index;
+        physical[runs] = blockNr;
+        length[runs] = count;
+        runs++;
+    }
+
+    /**
+     * Gets the logical index that follows the last mapped block.
+     *
+     * @return the index
+     */
+    long getEnd() {
+        return (runs == 0) ? 0 : logical[runs - 1] + length[runs - 1];
+    }
+
+    /**
+     * Remove the mapping of all blocks from the given logical index onwards.
+     *
+     * @param index
+     */
+    void truncate(long index) {
+        while ((runs > 0) && (logical[runs - 1] >= index)) {
+            runs--;
+        }
+        if ((runs > 0) && (logical[runs - 1] + length[runs - 1] > index)) {
+            length[runs - 1] = index - logical[runs - 1];
+        }
+    }
+
+    /**
+     * Gets the number of runs.
+     *
+     * @return the number of runs
+     */
+    int getRunCount() {
+        return runs;
+    }
+
+    private static long[] grow(long[] array) {
+        final long[] result = new long[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+/**
+ * The hash functions used by indexed (htree) directories: the legacy hash,
+ * half MD4 and TEA, each in a signed and an unsigned variant (the variant
+ * determines whether the bytes of the name are sign extended).
+ *
+ * @author Andras Nagy
+ */
+final class DirectoryHash {
+
+    /**
+     * The largest hash value; it is reserved to mark the end of a directory
+     */
+    private static final int EOF_HASH = 0x7fffffff << 1;
+
+    private static final int DELTA = 0x9E3779B9;
+
+    private static final int K2 = 013240474631;
+
+    private static final int K3 = 015666365641;
+
+    private DirectoryHash() {
+    }
+
+    /**
+     * Compute the (major) hash of the given name. The lowest bit of the
+     * result is always clear, as it is used to mark hash collisions in the index.
+     *
+     * @param name    the name, as stored in the directory record
+     * @param version one of the EXT2_DX_HASH_* constants
+     * @param seed    the hash seed from the superblock
+     * @return the hash
+     * @throws IllegalArgumentException for an unknown hash version
+     */
+    static int hash(byte[] name, int version, int[] seed) {
+        final int[] buf = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476};
+        if ((seed != null) && ((seed[0] | seed[1] | seed[2] | seed[3]) != 0)) {
+            System.arraycopy(seed, 0, buf, 0, 4);
+        }
+
+        int hash;
+        switch (version) {
+            case Ext2Constants.EXT2_DX_HASH_LEGACY:
+                hash = legacyHash(name, false);
+                break;
+            case Ext2Constants.EXT2_DX_HASH_LEGACY_UNSIGNED:
+                hash = legacyHash(name, true);
+                break;
+            case Ext2Constants.EXT2_DX_HASH_HALF_MD4:
+            case Ext2Constants.EXT2_DX_HASH_HALF_MD4_UNSIGNED: {
+                final boolean unsigned = (version == Ext2Constants.EXT2_DX_HASH_HALF_MD4_UNSIGNED);
+                final int[] in = new int[8];
+                for (int off = 0; off < name.length; off += 32) {
+                    toHashBuffer(name, off, in, 8, unsigned);
+                    halfMD4Transform(buf, in);
+                }
+                hash = buf[1];
+                break;
+            }
+            case Ext2Constants.EXT2_DX_HASH_TEA:
+            case Ext2Constants.EXT2_DX_HASH_TEA_UNSIGNED: {
+                final boolean unsigned = (version == Ext2Constants.EXT2_DX_HASH_TEA_UNSIGNED);
+                final int[] in = new int[4];
+                for (int off = 0; off < name.length; off += 16) {
+                    toHashBuffer(name, off, in, 4, unsigned);
+                    teaTransform(buf, in);
+                }
+                hash = buf[0];
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown directory hash version " + version);
+        }
+
+        hash &= ~1;
+        if (hash == EOF_HASH) {
+            hash = (0x7fffffff - 1) << 1;
+        }
+        return hash;
+    }
+
+    private static int legacyHash(byte[] name, boolean unsigned) {
+        int hash0 = 0x12a3fe2d;
+        int hash1 = 0x37abe8f9;
+        for (byte b : name) {
+            final int c = unsigned ? (b & 0xFF) : b;
+            int hash = hash1 + (hash0 ^ (c * 7152373));
+            if ((hash & 0x80000000) != 0) {
+                hash -= 0x7fffffff;
+            }
+            hash1 = hash0;
+            hash0 = hash;
+        }
+        return hash0 << 1;
+    }
+
+    /**
+     * Pack (at most num * 4 bytes of) the name from the given offset into
+     * the words of the hash input buffer, padded with the remaining length.
+     */
+    private static void toHashBuffer(byte[] name, int off, int[] buf, int num, boolean unsigned) {
+        int len = name.length - off;
+        int pad = len | (len << 8);
+        pad |= pad << 16;
+
+        int val = pad;
+        int idx = 0;
+        if (len > num * 4) {
+            len = num * 4;
+        }
+        for (int i = 0; i < len; i++) {
+            final int c = unsigned ? (name[off + i] & 0xFF) : name[off + i];
+            val = c + (val << 8);
+            if ((i % 4) == 3) {
+                buf[idx++] = val;
+                val = pad;
+                num--;
+            }
+        }
+        if (--num >= 0) {
+            buf[idx++] = val;
+        }
+        while (--num >= 0) {
+            buf[idx++] = pad;
+        }
+    }
+
+    private static void teaTransform(int[] buf, int[] in) {
+        int sum = 0;
+        int b0 = buf[0];
+        int b1 = buf[1];
+        final int a = in[0];
+        final int b = in[1];
+        final int c = in[2];
+        final int d = in[3];
+        for (int n = 16; n > 0; n--) {
+            sum += DELTA;
+            b0 += ((b1 << 4) + a) ^ (b1 + sum) ^ ((b1 >>> 5) + b);
+            b1 += ((b0 << 4) + c) ^ (b0 + sum) ^ ((b0 >>> 5) + d);
+        }
+        buf[0] += b0;
+        buf[1] += b1;
+    }
+
+    private static void halfMD4Transform(int[] buf, int[] in) {
+        int a = buf[0];
+        int b = buf[1];
+        int c = buf[2];
+        int d = buf[3];
+
+        // Round 1
+        a = Integer.rotateLeft(a + f(b, c, d) + in[0], 3);
+        d = Integer.rotateLeft(d + f(a, b, c) + in[1], 7);
+        c = Integer.rotateLeft(c + f(d, a, b) + in[2], 11);
+        b = Integer.rotateLeft(b + f(c, d, a) + in[3], 19);
+        a = Integer.rotateLeft(a + f(b, c, d) + in[4], 3);
+        d = Integer.rotateLeft(d + f(a, b, c) + in[5], 7);
+        c = Integer.rotateLeft(c + f(d, a, b) + in[6], 11);
+        b = Integer.rotateLeft(b + f(c, d, a) + in[7], 19);
+
+        // Round 2
+        a = Integer.rotateLeft(a + g(b, c, d) + in[1] + K2, 3);
+        d = Integer.rotateLeft(d + g(a, b, c) + in[3] + K2, 5);
+        c = Integer.rotateLeft(c + g(d, a, b) + in[5] + K2, 9);
+        b = Integer.rotateLeft(b + g(c, d, a) + in[7] + K2, 13);
+        a = Integer.rotateLeft(a + g(b, c, d) + in[0] + K2, 3);
+        d = Integer.rotateLeft(d + g(a, b, c) + in[2] + K2, 5);
+        c = Integer.rotateLeft(c + g(d, a, b) + in[4] + K2, 9);
+        b = Integer.rotateLeft(b + g(c, d, a) + in[6] + K2, 13);
+
+        // Round 3
+        a = Integer.rotateLeft(a + h(b, c, d) + in[3] + K3, 3);
+        d = Integer.rotateLeft(d + h(a, b, c) + in[7] + K3, 9);
+        c = Integer.rotateLeft(c + h(d, a, b) + in[2] + K3, 11);
+        b = Integer.rotateLeft(b + h(c, d, a) + in[6] + K3, 15);
+        a = Integer.rotateLeft(a + h(b, c, d) + in[1] + K3, 3);
+        d = Integer.rotateLeft(d + h(a, b, c) + in[5] + K3, 9);
+        c = Integer.rotateLeft(c + h(d, a, b) + in[0] + K3, 11);
+        b = Integer.rotateLeft(b + h(c, d, a) + in[4] + K3, 15);
+
+        buf[0] += a;
+        buf[1] += b;
+        buf[2] += c;
+        buf[3] += d;
+    }
+
+    // the basic MD4 functions: selection, majority and parity
+
+    private static int f(int x, int y, int z) {
+        return z ^ (x & (y ^ z));
+    }
+
+    private static int g(int x, int y, int z) {
+        return (x & y) + ((x ^ y) & z);
+    }
+
+    private static int h(int x, int y, int z) {
+        return x ^ y ^ z;
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.jnode.util.LittleEndian;
+
+/**
+ * The hash tree (htree) index of an indexed directory.
+ * <p/>
+ * The first block of an indexed directory contains the "." and ".." records,
+ * followed by the root of the index. The ".." record extends to the end of the
+ * block, so the index is invisible to a linear scan. The root, and any
+ * intermediate index node, holds a sorted array of (hash, block) entries. The
+ * leaves are ordinary directory blocks holding the records whose name hash
+ * falls in the range of their index entry.
+ * <p/>
+ * When a full leaf is split, its index node gets an entry for the new leaf. A
+ * full index node is split in turn, and a full root moves its entries to a new
+ * index node below it, up to the depth other implementations can read.
+ * <p/>
+ * Callers must synchronize on the directory inode.
+ *
+ * @author Andras Nagy
+ */
+final class DirectoryIndex {
+
+    /**
+     * Offset of the dx_root_info structure in the root block
+     */
+    private static final int ROOT_INFO_OFFSET = 24;
+
+    /**
+     * Offset of the entries in an intermediate index node (after a fake, empty record)
+     */
+    private static final int NODE_ENTRIES_OFFSET = 8;
+
+    /**
+     * Size of an index entry
+     */
+    private static final int ENTRY_LENGTH = 8;
+
+    /**
+     * Maximum depth of the index below the root
+     */
+    private static final int MAX_LEVELS = 2;
+
+    /**
+     * Maximum depth of the index below the root without the 'large_dir' feature
+     */
+    private static final int MAX_LEVELS_SMALL = 1;
+
+    private final Logger log = Logger.getLogger(getClass());
+
+    private final Ext2FileSystem fs;
+
+    private final INode iNode;
+
+    private final int blockSize;
+
+    private final int hashVersion;
+
+    private int levels;
+
+    private final int[] seed;
+
+    /**
+     * A visited index node, and the entry that has been followed.
+     */
+    private static final class Frame {
+        final long blockIndex;
+        byte[] data;
+        final int entries;
+        int at;
+
+        Frame(long blockIndex, byte[] data, int entries) {
+            this.blockIndex = blockIndex;
+            this.data = data;
+            this.entries = entries;
+        }
+
+        int getLimit() {
+            return LittleEndian.getUInt16(data, entries);
+        }
+
+        int getCount() {
+            return LittleEndian.getUInt16(data, entries + 2);
+        }
+
+        int getHash(int i) {
+            return (i == 0) ? 0 : LittleEndian.getInt32(data, entries + i * ENTRY_LENGTH);
+        }
+
+        long getBlock(int i) {
+            return LittleEndian.getUInt32(data, entries + i * ENTRY_LENGTH + 4) & 0x0fffffff;
+        }
+
+        /**
+         * Insert an entry right after the followed one.
+         */
+        void insert(int hash, long block) {
+            final int count = getCount();
+            final int pos = entries + (at + 1) * ENTRY_LENGTH;
+            System.arraycopy(data, pos, data, pos + ENTRY_LENGTH, (count - at - 1) * ENTRY_LENGTH);
+            LittleEndian.setInt32(data, pos, hash);
+            LittleEndian.setInt32(data, pos + 4, (int) block);
+            LittleEndian.setInt16(data, entries + 2, count + 1);
+        }
+    }
+
+    /**
+     * A directory record that is moved when a leaf is split.
+     */
+    private static final class Record {
+        final byte[] data;
+        final int hash;
+        final boolean added;
+
+        Record(byte[] data, int hash, boolean added) {
+            this.data = data;
+            this.hash = hash;
+            this.added = added;
+        }
+    }
+
+    private static final Comparator<Record> HASH_ORDER = new Comparator<Record>() {
+        public int compare(Record r1, Record r2) {
+            return compareHashes(r1.hash, r2.hash);
+        }
+    };
+
+    private DirectoryIndex(INode iNode, int hashVersion, int levels) {
+        this.fs = iNode.getExt2FileSystem();
+        this.iNode = iNode;
+        this.blockSize = fs.getBlockSize();
+        this.hashVersion = hashVersion;
+        this.levels = levels;
+        this.seed = fs.getSuperblock().getHashSeed();
+    }
+
+    /**
+     * Open the index of the given directory.
+     *
+     * @param iNode the inode of the directory
+     * @return the index, or null if the directory is not indexed, or the index
+     *         is not supported (the directory can still be scanned linearly).
+     * @throws IOException
+     */
+    static DirectoryIndex open(INode iNode) throws IOException {
+        if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) == 0) {
+            return null;
+        }
+        final Ext2FileSystem fs = iNode.getExt2FileSystem();
+        if (iNode.getSize() < fs.getBlockSize()) {
+            return null;
+        }
+        final byte[] root = iNode.getDataBlock(0);
+        final int reserved = LittleEndian.getInt32(root, ROOT_INFO_OFFSET);
+        int hashVersion = LittleEndian.getUInt8(root, ROOT_INFO_OFFSET + 4);
+        final int infoLength = LittleEndian.getUInt8(root, ROOT_INFO_OFFSET + 5);
+        final int levels = LittleEndian.getUInt8(root, ROOT_INFO_OFFSET + 6);
+        if ((reserved != 0) || (infoLength != 8) || (levels > MAX_LEVELS)
+            || (hashVersion > Ext2Constants.EXT2_DX_HASH_TEA)) {
+            return null;
+        }
+        if ((fs.getSuperblock().getFlags() & Ext2Constants.EXT2_FLAGS_UNSIGNED_HASH) != 0) {
+            hashVersion += Ext2Constants.EXT2_DX_HASH_LEGACY_UNSIGNED;
+        }
+        return new DirectoryIndex(iNode, hashVersion, levels);
+    }
+
+    /**
+     * Find the record with the given name, only reading the index blocks and
+     * the leaves that may contain the name.
+     *
+     * @param name the name, as stored in the directory record
+     * @return the record, or null if there is no record with the given name
+     * @throws IOException
+     */
+    Ext2DirectoryRecord lookup(byte[] name) throws IOException {
+        if (isDotOrDotDot(name)) {
+            return scan(0, name);
+        }
+
+        final int hash = DirectoryHash.hash(name, hashVersion, seed);
+        final List<Frame> frames = probe(hash);
+        if (frames == null) {
+            return null;
+        }
+        while (true) {
+            final Frame leafFrame = frames.get(frames.size() - 1);
+            final Ext2DirectoryRecord record = scan(leafFrame.getBlock(leafFrame.at), name);
+            if (record != null) {
+                return record;
+            }
+            // records with colliding hashes may continue in the next leaf
+            if (!nextLeaf(frames, hash)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Add the given record to the leaf that covers its hash, splitting the
+     * leaf if it is full.
+     *
+     * @param dr  the record to add, its file offset is updated
+     * @param dir the directory as a file
+     * @return false if the record could not be added because the index
+     *         can not grow any deeper, the caller must then drop the index
+     * @throws IOException
+     */
+    boolean add(Ext2DirectoryRecord dr, Ext2File dir) throws IOException {
+        final byte[] name = new byte[dr.getNameLen()];
+        System.arraycopy(dr.getData(), dr.getOffset() + 8, name, 0, name.length);
+        final int hash = DirectoryHash.hash(name, hashVersion, seed);
+        final List<Frame> frames = probe(hash);
+        if (frames == null) {
+            return false;
+        }
+        for (Frame frame : frames) {
+            frame.data = frame.data.clone();
+        }
+        Frame parent = frames.get(frames.size() - 1);
+        final long leafIndex = parent.getBlock(parent.at);
+        final byte[] leaf = iNode.getDataBlock(leafIndex).clone();
+
+        // see if the record fits in the leaf
+        final int needed = minimalRecLen(dr.getNameLen());
+        int off = 0;
+        while (off < blockSize) {
+            final int recLen = LittleEndian.getUInt16(leaf, off + 4);
+            if (recLen < 8) {
+                break;
+            }
+            final int used = (LittleEndian.getUInt32(leaf, off) == 0) ? 0 : minimalRecLen(leaf[off + 6] & 0xFF);
+            if (recLen - used >= needed) {
+                if (used > 0) {
+                    LittleEndian.setInt16(leaf, off + 4, used);
+                }
+                putRecord(leaf, off + used, dr.getData(), dr.getOffset(), recLen - used);
+                iNode.writeDataBlock(leafIndex, leaf);
+                dr.setFileOffset(leafIndex * blockSize + off + used);
+                return true;
+            }
+            off += recLen;
+        }
+
+        // the leaf is full, split it in two
+        if (!makeRoom(frames, parent, dir)) {
+            return false;
+        }
+        parent = frames.get(frames.size() - 1);
+        final List<Record> records = new ArrayList<Record>();
+        off = 0;
+        while (off < blockSize) {
+            final int recLen = LittleEndian.getUInt16(leaf, off + 4);
+            if (recLen < 8) {
+                break;
+            }
+            if (LittleEndian.getUInt32(leaf, off) != 0) {
+                final int nameLen = leaf[off + 6] & 0xFF;
+                final byte[] data = Arrays.copyOfRange(leaf, off, off + 8 + nameLen);
+                records.add(new Record(data, DirectoryHash.hash(Arrays.copyOfRange(data, 8, 8 + nameLen),
+                    hashVersion, seed), false));
+            }
+            off += recLen;
+        }
+        records.add(new Record(Arrays.copyOfRange(dr.getData(), dr.getOffset(), dr.getOffset() + 8 + name.length),
+            hash, true));
+        Collections.sort(records, HASH_ORDER);
+
+        // move the upper half (by size) of the records to the new leaf
+        int total = 0;
+        for (Record r : records) {
+            total += minimalRecLen(r.data[6] & 0xFF);
+        }
+        int split = 0;
+        for (int size = 0; (split < records.size() - 1) && (size < total / 2); split++) {
+            size += minimalRecLen(records.get(split).data[6] & 0xFF);
+        }
+        split = Math.max(split, 1);
+        final int splitHash = records.get(split).hash;
+        final boolean continued = (splitHash == records.get(split - 1).hash);
+
+        final long newIndex = iNode.getSize() / blockSize;
+        final byte[] kept = new byte[blockSize];
+        final byte[] moved = new byte[blockSize];
+        final long keptOffset = pack(records.subList(0, split), kept);
+        final long movedOffset = pack(records.subList(split, records.size()), moved);
+        if (keptOffset >= 0) {
+            dr.setFileOffset(leafIndex * blockSize + keptOffset);
+        } else {
+            dr.setFileOffset(newIndex * blockSize + movedOffset);
+        }
+
+        dir.write(newIndex * blockSize, ByteBuffer.wrap(moved));
+        iNode.writeDataBlock(leafIndex, kept);
+
+        // insert the index entry of the new leaf right after the one of the split leaf
+        parent.insert(continued ? (splitHash | 1) : splitHash, newIndex);
+        iNode.writeDataBlock(parent.blockIndex, parent.data);
+
+        log.debug("Split leaf " + leafIndex + " of directory " + iNode.getINodeNr() + " at hash "
+            + Integer.toHexString(splitHash) + " into " + newIndex);
+        return true;
+    }
+
+    /**
+     * Make room for one more entry in the given index node of the path. A full
+     * node is split in two, a full root moves its entries to a new node below it.
+     * The path is updated to the nodes that hold the followed entries.
+     *
+     * @param frames the path from the root
+     * @param frame  the index node that needs room
+     * @param dir    the directory as a file
+     * @return false if the index can not grow any deeper
+     */
+    private boolean makeRoom(List<Frame> frames, Frame frame, Ext2File dir) throws IOException {
+        final int count = frame.getCount();
+        if (count < frame.getLimit()) {
+            return true;
+        }
+        final int p = frames.indexOf(frame);
+        if (p == 0) {
+            // add a level, the root keeps a single entry
+            final int maxLevels = fs.hasIncompatFeature(Ext2Constants.EXT4_FEATURE_INCOMPAT_LARGEDIR)
+                ? MAX_LEVELS : MAX_LEVELS_SMALL;
+            if (levels >= maxLevels) {
+                return false;
+            }
+            final long newIndex = iNode.getSize() / blockSize;
+            final byte[] node = createNode();
+            System.arraycopy(frame.data, frame.entries, node, NODE_ENTRIES_OFFSET, count * ENTRY_LENGTH);
+            LittleEndian.setInt16(node, NODE_ENTRIES_OFFSET, getNodeLimit());
+            dir.write(newIndex * blockSize, ByteBuffer.wrap(node));
+
+            levels++;
+            frame.data[ROOT_INFO_OFFSET + 6] = (byte) levels;
+            LittleEndian.setInt16(frame.data, frame.entries + 2, 1);
+            LittleEndian.setInt32(frame.data, frame.entries + 4, (int) newIndex);
+            iNode.writeDataBlock(frame.blockIndex, frame.data);
+
+            // a node holds more entries than the root, so the new node has room
+            final Frame child = new Frame(newIndex, node, NODE_ENTRIES_OFFSET);
+            child.at = frame.at;
+            frame.at = 0;
+            frames.add(1, child);
+            log.debug("Added index level " + levels + " to directory " + iNode.getINodeNr());
+            return true;
+        }
+
+        // split the node, its parent needs room for the new node
+        if (!makeRoom(frames, frames.get(p - 1), dir)) {
+            return false;
+        }
+        final int q = frames.indexOf(frame);
+        final Frame parent = frames.get(q - 1);
+        final int kept = count / 2;
+        final int splitHash = frame.getHash(kept);
+        final long newIndex = iNode.getSize() / blockSize;
+        final byte[] node = createNode();
+        System.arraycopy(frame.data, frame.entries + kept * ENTRY_LENGTH, node, NODE_ENTRIES_OFFSET,
+            (count - kept) * ENTRY_LENGTH);
+        LittleEndian.setInt16(node, NODE_ENTRIES_OFFSET, getNodeLimit());
+        LittleEndian.setInt16(node, NODE_ENTRIES_OFFSET + 2, count - kept);
+        LittleEndian.setInt16(frame.data, frame.entries + 2, kept);
+        dir.write(newIndex * blockSize, ByteBuffer.wrap(node));
+        iNode.writeDataBlock(frame.blockIndex, frame.data);
+
+        parent.insert(splitHash, newIndex);
+        iNode.writeDataBlock(parent.blockIndex, parent.data);
+        if (frame.at >= kept) {
+            final Frame moved = new Frame(newIndex, node, NODE_ENTRIES_OFFSET);
+            moved.at = frame.at - kept;
+            parent.at++;
+            frames.set(q, moved);
+        }
+        log.debug("Split index node " + frame.blockIndex + " of directory " + iNode.getINodeNr() + " at hash "
+            + Integer.toHexString(splitHash) + " into " + newIndex);
+        return true;
+    }
+
+    /**
+     * Create an empty index node, which looks like an empty record to a linear scan.
+     */
+    private byte[] createNode() {
+        final byte[] node = new byte[blockSize];
+        LittleEndian.setInt16(node, 4, blockSize);
+        return node;
+    }
+
+    private int getNodeLimit() {
+        return (blockSize - NODE_ENTRIES_OFFSET) / ENTRY_LENGTH;
+    }
+
+    /**
+     * Walk the index from the root to the leaf that covers the given hash.
+     *
+     * @param hash
+     * @return the visited index nodes, or null if the index is corrupt
+     */
+    private List<Frame> probe(int hash) throws IOException {
+        final List<Frame> frames = new ArrayList<Frame>(levels + 1);
+        Frame frame = new Frame(0, iNode.getDataBlock(0), ROOT_INFO_OFFSET + 8);
+        for (int level = 0; ; level++) {
+            final int count = frame.getCount();
+            if ((count == 0) || (count > frame.getLimit())) {
+                log.error("Corrupt index in directory " + iNode.getINodeNr());
+                return null;
+            }
+            // find the last entry whose hash is not above the given hash
+            int low = 1;
+            int high = count - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (compareHashes(frame.getHash(middle), hash) > 0) {
+                    high = middle - 1;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            frame.at = low - 1;
+            frames.add(frame);
+            if (level == levels) {
+                return frames;
+            }
+            final long blockIndex = frame.getBlock(frame.at);
+            frame = new Frame(blockIndex, iNode.getDataBlock(blockIndex), NODE_ENTRIES_OFFSET);
+        }
+    }
+
+    /**
+     * Advance the given path to the next leaf, if that leaf continues
+     * the records with the given hash.
+     *
+     * @return true if the path has been advanced
+     */
+    private boolean nextLeaf(List<Frame> frames, int hash) throws IOException {
+        int p = frames.size() - 1;
+        while ((p >= 0) && (frames.get(p).at == frames.get(p).getCount() - 1)) {
+            p--;
+        }
+        if (p < 0) {
+            return false;
+        }
+        final Frame frame = frames.get(p);
+        frame.at++;
+        if ((frame.getHash(frame.at) & ~1) != hash) {
+            return false;
+        }
+        for (int q = p + 1; q < frames.size(); q++) {
+            final Frame up = frames.get(q - 1);
+            final long blockIndex = up.getBlock(up.at);
+            frames.set(q, new Frame(blockIndex, iNode.getDataBlock(blockIndex), NODE_ENTRIES_OFFSET));
+        }
+        return true;
+    }
+
+    /**
+     * Scan a single directory block for a record with the given name.
+     */
+    private Ext2DirectoryRecord scan(long blockIndex, byte[] name) throws IOException {
+        final byte[] data = iNode.getDataBlock(blockIndex);
+        int off = 0;
+        while (off <= blockSize - 8) {
+            final int recLen = LittleEndian.getUInt16(data, off + 4);
+            if (recLen < 8) {
+                break;
+            }
+            if ((LittleEndian.getUInt32(data, off) != 0) && ((data[off + 6] & 0xFF) == name.length)
+                && regionMatches(data, off + 8, name)) {
+                return new Ext2DirectoryRecord(fs, data, off, (int) (blockIndex * blockSize + off));
+            }
+            off += recLen;
+        }
+        return null;
+    }
+
+    /**
+     * Pack the given records in a block, the last record extends to the end of the block.
+     *
+     * @return the offset of the added record, or -1 if it is not among the given records
+     */
+    private int pack(List<Record> records, byte[] block) {
+        int result = -1;
+        int off = 0;
+        for (int i = 0; i < records.size(); i++) {
+            final Record r = records.get(i);
+            final int recLen = (i == records.size() - 1) ? blockSize - off : minimalRecLen(r.data[6] & 0xFF);
+            putRecord(block, off, r.data, 0, recLen);
+            if (r.added) {
+                result = off;
+            }
+            off += recLen;
+        }
+        return result;
+    }
+
+    private static void putRecord(byte[] block, int off, byte[] record, int recordOff, int recLen) {
+        final int nameLen = record[recordOff + 6] & 0xFF;
+        System.arraycopy(record, recordOff, block, off, 8 + nameLen);
+        LittleEndian.setInt16(block, off + 4, recLen);
+    }
+
+    private static int minimalRecLen(int nameLen) {
+        return (8 + nameLen + 3) & ~3;
+    }
+
+    private static boolean regionMatches(byte[] data, int off, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (data[off + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDotOrDotDot(byte[] name) {
+        return ((name.length == 1) && (name[0] == '.')) || ((name.length == 2) && (name[0] == '.') && (name[1] == '.'));
+    }
+
+    /**
+     * Compare two hashes as unsigned values.
+     */
+    private static int compareHashes(int h1, int h2) {
+        final int u1 = h1 ^ 0x80000000;
+        final int u2 = h2 ^ 0x80000000;
+        return (u1 < u2) ? -1 : ((u1 == u2) ? 0 : 1);
+    }
+}
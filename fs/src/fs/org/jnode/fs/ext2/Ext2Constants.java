@@ -77,10 +77,22 @@ public class Ext2Constants {
     public static final int EXT2_PREALLOC_BLOCK = 7;
 
     // behaviour control flags in the inode
-    public static final long EXT2_INDEX_FL = 0x00010000; // hash indexed directory
+    public static final long EXT2_INDEX_FL = 0x00001000; // hash indexed directory
     public static final long EXT4_HUGE_FILE_FL = 0x00040000;
     public static final long EXT4_INODE_EXTENTS_FLAG = 0x00080000;
 
+    // hash versions of indexed (htree) directories
+    public static final int EXT2_DX_HASH_LEGACY = 0;
+    public static final int EXT2_DX_HASH_HALF_MD4 = 1;
+    public static final int EXT2_DX_HASH_TEA = 2;
+    public static final int EXT2_DX_HASH_LEGACY_UNSIGNED = 3;
+    public static final int EXT2_DX_HASH_HALF_MD4_UNSIGNED = 4;
+    public static final int EXT2_DX_HASH_TEA_UNSIGNED = 5;
+
+    // miscellaneous flags in the superblock
+    public static final long EXT2_FLAGS_SIGNED_HASH = 0x0001; // signed dir hash in use
+    public static final long EXT2_FLAGS_UNSIGNED_HASH = 0x0002; // unsigned dir hash in use
+
     // Filesystem state constants
     public static final int EXT2_VALID_FS = 0x0001; // cleanly unmounted
     public static final int EXT2_ERROR_FS = 0x0002;
@@ -91,6 +103,9 @@ public class Ext2Constants {
     public static final int EXT2_ERRORS_PANIC = 0x0003;
     public static final int EXT2_ERRORS_DEFAULT = EXT2_ERRORS_CONTINUE;
 
+    // S_FEATURE_COMPAT constants
+    public static final long EXT2_FEATURE_COMPAT_DIR_INDEX = 0x0020;
+
     // S_FEATURE_RO_COMPAT constants
     public static final long EXT2_FEATURE_RO_COMPAT_SPARSE_SUPER = 0x0001;
     public static final long EXT2_FEATURE_RO_COMPAT_LARGE_FILE = 0x0002;
@@ -110,6 +125,7 @@ public class Ext2Constants {
     public static final long EXT4_FEATURE_INCOMPAT_64BIT = 0x0080;
     public static final long EXT4_FEATURE_INCOMPAT_MMP = 0x0100;
     public static final long EXT4_FEATURE_INCOMPAT_FLEX_BG = 0X0200;
+    public static final long EXT4_FEATURE_INCOMPAT_LARGEDIR = 0x4000;
 
     // constants specific to this (JNode) implementation
     /**
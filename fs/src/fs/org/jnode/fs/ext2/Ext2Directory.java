@@ -55,8 +55,7 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
         Ext2FileSystem fs = (Ext2FileSystem) entry.getFileSystem();
         this.entry = entry;
         boolean readOnly;
-        if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0 ||
-            (iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0 ||
+        if ((iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0 ||
             (iNode.getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0) {
             readOnly = true; //force readonly
 
@@ -64,11 +63,11 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
                 log.debug("inode uses extents: " + entry);
             if ((iNode.getFlags() & Ext2Constants.EXT4_HUGE_FILE_FL) != 0)
                 log.info("inode is for a huge-file: " + entry);
-            if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0)
-                log.info("inode uses index: " + entry);
         } else {
             readOnly = fs.isReadOnly();
         }
+        if ((iNode.getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0)
+            log.debug("inode uses index: " + entry);
         setRights(true, !readOnly);
 
         log.debug("directory size: " + iNode.getSize());
@@ -231,6 +230,20 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
             try {
                 Ext2File dir = new Ext2File(entry); //read itself as a file
 
+                //in an indexed directory, the record must go to the leaf that covers its hash
+                DirectoryIndex index = DirectoryIndex.open(iNode);
+                if (index != null) {
+                    if (index.add(dr, dir)) {
+                        iNode.setMtime(System.currentTimeMillis() / 1000);
+                        iNode.update();
+                        return;
+                    }
+                    //the index can not grow any deeper: turn this into a linear directory,
+                    //the index blocks look like empty records to a linear scan
+                    log.info("Dropping the index of directory " + iNode.getINodeNr());
+                    iNode.setFlags(iNode.getFlags() & ~Ext2Constants.EXT2_INDEX_FL);
+                }
+
                 //find the last directory record (if any)
                 Ext2FSEntryIterator iterator = new Ext2FSEntryIterator(entry);
                 Ext2DirectoryRecord rec = null;
@@ -342,6 +355,35 @@ public class Ext2Directory extends AbstractFSDirectory implements FSDirectoryId
         return Long.toString(iNode.getINodeNr());
     }
 
+    /**
+     * Look the entry up in the hash tree index of an indexed directory,
+     * without reading all entries of the directory.
+     *
+     * @see org.jnode.fs.spi.AbstractFSDirectory#lookupEntry(java.lang.String)
+     */
+    @Override
+    protected FSEntry lookupEntry(String name) throws IOException {
+        Ext2FileSystem fs = (Ext2FileSystem) getFileSystem();
+        try {
+            synchronized (iNode) {
+                DirectoryIndex index = DirectoryIndex.open(iNode);
+                if (index != null) {
+                    Ext2DirectoryRecord dr = index.lookup(name.getBytes(Ext2FileSystem.ENTRY_NAME_CHARSET));
+                    if (dr == null) {
+                        return null;
+                    }
+                    return new Ext2Entry(fs.getINode(dr.getINodeNr()), dr.getFileOffset(), dr.getName(),
+                        dr.getType(), fs, this);
+                }
+            }
+        } catch (FileSystemException ex) {
+            final IOException ioe = new IOException();
+            ioe.initCause(ex);
+            throw ioe;
+        }
+        return super.lookupEntry(name);
+    }
+
     @Override
     public FSEntry getEntryById(String id) throws IOException {
         checkEntriesLoaded();
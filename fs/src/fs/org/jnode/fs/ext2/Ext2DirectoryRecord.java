@@ -102,7 +102,7 @@ public class Ext2DirectoryRecord {
         return fileOffset;
     }
 
-    private void setFileOffset(long fileOffset) {
+    void setFileOffset(long fileOffset) {
         this.fileOffset = fileOffset;
     }
 
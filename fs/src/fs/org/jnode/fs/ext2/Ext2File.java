@@ -34,9 +34,39 @@ import org.jnode.util.ByteBufferUtils;
  */
 public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
 
+    /**
+     * Read-ahead window used when sequential access is first detected (in blocks)
+     */
+    static final int MIN_READ_AHEAD = 4;
+
+    /**
+     * Maximum size of the read-ahead window (in bytes)
+     */
+    static final int MAX_READ_AHEAD_BYTES = 128 * 1024;
+
+    /**
+     * Maximum number of bytes read from the device in a single request
+     */
+    static final int MAX_COALESCED_BYTES = 256 * 1024;
+
     String name;
     INode iNode;
 
+    /**
+     * File offset at which the next read starts if access is sequential (guarded by iNode)
+     */
+    private long nextReadOffset = -1;
+
+    /**
+     * Current read-ahead window in blocks, 0 if access is not sequential (guarded by iNode)
+     */
+    private int readAheadWindow;
+
+    /**
+     * Index of the first block that has not been read ahead yet (guarded by iNode)
+     */
+    private long readAheadLimit;
+
     private final Logger log = Logger.getLogger(getClass());
 
     public Ext2File(Ext2Entry entry) {
@@ -161,10 +191,7 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
      */
     public void readImpl(long fileOffset, ByteBuffer destBuf) throws IOException {
         final int len = destBuf.remaining();
-        final int off = 0;
-        // TODO optimize it also to use ByteBuffer at lower level
-        final ByteBufferUtils.ByteArray destBA = ByteBufferUtils.toByteArray(destBuf);
-        final byte[] dest = destBA.toArray();
+        final int off = destBuf.position();
 
         // synchronize to the inode cache to make sure that the inode does not
         // get flushed between reading it and locking it
@@ -186,7 +213,7 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
 
         if (log.isDebugEnabled()) {
             log.debug("File:" + name + " size:" + getLength() + " read offset: " + fileOffset + " len: "
-                + dest.length);
+                + len);
         }
 
         // a single inode may be represented by more than one Ext2Directory
@@ -198,23 +225,10 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
             try {
                 if ((iNode.getMode() & Ext2Constants.EXT2_S_IFLNK) == Ext2Constants.EXT2_S_IFLNK) {
                     // Sym-links are a special case: the data seems to be stored inline in the iNode
-                    System.arraycopy(iNode.getINodeBlockData(), 0, dest, 0, Math.min(64, dest.length));
+                    destBuf.put(iNode.getINodeBlockData(), 0, Math.min(64, len));
                 } else {
-                    long blockSize = iNode.getExt2FileSystem().getBlockSize();
-                    long bytesRead = 0;
-                    while (bytesRead < len) {
-                        long blockNr = (fileOffset + bytesRead) / blockSize;
-                        long blockOffset = (fileOffset + bytesRead) % blockSize;
-                        long copyLength = Math.min(len - bytesRead, blockSize - blockOffset);
-
-                        log.debug("blockNr: " + blockNr + ", blockOffset: " + blockOffset + ", copyLength: "
-                            + copyLength + ", bytesRead: " + bytesRead);
-
-                        System.arraycopy(iNode.getDataBlock(blockNr), (int) blockOffset, dest, off + (int) bytesRead,
-                            (int) copyLength);
-
-                        bytesRead += copyLength;
-                    }
+                    readBlocks(fileOffset, destBuf, off, len);
+                    readAhead(fileOffset, len);
                 }
             } catch (Throwable ex) {
                 final IOException ioe = new IOException();
@@ -226,7 +240,122 @@ public class Ext2File extends AbstractFSFile implements FSFileSlackSpace {
             }
         }
 
-        destBA.refreshByteBuffer();
+        destBuf.position(off + len);
+    }
+
+    /**
+     * Read the given range of the file into the destination buffer.
+     * Whole blocks that are not cached and are physically contiguous are read
+     * with a single device read straight into the destination buffer, other
+     * blocks are copied from the block cache.
+     *
+     * @param fileOffset the offset to read from.
+     * @param destBuf    the destination buffer.
+     * @param off        the position in the destination buffer to read to.
+     * @param len        the number of bytes to read.
+     * @throws IOException
+     */
+    private void readBlocks(long fileOffset, ByteBuffer destBuf, int off, int len) throws IOException {
+        final Ext2FileSystem fs = iNode.getExt2FileSystem();
+        final int blockSize = fs.getBlockSize();
+        final int maxRun = Math.max(1, MAX_COALESCED_BYTES / blockSize);
+        int bytesRead = 0;
+        while (bytesRead < len) {
+            long blockIndex = (fileOffset + bytesRead) / blockSize;
+            int blockOffset = (int) ((fileOffset + bytesRead) % blockSize);
+            long blockNr = iNode.getDataBlockNr(blockIndex);
+
+            if ((blockOffset == 0) && (len - bytesRead >= blockSize) && (fs.getCachedBlock(blockNr) == null)) {
+                // extend the run while the next block is also whole, contiguous and not cached
+                final int wholeBlocks = Math.min((len - bytesRead) / blockSize, maxRun);
+                int run = 1;
+                while ((run < wholeBlocks) && (iNode.getDataBlockNr(blockIndex + run) == blockNr + run)
+                    && (fs.getCachedBlock(blockNr + run) == null)) {
+                    run++;
+                }
+
+                log.debug("blockNr: " + blockNr + ", run: " + run + ", bytesRead: " + bytesRead);
+
+                final ByteBuffer part = destBuf.duplicate();
+                part.limit(off + bytesRead + run * blockSize);
+                part.position(off + bytesRead);
+                fs.readBlocks(blockNr, part);
+
+                bytesRead += run * blockSize;
+            } else {
+                int copyLength = Math.min(len - bytesRead, blockSize - blockOffset);
+
+                log.debug("blockNr: " + blockNr + ", blockOffset: " + blockOffset + ", copyLength: "
+                    + copyLength + ", bytesRead: " + bytesRead);
+
+                destBuf.position(off + bytesRead);
+                destBuf.put(fs.getBlock(blockNr), blockOffset, copyLength);
+
+                bytesRead += copyLength;
+            }
+        }
+    }
+
+    /**
+     * Detect sequential access and read the blocks that follow the given range
+     * into the block cache. The read-ahead window doubles on every sequential
+     * read, up to {@link #MAX_READ_AHEAD_BYTES}, and is reset by a random read.
+     *
+     * @param fileOffset the offset of the current read.
+     * @param len        the length of the current read.
+     */
+    private void readAhead(long fileOffset, int len) {
+        final Ext2FileSystem fs = iNode.getExt2FileSystem();
+        final int blockSize = fs.getBlockSize();
+        final int maxWindow = Math.max(MIN_READ_AHEAD, MAX_READ_AHEAD_BYTES / blockSize);
+
+        if (fileOffset == nextReadOffset) {
+            readAheadWindow = (readAheadWindow == 0) ? MIN_READ_AHEAD : Math.min(readAheadWindow * 2, maxWindow);
+        } else {
+            readAheadWindow = 0;
+            readAheadLimit = 0;
+        }
+        nextReadOffset = fileOffset + len;
+        if (readAheadWindow == 0) {
+            return;
+        }
+
+        final long nextBlock = (fileOffset + len + blockSize - 1) / blockSize;
+        final long start = Math.max(nextBlock, readAheadLimit);
+        final long end = Math.min(nextBlock + readAheadWindow, iNode.getSizeInBlocks());
+        // only read ahead when at least half of the window has been consumed
+        if (end - start < (readAheadWindow + 1) / 2) {
+            return;
+        }
+
+        try {
+            long blockIndex = start;
+            while (blockIndex < end) {
+                final long blockNr = iNode.getDataBlockNr(blockIndex);
+                if ((blockNr == 0) || (fs.getCachedBlock(blockNr) != null)) {
+                    blockIndex++;
+                    continue;
+                }
+                int run = 1;
+                while ((blockIndex + run < end) && (iNode.getDataBlockNr(blockIndex + run) == blockNr + run)
+                    && (fs.getCachedBlock(blockNr + run) == null)) {
+                    run++;
+                }
+                final byte[] data = new byte[run * blockSize];
+                final long generation = fs.getWriteGeneration();
+                fs.readBlocks(blockNr, ByteBuffer.wrap(data));
+                if (!fs.cacheBlocks(blockNr, data, run, generation)) {
+                    // written while it was read, the rest is read when needed
+                    break;
+                }
+                blockIndex += run;
+            }
+            readAheadLimit = end;
+        } catch (IOException ex) {
+            // read-ahead is only a hint, the blocks will be read when needed
+            log.debug("Read-ahead failed", ex);
+            readAheadWindow = 0;
+        }
     }
 
     @Override
@@ -62,6 +62,12 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
     private BlockCache blockCache;
 
+    /**
+     * Incremented on every block write to the device, so blocks read without
+     * holding the cache lock can be checked for writes during the read (guarded by blockCache)
+     */
+    private long writeGeneration;
+
     private INodeCache inodeCache;
 
     private MultipleMountProtection multipleMountProtection;
@@ -73,11 +79,11 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
     // private final boolean DEBUG=true;
 
-    // TODO: SYNC_WRITE should be made a parameter
     /**
-     * if true, writeBlock() does not return until the block is written to disk
+     * if true, writeBlock() does not return until the block is written to disk,
+     * otherwise dirty blocks are written back by the block cache.
      */
-    private boolean SYNC_WRITE = true;
+    private volatile boolean syncWrite = true;
 
     /**
      * Constructor for Ext2FileSystem in specified readOnly mode
@@ -87,7 +93,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     public Ext2FileSystem(Device device, boolean readOnly, Ext2FileSystemType type) throws FileSystemException {
         super(device, readOnly, type);
 
-        blockCache = new BlockCache(50, (float) 0.75);
+        blockCache = new BlockCache(BlockCache.DEFAULT_MAX_BYTES);
         inodeCache = new INodeCache(50, (float) 0.75);
 
         // groupDescriptorLock = new Object();
@@ -323,11 +329,7 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         updateFS();
 
         // flush the blocks
-        synchronized (blockCache) {
-            for (Block block : blockCache.values()) {
-                block.flush();
-            }
-        }
+        blockCache.flush();
 
         log.info("Filesystem flushed");
     }
@@ -340,9 +342,54 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
     }
 
     public void close() throws IOException {
+        // the remaining dirty blocks are written by flush()
+        blockCache.stopWriteBack();
         // mark the filesystem clean
         superblock.setState(Ext2Constants.EXT2_VALID_FS);
         super.close();
+        log.debug("Block cache: " + blockCache);
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the block cache of this filesystem.
+     *
+     * @param maxBytes
+     */
+    public void setBlockCacheSize(long maxBytes) {
+        blockCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Gets the maximum number of bytes held by the block cache of this filesystem.
+     */
+    public long getBlockCacheSize() {
+        return blockCache.getMaxBytes();
+    }
+
+    /**
+     * Select write-through or write-back mode. In write-back mode, changed blocks
+     * are kept in the block cache and written to disk in the background,
+     * or when the filesystem is flushed.
+     *
+     * @param syncWrite if true, writeBlock() does not return until the block is written to disk
+     * @throws IOException
+     */
+    public void setSyncWrite(boolean syncWrite) throws IOException {
+        this.syncWrite = syncWrite;
+        if (syncWrite) {
+            blockCache.stopWriteBack();
+            blockCache.flush();
+        } else if (!isReadOnly()) {
+            blockCache.startWriteBack("ext2-writeback-" + getDevice().getId(), getBlockSize(),
+                BlockCache.DEFAULT_WRITE_BACK_INTERVAL);
+        }
+    }
+
+    /**
+     * Does writeBlock() wait until the block is written to disk?
+     */
+    public boolean isSyncWrite() {
+        return syncWrite;
     }
 
     /**
@@ -396,15 +443,11 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         // log.debug("blockCache size: "+blockCache.size());
 
         int blockSize = superblock.getBlockSize();
-        Block result;
 
-        Integer key = Integer.valueOf((int) nr);
-        synchronized (blockCache) {
-            // check if the block has already been retrieved
-            if (blockCache.containsKey(key)) {
-                result = blockCache.get(key);
-                return result.getData();
-            }
+        // check if the block has already been retrieved
+        Block result = blockCache.get(nr);
+        if (result != null) {
+            return result.getData();
         }
 
         // perform the time-consuming disk read outside of the synchronized
@@ -421,20 +464,77 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
         log.debug("Reading block " + nr + " (offset: " + nr * blockSize + ") from disk");
         getApi().read(nr * blockSize, data);
 
-        // synchronize again
+        // it is important to ALWAYS return the block that is in
+        // the cache (it is used in synchronization)
+        result = blockCache.putIfAbsent(new Block(this, nr, data.array()));
+        return result.getData();
+    }
+
+    /**
+     * Gets the data of a block, if the block is in the cache.
+     *
+     * @param nr block number
+     * @return the cached data, or null if the block is not cached
+     */
+    byte[] getCachedBlock(long nr) {
+        final Block block = blockCache.peek(nr);
+        return (block != null) ? block.getData() : null;
+    }
+
+    /**
+     * Gets the number of block writes to the device so far, to be passed to
+     * {@link #cacheBlocks(long, byte[], int, long)} after reading blocks.
+     *
+     * @return the write generation
+     */
+    long getWriteGeneration() {
         synchronized (blockCache) {
-            // check if the block has already been retrieved
-            if (!blockCache.containsKey(key)) {
-                result = new Block(this, nr, data.array());
-                blockCache.put(key, result);
-                return result.getData();
-            } else {
-                // it is important to ALWAYS return the block that is in
-                // the cache (it is used in synchronization)
-                result = blockCache.get(key);
-                return result.getData();
+            return writeGeneration;
+        }
+    }
+
+    /**
+     * Read a number of consecutive blocks straight from the device into the given buffer,
+     * bypassing the block cache. The caller must make sure that none of the blocks is cached,
+     * since a cached block may be newer than its copy on the device.
+     *
+     * @param nr   number of the first block
+     * @param dest the destination buffer, its remaining bytes must be a multiple of the block size
+     * @throws IOException
+     */
+    void readBlocks(long nr, ByteBuffer dest) throws IOException {
+        if (isClosed()) throw new IOException("FS closed (fs instance: " + this + ")");
+
+        final int blockSize = superblock.getBlockSize();
+        log.debug("Reading " + (dest.remaining() / blockSize) + " blocks from " + nr + " from disk");
+        getApi().read(nr * blockSize, dest);
+    }
+
+    /**
+     * Put a number of consecutive blocks, read by {@link #readBlocks(long, ByteBuffer)}, in the cache.
+     * Blocks that are already cached are left untouched. Nothing is cached if a block has been
+     * written to the device since the read started, since the data read may be stale.
+     *
+     * @param nr         number of the first block
+     * @param data       the data of the blocks
+     * @param count      the number of blocks
+     * @param generation the write generation taken before the blocks were read
+     * @return false if the blocks have not been cached
+     */
+    boolean cacheBlocks(long nr, byte[] data, int count, long generation) {
+        final int blockSize = superblock.getBlockSize();
+        synchronized (blockCache) {
+            if (generation != writeGeneration) {
+                log.debug("Dropping " + count + " blocks from " + nr + " written during the read");
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                final byte[] blockData = new byte[blockSize];
+                System.arraycopy(data, i * blockSize, blockData, 0, blockSize);
+                blockCache.putIfAbsent(new Block(this, nr + i, blockData));
             }
         }
+        return true;
     }
 
     /**
@@ -453,28 +553,53 @@ public class Ext2FileSystem extends AbstractFileSystem<Ext2Entry> {
 
         Block block;
 
-        Integer key = Integer.valueOf((int) nr);
         int blockSize = superblock.getBlockSize();
         // check if the block is in the cache
         synchronized (blockCache) {
-            if (blockCache.containsKey(key)) {
-                block = blockCache.get(key);
+            block = blockCache.peek(nr);
+            if (block != null) {
                 // update the data in the cache
-                block.setData(data);
-                if (forceWrite || SYNC_WRITE) {
+                final boolean wasDirty = block.isDirty();
+                if (forceWrite || syncWrite) {
+                    block.setData(data);
                     // write the block to disk
                     ByteBuffer dataBuf = ByteBuffer.wrap(data, 0, blockSize);
+                    writeGeneration++;
                     getApi().write(nr * blockSize, dataBuf);
                     // timedWrite(nr, data);
                     block.setDirty(false);
 
                     log.debug("writing block " + nr + " to disk");
-                } else block.setDirty(true);
+                } else {
+                    // kept until written back, so keep a copy (callers may reuse data)
+                    block.setData(data.clone());
+                    block.setDirty(true);
+                    if (!wasDirty) {
+                        blockCache.blockDirtied();
+                    }
+                }
+            } else if (!forceWrite && !syncWrite && (data.length == blockSize)) {
+                // In write-back mode, the block is kept in the cache
+                // until it is written back (as a copy, callers may reuse data).
+                block = new Block(this, nr, data.clone());
+                block.setDirty(true);
+                final Block cached = blockCache.putIfAbsent(block);
+                if (cached != block) {
+                    // A reader has cached the old data of this block in the mean time,
+                    // so update that block instead.
+                    final boolean wasDirty = cached.isDirty();
+                    cached.setData(block.getData());
+                    cached.setDirty(true);
+                    if (!wasDirty) {
+                        blockCache.blockDirtied();
+                    }
+                }
             } else {
                 // If the block was not in the cache, I see no reason to put it
                 // in the cache when it is written.
                 // It is simply written to disk.
                 ByteBuffer dataBuf = ByteBuffer.wrap(data, 0, blockSize);
+                writeGeneration++;
                 getApi().write(nr * blockSize, dataBuf);
                 // timedWrite(nr, data);
             }
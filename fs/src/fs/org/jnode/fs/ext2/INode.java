@@ -29,7 +29,9 @@ import org.jnode.fs.FileSystemException;
 import org.jnode.fs.ext2.exception.UnallocatedBlockException;
 import org.jnode.fs.ext2.xattr.XAttrEntry;
 import org.jnode.fs.ext2.xattr.XAttrHeader;
+import org.jnode.fs.ext4.Extent;
 import org.jnode.fs.ext4.ExtentHeader;
+import org.jnode.fs.ext4.ExtentIndex;
 import org.jnode.fs.util.FSUtils;
 import org.jnode.util.LittleEndian;
 
@@ -69,6 +71,11 @@ public class INode {
      */
     private ExtentHeader extentHeader;
 
+    /**
+     * The cached map of the data blocks, built on first use (guarded by this).
+     */
+    private BlockMap blockMap;
+
     /**
      * Create an INode object from an existing inode on the disk.
      *
@@ -85,6 +92,7 @@ public class INode {
     public void read(byte[] data) {
         System.arraycopy(data, 0, this.data, 0, fs.getSuperblock().getINodeSize());
         setDirty(false);
+        invalidateBlockMap();
     }
 
     /**
@@ -106,6 +114,7 @@ public class INode {
         //TODO: set other persistent parameters?
 
         setDirty(true);
+        invalidateBlockMap();
     }
 
     public long getINodeNr() {
@@ -399,7 +408,15 @@ public class INode {
      * @throws IOException
      */
     public long getDataBlockNr(long i) throws IOException {
-        if ((getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0) {
+        final boolean extents = (getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0;
+        if (extents || (i < getAllocatedBlockCount())) {
+            final long blockNr = lookupBlockMap(i);
+            if (blockNr != BlockMap.UNMAPPED) {
+                return blockNr;
+            }
+        }
+
+        if (extents) {
             if (extentHeader == null) {
                 extentHeader = new ExtentHeader(getINodeBlockData());
             }
@@ -410,6 +427,146 @@ public class INode {
         }
     }
 
+    /**
+     * Look a data block up in the block map, building the map if needed.
+     *
+     * @param i the index of the block in the inode
+     * @return the block number, or {@link BlockMap#UNMAPPED}
+     * @throws IOException
+     */
+    private synchronized long lookupBlockMap(long i) throws IOException {
+        return getBlockMap().lookup(i);
+    }
+
+    /**
+     * Gets the map of the data blocks of this inode, building it if needed.
+     * The map is guarded by this inode.
+     *
+     * @return the block map
+     * @throws IOException
+     */
+    private synchronized BlockMap getBlockMap() throws IOException {
+        if (blockMap == null) {
+            final BlockMap map = new BlockMap();
+            if ((getFlags() & Ext2Constants.EXT4_INODE_EXTENTS_FLAG) != 0) {
+                mapExtents(map, new ExtentHeader(getINodeBlockData()));
+            } else {
+                final long blockCount = getAllocatedBlockCount();
+                final int indirectCount = getIndirectCount();
+                long index = 0;
+
+                //the direct blocks (0; 11)
+                for (; index < Math.min(12, blockCount); index++) {
+                    map.add(index, LittleEndian.getUInt32(data, 40 + (int) index * 4), 1);
+                }
+
+                //the simple, double and triple indirect blocks (12th to 14th index)
+                long span = indirectCount;
+                for (int level = 1; (level <= 3) && (index < blockCount); level++) {
+                    final long count = Math.min(span, blockCount - index);
+                    mapIndirect(map, LittleEndian.getUInt32(data, 40 + (11 + level) * 4), index, count, level);
+                    index += count;
+                    span *= indirectCount;
+                }
+            }
+            blockMap = map;
+            log.debug("Built block map of inode " + getINodeNr() + ": " + map.getRunCount() + " runs");
+        }
+        return blockMap;
+    }
+
+    /**
+     * Add the blocks reachable through the given indirect block to the block map.
+     *
+     * @param map              the block map
+     * @param dataBlockNr      the indirect block
+     * @param index            the logical index of the first block it maps
+     * @param count            the number of blocks to map
+     * @param indirectionLevel 1 is a simple indirect block, and so on.
+     */
+    private void mapIndirect(BlockMap map, long dataBlockNr, long index, long count, int indirectionLevel)
+        throws IOException {
+        if (dataBlockNr == 0) {
+            //a hole, not even the indirect block is allocated
+            map.add(index, 0, count);
+            return;
+        }
+
+        final byte[] data = fs.getBlock(dataBlockNr);
+        final long span = (long) Math.pow(getIndirectCount(), indirectionLevel - 1);
+        for (int blockIndex = 0; count > 0; blockIndex++) {
+            final long blockNr = LittleEndian.getUInt32(data, blockIndex * 4);
+            final long n = Math.min(span, count);
+            if (indirectionLevel == 1) {
+                map.add(index, blockNr, 1);
+            } else {
+                mapIndirect(map, blockNr, index, n, indirectionLevel - 1);
+            }
+            index += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Add the extents of the given extent tree to the block map.
+     *
+     * @param map    the block map
+     * @param header the root of the (sub)tree
+     */
+    private void mapExtents(BlockMap map, ExtentHeader header) throws IOException {
+        if (header.getDepth() > 0) {
+            for (ExtentIndex index : header.getIndexEntries()) {
+                mapExtents(map, new ExtentHeader(fs.getBlock(index.getLeafLow())));
+            }
+        } else {
+            for (Extent extent : header.getExtentEntries()) {
+                int count = extent.getBlockCount();
+                if (count > Extent.MAX_INIT_LENGTH) {
+                    //uninitialized extent
+                    count -= Extent.MAX_INIT_LENGTH;
+                }
+                if (extent.getBlockIndex() >= map.getEnd()) {
+                    map.add(extent.getBlockIndex(), extent.getStartLow(), count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the cached block map, it is rebuilt when it is needed again.
+     */
+    private synchronized void invalidateBlockMap() {
+        blockMap = null;
+    }
+
+    /**
+     * Remove the given block, and all blocks after it, from the cached block map.
+     *
+     * @param i the index of the first freed block in the inode
+     */
+    private synchronized void truncateBlockMap(long i) {
+        if (blockMap != null) {
+            blockMap.truncate(i);
+        }
+    }
+
+    /**
+     * Append a newly allocated block to the cached block map.
+     *
+     * @param i       the index of the block in the inode
+     * @param blockNr the block number
+     */
+    private synchronized void appendBlockMap(long i, long blockNr) {
+        if (blockMap != null) {
+            if (blockMap.getEnd() == i) {
+                blockMap.add(i, blockNr, 1);
+            } else {
+                //the map does not end at the new block, so build it again when needed
+                blockMap = null;
+            }
+        }
+    }
+
     /**
      * Return the number of the block in the filesystem that stores the ith
      * block of the inode (i is a sequential index from the beginning of the
@@ -636,6 +793,7 @@ public class INode {
         }
 
         desc.setLastAllocatedBlockIndex(i - 1);
+        truncateBlockMap(i);
 
         //preallocated blocks follow the last allocated block: when the last
         // block is freed,
@@ -761,6 +919,8 @@ public class INode {
         desc.setLastAllocatedBlockIndex(i);
 
         registerBlockIndex(i, newBlock);
+
+        appendBlockMap(i, newBlock);
     }
 
     /**
@@ -690,6 +690,37 @@ public class Superblock {
         return LittleEndian.getUInt8(data, 232);
     }
 
+    /**
+     * Gets the seed of the hash function of indexed directories.
+     *
+     * @return the 4 words of the seed.
+     */
+    public int[] getHashSeed() {
+        int[] seed = new int[4];
+        for (int i = 0; i < 4; i++) {
+            seed[i] = LittleEndian.getInt32(data, 236 + i * 4);
+        }
+        return seed;
+    }
+
+    /**
+     * Gets the default hash version of indexed directories.
+     *
+     * @return the hash version.
+     */
+    public int getDefHashVersion() {
+        return LittleEndian.getUInt8(data, 252);
+    }
+
+    /**
+     * Gets the miscellaneous flags (s_flags).
+     *
+     * @return the flags.
+     */
+    public long getFlags() {
+        return LittleEndian.getUInt32(data, 352);
+    }
+
     /**
      * Gets the block number that contains the multi-mount protection (MMP) data.
      *
@@ -50,6 +50,15 @@ public class Block {
         return data;
     }
 
+    /**
+     * Returns the block number.
+     *
+     * @return long
+     */
+    public long getBlockNr() {
+        return blockNr;
+    }
+
     /**
      * Sets the data.
      * 
@@ -22,49 +22,467 @@ package org.jnode.fs.ext2.cache;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 /**
+ * Cache of filesystem blocks, bounded by the number of bytes it holds.
+ * <p/>
+ * The blocks are spread over a number of segments, each with its own lock and
+ * its own LRU order, so lookups of different blocks do not contend.
+ * Evicting blocks and writing back dirty blocks is done while holding the
+ * monitor of the cache itself, so code that synchronizes on the cache is
+ * guaranteed that no block is removed from the cache in the meantime.
+ * <p/>
+ * In write-back mode a background thread periodically writes the dirty blocks
+ * to the device, ordered by block number.
+ *
  * @author Andras Nagy
  */
-public final class BlockCache extends LinkedHashMap<Object, Block> {
-    private static final long serialVersionUID = 1L;
+public final class BlockCache {
+
+    /**
+     * Default maximum number of bytes held by the cache
+     */
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Default interval between two write-back passes (in milliseconds)
+     */
+    public static final long DEFAULT_WRITE_BACK_INTERVAL = 5000;
+
+    /**
+     * Number of segments (must be a power of 2)
+     */
+    static final int SEGMENT_COUNT = 16;
 
-    // at most MAX_SIZE blocks fit in the cache
-    static final int MAX_SIZE = 10;
+    /**
+     * Number of least recently used blocks that are inspected for a clean
+     * block, before a dirty block is evicted
+     */
+    private static final int EVICTION_SCAN_DEPTH = 8;
 
     private static final Logger log = Logger.getLogger(BlockCache.class);
 
-    private ArrayList<CacheListener> cacheListeners;
+    private final Segment[] segments;
+
+    private final List<CacheListener> cacheListeners;
+
+    /**
+     * Maximum number of bytes held by the cache
+     */
+    private volatile long maxBytes;
+
+    /**
+     * Number of bytes currently held by the cache
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
 
-    public BlockCache(int initialCapacity, float loadFactor) {
-        super(Math.min(MAX_SIZE, initialCapacity), loadFactor, true);
-        cacheListeners = new ArrayList<CacheListener>();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Number of blocks that became dirty since the last write-back pass
+     */
+    private final AtomicLong dirtied = new AtomicLong();
+
+    /**
+     * Segment to start searching for an eviction victim (guarded by this)
+     */
+    private int evictionSegment;
+
+    /**
+     * The write-back thread, or null in write-through mode (guarded by this)
+     */
+    private WriteBackThread writeBackThread;
+
+    /**
+     * Create a cache that holds at most the given number of bytes.
+     *
+     * @param maxBytes
+     */
+    public BlockCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+        cacheListeners = new CopyOnWriteArrayList<CacheListener>();
     }
 
     public void addCacheListener(CacheListener listener) {
         cacheListeners.add(listener);
     }
 
-    protected synchronized boolean removeEldestEntry(Map.Entry<Object, Block> eldest) {
-        log.debug("BlockCache size: " + size());
-        if (size() > MAX_SIZE) {
+    /**
+     * Gets the block with the given number and counts a hit or a miss.
+     *
+     * @param blockNr
+     * @return the cached block, or null if the block is not in the cache.
+     */
+    public Block get(long blockNr) {
+        final Block block = peek(blockNr);
+        if (block != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return block;
+    }
+
+    /**
+     * Gets the block with the given number without counting a hit or a miss.
+     *
+     * @param blockNr
+     * @return the cached block, or null if the block is not in the cache.
+     */
+    public Block peek(long blockNr) {
+        final Segment segment = segmentFor(blockNr);
+        synchronized (segment) {
+            return segment.get(blockNr);
+        }
+    }
+
+    /**
+     * Adds the given block to the cache, unless a block with the same number
+     * is already cached. Blocks are evicted when the cache has become too large.
+     *
+     * @param block
+     * @return the block that is in the cache after this call. The caller must
+     *         use this block instead of the given block if they differ.
+     */
+    public Block putIfAbsent(Block block) {
+        final Segment segment = segmentFor(block.blockNr);
+        synchronized (segment) {
+            final Block cached = segment.get(block.blockNr);
+            if (cached != null) {
+                return cached;
+            }
+            segment.put(block.blockNr, block);
+        }
+        bytes.addAndGet(block.getData().length);
+        if (block.isDirty()) {
+            blockDirtied();
+        }
+        if (bytes.get() > maxBytes) {
+            evict();
+        }
+        return block;
+    }
+
+    /**
+     * Notify the cache that a cached block has become dirty.
+     * The write-back thread is woken up early when many blocks became dirty.
+     */
+    public void blockDirtied() {
+        final long count = dirtied.incrementAndGet();
+        final WriteBackThread thread = writeBackThread;
+        if ((thread != null) && (count * 2 * thread.blockSize > maxBytes)) {
+            thread.wakeUp();
+        }
+    }
+
+    /**
+     * Gets a snapshot of all cached blocks.
+     *
+     * @return the blocks
+     */
+    public List<Block> getBlocks() {
+        final List<Block> result = new ArrayList<Block>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result.addAll(segment.values());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a snapshot of all dirty blocks, ordered by block number.
+     *
+     * @return the dirty blocks
+     */
+    public List<Block> getDirtyBlocks() {
+        final List<Block> result = new ArrayList<Block>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Block block : segment.values()) {
+                    if (block.isDirty()) {
+                        result.add(block);
+                    }
+                }
+            }
+        }
+        Collections.sort(result, BLOCK_NR_ORDER);
+        return result;
+    }
+
+    /**
+     * Write all dirty blocks to the device, ordered by block number.
+     * The monitor of the cache is held while each block is written.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        dirtied.set(0);
+        for (Block block : getDirtyBlocks()) {
+            synchronized (this) {
+                block.flush();
+            }
+        }
+    }
+
+    /**
+     * Start writing back dirty blocks in the background.
+     *
+     * @param name      the name of the write-back thread
+     * @param blockSize the size of the cached blocks
+     * @param interval  the interval between two write-back passes (in milliseconds)
+     */
+    public synchronized void startWriteBack(String name, int blockSize, long interval) {
+        if (writeBackThread == null) {
+            writeBackThread = new WriteBackThread(name, blockSize, interval);
+            writeBackThread.start();
+        }
+    }
+
+    /**
+     * Stop writing back dirty blocks in the background and wait until the
+     * write-back thread has stopped. Dirty blocks are not written.
+     */
+    public void stopWriteBack() {
+        final WriteBackThread thread;
+        synchronized (this) {
+            thread = writeBackThread;
+            writeBackThread = null;
+        }
+        if (thread != null) {
+            thread.terminate();
             try {
-                eldest.getValue().flush();
-                // notify the listeners
-                final CacheEvent event = new CacheEvent(eldest.getValue(), CacheEvent.REMOVED);
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Is a write-back thread running?
+     *
+     * @return true in write-back mode
+     */
+    public synchronized boolean isWriteBack() {
+        return (writeBackThread != null);
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the cache.
+     *
+     * @param maxBytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (bytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of bytes currently held by the cache.
+     *
+     * @return the size in bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the number of cached blocks.
+     *
+     * @return the number of blocks
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "blocks: " + size() + ", bytes: " + bytes.get() + "/" + maxBytes + ", hits: " + hits.get() +
+            ", misses: " + misses.get() + ", evictions: " + evictions.get();
+    }
+
+    /**
+     * Remove blocks until the cache is no longer too large.
+     * Clean blocks are preferred as victims; a dirty victim is written first.
+     */
+    private synchronized void evict() {
+        while (bytes.get() > maxBytes) {
+            final Block victim = findVictim();
+            if (victim == null) {
+                return;
+            }
+            try {
+                victim.flush();
+            } catch (IOException e) {
+                log.error("Exception when flushing a block from the cache", e);
+                // keep the block, so the changes are not lost
+                return;
+            }
+            final Segment segment = segmentFor(victim.blockNr);
+            synchronized (segment) {
+                if (segment.get(victim.blockNr) != victim) {
+                    continue;
+                }
+                segment.remove(victim.blockNr);
+            }
+            bytes.addAndGet(-victim.getData().length);
+            evictions.incrementAndGet();
+            // notify the listeners
+            if (!cacheListeners.isEmpty()) {
+                final CacheEvent event = new CacheEvent(victim, CacheEvent.REMOVED);
                 for (CacheListener l : cacheListeners) {
                     l.elementRemoved(event);
                 }
-            } catch (IOException e) {
-                log.error("Exception when flushing a block from the cache", e);
             }
-            return true;
-        } else {
-            return false;
+        }
+    }
+
+    /**
+     * Find a block to evict, visiting the segments round robin.
+     *
+     * @return the victim, or null if the cache is empty.
+     */
+    private Block findVictim() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            final Segment segment = segments[evictionSegment];
+            evictionSegment = (evictionSegment + 1) & (SEGMENT_COUNT - 1);
+            synchronized (segment) {
+                Block eldest = null;
+                final Iterator<Block> it = segment.values().iterator();
+                for (int depth = 0; it.hasNext() && (depth < EVICTION_SCAN_DEPTH); depth++) {
+                    final Block block = it.next();
+                    if (!block.isDirty()) {
+                        return block;
+                    }
+                    if (eldest == null) {
+                        eldest = block;
+                    }
+                }
+                if (eldest != null) {
+                    return eldest;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Segment segmentFor(long blockNr) {
+        final int hash = (int) (blockNr ^ (blockNr >>> 32));
+        return segments[(hash ^ (hash >>> 4)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final Comparator<Block> BLOCK_NR_ORDER = new Comparator<Block>() {
+        public int compare(Block b1, Block b2) {
+            return (b1.blockNr < b2.blockNr) ? -1 : ((b1.blockNr == b2.blockNr) ? 0 : 1);
+        }
+    };
+
+    /**
+     * A single segment of the cache, ordered by access (least recent first).
+     */
+    private static final class Segment extends LinkedHashMap<Long, Block> {
+        private static final long serialVersionUID = 1L;
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+    }
+
+    /**
+     * Thread that periodically writes the dirty blocks to the device.
+     */
+    private final class WriteBackThread extends Thread {
+
+        private final int blockSize;
+
+        private final long interval;
+
+        private boolean stop;
+
+        private boolean wakeUp;
+
+        WriteBackThread(String name, int blockSize, long interval) {
+            super(name);
+            this.blockSize = blockSize;
+            this.interval = interval;
+            setDaemon(true);
+        }
+
+        synchronized void wakeUp() {
+            wakeUp = true;
+            notifyAll();
+        }
+
+        synchronized void terminate() {
+            stop = true;
+            notifyAll();
+        }
+
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    if (!stop && !wakeUp) {
+                        try {
+                            wait(interval);
+                        } catch (InterruptedException ex) {
+                            // Ignore
+                        }
+                    }
+                    if (stop) {
+                        return;
+                    }
+                    wakeUp = false;
+                }
+                try {
+                    flush();
+                } catch (IOException e) {
+                    log.error("Exception when writing back dirty blocks", e);
+                }
+            }
         }
     }
 }
@@ -33,6 +33,11 @@ public class Extent {
      */
     public static final int EXTENT_LENGTH = 12;
 
+    /**
+     * The maximum length of an initialized extent, longer extents are uninitialized.
+     */
+    public static final int MAX_INIT_LENGTH = 32768;
+
     /**
      * The data for the extent.
      */
@@ -109,6 +109,24 @@ public abstract class AbstractFSDirectory extends AbstractFSObject implements FS
      * @see org.jnode.fs.FSDirectory#getEntry(java.lang.String)
      */
     public final FSEntry getEntry(String name) throws IOException {
+        if (isEntriesLoaded()) {
+            return entries.get(name);
+        }
+        return lookupEntry(name);
+    }
+
+    /**
+     * Look up the entry with the given name, when the entries have not been
+     * loaded yet. Directories that can find a single entry on the device
+     * without reading all entries (for example with an index) override this method.
+     * Such directories must store new entries on the device when they are created,
+     * since the entries are not updated while they have not been loaded.
+     *
+     * @param name
+     * @return the entry, or null if not found
+     * @throws IOException
+     */
+    protected FSEntry lookupEntry(String name) throws IOException {
         // ensure entries are loaded from BlockDevice
         checkEntriesLoaded();
 
@@ -145,6 +163,7 @@ public abstract class AbstractFSDirectory extends AbstractFSObject implements FS
     public synchronized void remove(String name) throws IOException {
         if (!canWrite())
             throw new IOException("Filesystem or directory is mounted read-only!");
+        checkEntriesLoaded();
         if (entries.remove(name) >= 0) {
             setDirty();
             flush();
@@ -284,6 +303,11 @@ public abstract class AbstractFSDirectory extends AbstractFSObject implements FS
      * @throws IOException
      */
     private final void setFreeEntry(FSEntry newEntry) throws IOException {
+        if (!isEntriesLoaded()) {
+            // only a directory that stores the entry itself looks entries up
+            // without loading them, the entry will be read with the others
+            return;
+        }
         checkEntriesLoaded();
         if (entries.setFreeEntry(newEntry) >= 0) {
             log.debug("setFreeEntry: free entry found !");
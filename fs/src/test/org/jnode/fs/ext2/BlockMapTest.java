@@ -0,0 +1,109 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.fs.ext2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockMapTest {
+
+    @Test
+    public void testLookup() {
+        BlockMap map = new BlockMap();
+        Assert.assertEquals(BlockMap.UNMAPPED, map.lookup(0));
+
+        map.add(0, 100, 4);
+        map.add(4, 0, 2);
+        map.add(6, 200, 3);
+        Assert.assertEquals(3, map.getRunCount());
+        Assert.assertEquals(9, map.getEnd());
+
+        Assert.assertEquals(100, map.lookup(0));
+        Assert.assertEquals(103, map.lookup(3));
+        Assert.assertEquals(0, map.lookup(4));
+        Assert.assertEquals(0, map.lookup(5));
+        Assert.assertEquals(200, map.lookup(6));
+        Assert.assertEquals(202, map.lookup(8));
+        Assert.assertEquals(BlockMap.UNMAPPED, map.lookup(9));
+    }
+
+    @Test
+    public void testAppendExtendsRun() {
+        BlockMap map = new BlockMap();
+        for (int i = 0; i < 20; i++) {
+            map.add(i, 500 + i, 1);
+        }
+        Assert.assertEquals(1, map.getRunCount());
+
+        // a block that is not contiguous starts a new run
+        map.add(20, 900, 1);
+        Assert.assertEquals(2, map.getRunCount());
+        Assert.assertEquals(519, map.lookup(19));
+        Assert.assertEquals(900, map.lookup(20));
+
+        // holes are merged with holes only
+        map.add(21, 0, 1);
+        map.add(22, 0, 3);
+        Assert.assertEquals(3, map.getRunCount());
+        Assert.assertEquals(0, map.lookup(24));
+
+        // more runs than the initial capacity
+        for (int i = 0; i < 50; i++) {
+            map.add(25 + i, 1000 + i * 2, 1);
+        }
+        Assert.assertEquals(53, map.getRunCount());
+        Assert.assertEquals(1098, map.lookup(74));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlappingAdd() {
+        BlockMap map = new BlockMap();
+        map.add(0, 100, 4);
+        map.add(3, 200, 1);
+    }
+
+    @Test
+    public void testTruncate() {
+        BlockMap map = new BlockMap();
+        map.add(0, 100, 4);
+        map.add(4, 200, 4);
+
+        // within a run
+        map.truncate(6);
+        Assert.assertEquals(6, map.getEnd());
+        Assert.assertEquals(201, map.lookup(5));
+        Assert.assertEquals(BlockMap.UNMAPPED, map.lookup(6));
+
+        // at the start of a run
+        map.truncate(4);
+        Assert.assertEquals(1, map.getRunCount());
+        Assert.assertEquals(BlockMap.UNMAPPED, map.lookup(4));
+
+        // blocks can be appended again after a truncate
+        map.add(4, 104, 1);
+        Assert.assertEquals(1, map.getRunCount());
+        Assert.assertEquals(104, map.lookup(4));
+
+        map.truncate(0);
+        Assert.assertEquals(0, map.getRunCount());
+        Assert.assertEquals(0, map.getEnd());
+    }
+}
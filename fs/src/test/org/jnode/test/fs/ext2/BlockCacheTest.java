@@ -0,0 +1,90 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.test.fs.ext2;
+
+import org.jnode.fs.ext2.cache.Block;
+import org.jnode.fs.ext2.cache.BlockCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private static Block block(long nr) {
+        return new Block(null, nr, new byte[BLOCK_SIZE]);
+    }
+
+    @Test
+    public void testPutIfAbsentReturnsCachedBlock() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 4);
+        Block first = block(7);
+        Assert.assertSame(first, cache.putIfAbsent(first));
+        Assert.assertSame(first, cache.putIfAbsent(block(7)));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(BLOCK_SIZE, cache.getBytes());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 4);
+        Assert.assertNull(cache.get(1));
+        cache.putIfAbsent(block(1));
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictionIsBoundedByBytes() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 8);
+        for (long nr = 0; nr < 100; nr++) {
+            cache.putIfAbsent(block(nr));
+        }
+        Assert.assertTrue(cache.getBytes() <= BLOCK_SIZE * 8);
+        Assert.assertEquals(cache.getBytes(), (long) cache.size() * BLOCK_SIZE);
+        Assert.assertEquals(100 - cache.size(), cache.getEvictions());
+
+        cache.setMaxBytes(BLOCK_SIZE * 2);
+        Assert.assertTrue(cache.size() <= 2);
+    }
+
+    @Test
+    public void testDirtyBlocksAreOrdered() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 64);
+        long[] nrs = {42, 3, 17, 9, 30};
+        for (long nr : nrs) {
+            Block b = block(nr);
+            b.setDirty(nr != 17);
+            cache.putIfAbsent(b);
+        }
+        long prev = -1;
+        int count = 0;
+        for (Block b : cache.getDirtyBlocks()) {
+            Assert.assertTrue(b.isDirty());
+            Assert.assertTrue(b.getBlockNr() > prev);
+            prev = b.getBlockNr();
+            count++;
+        }
+        Assert.assertEquals(4, count);
+    }
+}
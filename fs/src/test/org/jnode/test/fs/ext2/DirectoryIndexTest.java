@@ -0,0 +1,185 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.test.fs.ext2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import org.jnode.driver.Device;
+import org.jnode.driver.block.FileDevice;
+import org.jnode.fs.FSDirectory;
+import org.jnode.fs.FSEntry;
+import org.jnode.fs.ext2.Ext2Constants;
+import org.jnode.fs.ext2.Ext2Directory;
+import org.jnode.fs.ext2.Ext2FileSystem;
+import org.jnode.fs.ext2.Ext2FileSystemType;
+import org.jnode.fs.service.FileSystemService;
+import org.jnode.test.fs.FileSystemTestUtils;
+import org.jnode.util.FileUtils;
+import org.jnode.util.LittleEndian;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryIndexTest {
+
+    /**
+     * An ext2 filesystem with the 'dir_index' feature. The directory 'indexed'
+     * holds 0.txt to 299.txt in a hash tree of 6 packed leaves.
+     */
+    private static final String TEST_IMAGE = "test/fs/ext2/ext2-dir-index.dd";
+
+    /**
+     * An ext2 filesystem with the 'dir_index' feature. The directory 'full'
+     * holds f00000 to f06199 in 120 leaves, the root of its index has room for 124.
+     */
+    private static final String FULL_TEST_IMAGE = "test/fs/ext2/ext2-dir-index-full.dd";
+
+    private FileSystemService fss;
+    private File image;
+
+    @Before
+    public void setUp() throws Exception {
+        // create file system service.
+        fss = FileSystemTestUtils.createFSService(Ext2FileSystemType.class.getName());
+        image = File.createTempFile("ext2-dir-index", ".dd");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        image.delete();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        copyImage(TEST_IMAGE);
+        Ext2FileSystem fs = mount(true);
+        FSDirectory dir = fs.getRootEntry().getDirectory().getEntry("indexed").getDirectory();
+
+        for (int i = 0; i < 300; i++) {
+            FSEntry entry = dir.getEntry(i + ".txt");
+            Assert.assertNotNull("Missing " + i + ".txt", entry);
+            Assert.assertTrue(entry.isFile());
+        }
+        Assert.assertNull(dir.getEntry("300.txt"));
+        Assert.assertNull(dir.getEntry("missing.txt"));
+        fs.close();
+    }
+
+    @Test
+    public void testAddSplitsLeaves() throws Exception {
+        copyImage(TEST_IMAGE);
+        Ext2FileSystem fs = mount(false);
+        Ext2Directory dir = (Ext2Directory) fs.getRootEntry().getDirectory().getEntry("indexed").getDirectory();
+        long size = dir.getINode().getSize();
+
+        // the leaves are packed, so these entries must split some of them
+        for (int i = 300; i < 450; i++) {
+            dir.addFile(i + ".txt");
+        }
+        Assert.assertTrue("No leaf has been split", dir.getINode().getSize() > size);
+        Assert.assertTrue("Index has been dropped", (dir.getINode().getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0);
+        fs.close();
+
+        fs = mount(true);
+        dir = (Ext2Directory) fs.getRootEntry().getDirectory().getEntry("indexed").getDirectory();
+        for (int i = 0; i < 450; i++) {
+            FSEntry entry = dir.getEntry(i + ".txt");
+            Assert.assertNotNull("Missing " + i + ".txt", entry);
+            Assert.assertTrue(entry.isFile());
+        }
+        Assert.assertNull(dir.getEntry("450.txt"));
+        assertFileCount(450, dir);
+        fs.close();
+    }
+
+    @Test
+    public void testAddGrowsIndex() throws Exception {
+        copyImage(FULL_TEST_IMAGE);
+        Ext2FileSystem fs = mount(false);
+        Ext2Directory dir = (Ext2Directory) fs.getRootEntry().getDirectory().getEntry("full").getDirectory();
+
+        // the root fills up, moves its entries to a new level, which is then split
+        for (int i = 0; i < 1000; i++) {
+            dir.addFile(String.format("g%05d", i));
+        }
+        Assert.assertTrue("Index has been dropped", (dir.getINode().getFlags() & Ext2Constants.EXT2_INDEX_FL) != 0);
+        byte[] root = dir.getINode().getDataBlock(0);
+        Assert.assertEquals("Indirect levels", 1, LittleEndian.getUInt8(root, 30));
+        Assert.assertTrue("No index node has been split", LittleEndian.getUInt16(root, 34) > 1);
+        fs.close();
+
+        fs = mount(true);
+        dir = (Ext2Directory) fs.getRootEntry().getDirectory().getEntry("full").getDirectory();
+        for (int i = 0; i < 6200; i++) {
+            String name = String.format("f%05d", i);
+            Assert.assertNotNull("Missing " + name, dir.getEntry(name));
+        }
+        for (int i = 0; i < 1000; i++) {
+            String name = String.format("g%05d", i);
+            Assert.assertNotNull("Missing " + name, dir.getEntry(name));
+        }
+        Assert.assertNull(dir.getEntry("g01000"));
+        assertFileCount(7200, dir);
+        fs.close();
+    }
+
+    /**
+     * A linear scan must see the same entries as the index.
+     */
+    private void assertFileCount(int expected, FSDirectory dir) throws Exception {
+        int childCount = 0;
+        Iterator<? extends FSEntry> iterator = dir.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isFile()) {
+                childCount++;
+            }
+        }
+        Assert.assertEquals(expected, childCount);
+    }
+
+    /**
+     * Write to a copy of the given test image.
+     */
+    private void copyImage(String testImage) throws Exception {
+        InputStream in = new FileInputStream(FileSystemTestUtils.getTestFile(testImage));
+        try {
+            OutputStream out = new FileOutputStream(image);
+            try {
+                FileUtils.copy(in, out, new byte[0x10000], false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private Ext2FileSystem mount(boolean readOnly) throws Exception {
+        Device device = new FileDevice(image, readOnly ? "r" : "rw");
+        Ext2FileSystemType type = fss.getFileSystemType(Ext2FileSystemType.ID);
+        return type.create(device, readOnly);
+    }
+}
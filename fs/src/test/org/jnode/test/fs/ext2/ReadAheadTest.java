@@ -0,0 +1,175 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.jnode.test.fs.ext2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.jnode.driver.block.FileDevice;
+import org.jnode.fs.FSFile;
+import org.jnode.fs.ext2.Ext2FileSystem;
+import org.jnode.fs.ext2.Ext2FileSystemType;
+import org.jnode.fs.service.FileSystemService;
+import org.jnode.test.fs.FileSystemTestUtils;
+import org.jnode.util.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadAheadTest {
+
+    private static final String TEST_IMAGE = "test/fs/ext2/ext2-dir-index.dd";
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private static final int FILE_BLOCKS = 200;
+
+    /**
+     * A device that records the length of every read.
+     */
+    private static final class CountingFileDevice extends FileDevice {
+        final List<Integer> reads = new ArrayList<Integer>();
+
+        CountingFileDevice(File file) throws IOException {
+            super(file, "r");
+        }
+
+        @Override
+        public void read(long devOffset, ByteBuffer destBuf) throws IOException {
+            reads.add(destBuf.remaining());
+            super.read(devOffset, destBuf);
+        }
+    }
+
+    private FileSystemService fss;
+    private File image;
+    private CountingFileDevice device;
+    private Ext2FileSystem fs;
+
+    @Before
+    public void setUp() throws Exception {
+        // create file system service.
+        fss = FileSystemTestUtils.createFSService(Ext2FileSystemType.class.getName());
+        Ext2FileSystemType type = fss.getFileSystemType(Ext2FileSystemType.ID);
+
+        // write a file to a copy of the test image
+        image = File.createTempFile("ext2-read-ahead", ".dd");
+        InputStream in = new FileInputStream(FileSystemTestUtils.getTestFile(TEST_IMAGE));
+        try {
+            OutputStream out = new FileOutputStream(image);
+            try {
+                FileUtils.copy(in, out, new byte[0x10000], false);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        Ext2FileSystem writeFs = type.create(new FileDevice(image, "rw"), false);
+        FSFile file = writeFs.getRootEntry().getDirectory().addFile("data").getFile();
+        byte[] data = new byte[FILE_BLOCKS * BLOCK_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / BLOCK_SIZE + i);
+        }
+        // the file grows one block per write
+        for (int i = 0; i < FILE_BLOCKS; i++) {
+            file.write((long) i * BLOCK_SIZE, ByteBuffer.wrap(data, i * BLOCK_SIZE, BLOCK_SIZE));
+        }
+        writeFs.close();
+
+        device = new CountingFileDevice(image);
+        fs = type.create(device, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.close();
+        image.delete();
+    }
+
+    @Test
+    public void testCoalescedRead() throws Exception {
+        FSFile file = fs.getRootEntry().getDirectory().getEntry("data").getFile();
+        device.reads.clear();
+
+        // the first 12 blocks are direct blocks, allocated one after the other
+        ByteBuffer dest = ByteBuffer.allocate(12 * BLOCK_SIZE);
+        file.read(0, dest);
+        assertData(0, dest.array());
+        Assert.assertTrue("Reads: " + device.reads, device.reads.contains(12 * BLOCK_SIZE));
+    }
+
+    @Test
+    public void testReadAheadWindowGrows() throws Exception {
+        FSFile file = fs.getRootEntry().getDirectory().getEntry("data").getFile();
+        device.reads.clear();
+
+        for (int i = 0; i < FILE_BLOCKS; i++) {
+            ByteBuffer dest = ByteBuffer.allocate(BLOCK_SIZE);
+            file.read((long) i * BLOCK_SIZE, dest);
+            assertData(i * BLOCK_SIZE, dest.array());
+        }
+
+        // the first read ahead covers the minimal window, later ones double it
+        int first = 0;
+        int largest = 0;
+        for (int length : device.reads) {
+            if (length > BLOCK_SIZE) {
+                first = (first == 0) ? length : first;
+                largest = Math.max(largest, length);
+            }
+        }
+        Assert.assertEquals("Reads: " + device.reads, 4 * BLOCK_SIZE, first);
+        Assert.assertTrue("Reads: " + device.reads, largest >= 32 * BLOCK_SIZE);
+        Assert.assertTrue("Reads: " + device.reads, device.reads.size() < FILE_BLOCKS / 4);
+    }
+
+    @Test
+    public void testRandomReadsDoNotReadAhead() throws Exception {
+        FSFile file = fs.getRootEntry().getDirectory().getEntry("data").getFile();
+        device.reads.clear();
+
+        for (int i = FILE_BLOCKS - 1; i >= 0; i -= 3) {
+            ByteBuffer dest = ByteBuffer.allocate(BLOCK_SIZE);
+            file.read((long) i * BLOCK_SIZE, dest);
+            assertData(i * BLOCK_SIZE, dest.array());
+        }
+        for (int length : device.reads) {
+            Assert.assertTrue("Reads: " + device.reads, length <= BLOCK_SIZE);
+        }
+    }
+
+    private static void assertData(int offset, byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            int pos = offset + i;
+            if (data[i] != (byte) (pos / BLOCK_SIZE + pos)) {
+                Assert.fail("Wrong data at offset " + pos);
+            }
+        }
+    }
+}
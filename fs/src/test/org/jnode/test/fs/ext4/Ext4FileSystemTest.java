@@ -132,6 +132,34 @@ public class Ext4FileSystemTest {
         Assert.assertEquals(65001, childCount);
     }
 
+    @Test
+    public void testLookupExt4LargeDirectoryWithIndex() throws Exception {
+
+        // Entries of a directory with the 'dir_index' feature are found through its hash tree
+        device = new FileDevice(FileSystemTestUtils.getTestFile("test/fs/ext4/ext4-large-dir-with-index.dd"), "r");
+        Ext2FileSystemType type = fss.getFileSystemType(Ext2FileSystemType.ID);
+        Ext2FileSystem fs = type.create(device, true);
+
+        FSDirectory rootDirectory = fs.getRootEntry().getDirectory();
+        FSDirectory largeDirectory = rootDirectory.getEntry("large-directory").getDirectory();
+
+        for (int i = 0; i <= 65000; i++) {
+            String name = i + ".txt";
+            FSEntry entry = largeDirectory.getEntry(name);
+            Assert.assertNotNull("Missing " + name, entry);
+            Assert.assertEquals(name, entry.getName());
+            Assert.assertTrue(entry.isFile());
+        }
+        Assert.assertEquals("b1946ac92492d2347c6235b4d2611184",
+            DataStructureAsserts.getMD5Digest(largeDirectory.getEntry("2541.txt").getFile()));
+
+        Assert.assertTrue(largeDirectory.getEntry(".").isDirectory());
+        Assert.assertTrue(largeDirectory.getEntry("..").isDirectory());
+        Assert.assertNull(largeDirectory.getEntry("65001.txt"));
+        Assert.assertNull(largeDirectory.getEntry("2541"));
+        Assert.assertNull(largeDirectory.getEntry("missing.txt"));
+    }
+
     @Test
     public void testReadExt4FlexBG() throws Exception {
 
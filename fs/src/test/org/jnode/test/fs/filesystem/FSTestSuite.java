@@ -20,6 +20,8 @@
  
 package org.jnode.test.fs.filesystem;
 
+import org.jnode.test.fs.ext2.DirectoryIndexTest;
+import org.jnode.test.fs.ext2.ReadAheadTest;
 import org.jnode.test.fs.ext4.Ext4FileSystemTest;
 import org.jnode.test.fs.filesystem.tests.BasicFSTest;
 import org.jnode.test.fs.filesystem.tests.ConcurrentAccessFSTest;
@@ -47,6 +49,8 @@ import org.junit.runners.Suite.SuiteClasses;
     TreeFSTest.class,
     /*FileSystemManagerTest.class,*/
     Ext4FileSystemTest.class,
+    DirectoryIndexTest.class,
+    ReadAheadTest.class,
     NTFSFileSystemTest.class,
 }
 )
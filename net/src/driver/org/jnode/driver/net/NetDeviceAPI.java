@@ -20,10 +20,13 @@
  
 package org.jnode.driver.net;
 
+import java.util.List;
 import org.jnode.driver.DeviceAPI;
 import org.jnode.net.HardwareAddress;
 import org.jnode.net.ProtocolAddressInfo;
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
+import org.jnode.vm.objects.Statistics;
 
 /**
  * Generic API for network devices.
@@ -34,10 +37,16 @@ import org.jnode.net.SocketBuffer;
  * should start a worker thread to process this queue.
  * Once a frame has been transmitted, the notifyTransmission method of that
  * frame must be called.
+ * Several frames can be queued at once, so the device can transmit them
+ * in a single batch.
  * <p/>
  * <h3>Reception</h3>
  * On reception of a frame, a network device must call the receive
  * method of the NetworkLayerManager.
+ * Under load, a network device should stop taking an interrupt per frame and
+ * poll for received frames instead, up to a budget per poll.
+ * Received frames should be stored in buffers allocated from the buffer pool
+ * of the device.
  *
  * @author epr
  * @see org.jnode.net.NetworkLayerManager
@@ -70,6 +79,31 @@ public interface NetDeviceAPI extends DeviceAPI {
     public void transmit(SocketBuffer packet, HardwareAddress destination)
         throws NetworkException;
 
+    /**
+     * Add the given frames to the transmit queue of this device, so they are
+     * transmitted in a single batch.
+     *
+     * @param packets     The network packets to transmit. No linklayer header
+     *                    has been added yet.
+     * @param destination The destination address, or null for a broadcast.
+     * @throws NetworkException
+     */
+    public void transmit(List<SocketBuffer> packets, HardwareAddress destination)
+        throws NetworkException;
+
+    /**
+     * Gets the transmit and receive statistics of this device, such as the
+     * sizes of the transmitted batches and of the receive polls.
+     */
+    public Statistics getStatistics();
+
+    /**
+     * Gets the pool of buffers of this device. Its slabs are large enough to
+     * contain a frame of MTU bytes, after a headroom for all headers.
+     * The statistics of the pool show how well the buffers are reused.
+     */
+    public SocketBufferPool getBufferPool();
+
     /**
      * Gets the protocol address information for a given protocol.
      *
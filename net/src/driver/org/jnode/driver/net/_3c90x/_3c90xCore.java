@@ -401,7 +401,7 @@ public class _3c90xCore extends AbstractDeviceCore implements _3c90xConstants, I
             if (pktStatus != 0) {
                 //log.debug("PktStatus[" + NumberUtils.hex(i, 2) + "]=0x" + NumberUtils.hex(pktStatus));
                 if ((pktStatus & upComplete) != 0) {
-                    final SocketBuffer skbuf = rxRing.getPacket(i);
+                    final SocketBuffer skbuf = rxRing.getPacket(driver.getBufferPool(), i);
                     try {
                         //log.debug("Read packet at index 0x" + NumberUtils.hex(i));
                         driver.onReceive(skbuf);
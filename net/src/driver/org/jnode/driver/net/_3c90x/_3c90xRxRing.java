@@ -21,6 +21,7 @@
 package org.jnode.driver.net._3c90x;
 
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.net.ethernet.EthernetConstants;
 import org.jnode.system.resource.MemoryResource;
 import org.jnode.system.resource.ResourceManager;
@@ -140,14 +141,12 @@ public class _3c90xRxRing implements _3c90xConstants {
      * 
      * @param index
      */
-    public SocketBuffer getPacket(int index) {
+    public SocketBuffer getPacket(SocketBufferPool pool, int index) {
         final int updOffset = firstUPDOffset + (index * UPD_SIZE);
         final int frameOffset = firstFrameOffset + (index * FRAME_SIZE);
         final int pktStatus = mem.getInt(updOffset + 4);
         final int pktLen = pktStatus & upPktLenMask;
-        final SocketBuffer skbuf = new SocketBuffer();
-        skbuf.append(data, frameOffset, pktLen);
-        return skbuf;
+        return pool.allocate(data, frameOffset, pktLen);
     }
 
     /**
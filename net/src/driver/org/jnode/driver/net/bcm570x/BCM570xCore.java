@@ -479,9 +479,9 @@ public class BCM570xCore extends AbstractDeviceCore implements BCM570xConstants,
                 txProcess(status);
             }
 
-            // Process rx interrupts
+            // Process rx interrupts on the poll thread of the driver
             if ((status & (INTR_RX_OK | INTR_RX_FIFO_OVRFLO | INTR_RX_BUF_OVRFLO)) != 0) {
-                rxProcess(status);
+                driver.scheduleReceivePoll();
             }
 
             // Process the other errors
@@ -532,11 +532,31 @@ public class BCM570xCore extends AbstractDeviceCore implements BCM570xConstants,
         }
     }
 
-    private void rxProcess(int status) {
-        // Read all packets
+    /**
+     * Receive up to the given number of packets. This method is called on the
+     * poll thread of the driver, with the receive interrupts disabled.
+     *
+     * @param budget The maximum number of packets to receive
+     * @return The number of packets received
+     */
+    public int pollReceive(int budget) {
+        return rxProcess(budget);
+    }
+
+    /**
+     * Enable or disable the receive interrupts. Errors are still signaled
+     * while receiving is polled.
+     */
+    public void setReceiveInterrupts(boolean enabled) {
+        setReg16(REG_INTR_MASK, enabled ? INTR_MASK : (INTR_MASK & ~INTR_RX_OK));
+    }
+
+    private int rxProcess(int budget) {
+        // Read packets, up to the budget
         setReg32(REG_CFG9346, CFG9346_WE);
 
-        while ((getReg8(REG_CHIPCMD) & CMD_BUFFER_EMPTY) == 0) {
+        int count = 0;
+        while ((count < budget) && ((getReg8(REG_CHIPCMD) & CMD_BUFFER_EMPTY) == 0)) {
             final int pktStatus = 0; // rxRing.getPktStatus();
             final int pktLen = (pktStatus >> 16);
 
@@ -556,8 +576,9 @@ public class BCM570xCore extends AbstractDeviceCore implements BCM570xConstants,
 
                 // Enable interrupts
                 setReg16(REG_INTR_MASK, INTR_MASK);
-                return;
+                return count;
             } else {
+                count++;
                 final SocketBuffer skbuf = null; // rxRing.getPacket(pktLen);
 
                 try {
@@ -574,6 +595,7 @@ public class BCM570xCore extends AbstractDeviceCore implements BCM570xConstants,
             // setReg16(CAPR, rxRing.getIndex() - 16);
         }
         setReg32(REG_CFG9346, CFG9346_NORMAL);
+        return count;
     }
 
     public void txProcess(int status) {
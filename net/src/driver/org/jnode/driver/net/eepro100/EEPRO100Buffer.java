@@ -162,7 +162,7 @@ public class EEPRO100Buffer implements EEPRO100Constants {
 
             log.debug("Got a packet: Len=" + NumberUtils.hex(rxPacket.getCount()));
 
-            final SocketBuffer skbuf = rxPacket.getPacket();
+            final SocketBuffer skbuf = rxPacket.getPacket(driver.getBufferPool());
             driver.onReceive(skbuf);
         }
     }
@@ -21,6 +21,7 @@
 package org.jnode.driver.net.eepro100;
 
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.net.ethernet.EthernetConstants;
 import org.jnode.system.resource.MemoryResource;
 import org.jnode.system.resource.ResourceManager;
@@ -180,12 +181,11 @@ public class EEPRO100RxFD {
     }
 
     /**
+     * @param pool the pool to allocate the SocketBuffer from
      * @return a packet read from the device in a SocketBuffer
      */
-    public SocketBuffer getPacket() {
+    public SocketBuffer getPacket(SocketBufferPool pool) {
         int pktLen = this.getCount() & 0x3fff;
-        final SocketBuffer skbuf = new SocketBuffer();
-        skbuf.append(data, 0, pktLen);
-        return skbuf;
+        return pool.allocate(data, 0, pktLen);
     }
 }
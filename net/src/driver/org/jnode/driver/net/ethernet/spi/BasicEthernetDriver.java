@@ -70,6 +70,24 @@ public abstract class BasicEthernetDriver extends AbstractEthernetDriver {
         }
     }
 
+    /**
+     * @see org.jnode.driver.net.spi.AbstractNetDriver#pollReceive(int)
+     */
+    protected int pollReceive(int budget) {
+        final AbstractDeviceCore core = abstractDeviceCore;
+        return (core != null) ? core.pollReceive(budget) : 0;
+    }
+
+    /**
+     * @see org.jnode.driver.net.spi.AbstractNetDriver#setReceiveInterrupts(boolean)
+     */
+    protected void setReceiveInterrupts(boolean enabled) {
+        final AbstractDeviceCore core = abstractDeviceCore;
+        if (core != null) {
+            core.setReceiveInterrupts(enabled);
+        }
+    }
+
     /**
      * Gets the hardware address of this device
      */
@@ -22,6 +22,7 @@ package org.jnode.driver.net.lance;
 
 import org.apache.log4j.Logger;
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.net.ethernet.EthernetAddress;
 import org.jnode.system.resource.MemoryResource;
 import org.jnode.system.resource.ResourceManager;
@@ -95,8 +96,8 @@ public class BufferManager {
         txRing.transmit(buf);
     }
 
-    public SocketBuffer getPacket() {
-        return rxRing.getPacket();
+    public SocketBuffer getPacket(SocketBufferPool pool) {
+        return rxRing.getPacket(pool);
     }
 
     public void dumpData(Logger out) {
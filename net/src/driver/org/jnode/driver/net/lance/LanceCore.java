@@ -397,7 +397,7 @@ public class LanceCore extends AbstractDeviceCore implements IRQHandler, LanceCo
     private void rxProcess() {
         SocketBuffer skbuf;
 
-        while ((skbuf = bufferManager.getPacket()) != null) {
+        while ((skbuf = bufferManager.getPacket(driver.getBufferPool())) != null) {
             try {
                 if (skbuf != null)
                     driver.onReceive(skbuf);
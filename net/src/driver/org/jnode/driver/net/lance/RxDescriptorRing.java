@@ -22,6 +22,7 @@ package org.jnode.driver.net.lance;
 
 import org.apache.log4j.Logger;
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.system.resource.MemoryResource;
 
 /**
@@ -46,7 +47,7 @@ public class RxDescriptorRing extends DescriptorRing {
         currentDescriptor = 0;
     }
 
-    public SocketBuffer getPacket() {
+    public SocketBuffer getPacket(SocketBufferPool pool) {
         if (currentDescriptor > rxDescriptors.length)
             return null;
         RxDescriptor des = rxDescriptors[currentDescriptor];
@@ -81,7 +82,7 @@ public class RxDescriptorRing extends DescriptorRing {
         } else if ((status & RxDescriptor.STATUS_STP) != 0 &&
                 (status & RxDescriptor.STATUS_ENP) != 0) {
             byte[] buf = des.getDataBuffer();
-            SocketBuffer skbuf = new SocketBuffer(buf, 0, buf.length);
+            SocketBuffer skbuf = pool.allocate(buf, 0, buf.length);
             des.clearStatus();
             currentDescriptor = currentDescriptor + 1;
             if (currentDescriptor == length)
@@ -71,6 +71,9 @@ public class LoopbackDriver extends AbstractNetDriver implements
         getAddress().writeTo(skbuf, 6);
         skbuf.set16(12, skbuf.getProtocolID());
 
+        // The buffer is released once it has been transmitted and once it has
+        // been received
+        skbuf.retain();
         onReceive(skbuf);
     }
 
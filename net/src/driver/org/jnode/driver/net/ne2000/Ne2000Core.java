@@ -471,7 +471,7 @@ public abstract class Ne2000Core extends AbstractDeviceCore implements IRQHandle
             // We can get the buffer in a single action
             getNicData(nicAddr, bbuf, 0, len);
         }
-        final SocketBuffer buf = new SocketBuffer(bbuf, 0, len);
+        final SocketBuffer buf = driver.getBufferPool().allocate(bbuf, 0, len);
 
         // Calculate the next bound value
         final int nextBound = hdr.getNextPacketPage() - 1;
@@ -490,9 +490,9 @@ public class RTL8139Core extends AbstractDeviceCore implements RTL8139Constants,
                 txProcess(status);
             }
 
-            // Process rx interrupts
+            // Process rx interrupts on the poll thread of the driver
             if ((status & (INTR_RX_OK | INTR_RX_FIFO_OVRFLO | INTR_RX_BUF_OVRFLO)) != 0) {
-                rxProcess(status);
+                driver.scheduleReceivePoll();
             }
 
             // Process the other errors
@@ -528,8 +528,10 @@ public class RTL8139Core extends AbstractDeviceCore implements RTL8139Constants,
             // rxBufferOverflow++;
             // following is needed to clear this interrupt
             // rxIndex = getReg16(REG_RX_BUF_CNT) % RX_BUF_SIZE;
-            rxRing.setIndex(getReg16(REG_RX_BUF_CNT) % RX_BUF_SIZE);
-            setReg16(REG_RX_BUF_PTR, rxRing.getIndex() - 16);
+            synchronized (rxRing) {
+                rxRing.setIndex(getReg16(REG_RX_BUF_CNT) % RX_BUF_SIZE);
+                setReg16(REG_RX_BUF_PTR, rxRing.getIndex() - 16);
+            }
 
         }
         if ((status & INTR_SYS_ERR) != 0) {
@@ -544,11 +546,33 @@ public class RTL8139Core extends AbstractDeviceCore implements RTL8139Constants,
      * private void rxError(int status) {
      */
 
-    private void rxProcess(int status) {
-        // Read all packets
+    /**
+     * Receive up to the given number of packets. This method is called on the
+     * poll thread of the driver, with the receive interrupts disabled.
+     *
+     * @param budget The maximum number of packets to receive
+     * @return The number of packets received
+     */
+    public int pollReceive(int budget) {
+        synchronized (rxRing) {
+            return rxProcess(budget);
+        }
+    }
+
+    /**
+     * Enable or disable the receive interrupts. Errors are still signaled
+     * while receiving is polled.
+     */
+    public void setReceiveInterrupts(boolean enabled) {
+        setReg16(REG_INTR_MASK, enabled ? INTR_MASK : (INTR_MASK & ~INTR_RX_OK));
+    }
+
+    private int rxProcess(int budget) {
+        // Read packets, up to the budget
         setReg32(REG_CFG9346, CFG9346_WE);
 
-        while ((getReg8(REG_CHIPCMD) & CMD_BUFFER_EMPTY) == 0) {
+        int count = 0;
+        while ((count < budget) && ((getReg8(REG_CHIPCMD) & CMD_BUFFER_EMPTY) == 0)) {
             final int pktStatus = rxRing.getPktStatus();
             final int pktLen = (pktStatus >> 16);
 
@@ -572,9 +596,10 @@ public class RTL8139Core extends AbstractDeviceCore implements RTL8139Constants,
 
                 // Enable interrupts
                 setReg16(REG_INTR_MASK, INTR_MASK);
-                return;
+                return count;
             } else {
-                final SocketBuffer skbuf = rxRing.getPacket(pktLen);
+                count++;
+                final SocketBuffer skbuf = rxRing.getPacket(driver.getBufferPool(), pktLen);
 
                 try {
                     if (skbuf.getSize() > 0)
@@ -592,6 +617,7 @@ public class RTL8139Core extends AbstractDeviceCore implements RTL8139Constants,
         }
 
         setReg32(REG_CFG9346, CFG9346_NORMAL);
+        return count;
     }
 
     public void txProcess(int status) {
@@ -21,6 +21,7 @@
 package org.jnode.driver.net.rtl8139;
 
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.system.resource.MemoryResource;
 import org.jnode.system.resource.ResourceManager;
 import org.vmmagic.unboxed.Address;
@@ -123,11 +124,12 @@ public class RTL8139RxRing implements RTL8139Constants {
 
     /**
      * Gets the packet data of UPD with the current index into a SocketBuffer
+     * allocated from the given pool.
      */
 
-    public SocketBuffer getPacket(int _length) {
+    public SocketBuffer getPacket(SocketBufferPool pool, int _length) {
         final int updOffset = firstUPDOffset + index;
-        final SocketBuffer skbuf = new SocketBuffer();
+        final SocketBuffer skbuf = pool.allocate(_length);
 
         if (_length > 0) {
             skbuf.append(data, updOffset + 4, _length - 4);
@@ -70,4 +70,26 @@ public abstract class AbstractDeviceCore {
      */
     public abstract void transmit(SocketBuffer buf, HardwareAddress destination, long timeout)
         throws InterruptedException, TimeoutException;
+
+    /**
+     * Receive up to the given number of frames. Cores that schedule receive
+     * polls instead of receiving in their interrupt handler must override this
+     * method.
+     *
+     * @param budget The maximum number of frames to receive
+     * @return The number of frames received
+     * @see AbstractNetDriver#scheduleReceivePoll()
+     */
+    public int pollReceive(int budget) {
+        return 0;
+    }
+
+    /**
+     * Enable or disable the receive interrupts.
+     *
+     * @param enabled
+     */
+    public void setReceiveInterrupts(boolean enabled) {
+        // Nothing to do
+    }
 }
@@ -21,8 +21,12 @@
 package org.jnode.driver.net.spi;
 
 import java.io.PrintWriter;
+import java.security.AccessController;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import javax.naming.NameNotFoundException;
+import gnu.java.security.action.GetPropertyAction;
 import org.apache.log4j.Logger;
 import org.jnode.driver.Device;
 import org.jnode.driver.DeviceAlreadyRegisteredException;
@@ -39,17 +43,17 @@ import org.jnode.net.HardwareAddress;
 import org.jnode.net.LayerHeader;
 import org.jnode.net.ProtocolAddressInfo;
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.net.util.NetUtils;
 import org.jnode.util.NumberUtils;
 import org.jnode.util.Queue;
-import org.jnode.util.QueueProcessor;
-import org.jnode.util.QueueProcessorThread;
+import org.jnode.vm.objects.Statistics;
 
 /**
  * @author epr
  */
 public abstract class AbstractNetDriver extends Driver
-    implements NetDeviceAPI, DeviceInfoAPI, QueueProcessor<Object[]> {
+    implements NetDeviceAPI, DeviceInfoAPI {
 
     /**
      * My logger
@@ -63,6 +67,26 @@ public abstract class AbstractNetDriver extends Driver
      * Device prefix for loopback devices
      */
     public static final String LOOPBACK_DEVICE_PREFIX = "lo";
+    /**
+     * Room in the buffers of the pool for link layer headers and trailers
+     */
+    private static final int LINK_LAYER_SPACE = 32;
+    /**
+     * Maximum number of free buffers kept in the pool
+     */
+    private static final int BUFFER_POOL_CAPACITY = 256;
+    /**
+     * Maximum number of frames handed to the device in a single batch
+     */
+    private static final int TX_BATCH_SIZE = 32;
+    /**
+     * Name of the property that sets the default receive budget
+     */
+    private static final String RX_BUDGET_PROPERTY = "jnode.net.rxbudget";
+    /**
+     * Default maximum number of frames received in a single poll
+     */
+    private static final int DEFAULT_RX_BUDGET = 64;
 
     /**
      * Number of received bytes
@@ -83,11 +107,27 @@ public abstract class AbstractNetDriver extends Driver
     /**
      * Thread used to transmit frames
      */
-    private QueueProcessorThread<Object[]> txThread;
+    private TransmitThread txThread;
+    /**
+     * Thread used to poll for received frames, created on the first poll
+     */
+    private ReceivePollThread rxThread;
+    /**
+     * Maximum number of frames received in a single poll
+     */
+    private volatile int rxBudget = getDefaultReceiveBudget();
+    /**
+     * Transmit and receive statistics
+     */
+    private final NetDeviceStatistics stat = new NetDeviceStatistics();
     /**
      * Event processor
      */
     private NetDeviceEventProcessor eventProcessor;
+    /**
+     * Pool of buffers for this device
+     */
+    private SocketBufferPool bufferPool;
 
     /**
      * @see org.jnode.driver.Driver#startDevice()
@@ -111,7 +151,7 @@ public abstract class AbstractNetDriver extends Driver
         }
         device.registerAPI(DeviceInfoAPI.class, this);
         device.registerAPI(NetDeviceAPI.class, this);
-        txThread = new QueueProcessorThread<Object[]>(device.getId() + "-tx", txQueue, this);
+        txThread = new TransmitThread(device.getId() + "-tx");
         txThread.start();
     }
 
@@ -123,6 +163,12 @@ public abstract class AbstractNetDriver extends Driver
         getDevice().unregisterAPI(DeviceInfoAPI.class);
         txThread.stopProcessor();
         txThread = null;
+        synchronized (this) {
+            if (rxThread != null) {
+                rxThread.stopPolling();
+                rxThread = null;
+            }
+        }
     }
 
     /**
@@ -130,14 +176,35 @@ public abstract class AbstractNetDriver extends Driver
      */
     public final void transmit(SocketBuffer skbuf, HardwareAddress destination)
         throws NetworkException {
-        // Update all layer headers
+        updateLayerHeaders(skbuf);
+        //log.debug("Adding to transmit queue");
+        txQueue.add(new Object[]{skbuf, destination});
+    }
+
+    /**
+     * @see org.jnode.driver.net.NetDeviceAPI#transmit(List, HardwareAddress)
+     */
+    public final void transmit(List<SocketBuffer> packets, HardwareAddress destination)
+        throws NetworkException {
+        for (SocketBuffer skbuf : packets) {
+            updateLayerHeaders(skbuf);
+        }
+        // Queue all packets at once, so they are transmitted in a single batch
+        synchronized (txQueue) {
+            for (SocketBuffer skbuf : packets) {
+                txQueue.add(new Object[]{skbuf, destination});
+            }
+        }
+    }
+
+    /**
+     * Update all layer headers of the given packet.
+     */
+    private void updateLayerHeaders(SocketBuffer skbuf) {
         int offset = 0;
         offset = updateLayerHeader(skbuf, skbuf.getLinkLayerHeader(), offset);
         offset = updateLayerHeader(skbuf, skbuf.getNetworkLayerHeader(), offset);
         offset = updateLayerHeader(skbuf, skbuf.getTransportLayerHeader(), offset);
-
-        //log.debug("Adding to transmit queue");
-        txQueue.add(new Object[]{skbuf, destination});
     }
 
     private final int updateLayerHeader(SocketBuffer skbuf, LayerHeader hdr, int offset) {
@@ -149,6 +216,25 @@ public abstract class AbstractNetDriver extends Driver
         }
     }
 
+    /**
+     * @see org.jnode.driver.net.NetDeviceAPI#getBufferPool()
+     */
+    public final synchronized SocketBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = createBufferPool();
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Create the pool of buffers for this device.
+     */
+    protected SocketBufferPool createBufferPool() {
+        final int headroom = SocketBufferPool.DEFAULT_HEADROOM;
+        return new SocketBufferPool(headroom + getMTU() + LINK_LAYER_SPACE, headroom,
+            BUFFER_POOL_CAPACITY);
+    }
+
     /**
      * @see org.jnode.driver.net.NetDeviceAPI#addEventListener(org.jnode.driver.net.NetDeviceListener)
      */
@@ -183,19 +269,54 @@ public abstract class AbstractNetDriver extends Driver
     }
 
     /**
-     * @see org.jnode.util.QueueProcessor#process(java.lang.Object)
+     * @see org.jnode.driver.net.NetDeviceAPI#getStatistics()
      */
-    public void process(Object[] object) {
+    public Statistics getStatistics() {
+        return stat;
+    }
+
+    /**
+     * Transmit a batch of packets taken from the transmit queue and release
+     * them once they have been sent.
+     *
+     * @param packets
+     * @param destinations The destination of each packet
+     */
+    private void transmitBatch(List<SocketBuffer> packets, List<HardwareAddress> destinations) {
+        final int cnt = packets.size();
+        stat.transmitted(cnt);
+        for (int i = 0; i < cnt; i++) {
+            tx_count += packets.get(i).getSize();
+        }
         try {
             //log.debug("<transmit dev=" + getDevice().getId() + ">");
-            final Object[] data = (Object[]) object;
-            final SocketBuffer skbuf = (SocketBuffer) data[0];
-            final HardwareAddress destination = (HardwareAddress) data[1];
-            tx_count += skbuf.getSize();
-            doTransmit(skbuf, destination);
+            doTransmit(packets, destinations);
             //log.debug("</transmit dev=" + getDevice().getId() + ">");
-        } catch (NetworkException ex) {
-            log.error("Cannot transmit packet", ex);
+        } finally {
+            // The packets have been sent
+            for (int i = 0; i < cnt; i++) {
+                packets.get(i).release();
+            }
+        }
+    }
+
+    /**
+     * Transmit a batch of packets. Drivers that can hand several frames to
+     * the hardware at once should override this method; by default each
+     * packet is transmitted on its own.
+     *
+     * @param packets
+     * @param destinations The destination of each packet
+     */
+    protected void doTransmit(List<SocketBuffer> packets, List<HardwareAddress> destinations) {
+        final int cnt = packets.size();
+        for (int i = 0; i < cnt; i++) {
+            try {
+                doTransmit(packets.get(i), destinations.get(i));
+            } catch (NetworkException ex) {
+                stat.txerrors.inc();
+                log.error("Cannot transmit packet", ex);
+            }
         }
     }
 
@@ -205,6 +326,90 @@ public abstract class AbstractNetDriver extends Driver
     protected abstract void doTransmit(SocketBuffer skbuf, HardwareAddress destination)
         throws NetworkException;
 
+    /**
+     * Switch receiving from interrupts to polling. Drivers call this method
+     * from their interrupt handler instead of reading all received frames
+     * there. The receive interrupts are disabled and the frames are read by
+     * {@link #pollReceive(int)} on the poll thread of this device, until a
+     * poll receives less frames than the budget. Then the receive interrupts
+     * are enabled again.
+     */
+    public final void scheduleReceivePoll() {
+        setReceiveInterrupts(false);
+        stat.rxinterrupts.inc();
+        ReceivePollThread thread = rxThread;
+        if (thread == null) {
+            synchronized (this) {
+                thread = rxThread;
+                if (thread == null) {
+                    rxThread = thread = new ReceivePollThread(getDevice().getId() + "-rx");
+                    thread.start();
+                }
+            }
+        }
+        thread.schedule();
+    }
+
+    /**
+     * Receive up to the given number of frames and pass them on using
+     * {@link #onReceive(SocketBuffer)}. Drivers that call
+     * {@link #scheduleReceivePoll()} must override this method.
+     *
+     * @param budget The maximum number of frames to receive
+     * @return The number of frames received
+     */
+    protected int pollReceive(int budget) {
+        return 0;
+    }
+
+    /**
+     * Enable or disable the receive interrupts of the device. Drivers that call
+     * {@link #scheduleReceivePoll()} must override this method.
+     *
+     * @param enabled
+     */
+    protected void setReceiveInterrupts(boolean enabled) {
+        // Nothing to do
+    }
+
+    /**
+     * Gets the maximum number of frames received in a single poll.
+     */
+    public final int getReceiveBudget() {
+        return rxBudget;
+    }
+
+    /**
+     * Sets the maximum number of frames received in a single poll.
+     * A larger budget reduces the number of polls under high load, a smaller
+     * budget leaves more time to the other threads.
+     *
+     * @param budget
+     */
+    public final void setReceiveBudget(int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget < 1");
+        }
+        this.rxBudget = budget;
+    }
+
+    /**
+     * Gets the default receive budget. This is the value of the
+     * jnode.net.rxbudget property, if set.
+     */
+    private static int getDefaultReceiveBudget() {
+        final String value = (String) AccessController.doPrivileged(
+                new GetPropertyAction(RX_BUDGET_PROPERTY, ""));
+        if (value.length() > 0) {
+            try {
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException ex) {
+                // Use the default
+            }
+        }
+        return DEFAULT_RX_BUDGET;
+    }
+
     /**
      * Gets the prefix for the device name
      *
@@ -266,4 +471,127 @@ public abstract class AbstractNetDriver extends Driver
             }
         }
     }    
+
+    /**
+     * Thread that takes frames from the transmit queue and transmits them
+     * in batches.
+     */
+    private final class TransmitThread extends Thread {
+
+        private volatile boolean stop;
+
+        public TransmitThread(String name) {
+            super(name);
+        }
+
+        /**
+         * Stop this thread
+         */
+        public void stopProcessor() {
+            this.stop = true;
+            txQueue.close();
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            final ArrayList<Object[]> requests = new ArrayList<Object[]>(TX_BATCH_SIZE);
+            final ArrayList<SocketBuffer> packets = new ArrayList<SocketBuffer>(TX_BATCH_SIZE);
+            final ArrayList<HardwareAddress> destinations = new ArrayList<HardwareAddress>(TX_BATCH_SIZE);
+            while (!stop) {
+                final Object[] request = txQueue.get(false);
+                if (request != null) {
+                    requests.add(request);
+                    // Take whatever else is available without waiting again
+                    txQueue.drainTo(requests, TX_BATCH_SIZE - 1);
+                    for (Object[] data : requests) {
+                        packets.add((SocketBuffer) data[0]);
+                        destinations.add((HardwareAddress) data[1]);
+                    }
+                    try {
+                        transmitBatch(packets, destinations);
+                    } catch (RuntimeException ex) {
+                        log.error("Error in transmit of " + getName(), ex);
+                    }
+                    requests.clear();
+                    packets.clear();
+                    destinations.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread that polls the device for received frames after a receive
+     * interrupt, until the device is drained.
+     */
+    private final class ReceivePollThread extends Thread {
+
+        private boolean scheduled;
+        private boolean stop;
+
+        public ReceivePollThread(String name) {
+            super(name);
+        }
+
+        /**
+         * Request a poll
+         */
+        public synchronized void schedule() {
+            scheduled = true;
+            notifyAll();
+        }
+
+        /**
+         * Stop this thread
+         */
+        public synchronized void stopPolling() {
+            stop = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until a poll has been requested.
+         *
+         * @return False if this thread must stop
+         */
+        private synchronized boolean waitForSchedule() {
+            while (!scheduled && !stop) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+            scheduled = false;
+            return !stop;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            while (waitForSchedule()) {
+                int cnt;
+                int budget;
+                do {
+                    budget = rxBudget;
+                    try {
+                        cnt = pollReceive(budget);
+                    } catch (RuntimeException ex) {
+                        log.error("Error in receive poll of " + getName(), ex);
+                        cnt = 0;
+                    }
+                    stat.polled(cnt, budget);
+                    if (cnt >= budget) {
+                        // More frames are probably waiting, give others a chance first
+                        Thread.yield();
+                    }
+                } while (cnt >= budget);
+                // The device has been drained, wait for the next interrupt
+                setReceiveInterrupts(true);
+            }
+        }
+    }
 }
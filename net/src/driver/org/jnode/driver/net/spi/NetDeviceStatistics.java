@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.net.spi;
+
+import org.jnode.vm.objects.Counter;
+import org.jnode.vm.objects.Statistic;
+import org.jnode.vm.objects.Statistics;
+
+/**
+ * Transmit and receive statistics of a network device. Besides the number of
+ * batches and packets, the sizes of transmitted batches and receive polls are
+ * counted in buckets of powers of two.
+ *
+ * @author epr
+ */
+public class NetDeviceStatistics implements Statistics {
+
+    /**
+     * Lower bounds of the batch size buckets
+     */
+    private static final int[] BUCKETS = {1, 2, 4, 8, 16, 32};
+
+    protected final Counter txbatches = new Counter("txbatches", "#batches handed to the device");
+    protected final Counter txpackets = new Counter("txpackets", "#transmitted packets");
+    protected final Counter txerrors = new Counter("txerrors", "#packets that could not be transmitted");
+    protected final Counter rxinterrupts =
+            new Counter("rxinterrupts", "#receive interrupts that scheduled a poll");
+    protected final Counter rxpolls = new Counter("rxpolls", "#receive polls");
+    protected final Counter rxpackets = new Counter("rxpackets", "#packets received by polling");
+    protected final Counter rxexhausted =
+            new Counter("rxexhausted", "#receive polls that used up the whole budget");
+
+    private final Counter[] txbatchSizes = createBuckets("txbatch", "#transmitted batches of ");
+    private final Counter[] rxpollSizes = createBuckets("rxpoll", "#receive polls that received ");
+
+    private final Statistic[] list;
+
+    /**
+     * Create a new instance
+     */
+    public NetDeviceStatistics() {
+        final Counter[] counters = {txbatches, txpackets, txerrors, rxinterrupts, rxpolls, rxpackets,
+            rxexhausted};
+        list = new Statistic[counters.length + txbatchSizes.length + rxpollSizes.length];
+        System.arraycopy(counters, 0, list, 0, counters.length);
+        System.arraycopy(txbatchSizes, 0, list, counters.length, txbatchSizes.length);
+        System.arraycopy(rxpollSizes, 0, list, counters.length + txbatchSizes.length, rxpollSizes.length);
+    }
+
+    /**
+     * Gets all statistics
+     */
+    public Statistic[] getStatistics() {
+        return list;
+    }
+
+    /**
+     * Count a batch of packets handed to the device for transmission.
+     *
+     * @param size The number of packets in the batch
+     */
+    final void transmitted(int size) {
+        txbatches.inc();
+        txpackets.add(size);
+        countSize(txbatchSizes, size);
+    }
+
+    /**
+     * Count a receive poll.
+     *
+     * @param count  The number of received packets
+     * @param budget The maximum number of packets the poll was allowed to receive
+     */
+    final void polled(int count, int budget) {
+        rxpolls.inc();
+        rxpackets.add(count);
+        if (count >= budget) {
+            rxexhausted.inc();
+        }
+        if (count > 0) {
+            countSize(rxpollSizes, count);
+        }
+    }
+
+    /**
+     * Increment the counter of the bucket the given size falls in.
+     */
+    private static void countSize(Counter[] buckets, int size) {
+        int i = BUCKETS.length - 1;
+        while (size < BUCKETS[i]) {
+            i--;
+        }
+        buckets[i].inc();
+    }
+
+    /**
+     * Create a counter for each bucket, named after its range of sizes.
+     */
+    private static Counter[] createBuckets(String prefix, String description) {
+        final Counter[] buckets = new Counter[BUCKETS.length];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            final int low = BUCKETS[i];
+            final String range;
+            if (i + 1 == BUCKETS.length) {
+                range = low + "+";
+            } else if (BUCKETS[i + 1] == low + 1) {
+                range = String.valueOf(low);
+            } else {
+                range = low + "-" + (BUCKETS[i + 1] - 1);
+            }
+            buckets[i] = new Counter(prefix + range, description + range + " packets");
+        }
+        return buckets;
+    }
+}
@@ -221,7 +221,7 @@ class ViaRhineCore extends AbstractDeviceCore implements IRQHandler {
 
                 Thread.sleep(50);
                 if (!rxRing.currentDesc().isOwnBit()) {
-                    SocketBuffer packet = rxRing.currentDesc().getPacket();
+                    SocketBuffer packet = rxRing.currentDesc().getPacket(driver.getBufferPool());
                     driver.onReceive(packet);
                     log.debug("New packet");
                     log.debug(packet.getLinkLayerHeader().getSourceAddress());
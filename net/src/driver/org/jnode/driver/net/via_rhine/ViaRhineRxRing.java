@@ -23,6 +23,7 @@ package org.jnode.driver.net.via_rhine;
 import static org.jnode.driver.net.via_rhine.ViaRhineConstants.PKT_BUF_SZ;
 import static org.jnode.driver.net.via_rhine.ViaRhineConstants.RX_RING_SIZE;
 import org.jnode.net.SocketBuffer;
+import org.jnode.net.SocketBufferPool;
 import org.jnode.system.resource.ResourceManager;
 
 /**
@@ -52,12 +53,10 @@ class ViaRhineRxRing extends ViaRhineRing<ViaRhineRxRing.RxDesc> {
             return descMr.getChar(descOffs + 2) & 0x000007FF;
         }
 
-        SocketBuffer getPacket() {
+        SocketBuffer getPacket(SocketBufferPool pool) {
             int ln = getFrameLength();
             log.debug("packetlength: " + ln);
-            byte[] buf = new byte[ln];
-            System.arraycopy(data, dataOffs, buf, 0, ln);
-            return new SocketBuffer(buf, 0, ln);
+            return pool.allocate(data, dataOffs, ln);
         }
     }
 }
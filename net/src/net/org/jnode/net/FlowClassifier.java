@@ -0,0 +1,42 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net;
+
+/**
+ * A FlowClassifier is implemented by network layers that can tell which flow
+ * a received packet belongs to. The network layer manager uses the flow hash
+ * to select a receive queue, so all packets of a single flow are processed
+ * in order by the same worker.
+ *
+ * @author epr
+ */
+public interface FlowClassifier {
+
+    /**
+     * Gets the flow hash of a received packet. The packet data starts at the
+     * header of this network layer. Packets of the same flow must return the
+     * same hash.
+     *
+     * @param skbuf
+     * @return The flow hash
+     */
+    public int getFlowHash(SocketBuffer skbuf);
+}
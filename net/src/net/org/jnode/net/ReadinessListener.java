@@ -0,0 +1,43 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net;
+
+/**
+ * A ReadinessListener is notified by a socket when its readiness for
+ * I/O operations may have changed. This is the case when data has arrived,
+ * space has become available in a send buffer, a connection has been
+ * established or accepted, or the connection has been closed or reset.
+ * <p/>
+ * The listener is called from the network stack, possibly while locks of the
+ * socket are being held, so it must not block and must not call back into the
+ * socket.
+ *
+ * @author epr
+ */
+public interface ReadinessListener {
+
+    /**
+     * The readiness of the given socket may have changed.
+     *
+     * @param source
+     */
+    public void readinessChanged(Object source);
+}
@@ -35,6 +35,13 @@ import org.jnode.driver.Device;
  * All numbers larger then a single byte read from this class are converted from
  * network byte order.
  * 
+ * Buffers allocated from a {@link SocketBufferPool} are reference counted. A
+ * received buffer is owned by the network layer manager until all layers have
+ * processed it. A layer that keeps the buffer after its receive method has
+ * returned must call {@link #retain()} and call {@link #release()} once it is done
+ * with the buffer. A transmitted buffer is released by the device once it has been
+ * sent. Buffers that are not released are garbage collected as usual.
+ * 
  * @author epr
  */
 public class SocketBuffer {
@@ -45,6 +52,10 @@ public class SocketBuffer {
     private static final Logger log = Logger.getLogger(SocketBuffer.class);
     /** Actual data */
     private byte[] data;
+    /** The pooled slab that contains data, or null if data is not pooled */
+    private SocketBufferPool.Slab slab;
+    /** Number of owners of this buffer */
+    private int refCount = 1;
     /** Size of the buffer that is in use */
     private int size;
     /** Start offset in data */
@@ -77,21 +88,43 @@ public class SocketBuffer {
     }
 
     /**
-     * Create a new instance with a buffer of a given capacity
+     * Create a new instance with a buffer of a given capacity, that starts
+     * at the given offset, so headers can be inserted without moving the data.
      */
     public SocketBuffer(int initialCapacity, int initialStart) {
         this.data = new byte[initialCapacity];
+        this.start = initialStart;
+    }
+
+    /**
+     * Create a new instance that uses the given pooled slab.
+     */
+    SocketBuffer(SocketBufferPool.Slab slab, int initialStart) {
+        this.slab = slab;
+        this.data = slab.data;
+        this.start = initialStart;
     }
 
     /**
      * Create a clone of the data of src. Other attributes are not cloned!.
+     * If src is a single pooled buffer, the clone shares its data and the
+     * data is copied when either of them is modified.
      * 
      * @param src
      */
     public SocketBuffer(SocketBuffer src) {
-        this.start = 0;
-        this.size = src.getSize();
-        this.data = src.toByteArray();
+        final SocketBufferPool.Slab srcSlab = src.slab;
+        if ((srcSlab != null) && (src.next == null)) {
+            srcSlab.retain();
+            this.slab = srcSlab;
+            this.data = srcSlab.data;
+            this.start = src.start;
+            this.size = src.size;
+        } else {
+            this.start = 0;
+            this.size = src.getSize();
+            this.data = src.toByteArray();
+        }
         this.next = null;
     }
 
@@ -111,6 +144,27 @@ public class SocketBuffer {
         testBuffer();
     }
 
+    /**
+     * Create a buffer that uses the given portion of a byte array as data,
+     * without copying it. The caller must keep that portion unmodified while
+     * the buffer is in use. The returned buffer should only be concatenated to
+     * another buffer, since inserting or appending data to it would overwrite
+     * the array around the given portion.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return The created buffer
+     */
+    public static SocketBuffer wrap(byte[] data, int offset, int length) {
+        final SocketBuffer skbuf = new SocketBuffer();
+        skbuf.data = data;
+        skbuf.start = offset;
+        skbuf.size = length;
+        skbuf.testBuffer();
+        return skbuf;
+    }
+
     /**
      * Gets the network device who will be sending, or has received this buffer
      */
@@ -143,6 +197,48 @@ public class SocketBuffer {
         protocolID = i;
     }
 
+    /**
+     * Add an owner to this buffer. Each call must be matched by a call to
+     * {@link #release()}.
+     */
+    public synchronized void retain() {
+        refCount++;
+    }
+
+    /**
+     * Remove an owner of this buffer. When the last owner releases a pooled
+     * buffer, its data is returned to the pool and the buffer becomes empty.
+     * Buffers appended to this buffer are not released.
+     */
+    public void release() {
+        final SocketBufferPool.Slab s;
+        synchronized (this) {
+            if ((refCount <= 0) || (--refCount > 0) || (slab == null)) {
+                return;
+            }
+            s = slab;
+            slab = null;
+            data = null;
+            start = 0;
+            size = 0;
+        }
+        s.release();
+    }
+
+    /**
+     * Make sure the data of this buffer is not shared with another buffer,
+     * before it is modified.
+     */
+    private final void unshare() {
+        final SocketBufferPool.Slab s = slab;
+        if ((s != null) && s.isShared()) {
+            final SocketBufferPool.Slab copy = s.pool.copySlab(s, start, size);
+            slab = copy;
+            data = copy.data;
+            s.release();
+        }
+    }
+
     /**
      * Clear this buffer, so it can be used for another purpose
      * 
@@ -166,6 +262,7 @@ public class SocketBuffer {
      * @param count
      */
     public void insert(int count) {
+        unshare();
         if (start >= count) {
             start -= count;
             size += count;
@@ -406,11 +503,11 @@ public class SocketBuffer {
             final int b3 = data[start + index + 3] & 0xFF;
             return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
         } else {
-            // First byte is within my data, second is not
+            // First byte is within my data, last is not
             final int b0 = get(index + 0);
             final int b1 = get(index + 1);
-            final int b2 = get(index + 1);
-            final int b3 = get(index + 1);
+            final int b2 = get(index + 2);
+            final int b3 = get(index + 3);
             return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
         }
     }
@@ -421,6 +518,7 @@ public class SocketBuffer {
      * @param index
      */
     public void set(int index, int value) {
+        unshare();
         if (index >= size) {
             if (next != null) {
                 next.set(index - size, value);
@@ -438,6 +536,7 @@ public class SocketBuffer {
      * @param index
      */
     public void set16(int index, int value) {
+        unshare();
         if (index >= size) {
             // Index is beyond my data
             if (next != null) {
@@ -462,6 +561,7 @@ public class SocketBuffer {
      * @param index
      */
     public void set32(int index, int value) {
+        unshare();
         if (index >= size) {
             // Index is beyond my data
             if (next != null) {
@@ -490,6 +590,7 @@ public class SocketBuffer {
      * @param index
      */
     public void set(int index, byte[] src, int srcOffset, int length) {
+        unshare();
         if (index >= size) {
             // Index is beyond my data
             if (next != null) {
@@ -581,6 +682,7 @@ public class SocketBuffer {
      * @param newSize
      */
     private void setSize(int newSize) {
+        unshare();
         if (data == null) {
             if (newSize > 0) {
                 // There is no buffer, create one
@@ -593,6 +695,11 @@ public class SocketBuffer {
             System.arraycopy(data, start, newData, start, size);
             this.data = newData;
             this.size = newSize;
+            if (slab != null) {
+                // The data no longer fits in the pooled slab
+                slab.release();
+                slab = null;
+            }
         } else {
             // The buffer is large enough, update size
             this.size = newSize;
@@ -0,0 +1,267 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net;
+
+import org.jnode.vm.objects.Counter;
+import org.jnode.vm.objects.Statistic;
+import org.jnode.vm.objects.Statistics;
+
+/**
+ * A pool of fixed size data slabs for SocketBuffers. Buffers allocated from
+ * this pool start at a given headroom, so the headers of all network layers can
+ * be inserted without moving the data. When the last reference to a pooled
+ * buffer is released, its slab is returned to the pool.
+ * <p/>
+ * Each network device has its own pool, sized to its MTU.
+ *
+ * @author epr
+ * @see SocketBuffer#retain()
+ * @see SocketBuffer#release()
+ */
+public class SocketBufferPool implements Statistics {
+
+    /** Default headroom: room for link layer, IP and TCP headers with options */
+    public static final int DEFAULT_HEADROOM = 128;
+
+    /** Size of the slabs */
+    private final int slabSize;
+
+    /** Offset at which allocated buffers start */
+    private final int headroom;
+
+    /** Free slabs */
+    private final Slab[] freeSlabs;
+
+    /** Number of entries used in freeSlabs */
+    private int freeCount;
+
+    /** #allocated buffers */
+    private final Counter allocated = new Counter("allocated");
+
+    /** #allocations served from a free slab */
+    private final Counter reused = new Counter("reused");
+
+    /** #allocations that did not fit in a slab */
+    private final Counter oversize = new Counter("oversize");
+
+    /** #slabs returned to the pool */
+    private final Counter recycled = new Counter("recycled");
+
+    /** #slabs dropped because the pool was full */
+    private final Counter discarded = new Counter("discarded");
+
+    /** #slabs copied because a shared buffer was modified */
+    private final Counter copied = new Counter("copied");
+
+    /** Number of free slabs */
+    private final Statistic free = new Statistic("free", "Number of free slabs") {
+        public Object getValue() {
+            return getFreeCount();
+        }
+
+        public String toString() {
+            return getName() + '=' + getFreeCount();
+        }
+    };
+
+    /** The list of statistics */
+    private final Statistic[] list =
+            new Statistic[] {allocated, reused, oversize, recycled, discarded, copied, free};
+
+    /**
+     * Create a new instance
+     *
+     * @param slabSize The size of a single slab (headroom included)
+     * @param headroom The offset at which allocated buffers start
+     * @param capacity The maximum number of free slabs kept by this pool
+     */
+    public SocketBufferPool(int slabSize, int headroom, int capacity) {
+        if ((headroom < 0) || (headroom >= slabSize)) {
+            throw new IllegalArgumentException("headroom " + headroom);
+        }
+        this.slabSize = slabSize;
+        this.headroom = headroom;
+        this.freeSlabs = new Slab[capacity];
+    }
+
+    /**
+     * Allocate an empty buffer that can hold a full slab of data after the headroom.
+     *
+     * @return The allocated buffer
+     */
+    public SocketBuffer allocate() {
+        return new SocketBuffer(getSlab(), headroom);
+    }
+
+    /**
+     * Allocate an empty buffer that can hold at least the given number of bytes
+     * after the headroom. If that does not fit in a slab, a buffer that is not
+     * pooled is returned.
+     *
+     * @param length
+     * @return The allocated buffer
+     */
+    public SocketBuffer allocate(int length) {
+        if (headroom + length > slabSize) {
+            synchronized (this) {
+                oversize.inc();
+            }
+            return new SocketBuffer(headroom + length, headroom);
+        }
+        return allocate();
+    }
+
+    /**
+     * Allocate a buffer that contains a copy of the given data.
+     *
+     * @param src
+     * @param srcOffset
+     * @param length
+     * @return The allocated buffer
+     */
+    public SocketBuffer allocate(byte[] src, int srcOffset, int length) {
+        final SocketBuffer skbuf = allocate(length);
+        skbuf.append(src, srcOffset, length);
+        return skbuf;
+    }
+
+    /**
+     * Gets the size of the slabs of this pool.
+     */
+    public final int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * Gets the offset at which allocated buffers start.
+     */
+    public final int getHeadroom() {
+        return headroom;
+    }
+
+    /**
+     * Gets the number of free slabs in this pool.
+     */
+    public final synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @see org.jnode.vm.objects.Statistics#getStatistics()
+     */
+    public Statistic[] getStatistics() {
+        return list;
+    }
+
+    /**
+     * Gets a slab with a single reference, from the free list if possible.
+     */
+    final Slab getSlab() {
+        synchronized (this) {
+            allocated.inc();
+            if (freeCount > 0) {
+                reused.inc();
+                final Slab slab = freeSlabs[--freeCount];
+                freeSlabs[freeCount] = null;
+                slab.refCount = 1;
+                return slab;
+            }
+        }
+        return new Slab(this, new byte[slabSize]);
+    }
+
+    /**
+     * Gets a slab that contains a copy of the given slab, because a
+     * buffer that shares the given slab is about to be modified.
+     */
+    final Slab copySlab(Slab src, int offset, int length) {
+        final Slab slab = getSlab();
+        System.arraycopy(src.data, offset, slab.data, offset, length);
+        synchronized (this) {
+            copied.inc();
+        }
+        return slab;
+    }
+
+    /**
+     * Return a slab that is no longer referenced to this pool.
+     */
+    final synchronized void recycle(Slab slab) {
+        if (freeCount < freeSlabs.length) {
+            recycled.inc();
+            freeSlabs[freeCount++] = slab;
+        } else {
+            discarded.inc();
+        }
+    }
+
+    /**
+     * The data of one or more buffers, together with the number of buffers
+     * that use it.
+     */
+    static final class Slab {
+
+        /** The pool that owns this slab */
+        final SocketBufferPool pool;
+
+        /** The actual data */
+        final byte[] data;
+
+        /** Number of buffers using this slab */
+        volatile int refCount;
+
+        Slab(SocketBufferPool pool, byte[] data) {
+            this.pool = pool;
+            this.data = data;
+            this.refCount = 1;
+        }
+
+        /**
+         * Is this slab used by more than one buffer?
+         */
+        final boolean isShared() {
+            return (refCount > 1);
+        }
+
+        /**
+         * Add a buffer that uses this slab.
+         */
+        final synchronized void retain() {
+            refCount++;
+        }
+
+        /**
+         * Remove a buffer that uses this slab. If it was the last one, the
+         * slab is returned to its pool.
+         */
+        final void release() {
+            final int count;
+            synchronized (this) {
+                count = --refCount;
+            }
+            if (count == 0) {
+                pool.recycle(this);
+            } else if (count < 0) {
+                throw new IllegalStateException("Slab released too often");
+            }
+        }
+    }
+}
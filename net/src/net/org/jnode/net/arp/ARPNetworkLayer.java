@@ -161,6 +161,9 @@ public class ARPNetworkLayer implements NetworkLayer {
             skbuf.clear();
             skbuf.setProtocolID(getProtocolID());
             hdr.prefixTo(skbuf);
+            // The received buffer is reused for the reply, the device releases
+            // it once it has been sent.
+            skbuf.retain();
             deviceAPI.transmit(skbuf, hdr.getTargetHWAddress());
         } else {
             // log.debug("ARP request, not my IP-address");
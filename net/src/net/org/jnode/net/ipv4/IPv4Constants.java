@@ -74,6 +74,7 @@ public interface IPv4Constants {
     // Port ranges
     public static final int IPPORT_RESERVED     = 1024;
     public static final int IPPORT_USERRESERVED = 5000;
+    public static final int IPPORT_MAX          = 65535;
 
     // Network classes upper limits
     public static final int NETWORK_CLASSA   = 128;     /*   0.0.0.0 - 127.255.255.255  x.0.0.0  255.0.0.0 */
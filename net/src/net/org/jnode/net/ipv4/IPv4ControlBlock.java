@@ -23,6 +23,8 @@ package org.jnode.net.ipv4;
 import java.net.BindException;
 import java.net.SocketException;
 
+import org.jnode.net.ReadinessListener;
+
 /**
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
@@ -52,6 +54,12 @@ public class IPv4ControlBlock {
     /** Time to Live to use in creating IPv4 headers */
     private final int ttl;
 
+    /** Next control block in the same hash bucket of my list */
+    IPv4ControlBlock hashNext;
+
+    /** Listener notified about readiness changes (can be null) */
+    private volatile ReadinessListener readinessListener;
+
     /**
      * Create a new instance
      * 
@@ -176,12 +184,19 @@ public class IPv4ControlBlock {
             if (lAddr.isAny()) {
                 throw new IllegalArgumentException("Specific local address required");
             }
-            this.lAddr = lAddr;
         } else if (!this.lAddr.equals(lAddr)) {
             throw new IllegalArgumentException("Different lAddr " + lAddr);
         }
-        this.fAddr = fAddr;
-        this.fPort = fPort;
+        synchronized (list) {
+            // Move to the hash bucket of the new addresses
+            final boolean listed = list.unhash(this);
+            this.lAddr = lAddr;
+            this.fAddr = fAddr;
+            this.fPort = fPort;
+            if (listed) {
+                list.hash(this);
+            }
+        }
     }
 
     /**
@@ -208,6 +223,27 @@ public class IPv4ControlBlock {
         this.list.remove(this);
     }
 
+    /**
+     * Sets the listener that is notified when the readiness of this control
+     * block for I/O operations may have changed.
+     * 
+     * @param listener The listener, or null to remove the current listener.
+     */
+    public final void setReadinessListener(ReadinessListener listener) {
+        this.readinessListener = listener;
+    }
+
+    /**
+     * Notify the readiness listener (if any) that the readiness of this
+     * control block may have changed.
+     */
+    public final void notifyReadiness() {
+        final ReadinessListener listener = this.readinessListener;
+        if (listener != null) {
+            listener.readinessChanged(this);
+        }
+    }
+
     /**
      * Create an IPv4 header for outgoing packets.
      * This control block must have been connected before calling this method.
@@ -21,17 +21,49 @@
 package org.jnode.net.ipv4;
 
 import java.net.BindException;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 
 /**
  * A list of IPv4ControlBlock's.
+ * <p/>
+ * Connected control blocks are hashed on their complete (foreign address,
+ * foreign port, local address, local port) tuple, so an incoming packet
+ * for an established connection is found without looking at the other
+ * connections. Unconnected (bound or listening) control blocks are kept in a
+ * separate table hashed on their local port, where the wildcard matching is
+ * done. The local ports in use are kept in a bitmap, to find a free
+ * ephemeral port quickly.
  * 
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
 public abstract class IPv4ControlBlockList {
 
-    protected final LinkedList<IPv4ControlBlock> list = new LinkedList<IPv4ControlBlock>();
+    /** Initial number of buckets in the connection table (a power of 2) */
+    private static final int INITIAL_CONNECTION_BUCKETS = 64;
+
+    /** Number of buckets in the listener table (a power of 2) */
+    private static final int LISTENER_BUCKETS = 256;
+
+    /** All control blocks */
+    protected final LinkedHashSet<IPv4ControlBlock> list = new LinkedHashSet<IPv4ControlBlock>();
+
+    /** Connected control blocks, hashed on their 4-tuple */
+    private IPv4ControlBlock[] connections = new IPv4ControlBlock[INITIAL_CONNECTION_BUCKETS];
+
+    /** Number of control blocks in the connection table */
+    private int connectionCount;
+
+    /** Unconnected control blocks, hashed on their local port */
+    private final IPv4ControlBlock[] listeners = new IPv4ControlBlock[LISTENER_BUCKETS];
+
+    /** A bit for every local port that is in use */
+    private final int[] portBitmap = new int[(IPv4Constants.IPPORT_MAX + 1) / 32];
+
+    /** Number of control blocks per local port in use */
+    private final HashMap<Integer, Integer> portUsers = new HashMap<Integer, Integer>();
+
     private int lastFreePort = IPv4Constants.IPPORT_RESERVED;
 
     /**
@@ -44,7 +76,49 @@ public abstract class IPv4ControlBlockList {
      * @param allowWildcards
      * @return Null if no match, the best matching Control Block otherwise.
      */
-    public IPv4ControlBlock lookup(IPv4Address fAddr, int fPort, IPv4Address lAddr, int lPort,
+    public synchronized IPv4ControlBlock lookup(IPv4Address fAddr, int fPort, IPv4Address lAddr,
+            int lPort, boolean allowWildcards) {
+        if (fAddr.isAny() || lAddr.isAny()) {
+            // A wildcard query can match any control block
+            return scan(fAddr, fPort, lAddr, lPort, allowWildcards);
+        }
+
+        // Exact match on a connection
+        final int index = tupleHash(fAddr, fPort, lAddr, lPort) & (connections.length - 1);
+        for (IPv4ControlBlock cb = connections[index]; cb != null; cb = cb.hashNext) {
+            if (cb.match(fAddr, fPort, lAddr, lPort, false) == 0) {
+                return cb;
+            }
+        }
+        if (!allowWildcards) {
+            return null;
+        }
+
+        // Best match on an unconnected control block
+        IPv4ControlBlock bestcb = null;
+        int bestmatch = Integer.MAX_VALUE;
+        for (IPv4ControlBlock cb = listeners[lPort & (LISTENER_BUCKETS - 1)]; cb != null;
+                cb = cb.hashNext) {
+            final int match = cb.match(fAddr, fPort, lAddr, lPort, true);
+            if ((match >= 0) && (match < bestmatch)) {
+                bestmatch = match;
+                bestcb = cb;
+            }
+        }
+        return bestcb;
+    }
+
+    /**
+     * Lookup the best matching control block by looking at all control blocks.
+     * 
+     * @param fAddr
+     * @param fPort
+     * @param lAddr
+     * @param lPort
+     * @param allowWildcards
+     * @return Null if no match, the best matching Control Block otherwise.
+     */
+    private IPv4ControlBlock scan(IPv4Address fAddr, int fPort, IPv4Address lAddr, int lPort,
             boolean allowWildcards) {
 
         IPv4ControlBlock bestcb = null;
@@ -73,24 +147,23 @@ public abstract class IPv4ControlBlockList {
     public synchronized IPv4ControlBlock bind(IPv4Address lAddr, int lPort) throws BindException {
         if (lPort != 0) {
             // Specific local port
-            if (lookup(IPv4Address.ANY, 0, lAddr, lPort, true) != null) {
+            if (isPortUsed(lPort) && (scan(IPv4Address.ANY, 0, lAddr, lPort, true) != null)) {
                 throw new BindException("Address already in use");
             }
         } else {
             // Choose free port
-            lPort = lastFreePort;
-            do {
-                lPort++;
-                if ((lPort < IPv4Constants.IPPORT_RESERVED) ||
-                        (lPort > IPv4Constants.IPPORT_USERRESERVED)) {
-                    lPort = IPv4Constants.IPPORT_RESERVED;
-                }
-            } while (lookup(IPv4Address.ANY, 0, lAddr, lPort, true) != null);
+            lPort = findFreePort(lastFreePort + 1, IPv4Constants.IPPORT_USERRESERVED);
+            if (lPort < 0) {
+                lPort = findFreePort(IPv4Constants.IPPORT_RESERVED, lastFreePort);
+            }
+            if (lPort < 0) {
+                throw new BindException("No free port");
+            }
             lastFreePort = lPort;
         }
         final IPv4ControlBlock cb = createControlBlock(null);
         cb.bind(lAddr, lPort);
-        list.add(cb);
+        add(cb);
         return cb;
     }
 
@@ -106,7 +179,10 @@ public abstract class IPv4ControlBlockList {
      * @param cb
      */
     final synchronized void add(IPv4ControlBlock cb) {
-        list.add(cb);
+        if (list.add(cb)) {
+            hash(cb);
+            addPortUser(cb.getLocalPort());
+        }
     }
 
     /**
@@ -114,7 +190,147 @@ public abstract class IPv4ControlBlockList {
      * @param cb
      */
     final synchronized void remove(IPv4ControlBlock cb) {
-        list.remove(cb);
+        if (unhash(cb)) {
+            list.remove(cb);
+            removePortUser(cb.getLocalPort());
+        }
+    }
+
+    /**
+     * A block is about to change its addresses, remove it from the hash tables.
+     *
+     * @param cb
+     * @return True if the block is in this list, false otherwise
+     */
+    final boolean unhash(IPv4ControlBlock cb) {
+        if (!list.contains(cb)) {
+            return false;
+        }
+        final IPv4ControlBlock[] table;
+        final int index;
+        if (cb.getForeignAddress().isAny()) {
+            table = listeners;
+            index = cb.getLocalPort() & (LISTENER_BUCKETS - 1);
+        } else {
+            table = connections;
+            index = tupleHash(cb) & (connections.length - 1);
+            connectionCount--;
+        }
+        IPv4ControlBlock prev = null;
+        for (IPv4ControlBlock p = table[index]; p != null; prev = p, p = p.hashNext) {
+            if (p == cb) {
+                if (prev == null) {
+                    table[index] = cb.hashNext;
+                } else {
+                    prev.hashNext = cb.hashNext;
+                }
+                break;
+            }
+        }
+        cb.hashNext = null;
+        return true;
+    }
+
+    /**
+     * Add a block to the hash table that matches its addresses.
+     *
+     * @param cb
+     */
+    final void hash(IPv4ControlBlock cb) {
+        if (cb.getForeignAddress().isAny()) {
+            final int index = cb.getLocalPort() & (LISTENER_BUCKETS - 1);
+            cb.hashNext = listeners[index];
+            listeners[index] = cb;
+        } else {
+            if (connectionCount >= connections.length - (connections.length >> 2)) {
+                growConnections();
+            }
+            final int index = tupleHash(cb) & (connections.length - 1);
+            cb.hashNext = connections[index];
+            connections[index] = cb;
+            connectionCount++;
+        }
+    }
+
+    /**
+     * Double the number of buckets in the connection table.
+     */
+    private void growConnections() {
+        final IPv4ControlBlock[] old = connections;
+        connections = new IPv4ControlBlock[old.length * 2];
+        final int mask = connections.length - 1;
+        for (IPv4ControlBlock first : old) {
+            IPv4ControlBlock cb = first;
+            while (cb != null) {
+                final IPv4ControlBlock next = cb.hashNext;
+                final int index = tupleHash(cb) & mask;
+                cb.hashNext = connections[index];
+                connections[index] = cb;
+                cb = next;
+            }
+        }
+    }
+
+    private static int tupleHash(IPv4ControlBlock cb) {
+        return tupleHash(cb.getForeignAddress(), cb.getForeignPort(), cb.getLocalAddress(),
+            cb.getLocalPort());
+    }
+
+    private static int tupleHash(IPv4Address fAddr, int fPort, IPv4Address lAddr, int lPort) {
+        int h = fAddr.hashCode() * 31 + lAddr.hashCode();
+        h = h * 31 + ((fPort << 16) | lPort);
+        // Spread the bits, so the low bits depend on all of them
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * Is the given local port used by any control block?
+     *
+     * @param port
+     */
+    private boolean isPortUsed(int port) {
+        return (portBitmap[port >>> 5] & (1 << (port & 31))) != 0;
+    }
+
+    private void addPortUser(int port) {
+        final Integer key = port;
+        final Integer users = portUsers.get(key);
+        portUsers.put(key, (users == null) ? 1 : users + 1);
+        portBitmap[port >>> 5] |= (1 << (port & 31));
+    }
+
+    private void removePortUser(int port) {
+        final Integer key = port;
+        final Integer users = portUsers.get(key);
+        if ((users == null) || (users <= 1)) {
+            portUsers.remove(key);
+            portBitmap[port >>> 5] &= ~(1 << (port & 31));
+        } else {
+            portUsers.put(key, users - 1);
+        }
+    }
+
+    /**
+     * Find the first port in the given range that is not in use.
+     *
+     * @param from First port to consider
+     * @param to Last port to consider
+     * @return The port, or -1 if all ports in the range are in use
+     */
+    private int findFreePort(int from, int to) {
+        int port = from;
+        while (port <= to) {
+            final int word = ~portBitmap[port >>> 5] & (-1 << (port & 31));
+            if (word != 0) {
+                final int free = (port & ~31) + Integer.numberOfTrailingZeros(word);
+                return (free <= to) ? free : -1;
+            }
+            port = (port & ~31) + 32;
+        }
+        return -1;
     }
 
     /**
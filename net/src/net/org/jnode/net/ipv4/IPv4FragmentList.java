@@ -38,6 +38,8 @@ public class IPv4FragmentList implements IPv4Constants {
     private final long creationTime;
     /** List of fragments */
     private final ArrayList<SocketBuffer> fragments;
+    /** All buffers added to this list, they are retained until release is called */
+    private final ArrayList<SocketBuffer> buffers = new ArrayList<SocketBuffer>();
     /** The key of this fragment list */
     private final Object key;
     /** Is the first fragment in the list? */
@@ -73,6 +75,10 @@ public class IPv4FragmentList implements IPv4Constants {
         final int myFrOfs = hdr.getFragmentOffset();
         final int mySize = hdr.getDataLength();
 
+        // Keep the buffer until this list is released
+        skbuf.retain();
+        buffers.add(skbuf);
+
         // Fixup some member variables
         this.haveFirstFragment |= (myFrOfs == 0);
         this.haveLastFragment |= !hdr.hasMoreFragments();
@@ -138,11 +144,27 @@ public class IPv4FragmentList implements IPv4Constants {
     }
 
     /**
-     * Gets the complete packet
+     * Gets the complete packet, as a copy of the data of all fragments.
      * This method can only be called when <code>isComplete</code> returns true.
      */
     public SocketBuffer getPacket() {
-        return (SocketBuffer) fragments.get(0);
+        final SocketBuffer first = (SocketBuffer) fragments.get(0);
+        final SocketBuffer packet = new SocketBuffer(first);
+        packet.setDevice(first.getDevice());
+        packet.setProtocolID(first.getProtocolID());
+        packet.setLinkLayerHeader(first.getLinkLayerHeader());
+        packet.setNetworkLayerHeader(first.getNetworkLayerHeader());
+        return packet;
+    }
+
+    /**
+     * Release all fragments added to this list.
+     */
+    public void release() {
+        for (SocketBuffer skbuf : buffers) {
+            skbuf.release();
+        }
+        buffers.clear();
     }
 
     /**
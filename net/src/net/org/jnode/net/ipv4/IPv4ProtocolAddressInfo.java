@@ -78,6 +78,16 @@ public class IPv4ProtocolAddressInfo implements ProtocolAddressInfo {
         return false;
     }
 
+    /**
+     * Is the given address one of the unicast addresses of this object?
+     * Unlike {@link #contains(IPv4Address)}, broadcast addresses do not match.
+     * 
+     * @param address
+     */
+    public synchronized boolean isUnicastAddress(IPv4Address address) {
+        return addresses.containsKey(address);
+    }
+
     /**
      * Is the given address one of the addresses of this object?
      * 
@@ -22,18 +22,38 @@ package org.jnode.net.ipv4;
 
 import java.net.NoRouteToHostException;
 import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Vector;
 
 /**
+ * The IPv4 routing table.
+ * <p/>
+ * Routes are searched in a binary trie keyed on the destination address and
+ * subnet mask of the routes, so the most specific route wins. Host routes
+ * have a prefix length of 32. The trie is rebuilt on every change and
+ * replaced as a whole, so searching needs no locking. The results of
+ * recent searches are cached per destination address; the cache is dropped
+ * on every change of the table.
+ *
  * @author epr
  */
 public class IPv4RoutingTable {
 
+    /** Number of entries in the route cache (a power of 2) */
+    private static final int CACHE_SIZE = 256;
+
     /** All entries as instanceof IPv4Route */
     private final Vector<IPv4Route> entries = new Vector<IPv4Route>();
 
+    /** Root of the trie of all entries */
+    private volatile TrieNode root = new TrieNode();
+
+    /** All gateway routes, used when no route matches the destination */
+    private volatile IPv4Route[] gateways = new IPv4Route[0];
+
+    /** Recently searched destinations */
+    private volatile CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
     /**
      * Create a new instance
      */
@@ -61,8 +81,9 @@ public class IPv4RoutingTable {
      * 
      * @param entry
      */
-    public void add(IPv4Route entry) {
+    public synchronized void add(IPv4Route entry) {
         entries.add(entry);
+        rebuild();
     }
 
     /**
@@ -70,8 +91,9 @@ public class IPv4RoutingTable {
      * 
      * @param entry
      */
-    public void remove(IPv4Route entry) {
+    public synchronized void remove(IPv4Route entry) {
         entries.remove(entry);
+        rebuild();
     }
 
     /**
@@ -92,38 +114,104 @@ public class IPv4RoutingTable {
      * @return The route that has been selected.
      */
     public IPv4Route search(IPv4Address destination) throws NoRouteToHostException {
-        while (true) {
-            try {
-                // First search for a matching host-address route
-                for (IPv4Route r : entries) {
-                    if (r.isHost() && r.isUp()) {
-                        if (r.getDestination().equals(destination)) {
-                            return r;
-                        }
-                    }
-                }
-                // No direct host found, search through the networks
-                for (IPv4Route r : entries) {
-                    if (r.isNetwork() && r.isUp()) {
-                        if (r.getDestination().matches(destination, r.getSubnetmask())) {
-                            return r;
-                        }
-                    }
+        final int address = toInt(destination);
+        final CacheEntry[] cache = this.cache;
+        final int index = hash(address) & (CACHE_SIZE - 1);
+        final CacheEntry entry = cache[index];
+        if ((entry != null) && (entry.address == address) && entry.route.isUp()) {
+            return entry.route;
+        }
+
+        final IPv4Route route = lookup(address);
+        if (route == null) {
+            // No route found
+            throw new NoRouteToHostException(destination.toString());
+        }
+        cache[index] = new CacheEntry(address, route);
+        return route;
+    }
+
+    /**
+     * Find the longest prefix match for the given address.
+     *
+     * @param address
+     * @return The route, or null if not found.
+     */
+    private IPv4Route lookup(int address) {
+        TrieNode node = root;
+        IPv4Route best = node.firstUp();
+        for (int bit = 31; bit >= 0; bit--) {
+            node = (((address >>> bit) & 1) == 0) ? node.zero : node.one;
+            if (node == null) {
+                break;
+            }
+            final IPv4Route r = node.firstUp();
+            if (r != null) {
+                best = r;
+            }
+        }
+        if (best == null) {
+            // No network found, search for the default gateway
+            for (IPv4Route r : gateways) {
+                if (r.isUp()) {
+                    return r;
                 }
+            }
+        }
+        return best;
+    }
 
-                // No network found, search for the default gateway
-                for (IPv4Route r : entries) {
-                    if (r.isGateway() && r.isUp()) {
-                        return r;
+    /**
+     * Build a new trie from the current entries and make it the active one.
+     */
+    private void rebuild() {
+        final TrieNode newRoot = new TrieNode();
+        final ArrayList<IPv4Route> newGateways = new ArrayList<IPv4Route>();
+        for (IPv4Route r : entries) {
+            final int destination = toInt(r.getDestination());
+            final int length;
+            if (r.isHost()) {
+                length = 32;
+            } else {
+                length = Integer.numberOfLeadingZeros(~toInt(r.getSubnetmask()));
+            }
+            TrieNode node = newRoot;
+            for (int i = 0; i < length; i++) {
+                if (((destination >>> (31 - i)) & 1) == 0) {
+                    if (node.zero == null) {
+                        node.zero = new TrieNode();
+                    }
+                    node = node.zero;
+                } else {
+                    if (node.one == null) {
+                        node.one = new TrieNode();
                     }
+                    node = node.one;
                 }
-                // No route found
-                throw new NoRouteToHostException(destination.toString());
-            } catch (ConcurrentModificationException ex) {
-                // The list of entries was modified, while we are searching,
-                // Just loop and try it again
+            }
+            node.add(r);
+            if (r.isGateway()) {
+                newGateways.add(r);
             }
         }
+        this.root = newRoot;
+        this.gateways = newGateways.toArray(new IPv4Route[newGateways.size()]);
+        this.cache = new CacheEntry[CACHE_SIZE];
+    }
+
+    /**
+     * Convert an address into an int, with the first byte in the highest bits.
+     *
+     * @param address
+     */
+    private static int toInt(IPv4Address address) {
+        return ((address.get(0) & 0xFF) << 24) | ((address.get(1) & 0xFF) << 16) |
+            ((address.get(2) & 0xFF) << 8) | (address.get(3) & 0xFF);
+    }
+
+    private static int hash(int address) {
+        final int h = address * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     /**
@@ -138,4 +226,55 @@ public class IPv4RoutingTable {
         }
         return b.toString();
     }
+
+    /**
+     * A node in the trie. The depth of the node is the prefix length.
+     * Nodes are not changed once the trie is active.
+     */
+    private static final class TrieNode {
+
+        /** Child for a 0 bit */
+        TrieNode zero;
+
+        /** Child for a 1 bit */
+        TrieNode one;
+
+        /** Routes with exactly this prefix, in the order they were added */
+        IPv4Route[] routes;
+
+        void add(IPv4Route r) {
+            if (routes == null) {
+                routes = new IPv4Route[] {r};
+            } else {
+                final IPv4Route[] newRoutes = new IPv4Route[routes.length + 1];
+                System.arraycopy(routes, 0, newRoutes, 0, routes.length);
+                newRoutes[routes.length] = r;
+                routes = newRoutes;
+            }
+        }
+
+        IPv4Route firstUp() {
+            if (routes != null) {
+                for (IPv4Route r : routes) {
+                    if (r.isUp()) {
+                        return r;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A cached search result.
+     */
+    private static final class CacheEntry {
+        final int address;
+        final IPv4Route route;
+
+        CacheEntry(int address, IPv4Route route) {
+            this.address = address;
+            this.route = route;
+        }
+    }
 }
@@ -206,6 +206,8 @@ public class ICMPProtocol implements IPv4Protocol, IPv4Constants, ICMPConstants,
      * @param skbuf
      */
     private void postReplyRequest(SocketBuffer skbuf) {
+        // Keep the buffer until the reply has been sent
+        skbuf.retain();
         replyRequestQueue.add(skbuf);
     }
 
@@ -222,6 +224,8 @@ public class ICMPProtocol implements IPv4Protocol, IPv4Constants, ICMPConstants,
             }
         } catch (SocketException ex) {
             log.error("Error in ICMP reply", ex);
+        } finally {
+            skbuf.release();
         }
     }
 
@@ -22,6 +22,7 @@ package org.jnode.net.ipv4.icmp;
 
 import java.net.SocketException;
 
+import org.jnode.net.LinkLayerHeader;
 import org.jnode.net.SocketBuffer;
 import org.jnode.net.ipv4.IPv4Address;
 import org.jnode.net.ipv4.IPv4Constants;
@@ -67,7 +68,8 @@ public class ICMPUtils {
      */
     private final void sendUnreachable(SocketBuffer srcBuf, int code) throws SocketException {
         // Do not respond to linklayer broadcast messages
-        if (srcBuf.getLinkLayerHeader().getDestinationAddress().isBroadcast()) {
+        final LinkLayerHeader llHdr = srcBuf.getLinkLayerHeader();
+        if ((llHdr != null) && llHdr.getDestinationAddress().isBroadcast()) {
             return;
         }
 
@@ -30,6 +30,7 @@ import org.apache.log4j.Logger;
 import org.jnode.driver.Device;
 import org.jnode.driver.net.NetDeviceAPI;
 import org.jnode.driver.net.NetworkException;
+import org.jnode.net.FlowClassifier;
 import org.jnode.net.HardwareAddress;
 import org.jnode.net.InvalidLayerException;
 import org.jnode.net.LayerAlreadyRegisteredException;
@@ -49,18 +50,21 @@ import org.jnode.net.ipv4.IPv4ProtocolAddressInfo;
 import org.jnode.net.ipv4.IPv4RoutingTable;
 import org.jnode.net.ipv4.IPv4Service;
 import org.jnode.net.ipv4.icmp.ICMPProtocol;
+import org.jnode.net.ipv4.nio.IPv4SelectorProvider;
 import org.jnode.net.ipv4.raw.RAWProtocol;
 import org.jnode.net.ipv4.tcp.TCPProtocol;
 import org.jnode.net.ipv4.udp.UDPProtocol;
 import org.jnode.net.ipv4.util.ResolverImpl;
 import org.jnode.net.util.NetUtils;
 import org.jnode.util.NumberUtils;
+import org.jnode.util.QueueProcessor;
+import org.jnode.util.QueueProcessorThread;
 import org.jnode.vm.objects.Statistics;
 
 /**
  * @author epr
  */
-public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Service {
+public class IPv4NetworkLayer implements NetworkLayer, FlowClassifier, IPv4Constants, IPv4Service {
 
     /**
      * My logger
@@ -70,7 +74,8 @@ public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Servic
     private final HashMap<Integer, IPv4Protocol> protocols = new HashMap<Integer, IPv4Protocol>();
 
     /**
-     * List of in-complete fragments
+     * List of in-complete fragments. Packets are received by multiple threads,
+     * so all access is synchronized on this map.
      */
     private final HashMap<Object, IPv4FragmentList> fragments =
             new HashMap<Object, IPv4FragmentList>();
@@ -100,15 +105,31 @@ public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Servic
      */
     private ARPNetworkLayer arp;
 
+    /**
+     * Thread that delivers packets sent to a local address
+     */
+    private final QueueProcessorThread<SocketBuffer> loopbackThread;
+
     /**
      * Initialize a new instance
      */
     public IPv4NetworkLayer() throws NetworkException {
         sender = new IPv4Sender(this);
+        loopbackThread = new QueueProcessorThread<SocketBuffer>("ipv4-loopback",
+            new QueueProcessor<SocketBuffer>() {
+                public void process(SocketBuffer skbuf) throws Exception {
+                    receiveLocal(skbuf);
+                }
+            });
+        loopbackThread.start();
+        final TCPProtocol tcp = new TCPProtocol(this);
+        final UDPProtocol udp = new UDPProtocol(this);
         registerProtocol(new ICMPProtocol(this));
-        registerProtocol(new TCPProtocol(this));
-        registerProtocol(new UDPProtocol(this));
+        registerProtocol(tcp);
+        registerProtocol(udp);
         registerProtocol(new RAWProtocol(this));
+        // Let java.nio channels use the TCP and UDP protocols
+        new IPv4SelectorProvider(tcp, udp).install();
     }
 
     /**
@@ -205,10 +226,67 @@ public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Servic
         // Do a cleanup of the fragmentlist from time to time
         final long now = System.currentTimeMillis();
         if ((now - lastFragmentCleanup) >= (IP_FRAGTIMEOUT * 2)) {
-            removeDeadFragments();
+            synchronized (fragments) {
+                removeDeadFragments();
+            }
         }
     }
 
+    /**
+     * Queue a packet that has been sent to a local address, so it is
+     * delivered to its protocol without passing a device. The network layer
+     * header of the packet must be set and its data must start with the
+     * transport layer header.
+     * 
+     * @param skbuf
+     */
+    final void transmitLocal(SocketBuffer skbuf) {
+        loopbackThread.getQueue().add(skbuf);
+    }
+
+    /**
+     * Deliver a packet that has been sent to a local address.
+     * 
+     * @param skbuf
+     * @see #transmitLocal(SocketBuffer)
+     */
+    private void receiveLocal(SocketBuffer skbuf) throws SocketException {
+        try {
+            stat.ipackets.inc();
+            stat.loopback.inc();
+            deliver((IPv4Header) skbuf.getNetworkLayerHeader(), skbuf);
+        } finally {
+            skbuf.release();
+        }
+    }
+
+    /**
+     * Gets the flow hash of a received packet. The hash covers the addresses
+     * and protocol and, for TCP and UDP packets that are not fragmented, the
+     * ports. All fragments of a packet therefore end up with the same hash.
+     * 
+     * @see org.jnode.net.FlowClassifier#getFlowHash(org.jnode.net.SocketBuffer)
+     */
+    public int getFlowHash(SocketBuffer skbuf) {
+        final int size = skbuf.getSize();
+        if (size < 20) {
+            // Not even a minimal IP header
+            return 0;
+        }
+        final int hdrLength = (skbuf.get(0) & 0x0F) * 4;
+        final int protocol = skbuf.get(9);
+        int hash = protocol;
+        hash = hash * 31 + skbuf.get32(12);
+        hash = hash * 31 + skbuf.get32(16);
+        final boolean fragment = ((skbuf.get16(6) & (IP_MF | IP_FRAGOFS_MASK)) != 0);
+        if (!fragment && ((protocol == IPPROTO_TCP) || (protocol == IPPROTO_UDP))
+                && (size >= hdrLength + 4)) {
+            // Source and destination port
+            hash = hash * 31 + skbuf.get32(hdrLength);
+        }
+        return hash;
+    }
+
     /**
      * Gets the routing table
      */
@@ -242,29 +320,39 @@ public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Servic
      */
     private void deliverFragment(IPv4Header hdr, SocketBuffer skbuf) throws SocketException {
         final Object key = hdr.getFragmentListKey();
-        final IPv4FragmentList flist = (IPv4FragmentList) fragments.get(key);
-        if (flist == null) {
-            // This is a fragment for a new list
-            fragments.put(key, new IPv4FragmentList(skbuf));
-        } else {
-            if (flist.isAlive()) {
-                flist.add(skbuf);
-                if (flist.isComplete()) {
-                    // The fragmentlist is now complete, deliver it
-                    final SocketBuffer pbuf = flist.getPacket();
-                    final IPv4Header phdr = (IPv4Header) pbuf.getNetworkLayerHeader();
-                    stat.reassembled.inc();
-                    deliver(phdr, pbuf);
-                } 
+        SocketBuffer pbuf = null;
+        synchronized (fragments) {
+            final IPv4FragmentList flist = (IPv4FragmentList) fragments.get(key);
+            if (flist == null) {
+                // This is a fragment for a new list
+                fragments.put(key, new IPv4FragmentList(skbuf));
             } else {
-                // Timeout of fragmentlist, destroy it
-                fragments.remove(key);
+                if (flist.isAlive()) {
+                    flist.add(skbuf);
+                    if (flist.isComplete()) {
+                        // The fragmentlist is now complete
+                        pbuf = flist.getPacket();
+                        fragments.remove(key);
+                        flist.release();
+                    }
+                } else {
+                    // Timeout of fragmentlist, destroy it
+                    fragments.remove(key);
+                    flist.release();
+                }
             }
         }
+        if (pbuf != null) {
+            // Deliver the reassembled packet outside the lock
+            final IPv4Header phdr = (IPv4Header) pbuf.getNetworkLayerHeader();
+            stat.reassembled.inc();
+            deliver(phdr, pbuf);
+        }
     }
 
     /**
-     * Remove all dead fragments from the fragment list
+     * Remove all dead fragments from the fragment list.
+     * The caller must hold the lock on the fragments map.
      */
     private final void removeDeadFragments() {
         final ArrayList<Object> deadFragmentKeys = new ArrayList<Object>();
@@ -279,7 +367,7 @@ public class IPv4NetworkLayer implements NetworkLayer, IPv4Constants, IPv4Servic
         if (!deadFragmentKeys.isEmpty()) {
             // Now remove all dead fragments
             for (Object key : deadFragmentKeys) {
-                fragments.remove(key);
+                fragments.remove(key).release();
             }
             // We're done
             log.debug("Removed " + deadFragmentKeys.size() + " dead fragments");
@@ -21,12 +21,15 @@
 package org.jnode.net.ipv4.layer;
 
 import java.net.NoRouteToHostException;
+import java.security.AccessController;
 
+import gnu.java.security.action.GetPropertyAction;
 import org.jnode.driver.ApiNotFoundException;
 import org.jnode.driver.Device;
 import org.jnode.driver.net.NetDeviceAPI;
 import org.jnode.driver.net.NetworkException;
 import org.jnode.net.HardwareAddress;
+import org.jnode.net.LayerHeader;
 import org.jnode.net.NoSuchProtocolException;
 import org.jnode.net.SocketBuffer;
 import org.jnode.net.arp.ARPNetworkLayer;
@@ -45,6 +48,13 @@ import org.jnode.util.TimeoutException;
  */
 public class IPv4Sender implements IPv4Constants, EthernetConstants {
 
+    /** Name of the property that disables the loopback fast path when set to false */
+    private static final String LOOPBACK_PROPERTY = "jnode.net.ipv4.loopback";
+    /** Name of the property that enables TCP and UDP checksums on the loopback fast path */
+    private static final String LOOPBACK_CHECKSUM_PROPERTY = "jnode.net.ipv4.loopback.checksum";
+
+    /** The network layer */
+    private final IPv4NetworkLayer ipNetworkLayer;
     /** The routing table */
     private final IPv4RoutingTable rt;
     /** The ARP service */
@@ -55,6 +65,10 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
     private int lastId = 1;
     /** My statistics */
     private final IPv4Statistics stat;
+    /** Are packets to a local address delivered without a device? */
+    private final boolean loopback;
+    /** Are TCP and UDP checksums calculated for packets to a local address? */
+    private final boolean loopbackChecksums;
 
     /**
      * Create a new instance
@@ -62,8 +76,11 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
      * @param ipNetworkLayer
      */
     public IPv4Sender(IPv4NetworkLayer ipNetworkLayer) {
+        this.ipNetworkLayer = ipNetworkLayer;
         this.rt = ipNetworkLayer.getRoutingTable();
         this.stat = (IPv4Statistics) ipNetworkLayer.getStatistics();
+        this.loopback = !"false".equals(getProperty(LOOPBACK_PROPERTY));
+        this.loopbackChecksums = "true".equals(getProperty(LOOPBACK_CHECKSUM_PROPERTY));
     }
 
     /**
@@ -76,7 +93,9 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
      * before): version, hdrlength, identification, fragmentOffset, checksum
      * <p/> If the device attribute of the skbuf has been set, the packet will
      * be send to this device, otherwise a suitable route will be searched for
-     * in the routing table.
+     * in the routing table. <p/> A packet for one of the addresses of the
+     * device of that route is not send to the device, but delivered to the
+     * receiving protocol directly.
      * 
      * @param hdr
      * @param skbuf
@@ -120,6 +139,12 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
                 hdr.setSource(getSourceAddress(route, hdr, skbuf));
             }
 
+            // Packets to a local address do not have to pass the device
+            if (loopback && isLocalAddress(route, hdr.getDestination())) {
+                transmitLocal(dev, hdr, skbuf);
+                return;
+            }
+
             // Get the hardware address for this device
             hwDstAddr = findDstHWAddress(route, hdr, skbuf);
         } else {
@@ -199,6 +224,53 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
         return (IPv4Address) ((IPv4ProtocolAddressInfo) addrInfo).getDefaultAddress();
     }
 
+    /**
+     * Is the given address a unicast address of the device of the given route?
+     * 
+     * @param route
+     * @param address
+     */
+    private boolean isLocalAddress(IPv4Route route, IPv4Address address) {
+        final Object addrInfo = route.getDeviceAPI().getProtocolAddressInfo(ETH_P_IP);
+        return (addrInfo instanceof IPv4ProtocolAddressInfo)
+                && ((IPv4ProtocolAddressInfo) addrInfo).isUnicastAddress(address);
+    }
+
+    /**
+     * Deliver a packet to a local address without passing the device. The IP
+     * header is not inserted into the buffer, and TCP and UDP checksums are
+     * left 0 (no checksum) unless requested, since the data never leaves
+     * memory.
+     * 
+     * @param dev The device the packet is routed to
+     * @param hdr
+     * @param skbuf
+     */
+    private void transmitLocal(Device dev, IPv4Header hdr, SocketBuffer skbuf) {
+        if (hdr.getDataLength() == 0) {
+            hdr.setDataLength(skbuf.getSize());
+        }
+        if (hdr.getIdentification() == 0) {
+            hdr.setIdentification(getNextID());
+        }
+        hdr.setMoreFragments(false);
+        hdr.setFragmentOffset(0);
+
+        final LayerHeader transportHdr = skbuf.getTransportLayerHeader();
+        final int protocol = hdr.getProtocol();
+        if ((transportHdr != null)
+                && (loopbackChecksums || ((protocol != IPPROTO_TCP) && (protocol != IPPROTO_UDP)))) {
+            // The transport header is at the start of the buffer
+            transportHdr.finalizeHeader(skbuf, 0);
+        }
+
+        // The receiver gets its own copy of the header
+        skbuf.setNetworkLayerHeader(new IPv4Header(hdr));
+        skbuf.setProtocolID(ETH_P_IP);
+        skbuf.setDevice(dev);
+        ipNetworkLayer.transmitLocal(skbuf);
+    }
+
     /**
      * Find the hardware address for the destination address of the given route.
      * 
@@ -311,6 +383,13 @@ public class IPv4Sender implements IPv4Constants, EthernetConstants {
         return arp;
     }
 
+    /**
+     * Gets the value of a system property, or an empty string if not set.
+     */
+    private static String getProperty(String name) {
+        return (String) AccessController.doPrivileged(new GetPropertyAction(name, ""));
+    }
+
     /**
      * Gets a unique identification number
      * @return
@@ -38,6 +38,8 @@ public class IPv4Statistics implements Statistics {
             new Counter("badvers", "#received packets with an IP version other then 4");
     protected final Counter fragments = new Counter("fragments", "total #received fragments");
     protected final Counter ipackets = new Counter("ipackets", "total #received packets");
+    protected final Counter loopback =
+            new Counter("loopback", "#received packets that were sent to a local address without a device");
     protected final Counter noproto =
             new Counter("noproto", "#received packets with an unknown or unsupported protocol");
     protected final Counter nodevaddr =
@@ -46,7 +48,7 @@ public class IPv4Statistics implements Statistics {
     protected final Counter reassembled = new Counter("reassembled", "#datagrams reassembled");
 
     private final Counter[] list = new Counter[] {
-        badhlen, badlen, badsum, fragments, ipackets, noproto, nodevaddr, opackets};
+        badhlen, badlen, badsum, fragments, ipackets, loopback, noproto, nodevaddr, opackets};
 
     /**
      * Gets all statistics
@@ -0,0 +1,235 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.IllegalBlockingModeException;
+
+/**
+ * DatagramSocket that is returned by {@link UDPDatagramChannel#socket()}.
+ * All operations are performed by the channel.
+ *
+ * @author epr
+ */
+final class DatagramSocketAdapter extends DatagramSocket {
+
+    /**
+     * The channel I'm adapting
+     */
+    private final UDPDatagramChannel channel;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param channel
+     */
+    DatagramSocketAdapter(UDPDatagramChannel channel) throws SocketException {
+        super((SocketAddress) null);
+        this.channel = channel;
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getChannel()
+     */
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @see java.net.DatagramSocket#bind(java.net.SocketAddress)
+     */
+    public void bind(SocketAddress local) throws SocketException {
+        try {
+            channel.bind(local);
+        } catch (SocketException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw (SocketException) new SocketException(ex.getMessage()).initCause(ex);
+        }
+    }
+
+    /**
+     * @see java.net.DatagramSocket#connect(java.net.SocketAddress)
+     */
+    public void connect(SocketAddress remote) throws SocketException {
+        try {
+            channel.connect(remote);
+        } catch (SocketException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw (SocketException) new SocketException(ex.getMessage()).initCause(ex);
+        }
+    }
+
+    /**
+     * @see java.net.DatagramSocket#connect(java.net.InetAddress, int)
+     */
+    public void connect(InetAddress address, int port) {
+        try {
+            connect(new InetSocketAddress(address, port));
+        } catch (SocketException ex) {
+            // Not connected
+        }
+    }
+
+    /**
+     * @see java.net.DatagramSocket#disconnect()
+     */
+    public void disconnect() {
+        try {
+            channel.disconnect();
+        } catch (IOException ex) {
+            // Ignore
+        }
+    }
+
+    /**
+     * @see java.net.DatagramSocket#send(java.net.DatagramPacket)
+     */
+    public void send(DatagramPacket p) throws IOException {
+        if (!channel.isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(p.getData(), p.getOffset(), p.getLength());
+        if (p.getAddress() == null) {
+            channel.write(buf);
+        } else {
+            channel.send(buf, new InetSocketAddress(p.getAddress(), p.getPort()));
+        }
+    }
+
+    /**
+     * @see java.net.DatagramSocket#receive(java.net.DatagramPacket)
+     */
+    public void receive(DatagramPacket p) throws IOException {
+        if (!channel.isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(p.getData(), p.getOffset(), p.getLength());
+        final InetSocketAddress source = (InetSocketAddress) channel.receive(buf);
+        if (source == null) {
+            throw new SocketTimeoutException("Timeout in receive");
+        }
+        p.setLength(buf.position() - p.getOffset());
+        p.setAddress(source.getAddress());
+        p.setPort(source.getPort());
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getInetAddress()
+     */
+    public InetAddress getInetAddress() {
+        final InetSocketAddress remote = channel.getRemote();
+        return (remote != null) ? remote.getAddress() : null;
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getPort()
+     */
+    public int getPort() {
+        final InetSocketAddress remote = channel.getRemote();
+        return (remote != null) ? remote.getPort() : -1;
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getRemoteSocketAddress()
+     */
+    public SocketAddress getRemoteSocketAddress() {
+        return channel.getRemote();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getLocalAddress()
+     */
+    public InetAddress getLocalAddress() {
+        return channel.getLocalInetAddress();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getLocalPort()
+     */
+    public int getLocalPort() {
+        return channel.getLocalPort();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getLocalSocketAddress()
+     */
+    public SocketAddress getLocalSocketAddress() {
+        return isBound() ? new InetSocketAddress(getLocalAddress(), getLocalPort()) : null;
+    }
+
+    /**
+     * @see java.net.DatagramSocket#setSoTimeout(int)
+     */
+    public void setSoTimeout(int timeout) throws SocketException {
+        channel.setTimeout(timeout);
+    }
+
+    /**
+     * @see java.net.DatagramSocket#getSoTimeout()
+     */
+    public int getSoTimeout() throws SocketException {
+        return channel.getTimeout();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#isBound()
+     */
+    public boolean isBound() {
+        return channel.isBound();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#isConnected()
+     */
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#close()
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Ignore
+        }
+        super.close();
+    }
+
+    /**
+     * @see java.net.DatagramSocket#isClosed()
+     */
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+/**
+ * A channel that can be registered with an {@link IPv4Selector}.
+ *
+ * @author epr
+ */
+interface IPv4SelectableChannel {
+
+    /**
+     * Gets the operations of the given set for which this channel is ready.
+     * This method must not block.
+     *
+     * @param ops
+     * @return The ready operations, a subset of ops.
+     */
+    public int getReadyOps(int ops);
+
+    /**
+     * Gets the notifier that passes readiness changes of this channel to the
+     * selectors it has been registered with.
+     */
+    public KeyNotifier getKeyNotifier();
+}
@@ -0,0 +1,151 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectionKey;
+
+/**
+ * Selection key of a channel registered with an {@link IPv4Selector}.
+ *
+ * @author epr
+ */
+final class IPv4SelectionKey extends AbstractSelectionKey {
+
+    /**
+     * The channel I'm the key for
+     */
+    private final SelectableChannel channel;
+
+    /**
+     * The selector I'm registered with
+     */
+    private final IPv4Selector selector;
+
+    /**
+     * The interest set
+     */
+    private volatile int interestOps;
+
+    /**
+     * The ready set, updated by the selector
+     */
+    private volatile int readyOps;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param channel
+     * @param selector
+     * @param interestOps
+     */
+    IPv4SelectionKey(SelectableChannel channel, IPv4Selector selector, int interestOps) {
+        this.channel = channel;
+        this.selector = selector;
+        this.interestOps = interestOps;
+    }
+
+    /**
+     * @see java.nio.channels.SelectionKey#channel()
+     */
+    public SelectableChannel channel() {
+        return channel;
+    }
+
+    /**
+     * @see java.nio.channels.SelectionKey#selector()
+     */
+    public Selector selector() {
+        return selector;
+    }
+
+    /**
+     * @see java.nio.channels.SelectionKey#interestOps()
+     */
+    public int interestOps() {
+        ensureValid();
+        return interestOps;
+    }
+
+    /**
+     * @see java.nio.channels.SelectionKey#interestOps(int)
+     */
+    public SelectionKey interestOps(int ops) {
+        ensureValid();
+        if ((ops & ~channel.validOps()) != 0) {
+            throw new IllegalArgumentException("Invalid operations " + ops);
+        }
+        this.interestOps = ops;
+        // The channel may already be ready for the new operations
+        selector.keyChanged(this);
+        return this;
+    }
+
+    /**
+     * @see java.nio.channels.SelectionKey#readyOps()
+     */
+    public int readyOps() {
+        ensureValid();
+        return readyOps;
+    }
+
+    /**
+     * Gets the interest set without checking the validity of this key.
+     */
+    final int getInterestOps() {
+        return interestOps;
+    }
+
+    /**
+     * Gets the ready set without checking the validity of this key.
+     */
+    final int getReadyOps() {
+        return readyOps;
+    }
+
+    /**
+     * Sets the ready set.
+     *
+     * @param ops
+     */
+    final void setReadyOps(int ops) {
+        this.readyOps = ops;
+    }
+
+    /**
+     * Gets the channel as selectable by an IPv4Selector.
+     */
+    final IPv4SelectableChannel getSelectableChannel() {
+        return (IPv4SelectableChannel) channel;
+    }
+
+    /**
+     * Throw a CancelledKeyException if this key has been cancelled.
+     */
+    private void ensureValid() {
+        if (!isValid()) {
+            throw new CancelledKeyException();
+        }
+    }
+}
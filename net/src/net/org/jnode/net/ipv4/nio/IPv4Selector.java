@@ -0,0 +1,356 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.IllegalSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Selector for the channels of the IPv4 protocols.
+ * <p/>
+ * The sockets of the registered channels notify the selector when their
+ * readiness may have changed, so a select operation only polls the keys of
+ * those channels, together with the keys that were ready in the previous
+ * select operation. Selecting is thereby independent of the total number of
+ * registered channels.
+ *
+ * @author epr
+ */
+final class IPv4Selector extends AbstractSelector {
+
+    /**
+     * The key set
+     */
+    private final HashSet<SelectionKey> keys = new HashSet<SelectionKey>();
+
+    /**
+     * The key set as returned to the application
+     */
+    private final Set<SelectionKey> publicKeys = Collections.unmodifiableSet(keys);
+
+    /**
+     * The selected-key set
+     */
+    private final HashSet<SelectionKey> selectedKeys = new HashSet<SelectionKey>();
+
+    /**
+     * The selected-key set as returned to the application
+     */
+    private final Set<SelectionKey> publicSelectedKeys = new UngrowableSet(selectedKeys);
+
+    /**
+     * Lock for changedKeys and wakeupPending, a select operation waits on it
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Keys that must be polled in the next select operation
+     */
+    private final LinkedHashSet<IPv4SelectionKey> changedKeys =
+        new LinkedHashSet<IPv4SelectionKey>();
+
+    /**
+     * Has wakeup been called since the last select operation?
+     */
+    private boolean wakeupPending;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param provider
+     */
+    IPv4Selector(IPv4SelectorProvider provider) {
+        super(provider);
+    }
+
+    /**
+     * @see java.nio.channels.Selector#keys()
+     */
+    public Set<SelectionKey> keys() {
+        ensureOpen();
+        return publicKeys;
+    }
+
+    /**
+     * @see java.nio.channels.Selector#selectedKeys()
+     */
+    public Set<SelectionKey> selectedKeys() {
+        ensureOpen();
+        return publicSelectedKeys;
+    }
+
+    /**
+     * @see java.nio.channels.Selector#selectNow()
+     */
+    public int selectNow() throws IOException {
+        return doSelect(-1);
+    }
+
+    /**
+     * @see java.nio.channels.Selector#select(long)
+     */
+    public int select(long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return doSelect(timeout);
+    }
+
+    /**
+     * @see java.nio.channels.Selector#select()
+     */
+    public int select() throws IOException {
+        return doSelect(0);
+    }
+
+    /**
+     * @see java.nio.channels.Selector#wakeup()
+     */
+    public Selector wakeup() {
+        synchronized (lock) {
+            wakeupPending = true;
+            lock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelector#implCloseSelector()
+     */
+    protected void implCloseSelector() throws IOException {
+        wakeup();
+        synchronized (this) {
+            synchronized (keys) {
+                for (SelectionKey k : keys) {
+                    final IPv4SelectionKey key = (IPv4SelectionKey) k;
+                    key.getSelectableChannel().getKeyNotifier().remove(key);
+                    deregister(key);
+                }
+                keys.clear();
+            }
+            synchronized (selectedKeys) {
+                selectedKeys.clear();
+            }
+            synchronized (lock) {
+                changedKeys.clear();
+            }
+        }
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelector#register(java.nio.channels.spi.AbstractSelectableChannel,
+     *      int, java.lang.Object)
+     */
+    protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+        if (!(ch instanceof IPv4SelectableChannel)) {
+            throw new IllegalSelectorException();
+        }
+        final IPv4SelectionKey key = new IPv4SelectionKey(ch, this, ops);
+        key.attach(att);
+        synchronized (keys) {
+            ensureOpen();
+            keys.add(key);
+        }
+        ((IPv4SelectableChannel) ch).getKeyNotifier().add(key);
+        // The channel may already be ready
+        keyChanged(key);
+        return key;
+    }
+
+    /**
+     * The readiness or the interest set of the given key may have changed,
+     * poll it in the next select operation.
+     *
+     * @param key
+     */
+    final void keyChanged(IPv4SelectionKey key) {
+        synchronized (lock) {
+            if (changedKeys.add(key)) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Perform a select operation.
+     *
+     * @param timeout The timeout in ms, 0 to wait until a key is selected, or
+     *                -1 to return immediately.
+     * @return The number of keys whose ready set has been updated
+     */
+    private int doSelect(long timeout) throws IOException {
+        ensureOpen();
+        synchronized (this) {
+            processCancelledKeys();
+            final ArrayList<IPv4SelectionKey> readyKeys = new ArrayList<IPv4SelectionKey>();
+            final long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+            int updated = 0;
+            try {
+                begin();
+                while (true) {
+                    final IPv4SelectionKey[] polled;
+                    synchronized (lock) {
+                        polled = changedKeys.toArray(new IPv4SelectionKey[changedKeys.size()]);
+                        changedKeys.clear();
+                    }
+                    updated += poll(polled, readyKeys);
+                    if ((updated > 0) || (timeout < 0)) {
+                        break;
+                    }
+                    synchronized (lock) {
+                        if (wakeupPending || Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        if (changedKeys.isEmpty()) {
+                            long wait = 0;
+                            if (deadline != 0) {
+                                wait = deadline - System.currentTimeMillis();
+                                if (wait <= 0) {
+                                    break;
+                                }
+                            }
+                            try {
+                                lock.wait(wait);
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                end();
+                synchronized (lock) {
+                    wakeupPending = false;
+                    // Keys that are ready now are polled again in the next select
+                    changedKeys.addAll(readyKeys);
+                }
+            }
+            processCancelledKeys();
+            return updated;
+        }
+    }
+
+    /**
+     * Poll the given keys and update the selected-key set.
+     *
+     * @param polled    The keys to poll
+     * @param readyKeys The keys that are ready are added to this list
+     * @return The number of keys whose ready set has been updated
+     */
+    private int poll(IPv4SelectionKey[] polled, ArrayList<IPv4SelectionKey> readyKeys) {
+        int updated = 0;
+        synchronized (selectedKeys) {
+            for (IPv4SelectionKey key : polled) {
+                if (!key.isValid()) {
+                    continue;
+                }
+                final int ready = key.getSelectableChannel().getReadyOps(key.getInterestOps());
+                if (ready == 0) {
+                    continue;
+                }
+                readyKeys.add(key);
+                if (selectedKeys.contains(key)) {
+                    final int old = key.getReadyOps();
+                    if ((ready & ~old) != 0) {
+                        key.setReadyOps(old | ready);
+                        updated++;
+                    }
+                } else {
+                    key.setReadyOps(ready);
+                    selectedKeys.add(key);
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Deregister all keys that have been cancelled.
+     */
+    private void processCancelledKeys() {
+        final Set<SelectionKey> cancelled = cancelledKeys();
+        synchronized (cancelled) {
+            for (SelectionKey k : cancelled) {
+                final IPv4SelectionKey key = (IPv4SelectionKey) k;
+                synchronized (keys) {
+                    keys.remove(key);
+                }
+                synchronized (selectedKeys) {
+                    selectedKeys.remove(key);
+                }
+                key.getSelectableChannel().getKeyNotifier().remove(key);
+                deregister(key);
+            }
+            cancelled.clear();
+        }
+    }
+
+    /**
+     * Throw a ClosedSelectorException if this selector has been closed.
+     */
+    private void ensureOpen() {
+        if (!isOpen()) {
+            throw new ClosedSelectorException();
+        }
+    }
+
+    /**
+     * Set that supports removal, but not addition of elements.
+     */
+    private static final class UngrowableSet extends AbstractSet<SelectionKey> {
+
+        private final Set<SelectionKey> set;
+
+        UngrowableSet(Set<SelectionKey> set) {
+            this.set = set;
+        }
+
+        public Iterator<SelectionKey> iterator() {
+            return set.iterator();
+        }
+
+        public int size() {
+            return set.size();
+        }
+
+        public boolean contains(Object o) {
+            return set.contains(o);
+        }
+
+        public boolean remove(Object o) {
+            return set.remove(o);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+
+import org.apache.log4j.Logger;
+import org.jnode.driver.net.NetworkException;
+import org.jnode.net.ipv4.tcp.TCPProtocol;
+import org.jnode.net.ipv4.udp.UDPProtocol;
+
+/**
+ * SelectorProvider for channels on top of the JNode TCP and UDP protocols.
+ * <p/>
+ * The sockets of these protocols notify the channels when their readiness
+ * changes, so a single thread can serve many connections with a
+ * {@link java.nio.channels.Selector}.
+ *
+ * @author epr
+ */
+public class IPv4SelectorProvider extends SelectorProvider {
+
+    /**
+     * My logger
+     */
+    private static final Logger log = Logger.getLogger(IPv4SelectorProvider.class);
+
+    /**
+     * The TCP protocol used by socket channels
+     */
+    private final TCPProtocol tcp;
+
+    /**
+     * The UDP protocol used by datagram channels
+     */
+    private final UDPProtocol udp;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param tcp
+     * @param udp
+     */
+    public IPv4SelectorProvider(TCPProtocol tcp, UDPProtocol udp) {
+        this.tcp = tcp;
+        this.udp = udp;
+    }
+
+    /**
+     * @see java.nio.channels.spi.SelectorProvider#openDatagramChannel()
+     */
+    public DatagramChannel openDatagramChannel() throws IOException {
+        return new UDPDatagramChannel(this, udp);
+    }
+
+    /**
+     * @see java.nio.channels.spi.SelectorProvider#openPipe()
+     */
+    public Pipe openPipe() throws IOException {
+        throw new IOException("Pipes are not supported");
+    }
+
+    /**
+     * @see java.nio.channels.spi.SelectorProvider#openSelector()
+     */
+    public AbstractSelector openSelector() throws IOException {
+        return new IPv4Selector(this);
+    }
+
+    /**
+     * @see java.nio.channels.spi.SelectorProvider#openServerSocketChannel()
+     */
+    public ServerSocketChannel openServerSocketChannel() throws IOException {
+        return new TCPServerSocketChannel(this, tcp);
+    }
+
+    /**
+     * @see java.nio.channels.spi.SelectorProvider#openSocketChannel()
+     */
+    public SocketChannel openSocketChannel() throws IOException {
+        return new TCPSocketChannel(this, tcp);
+    }
+
+    /**
+     * Make this provider the system-wide default provider returned by
+     * {@link SelectorProvider#provider()}.
+     * The class library only looks for a default provider with the system class
+     * loader, which cannot load this class, so the provider is stored in the static
+     * field behind provider(), while holding the lock that provider() uses.
+     *
+     * @throws NetworkException if another default provider has already been created,
+     *                          or the class library does not have these fields.
+     */
+    public void install() throws NetworkException {
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+                public Object run() throws NetworkException, IllegalAccessException {
+                    setDefault();
+                    return null;
+                }
+            });
+        } catch (SecurityException ex) {
+            throw new NetworkException("No permission to install SelectorProvider", ex);
+        } catch (PrivilegedActionException ex) {
+            if (ex.getException() instanceof NetworkException) {
+                throw (NetworkException) ex.getException();
+            }
+            throw new NetworkException("Cannot install SelectorProvider", ex.getException());
+        }
+    }
+
+    /**
+     * Store this provider in the default provider field of SelectorProvider.
+     */
+    private void setDefault() throws NetworkException, IllegalAccessException {
+        Field providerField = null;
+        Field lockField = null;
+        for (Field f : SelectorProvider.class.getDeclaredFields()) {
+            final int modifiers = f.getModifiers();
+            if (Modifier.isStatic(modifiers)) {
+                if (f.getType() == SelectorProvider.class) {
+                    providerField = f;
+                } else if ((f.getType() == Object.class) && Modifier.isFinal(modifiers)) {
+                    lockField = f;
+                }
+            }
+        }
+        if ((providerField == null) || (lockField == null)) {
+            throw new NetworkException("Cannot find the default SelectorProvider fields");
+        }
+        providerField.setAccessible(true);
+        lockField.setAccessible(true);
+        synchronized (lockField.get(null)) {
+            final Object current = providerField.get(null);
+            if ((current != null) && !(current instanceof IPv4SelectorProvider)) {
+                throw new NetworkException("Default SelectorProvider already created: "
+                    + current.getClass().getName());
+            }
+            providerField.set(null, this);
+        }
+        log.debug("Installed default SelectorProvider");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jnode.net.ReadinessListener;
+
+/**
+ * Listens for readiness changes of a socket and passes them on to the
+ * selection keys of the channel that owns the socket.
+ *
+ * @author epr
+ */
+final class KeyNotifier implements ReadinessListener {
+
+    /**
+     * The keys of the channel
+     */
+    private final CopyOnWriteArrayList<IPv4SelectionKey> keys =
+        new CopyOnWriteArrayList<IPv4SelectionKey>();
+
+    /**
+     * A key has been registered.
+     *
+     * @param key
+     */
+    final void add(IPv4SelectionKey key) {
+        keys.add(key);
+    }
+
+    /**
+     * A key has been deregistered.
+     *
+     * @param key
+     */
+    final void remove(IPv4SelectionKey key) {
+        keys.remove(key);
+    }
+
+    /**
+     * @see org.jnode.net.ReadinessListener#readinessChanged(java.lang.Object)
+     */
+    public void readinessChanged(Object source) {
+        for (IPv4SelectionKey key : keys) {
+            ((IPv4Selector) key.selector()).keyChanged(key);
+        }
+    }
+}
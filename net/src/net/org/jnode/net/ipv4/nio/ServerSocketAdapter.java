@@ -0,0 +1,169 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.jnode.net.ipv4.tcp.TCPControlBlock;
+
+/**
+ * ServerSocket that is returned by {@link TCPServerSocketChannel#socket()}.
+ * All operations are performed by the channel.
+ *
+ * @author epr
+ */
+final class ServerSocketAdapter extends ServerSocket {
+
+    /**
+     * The channel I'm adapting
+     */
+    private final TCPServerSocketChannel channel;
+
+    /**
+     * Timeout for accept, only stored
+     */
+    private int timeout;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param channel
+     */
+    ServerSocketAdapter(TCPServerSocketChannel channel) throws IOException {
+        this.channel = channel;
+    }
+
+    /**
+     * @see java.net.ServerSocket#getChannel()
+     */
+    public ServerSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @see java.net.ServerSocket#bind(java.net.SocketAddress, int)
+     */
+    public void bind(SocketAddress local, int backlog) throws IOException {
+        channel.bind(local, backlog);
+    }
+
+    /**
+     * @see java.net.ServerSocket#accept()
+     */
+    public Socket accept() throws IOException {
+        if (!channel.isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        final SocketChannel sc = channel.accept();
+        return sc.socket();
+    }
+
+    /**
+     * @see java.net.ServerSocket#getInetAddress()
+     */
+    public InetAddress getInetAddress() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        return (cb != null) ? cb.getLocalAddress().toInetAddress() : null;
+    }
+
+    /**
+     * @see java.net.ServerSocket#getLocalPort()
+     */
+    public int getLocalPort() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        return (cb != null) ? cb.getLocalPort() : -1;
+    }
+
+    /**
+     * @see java.net.ServerSocket#getLocalSocketAddress()
+     */
+    public SocketAddress getLocalSocketAddress() {
+        return isBound() ? new InetSocketAddress(getInetAddress(), getLocalPort()) : null;
+    }
+
+    /**
+     * @see java.net.ServerSocket#setSoTimeout(int)
+     */
+    public void setSoTimeout(int timeout) throws SocketException {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @see java.net.ServerSocket#getSoTimeout()
+     */
+    public int getSoTimeout() throws IOException {
+        return timeout;
+    }
+
+    /**
+     * @see java.net.ServerSocket#setReceiveBufferSize(int)
+     */
+    public void setReceiveBufferSize(int size) throws SocketException {
+        channel.setReceiveBufferSize(size);
+    }
+
+    /**
+     * @see java.net.ServerSocket#getReceiveBufferSize()
+     */
+    public int getReceiveBufferSize() throws SocketException {
+        return channel.getReceiveBufferSize();
+    }
+
+    /**
+     * @see java.net.ServerSocket#close()
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @see java.net.ServerSocket#isBound()
+     */
+    public boolean isBound() {
+        return (channel.getControlBlock() != null);
+    }
+
+    /**
+     * @see java.net.ServerSocket#isClosed()
+     */
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        if (!isBound()) {
+            return "ServerSocket[unbound]";
+        }
+        return "ServerSocket[addr=" + getInetAddress() + ",localport=" + getLocalPort() + ']';
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.channels.Channels;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SocketChannel;
+
+import org.jnode.net.ipv4.tcp.TCPControlBlock;
+
+/**
+ * Socket that is returned by {@link TCPSocketChannel#socket()}.
+ * All operations are performed by the channel.
+ *
+ * @author epr
+ */
+final class SocketAdapter extends Socket {
+
+    /**
+     * The channel I'm adapting
+     */
+    private final TCPSocketChannel channel;
+
+    /**
+     * Timeout for blocking operations, only stored
+     */
+    private int timeout;
+
+    /**
+     * Disable Nagle's algorithm, only stored
+     */
+    private boolean tcpNoDelay;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param channel
+     */
+    SocketAdapter(TCPSocketChannel channel) throws SocketException {
+        super((SocketImpl) null);
+        this.channel = channel;
+    }
+
+    /**
+     * @see java.net.Socket#getChannel()
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @see java.net.Socket#bind(java.net.SocketAddress)
+     */
+    public void bind(SocketAddress local) throws IOException {
+        channel.bind(local);
+    }
+
+    /**
+     * @see java.net.Socket#connect(java.net.SocketAddress, int)
+     */
+    public void connect(SocketAddress remote, int timeout) throws IOException {
+        if (!channel.isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        channel.connect(remote);
+    }
+
+    /**
+     * @see java.net.Socket#getInetAddress()
+     */
+    public InetAddress getInetAddress() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        return channel.isConnected() ? cb.getForeignAddress().toInetAddress() : null;
+    }
+
+    /**
+     * @see java.net.Socket#getPort()
+     */
+    public int getPort() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        return channel.isConnected() ? cb.getForeignPort() : 0;
+    }
+
+    /**
+     * @see java.net.Socket#getLocalAddress()
+     */
+    public InetAddress getLocalAddress() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        if (cb == null) {
+            return new InetSocketAddress(0).getAddress();
+        }
+        return cb.getLocalAddress().toInetAddress();
+    }
+
+    /**
+     * @see java.net.Socket#getLocalPort()
+     */
+    public int getLocalPort() {
+        final TCPControlBlock cb = channel.getControlBlock();
+        return (cb != null) ? cb.getLocalPort() : -1;
+    }
+
+    /**
+     * @see java.net.Socket#getRemoteSocketAddress()
+     */
+    public SocketAddress getRemoteSocketAddress() {
+        return isConnected() ? new InetSocketAddress(getInetAddress(), getPort()) : null;
+    }
+
+    /**
+     * @see java.net.Socket#getLocalSocketAddress()
+     */
+    public SocketAddress getLocalSocketAddress() {
+        return isBound() ? new InetSocketAddress(getLocalAddress(), getLocalPort()) : null;
+    }
+
+    /**
+     * @see java.net.Socket#getInputStream()
+     */
+    public InputStream getInputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        } else if (!channel.isConnected()) {
+            throw new SocketException("Socket is not connected");
+        }
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * @see java.net.Socket#getOutputStream()
+     */
+    public OutputStream getOutputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        } else if (!channel.isConnected()) {
+            throw new SocketException("Socket is not connected");
+        }
+        return Channels.newOutputStream(channel);
+    }
+
+    /**
+     * @see java.net.Socket#setTcpNoDelay(boolean)
+     */
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        this.tcpNoDelay = on;
+    }
+
+    /**
+     * @see java.net.Socket#getTcpNoDelay()
+     */
+    public boolean getTcpNoDelay() throws SocketException {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @see java.net.Socket#setSoTimeout(int)
+     */
+    public void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * @see java.net.Socket#getSoTimeout()
+     */
+    public int getSoTimeout() throws SocketException {
+        return timeout;
+    }
+
+    /**
+     * @see java.net.Socket#setSendBufferSize(int)
+     */
+    public void setSendBufferSize(int size) throws SocketException {
+        channel.setSendBufferSize(size);
+    }
+
+    /**
+     * @see java.net.Socket#getSendBufferSize()
+     */
+    public int getSendBufferSize() throws SocketException {
+        return channel.getSendBufferSize();
+    }
+
+    /**
+     * @see java.net.Socket#setReceiveBufferSize(int)
+     */
+    public void setReceiveBufferSize(int size) throws SocketException {
+        channel.setReceiveBufferSize(size);
+    }
+
+    /**
+     * @see java.net.Socket#getReceiveBufferSize()
+     */
+    public int getReceiveBufferSize() throws SocketException {
+        return channel.getReceiveBufferSize();
+    }
+
+    /**
+     * @see java.net.Socket#close()
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @see java.net.Socket#shutdownInput()
+     */
+    public void shutdownInput() throws IOException {
+        channel.shutdownInput();
+    }
+
+    /**
+     * @see java.net.Socket#shutdownOutput()
+     */
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    /**
+     * @see java.net.Socket#isConnected()
+     */
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    /**
+     * @see java.net.Socket#isBound()
+     */
+    public boolean isBound() {
+        return (channel.getControlBlock() != null);
+    }
+
+    /**
+     * @see java.net.Socket#isClosed()
+     */
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    /**
+     * @see java.net.Socket#isInputShutdown()
+     */
+    public boolean isInputShutdown() {
+        return channel.isInputShutdown();
+    }
+
+    /**
+     * @see java.net.Socket#isOutputShutdown()
+     */
+    public boolean isOutputShutdown() {
+        return channel.isOutputShutdown();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        if (isConnected()) {
+            return "Socket[addr=" + getInetAddress() + ",port=" + getPort() + ",localport=" +
+                getLocalPort() + ']';
+        }
+        return "Socket[unconnected]";
+    }
+}
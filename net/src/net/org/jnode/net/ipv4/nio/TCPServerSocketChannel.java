@@ -0,0 +1,249 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetBoundException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.jnode.net.ipv4.IPv4Address;
+import org.jnode.net.ipv4.tcp.TCPConstants;
+import org.jnode.net.ipv4.tcp.TCPControlBlock;
+import org.jnode.net.ipv4.tcp.TCPProtocol;
+
+/**
+ * ServerSocketChannel on top of a listening TCP control block.
+ *
+ * @author epr
+ */
+final class TCPServerSocketChannel extends ServerSocketChannel implements IPv4SelectableChannel {
+
+    /**
+     * The protocol I'm using
+     */
+    private final TCPProtocol tcp;
+
+    /**
+     * Passes readiness changes of the control block to my keys
+     */
+    private final KeyNotifier notifier = new KeyNotifier();
+
+    /**
+     * Lock for bind and accept
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The listening control block, null until bound
+     */
+    private volatile TCPControlBlock controlBlock;
+
+    /**
+     * Receive buffer size set before binding, 0 if not set
+     */
+    private int receiveBufferSize;
+
+    /**
+     * The socket adapter, created on demand
+     */
+    private ServerSocketAdapter socket;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param provider
+     * @param tcp
+     */
+    TCPServerSocketChannel(IPv4SelectorProvider provider, TCPProtocol tcp) {
+        super(provider);
+        this.tcp = tcp;
+    }
+
+    /**
+     * @see java.nio.channels.ServerSocketChannel#socket()
+     */
+    public ServerSocket socket() {
+        synchronized (lock) {
+            if (socket == null) {
+                try {
+                    socket = new ServerSocketAdapter(this);
+                } catch (IOException ex) {
+                    throw new Error("Cannot create socket adapter", ex);
+                }
+            }
+            return socket;
+        }
+    }
+
+    /**
+     * Bind to the given local address and start listening.
+     *
+     * @param local The local address, or null to bind to any free port.
+     * @param backlog
+     */
+    public ServerSocketChannel bind(SocketAddress local, int backlog) throws IOException {
+        final InetSocketAddress sa = TCPSocketChannel.checkAddress(
+            (local == null) ? new InetSocketAddress(0) : local);
+        synchronized (lock) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (controlBlock != null) {
+                throw new SocketException("Already bound");
+            }
+            InetAddress host = sa.getAddress();
+            if (host.isAnyLocalAddress()) {
+                host = InetAddress.getLocalHost();
+            }
+            final TCPControlBlock cb = tcp.bind(new IPv4Address(host), sa.getPort());
+            // Accepted connections use the buffer size of the listening control block
+            if (receiveBufferSize > 0) {
+                cb.setReceiveBufferSize(receiveBufferSize);
+            }
+            cb.setReadinessListener(notifier);
+            cb.appListen();
+            controlBlock = cb;
+        }
+        return this;
+    }
+
+    /**
+     * Gets the local address of this channel, null if not bound.
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        final TCPControlBlock cb = controlBlock;
+        if (cb == null) {
+            return null;
+        }
+        return new InetSocketAddress(cb.getLocalAddress().toInetAddress(), cb.getLocalPort());
+    }
+
+    /**
+     * @see java.nio.channels.ServerSocketChannel#accept()
+     */
+    public SocketChannel accept() throws IOException {
+        synchronized (lock) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            final TCPControlBlock cb = controlBlock;
+            if (cb == null) {
+                throw new NotYetBoundException();
+            }
+            TCPControlBlock child = null;
+            try {
+                begin();
+                child = cb.appAccept(isBlocking());
+            } finally {
+                end(child != null);
+            }
+            if (child == null) {
+                return null;
+            }
+            return new TCPSocketChannel((IPv4SelectorProvider) provider(), tcp, child);
+        }
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implCloseSelectableChannel()
+     */
+    protected void implCloseSelectableChannel() throws IOException {
+        final TCPControlBlock cb = controlBlock;
+        try {
+            if (cb != null) {
+                cb.appClose();
+            }
+        } finally {
+            notifier.readinessChanged(this);
+        }
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implConfigureBlocking(boolean)
+     */
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        // The blocking mode is checked on each operation
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getReadyOps(int)
+     */
+    public int getReadyOps(int ops) {
+        final TCPControlBlock cb = controlBlock;
+        if ((cb != null) && isOpen() && ((ops & SelectionKey.OP_ACCEPT) != 0) &&
+            cb.isAcceptable()) {
+            return SelectionKey.OP_ACCEPT;
+        }
+        return 0;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getKeyNotifier()
+     */
+    public KeyNotifier getKeyNotifier() {
+        return notifier;
+    }
+
+    /**
+     * Gets the control block, null if this channel has not been bound.
+     */
+    final TCPControlBlock getControlBlock() {
+        return controlBlock;
+    }
+
+    final int getReceiveBufferSize() {
+        synchronized (lock) {
+            final TCPControlBlock cb = controlBlock;
+            if (cb != null) {
+                return cb.getReceiveBufferSize();
+            }
+            return (receiveBufferSize > 0) ? receiveBufferSize : TCPConstants.TCP_BUFFER_SIZE;
+        }
+    }
+
+    final void setReceiveBufferSize(int size) {
+        synchronized (lock) {
+            receiveBufferSize = TCPSocketChannel.limitBufferSize(size);
+            if (controlBlock != null) {
+                controlBlock.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        final TCPControlBlock cb = controlBlock;
+        return getClass().getName() + '[' + ((cb != null) ? cb.toString() : "unbound") + ']';
+    }
+}
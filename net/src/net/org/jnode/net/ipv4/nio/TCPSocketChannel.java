@@ -0,0 +1,663 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+
+import org.jnode.net.ipv4.IPv4Address;
+import org.jnode.net.ipv4.tcp.TCPConstants;
+import org.jnode.net.ipv4.tcp.TCPControlBlock;
+import org.jnode.net.ipv4.tcp.TCPProtocol;
+
+/**
+ * SocketChannel on top of a TCP control block.
+ *
+ * @author epr
+ */
+final class TCPSocketChannel extends SocketChannel implements IPv4SelectableChannel {
+
+    private static final int ST_UNCONNECTED = 0;
+    private static final int ST_PENDING = 1;
+    private static final int ST_CONNECTED = 2;
+
+    /**
+     * The protocol I'm using
+     */
+    private final TCPProtocol tcp;
+
+    /**
+     * Passes readiness changes of the control block to my keys
+     */
+    private final KeyNotifier notifier = new KeyNotifier();
+
+    /**
+     * Lock for the connection state
+     */
+    private final Object stateLock = new Object();
+
+    /**
+     * Lock held by readers
+     */
+    private final Object readLock = new Object();
+
+    /**
+     * Lock held by writers
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The control block, null until bound
+     */
+    private volatile TCPControlBlock controlBlock;
+
+    /**
+     * The connection state
+     */
+    private volatile int state;
+
+    /**
+     * Has the input been shutdown?
+     */
+    private volatile boolean inputShutdown;
+
+    /**
+     * Has the output been shutdown?
+     */
+    private volatile boolean outputShutdown;
+
+    /**
+     * Send buffer size set before the control block was created, 0 if not set
+     */
+    private int sendBufferSize;
+
+    /**
+     * Receive buffer size set before the control block was created, 0 if not set
+     */
+    private int receiveBufferSize;
+
+    /**
+     * The socket adapter, created on demand
+     */
+    private SocketAdapter socket;
+
+    /**
+     * Initialize a new, unconnected instance
+     *
+     * @param provider
+     * @param tcp
+     */
+    TCPSocketChannel(IPv4SelectorProvider provider, TCPProtocol tcp) {
+        super(provider);
+        this.tcp = tcp;
+        this.state = ST_UNCONNECTED;
+    }
+
+    /**
+     * Initialize a new instance for an accepted connection
+     *
+     * @param provider
+     * @param tcp
+     * @param controlBlock
+     */
+    TCPSocketChannel(IPv4SelectorProvider provider, TCPProtocol tcp, TCPControlBlock controlBlock) {
+        super(provider);
+        this.tcp = tcp;
+        this.controlBlock = controlBlock;
+        this.state = ST_CONNECTED;
+        controlBlock.setReadinessListener(notifier);
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#socket()
+     */
+    public Socket socket() {
+        synchronized (stateLock) {
+            if (socket == null) {
+                try {
+                    socket = new SocketAdapter(this);
+                } catch (SocketException ex) {
+                    throw new Error("Cannot create socket adapter", ex);
+                }
+            }
+            return socket;
+        }
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#isConnected()
+     */
+    public boolean isConnected() {
+        return (state == ST_CONNECTED);
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#isConnectionPending()
+     */
+    public boolean isConnectionPending() {
+        return (state == ST_PENDING);
+    }
+
+    /**
+     * Bind to the given local address.
+     *
+     * @param local The local address, or null to bind to any free port.
+     */
+    public SocketChannel bind(SocketAddress local) throws IOException {
+        final InetSocketAddress sa =
+            checkAddress((local == null) ? new InetSocketAddress(0) : local);
+        synchronized (stateLock) {
+            ensureOpen();
+            if (controlBlock != null) {
+                throw new SocketException("Already bound");
+            }
+            InetAddress host = sa.getAddress();
+            if (host.isAnyLocalAddress()) {
+                host = InetAddress.getLocalHost();
+            }
+            final TCPControlBlock cb = tcp.bind(new IPv4Address(host), sa.getPort());
+            // Apply buffer sizes that have been set before
+            if (sendBufferSize > 0) {
+                cb.setSendBufferSize(sendBufferSize);
+            }
+            if (receiveBufferSize > 0) {
+                cb.setReceiveBufferSize(receiveBufferSize);
+            }
+            cb.setReadinessListener(notifier);
+            controlBlock = cb;
+        }
+        return this;
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#connect(java.net.SocketAddress)
+     */
+    public boolean connect(SocketAddress remote) throws IOException {
+        final InetSocketAddress sa = checkAddress(remote);
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state == ST_CONNECTED) {
+                throw new AlreadyConnectedException();
+            } else if (state == ST_PENDING) {
+                throw new ConnectionPendingException();
+            }
+            if (controlBlock == null) {
+                bind(null);
+            }
+            final IPv4Address fAddr = new IPv4Address(sa.getAddress());
+            if (isBlocking()) {
+                IOException failure = null;
+                try {
+                    begin();
+                    controlBlock.appConnect(fAddr, sa.getPort());
+                } catch (IOException ex) {
+                    failure = ex;
+                } finally {
+                    end(true);
+                }
+                if (failure != null) {
+                    // A failed connect closes the channel
+                    close();
+                    throw failure;
+                }
+                setState(ST_CONNECTED);
+                return true;
+            } else {
+                controlBlock.appStartConnect(fAddr, sa.getPort());
+                setState(ST_PENDING);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#finishConnect()
+     */
+    public boolean finishConnect() throws IOException {
+        synchronized (stateLock) {
+            ensureOpen();
+            if (state == ST_CONNECTED) {
+                return true;
+            } else if (state != ST_PENDING) {
+                throw new NoConnectionPendingException();
+            }
+            boolean connected = false;
+            IOException failure = null;
+            try {
+                begin();
+                connected = controlBlock.appFinishConnect(isBlocking());
+            } catch (IOException ex) {
+                failure = ex;
+            } finally {
+                end(connected || (failure != null));
+            }
+            if (failure != null) {
+                // A failed connect closes the channel
+                close();
+                throw failure;
+            }
+            if (connected) {
+                setState(ST_CONNECTED);
+            }
+            return connected;
+        }
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#read(java.nio.ByteBuffer)
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        ensureConnected();
+        if (inputShutdown) {
+            return -1;
+        }
+        synchronized (readLock) {
+            int count = 0;
+            try {
+                begin();
+                count = read(dst, isBlocking());
+                return count;
+            } finally {
+                end(count > 0);
+            }
+        }
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#read(java.nio.ByteBuffer[], int, int)
+     */
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > dsts.length - length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureConnected();
+        if (inputShutdown) {
+            return -1;
+        }
+        synchronized (readLock) {
+            long total = 0;
+            try {
+                begin();
+                for (int i = offset; i < offset + length; i++) {
+                    final ByteBuffer dst = dsts[i];
+                    if (!dst.hasRemaining()) {
+                        continue;
+                    }
+                    // Only block as long as nothing has been read
+                    final int count = read(dst, isBlocking() && (total == 0));
+                    if (count < 0) {
+                        return (total > 0) ? total : -1;
+                    }
+                    total += count;
+                    if (dst.hasRemaining()) {
+                        break;
+                    }
+                }
+                return total;
+            } finally {
+                end(total > 0);
+            }
+        }
+    }
+
+    /**
+     * Read from the control block into the given buffer.
+     *
+     * @param dst
+     * @param block
+     * @return The number of bytes read, or -1 on EOF
+     */
+    private int read(ByteBuffer dst, boolean block) throws IOException {
+        final int len = dst.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        final int count;
+        if (dst.hasArray()) {
+            count = controlBlock.appRead(dst.array(), dst.arrayOffset() + dst.position(), len,
+                block);
+            if (count > 0) {
+                dst.position(dst.position() + count);
+            }
+        } else {
+            final byte[] buf = new byte[len];
+            count = controlBlock.appRead(buf, 0, len, block);
+            if (count > 0) {
+                dst.put(buf, 0, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#write(java.nio.ByteBuffer)
+     */
+    public int write(ByteBuffer src) throws IOException {
+        ensureConnected();
+        if (outputShutdown) {
+            throw new ClosedChannelException();
+        }
+        synchronized (writeLock) {
+            int count = 0;
+            try {
+                begin();
+                count = write(src, isBlocking());
+                return count;
+            } finally {
+                end(count > 0);
+            }
+        }
+    }
+
+    /**
+     * @see java.nio.channels.SocketChannel#write(java.nio.ByteBuffer[], int, int)
+     */
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > srcs.length - length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureConnected();
+        if (outputShutdown) {
+            throw new ClosedChannelException();
+        }
+        synchronized (writeLock) {
+            long total = 0;
+            try {
+                begin();
+                for (int i = offset; i < offset + length; i++) {
+                    final ByteBuffer src = srcs[i];
+                    total += write(src, isBlocking());
+                    if (src.hasRemaining()) {
+                        break;
+                    }
+                }
+                return total;
+            } finally {
+                end(total > 0);
+            }
+        }
+    }
+
+    /**
+     * Write the given buffer to the control block.
+     *
+     * @param src
+     * @param block
+     * @return The number of bytes written
+     */
+    private int write(ByteBuffer src, boolean block) throws IOException {
+        final int len = src.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        final int count;
+        if (src.hasArray()) {
+            count = controlBlock.appSendData(src.array(), src.arrayOffset() + src.position(),
+                len, block);
+        } else {
+            final byte[] buf = new byte[len];
+            src.duplicate().get(buf);
+            count = controlBlock.appSendData(buf, 0, len, block);
+        }
+        src.position(src.position() + count);
+        return count;
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implCloseSelectableChannel()
+     */
+    protected void implCloseSelectableChannel() throws IOException {
+        final TCPControlBlock cb = controlBlock;
+        try {
+            if ((cb != null) && !outputShutdown) {
+                cb.appClose();
+            }
+        } catch (SocketException ex) {
+            // Closing a connection that has been reset or refused is not an error
+            if (!cb.isReset() && !cb.isRefused()) {
+                throw ex;
+            }
+        } finally {
+            notifier.readinessChanged(this);
+        }
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implConfigureBlocking(boolean)
+     */
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        // The blocking mode is checked on each operation
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getReadyOps(int)
+     */
+    public int getReadyOps(int ops) {
+        final TCPControlBlock cb = controlBlock;
+        if ((cb == null) || !isOpen()) {
+            return 0;
+        }
+        int ready = 0;
+        switch (state) {
+            case ST_PENDING:
+                if (((ops & SelectionKey.OP_CONNECT) != 0) && cb.isConnectFinished()) {
+                    ready |= SelectionKey.OP_CONNECT;
+                }
+                break;
+            case ST_CONNECTED:
+                if (((ops & SelectionKey.OP_READ) != 0) && cb.isReadable()) {
+                    ready |= SelectionKey.OP_READ;
+                }
+                if (((ops & SelectionKey.OP_WRITE) != 0) && cb.isWritable()) {
+                    ready |= SelectionKey.OP_WRITE;
+                }
+                break;
+            default:
+                break;
+        }
+        return ready;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getKeyNotifier()
+     */
+    public KeyNotifier getKeyNotifier() {
+        return notifier;
+    }
+
+    /**
+     * Shutdown the input of this channel, all further reads return EOF.
+     */
+    public SocketChannel shutdownInput() throws IOException {
+        ensureConnected();
+        inputShutdown = true;
+        return this;
+    }
+
+    /**
+     * Shutdown the output of this channel, this sends a FIN to the foreign side.
+     */
+    public SocketChannel shutdownOutput() throws IOException {
+        ensureConnected();
+        if (!outputShutdown) {
+            outputShutdown = true;
+            controlBlock.appClose();
+        }
+        return this;
+    }
+
+    /**
+     * Gets the local address of this channel, null if not bound.
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        ensureOpen();
+        final TCPControlBlock cb = controlBlock;
+        if (cb == null) {
+            return null;
+        }
+        return new InetSocketAddress(cb.getLocalAddress().toInetAddress(), cb.getLocalPort());
+    }
+
+    /**
+     * Gets the address this channel is connected to, null if not connected.
+     */
+    public SocketAddress getRemoteAddress() throws IOException {
+        ensureOpen();
+        final TCPControlBlock cb = controlBlock;
+        if (state != ST_CONNECTED) {
+            return null;
+        }
+        return new InetSocketAddress(cb.getForeignAddress().toInetAddress(), cb.getForeignPort());
+    }
+
+    final boolean isInputShutdown() {
+        return inputShutdown;
+    }
+
+    final boolean isOutputShutdown() {
+        return outputShutdown;
+    }
+
+    /**
+     * Gets the control block, null if this channel has not been bound.
+     */
+    final TCPControlBlock getControlBlock() {
+        return controlBlock;
+    }
+
+    final int getSendBufferSize() {
+        synchronized (stateLock) {
+            final TCPControlBlock cb = controlBlock;
+            if (cb != null) {
+                return cb.getSendBufferSize();
+            }
+            return (sendBufferSize > 0) ? sendBufferSize : TCPConstants.TCP_BUFFER_SIZE;
+        }
+    }
+
+    final void setSendBufferSize(int size) {
+        synchronized (stateLock) {
+            sendBufferSize = limitBufferSize(size);
+            if (controlBlock != null) {
+                controlBlock.setSendBufferSize(sendBufferSize);
+            }
+        }
+    }
+
+    final int getReceiveBufferSize() {
+        synchronized (stateLock) {
+            final TCPControlBlock cb = controlBlock;
+            if (cb != null) {
+                return cb.getReceiveBufferSize();
+            }
+            return (receiveBufferSize > 0) ? receiveBufferSize : TCPConstants.TCP_BUFFER_SIZE;
+        }
+    }
+
+    final void setReceiveBufferSize(int size) {
+        synchronized (stateLock) {
+            receiveBufferSize = limitBufferSize(size);
+            if (controlBlock != null) {
+                controlBlock.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+    }
+
+    /**
+     * Limit a buffer size to the supported range.
+     *
+     * @param size
+     */
+    static int limitBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size " + size);
+        }
+        return Math.max(TCPConstants.TCP_MIN_BUFFER_SIZE,
+            Math.min(size, TCPConstants.TCP_MAX_BUFFER_SIZE));
+    }
+
+    /**
+     * Update the connection state and notify my keys.
+     *
+     * @param state
+     */
+    private void setState(int state) {
+        this.state = state;
+        notifier.readinessChanged(this);
+    }
+
+    /**
+     * Check that this channel is open.
+     */
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Check that this channel is open and connected.
+     */
+    private void ensureConnected() throws ClosedChannelException {
+        ensureOpen();
+        if (state != ST_CONNECTED) {
+            throw new NotYetConnectedException();
+        }
+    }
+
+    /**
+     * Check that the given address is a resolved InetSocketAddress.
+     *
+     * @param address
+     */
+    static InetSocketAddress checkAddress(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            throw new UnsupportedAddressTypeException();
+        }
+        final InetSocketAddress sa = (InetSocketAddress) address;
+        if (sa.isUnresolved()) {
+            throw new UnresolvedAddressException();
+        }
+        return sa;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        final TCPControlBlock cb = controlBlock;
+        return getClass().getName() + '[' + ((cb != null) ? cb.toString() : "unbound") + ']';
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+
+import org.jnode.net.ipv4.udp.UDPDatagramSocketImpl;
+import org.jnode.net.ipv4.udp.UDPProtocol;
+
+/**
+ * DatagramChannel on top of an UDP datagram socket implementation.
+ *
+ * @author epr
+ */
+final class UDPDatagramChannel extends DatagramChannel implements IPv4SelectableChannel {
+
+    /**
+     * The socket implementation packets are sent and received with
+     */
+    private final UDPDatagramSocketImpl impl;
+
+    /**
+     * Passes readiness changes of the socket implementation to my keys
+     */
+    private final KeyNotifier notifier = new KeyNotifier();
+
+    /**
+     * Lock for bind and connect
+     */
+    private final Object stateLock = new Object();
+
+    /**
+     * Lock held by receivers
+     */
+    private final Object readLock = new Object();
+
+    /**
+     * Has the socket implementation been bound?
+     */
+    private volatile boolean bound;
+
+    /**
+     * The address this channel is connected to, null if not connected
+     */
+    private volatile InetSocketAddress remote;
+
+    /**
+     * The socket adapter, created on demand
+     */
+    private DatagramSocketAdapter socket;
+
+    /**
+     * Initialize a new instance
+     *
+     * @param provider
+     * @param udp
+     */
+    UDPDatagramChannel(IPv4SelectorProvider provider, UDPProtocol udp) throws IOException {
+        super(provider);
+        this.impl = (UDPDatagramSocketImpl) udp.getDatagramSocketImplFactory()
+            .createDatagramSocketImpl();
+        impl.setReadinessListener(notifier);
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#socket()
+     */
+    public DatagramSocket socket() {
+        synchronized (stateLock) {
+            if (socket == null) {
+                try {
+                    socket = new DatagramSocketAdapter(this);
+                } catch (SocketException ex) {
+                    throw new Error("Cannot create socket adapter", ex);
+                }
+            }
+            return socket;
+        }
+    }
+
+    /**
+     * Bind to the given local address.
+     *
+     * @param local The local address, or null to bind to any free port.
+     */
+    public DatagramChannel bind(SocketAddress local) throws IOException {
+        final InetSocketAddress sa = TCPSocketChannel.checkAddress(
+            (local == null) ? new InetSocketAddress(0) : local);
+        synchronized (stateLock) {
+            ensureOpen();
+            if (bound) {
+                throw new SocketException("Already bound");
+            }
+            impl.bind(sa.getPort(), sa.getAddress());
+            bound = true;
+        }
+        return this;
+    }
+
+    /**
+     * Bind to any free port, unless bound already.
+     */
+    private void ensureBound() throws IOException {
+        synchronized (stateLock) {
+            if (!bound) {
+                bind(null);
+            }
+        }
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#isConnected()
+     */
+    public boolean isConnected() {
+        return (remote != null);
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#connect(java.net.SocketAddress)
+     */
+    public DatagramChannel connect(SocketAddress remote) throws IOException {
+        final InetSocketAddress sa = TCPSocketChannel.checkAddress(remote);
+        synchronized (stateLock) {
+            ensureOpen();
+            ensureBound();
+            this.remote = sa;
+        }
+        return this;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#disconnect()
+     */
+    public DatagramChannel disconnect() throws IOException {
+        synchronized (stateLock) {
+            this.remote = null;
+        }
+        return this;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#receive(java.nio.ByteBuffer)
+     */
+    public SocketAddress receive(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        ensureBound();
+        synchronized (readLock) {
+            SocketAddress source = null;
+            try {
+                begin();
+                source = receive(dst, isBlocking());
+                return source;
+            } finally {
+                end(source != null);
+            }
+        }
+    }
+
+    /**
+     * Receive a datagram into the given buffer. Datagrams that are not sent
+     * by the address this channel is connected to are discarded.
+     * If the datagram does not fit in the buffer, the remainder is discarded.
+     *
+     * @param dst
+     * @param block
+     * @return The source address of the datagram, or null if no datagram
+     *         is available.
+     */
+    private SocketAddress receive(ByteBuffer dst, boolean block) throws IOException {
+        final DatagramPacket p = new DatagramPacket(new byte[0], 0);
+        while (impl.receive(p, block)) {
+            final InetSocketAddress source = new InetSocketAddress(p.getAddress(), p.getPort());
+            final InetSocketAddress remote = this.remote;
+            if ((remote == null) || remote.equals(source)) {
+                dst.put(p.getData(), p.getOffset(), Math.min(p.getLength(), dst.remaining()));
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#send(java.nio.ByteBuffer, java.net.SocketAddress)
+     */
+    public int send(ByteBuffer src, SocketAddress target) throws IOException {
+        final InetSocketAddress sa = TCPSocketChannel.checkAddress(target);
+        ensureOpen();
+        final InetSocketAddress remote = this.remote;
+        if ((remote != null) && !remote.equals(sa)) {
+            throw new IllegalArgumentException("Target address differs from connected address");
+        }
+        ensureBound();
+        final int len = src.remaining();
+        final byte[] data = new byte[len];
+        src.get(data);
+        impl.send(new DatagramPacket(data, len, sa.getAddress(), sa.getPort()));
+        return len;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#read(java.nio.ByteBuffer)
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        ensureConnected();
+        final int start = dst.position();
+        if (receive(dst) == null) {
+            return 0;
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#read(java.nio.ByteBuffer[], int, int)
+     */
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > dsts.length - length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureConnected();
+        int size = 0;
+        for (int i = offset; i < offset + length; i++) {
+            size += dsts[i].remaining();
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(size);
+        if (receive(buf) == null) {
+            return 0;
+        }
+        buf.flip();
+        final int count = buf.remaining();
+        for (int i = offset; (i < offset + length) && buf.hasRemaining(); i++) {
+            final ByteBuffer dst = dsts[i];
+            final int n = Math.min(dst.remaining(), buf.remaining());
+            buf.limit(buf.position() + n);
+            dst.put(buf);
+            buf.limit(count);
+        }
+        return count;
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#write(java.nio.ByteBuffer)
+     */
+    public int write(ByteBuffer src) throws IOException {
+        ensureConnected();
+        return send(src, remote);
+    }
+
+    /**
+     * @see java.nio.channels.DatagramChannel#write(java.nio.ByteBuffer[], int, int)
+     */
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if ((offset < 0) || (length < 0) || (offset > srcs.length - length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureConnected();
+        int size = 0;
+        for (int i = offset; i < offset + length; i++) {
+            size += srcs[i].remaining();
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = offset; i < offset + length; i++) {
+            buf.put(srcs[i]);
+        }
+        buf.flip();
+        return send(buf, remote);
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implCloseSelectableChannel()
+     */
+    protected void implCloseSelectableChannel() throws IOException {
+        impl.close();
+    }
+
+    /**
+     * @see java.nio.channels.spi.AbstractSelectableChannel#implConfigureBlocking(boolean)
+     */
+    protected void implConfigureBlocking(boolean block) throws IOException {
+        // The blocking mode is checked on each operation
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getReadyOps(int)
+     */
+    public int getReadyOps(int ops) {
+        if (!isOpen()) {
+            return 0;
+        }
+        int ready = 0;
+        if (((ops & SelectionKey.OP_READ) != 0) && impl.isReadable()) {
+            ready |= SelectionKey.OP_READ;
+        }
+        if ((ops & SelectionKey.OP_WRITE) != 0) {
+            // Datagrams are sent right away
+            ready |= SelectionKey.OP_WRITE;
+        }
+        return ready;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.nio.IPv4SelectableChannel#getKeyNotifier()
+     */
+    public KeyNotifier getKeyNotifier() {
+        return notifier;
+    }
+
+    final boolean isBound() {
+        return bound;
+    }
+
+    /**
+     * Gets the address this channel is connected to, null if not connected.
+     */
+    public SocketAddress getRemoteAddress() throws IOException {
+        ensureOpen();
+        return remote;
+    }
+
+    /**
+     * Gets the local address of this channel, null if not bound.
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        ensureOpen();
+        return bound ? new InetSocketAddress(impl.getLocalAddress(), impl.getLocalPort()) : null;
+    }
+
+    final InetSocketAddress getRemote() {
+        return remote;
+    }
+
+    final InetAddress getLocalInetAddress() {
+        return bound ? impl.getLocalAddress() : null;
+    }
+
+    final int getLocalPort() {
+        return bound ? impl.getLocalPort() : 0;
+    }
+
+    final int getTimeout() throws SocketException {
+        return (Integer) impl.getOption(SocketOptions.SO_TIMEOUT);
+    }
+
+    final void setTimeout(int timeout) throws SocketException {
+        impl.setOption(SocketOptions.SO_TIMEOUT, timeout);
+    }
+
+    /**
+     * Check that this channel is open.
+     */
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Check that this channel is open and connected.
+     */
+    private void ensureConnected() throws ClosedChannelException {
+        ensureOpen();
+        if (remote == null) {
+            throw new NotYetConnectedException();
+        }
+    }
+}
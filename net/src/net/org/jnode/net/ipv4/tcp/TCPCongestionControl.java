@@ -0,0 +1,97 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+/**
+ * Congestion control algorithm of a single TCP connection.
+ * <p/>
+ * The algorithm owns the congestion window and the slow start threshold (both
+ * in bytes). The {@link TCPOutChannel} detects acknowledgments and losses and
+ * reports them to the algorithm.
+ *
+ * @author epr
+ */
+public interface TCPCongestionControl {
+
+    /**
+     * Gets the name of this algorithm.
+     */
+    public String getName();
+
+    /**
+     * Initialize the windows for a connection with the given MSS.
+     *
+     * @param mss
+     */
+    public void init(int mss);
+
+    /**
+     * Gets the congestion window.
+     */
+    public int getCwnd();
+
+    /**
+     * Sets the congestion window. Used to inflate and deflate the window
+     * during fast recovery.
+     *
+     * @param cwnd
+     */
+    public void setCwnd(int cwnd);
+
+    /**
+     * Gets the slow start threshold.
+     */
+    public int getSsthresh();
+
+    /**
+     * New data has been acknowledged, outside of fast recovery.
+     *
+     * @param acked The number of bytes acknowledged
+     * @param now The current time in ms
+     * @param rtt The smoothed round trip time in ms, 0 if not known yet
+     */
+    public void onAck(int acked, long now, int rtt);
+
+    /**
+     * A loss has been detected by duplicate acknowledgments, fast recovery
+     * is started. The congestion window is set to the new slow start threshold.
+     *
+     * @param flightSize The number of bytes in flight
+     * @param now The current time in ms
+     */
+    public void onFastRetransmit(int flightSize, long now);
+
+    /**
+     * Fast recovery has ended, all data outstanding at its start has been
+     * acknowledged.
+     *
+     * @param flightSize The number of bytes in flight
+     */
+    public void onRecoveryEnd(int flightSize);
+
+    /**
+     * The retransmission timer has expired.
+     *
+     * @param flightSize The number of bytes in flight
+     * @param now The current time in ms
+     */
+    public void onTimeout(int flightSize, long now);
+}
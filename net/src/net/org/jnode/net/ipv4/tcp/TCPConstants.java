@@ -34,20 +34,53 @@ public interface TCPConstants {
     /** Default timeout for blocking operations (in ms) */
     public static final int TCP_DEFAULT_TIMEOUT = 10000;
 
-    /** Maximum TCP window size */
-    public static final int TCP_MAXWIN = 1024;
+    /** Length of an IPv4 header without any options */
+    public static final int TCP_IP_HLEN = 20;
 
-    /** Default Maximum Segment Size */
+    /** Maximum TCP window size that fits in the header (unscaled) */
+    public static final int TCP_MAXWIN = 65535;
+
+    /** Maximum window scale shift count (RFC 7323) */
+    public static final int TCP_MAX_WINSHIFT = 14;
+
+    /** Default Maximum Segment Size, used when the foreign side sends no MSS option */
     public static final int TCP_DEFAULT_MSS = 536;
 
     /** The default buffer size */
-    public static final int TCP_BUFFER_SIZE = 8 * 1024;
+    public static final int TCP_BUFFER_SIZE = 64 * 1024;
+
+    /** The minimum buffer size that can be set with SO_SNDBUF or SO_RCVBUF */
+    public static final int TCP_MIN_BUFFER_SIZE = 2 * 1024;
+
+    /** The maximum buffer size that can be set with SO_SNDBUF or SO_RCVBUF */
+    public static final int TCP_MAX_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    /** Space reserved in front of outgoing data for the TCP, IP and link layer headers */
+    public static final int TCP_HEADROOM = 128;
 
     /** The maximum connect attempts */
     public static final int TCP_MAXCONNECT = 3;
 
     /** Interval between timer events */
-    public static final int TCP_TIMER_PERIOD = 500;
+    public static final int TCP_TIMER_PERIOD = 100;
+
+    /** Initial retransmission timeout in ms (RFC 6298) */
+    public static final int TCP_INITIAL_RTO = 1000;
+
+    /** Minimum retransmission timeout in ms */
+    public static final int TCP_MIN_RTO = 200;
+
+    /** Maximum retransmission timeout in ms */
+    public static final int TCP_MAX_RTO = 60000;
+
+    /** Number of duplicate acks that trigger a fast retransmit */
+    public static final int TCP_DUPACK_THRESHOLD = 3;
+
+    /** Maximum number of SACK blocks in a segment (leaves room for a timestamp) */
+    public static final int TCP_MAX_SACK_BLOCKS = 3;
+
+    /** Name of the default congestion control algorithm */
+    public static final String TCP_DEFAULT_CONGESTION_CONTROL = TCPCubic.NAME;
 
     // TCP flags
     public static final int TCPF_FIN = 0x0001;
@@ -57,6 +90,21 @@ public interface TCPConstants {
     public static final int TCPF_ACK = 0x0010;
     public static final int TCPF_URG = 0x0020;
 
+    // TCP options
+    public static final int TCPOPT_EOL = 0;
+    public static final int TCPOPT_NOP = 1;
+    public static final int TCPOPT_MAXSEG = 2;
+    public static final int TCPOPT_WINDOW = 3;
+    public static final int TCPOPT_SACK_PERMITTED = 4;
+    public static final int TCPOPT_SACK = 5;
+    public static final int TCPOPT_TIMESTAMP = 8;
+
+    // TCP option lengths
+    public static final int TCPOLEN_MAXSEG = 4;
+    public static final int TCPOLEN_WINDOW = 3;
+    public static final int TCPOLEN_SACK_PERMITTED = 2;
+    public static final int TCPOLEN_TIMESTAMP = 10;
+
     // TCP Connection states
     public static final int TCPS_CLOSED = 0x0001;
     public static final int TCPS_LISTEN = 0x0002;
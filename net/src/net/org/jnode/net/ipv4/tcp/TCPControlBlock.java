@@ -22,6 +22,7 @@ package org.jnode.net.ipv4.tcp;
 
 import java.net.ConnectException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.LinkedList;
 import org.apache.log4j.Logger;
 import org.jnode.net.SocketBuffer;
@@ -42,6 +43,11 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     private static final Logger log = Logger.getLogger(TCPControlBlock.class);
 
+    /**
+     * The protocol
+     */
+    private final TCPProtocol tcp;
+
     /**
      * The outgoing channel
      */
@@ -56,9 +62,37 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
     // private int lastInSeqNr;
 
     /**
-     * Window size of the outgoing connection
+     * Our MSS, derived from the MTU of the device towards the foreign address
+     */
+    private int localMss;
+
+    /**
+     * Use window scaling (RFC 7323)? Offered in an active open, and
+     * enabled when both sides have sent the option in their SYN.
+     */
+    private boolean windowScaling = true;
+
+    /**
+     * Use timestamps (RFC 7323)? Offered in an active open, and
+     * enabled when both sides have sent the option in their SYN.
+     */
+    private boolean timestamps = true;
+
+    /**
+     * Use selective acknowledgments (RFC 2018)? Offered in an active open, and
+     * enabled when both sides have sent the SACK-permitted option in their SYN.
      */
-    private int outWindowSize;
+    private boolean sack = true;
+
+    /**
+     * Most recent timestamp value received, to be echoed
+     */
+    private int tsRecent;
+
+    /**
+     * Last ack-nr that we've sent
+     */
+    private int lastAckSent;
 
     /**
      * The current state
@@ -90,6 +124,16 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     private int timeout = TCP_DEFAULT_TIMEOUT;
 
+    /**
+     * Number of SYN's sent by a non-blocking connect
+     */
+    private int connectAttempts;
+
+    /**
+     * Time (in ms) at which the SYN of a non-blocking connect is resent, 0 if not pending
+     */
+    private long connectExpire;
+
     /**
      * Create a new instance
      *
@@ -102,11 +146,13 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
                            int isn) {
         super(list, IPv4Constants.IPPROTO_TCP, TCP_DEFAULT_TTL);
         this.parent = parent;
-        this.outChannel = new TCPOutChannel(tcp, this, isn);
-        this.inChannel = new TCPInChannel(this);
-        // this.tcp = tcp;
+        // Connections accepted by a listening socket use its buffer sizes
+        final int sndBufSize = (parent != null) ? parent.getSendBufferSize() : TCP_BUFFER_SIZE;
+        final int rcvBufSize = (parent != null) ? parent.getReceiveBufferSize() : TCP_BUFFER_SIZE;
+        this.outChannel = new TCPOutChannel(tcp, this, isn, sndBufSize);
+        this.inChannel = new TCPInChannel(this, rcvBufSize);
+        this.tcp = tcp;
         this.curState = TCPS_CLOSED;
-        this.outWindowSize = TCP_MAXWIN;
         this.reset = false;
         this.refused = false;
     }
@@ -137,8 +183,21 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
             return;
         }
 
+        if (timestamps && hdr.hasTimestamp() && !hdr.isFlagSynchronizeSet() && isSynchronized()) {
+            final int tsValue = hdr.getTimestampValue();
+            if (TCPUtils.SEQ_LT(tsValue, tsRecent)) {
+                // PAWS: this is an old duplicate segment
+                sendACK(0, inChannel.getRcvNext());
+                drop(ipHdr, hdr, "timestamp older than the most recent one");
+                return;
+            }
+            if (TCPUtils.SEQ_LE(hdr.getSequenceNr(), lastAckSent)) {
+                tsRecent = tsValue;
+            }
+        }
+
         if (ack) {
-            outChannel.processAck(hdr.getAckNr());
+            outChannel.processAck(hdr);
         }
 
         switch (curState) {
@@ -279,6 +338,7 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
 
         // Save the foreign seq nr
         inChannel.initISN(hdr);
+        processSynOptions(hdr);
 
         // Send the SYN&ACK TCP reply
         sendACK(TCPF_SYN, hdr.getSequenceNr() + 1);
@@ -287,6 +347,41 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         setState(TCPS_SYN_RECV);
     }
 
+    /**
+     * Process the options of a received SYN segment. Window scaling and
+     * timestamps are only used when both sides have sent the option.
+     *
+     * @param hdr
+     */
+    private void processSynOptions(TCPHeader hdr) {
+        if (hdr.getWindowScale() >= 0) {
+            windowScaling = true;
+            outChannel.setWindowScale(hdr.getWindowScale());
+        } else {
+            windowScaling = false;
+            outChannel.setWindowScale(0);
+            inChannel.disableWindowScale();
+        }
+        if (hdr.hasTimestamp()) {
+            timestamps = true;
+            tsRecent = hdr.getTimestampValue();
+        } else {
+            timestamps = false;
+        }
+        sack = hdr.isSackPermitted();
+        outChannel.setTimestamps(timestamps);
+        outChannel.setSack(sack);
+        outChannel.initWindow(hdr.getWindowSize());
+
+        // The MSS is the smallest of both sides, minus the space used by options
+        final int foreignMss = (hdr.getMss() > 0) ? hdr.getMss() : TCP_DEFAULT_MSS;
+        int mss = Math.min(foreignMss, getLocalMss());
+        if (timestamps) {
+            mss -= 12;
+        }
+        outChannel.setMss(mss);
+    }
+
     /**
      * Current state is SYN_RECV.
      */
@@ -316,6 +411,7 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         } else {
             // Active open , go to ESTABLISHED
             inChannel.initISN(hdr);
+            processSynOptions(hdr);
             sendACK(0, hdr.getSequenceNr() + 1);
             setState(TCPS_ESTABLISHED);
         }
@@ -330,9 +426,10 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     private void receiveEstablished(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf)
         throws SocketException {
-        final boolean fin = hdr.isFlagFinishedSet();
         // Process the data
         inChannel.processData(ipHdr, hdr, skbuf);
+        // Only a FIN that has been processed in order counts
+        final boolean fin = inChannel.isFinReceived();
         // FIN received, then change state
         if (fin) {
             setState(TCPS_CLOSE_WAIT);
@@ -347,10 +444,11 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     private void receiveFinWait1(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf)
         throws SocketException {
-        final boolean fin = hdr.isFlagFinishedSet();
         final boolean ack = hdr.isFlagAcknowledgeSet();
         // Process the data
         inChannel.processData(ipHdr, hdr, skbuf);
+        // Only a FIN that has been processed in order counts
+        final boolean fin = inChannel.isFinReceived();
         // Update state (if required)
         if (fin && ack) {
             setState(TCPS_TIME_WAIT);
@@ -372,9 +470,10 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     private void receiveFinWait2(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf)
         throws SocketException {
-        final boolean fin = hdr.isFlagFinishedSet();
         // Process the data
         inChannel.processData(ipHdr, hdr, skbuf);
+        // Only a FIN that has been processed in order counts
+        final boolean fin = inChannel.isFinReceived();
         // Update state
         if (fin) {
             setState(TCPS_TIME_WAIT);
@@ -459,12 +558,36 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      */
     public void timeout() {
         try {
+            if (connectExpire != 0) {
+                connectTimeout();
+            }
             outChannel.timeout();
         } catch (SocketException ex) {
             log.error("Error in timeout of " + this, ex);
         }
     }
 
+    /**
+     * Resend the SYN of a non-blocking connect, or give up when all attempts
+     * have been used.
+     */
+    private synchronized void connectTimeout() throws SocketException {
+        final long now = System.currentTimeMillis();
+        if (!isState(TCPS_SYN_SENT)) {
+            connectExpire = 0;
+        } else if (now >= connectExpire) {
+            if (connectAttempts < TCP_MAXCONNECT) {
+                connectAttempts++;
+                connectExpire = now + timeout;
+                sendSYN();
+            } else {
+                // Not succeeded to connect
+                connectExpire = 0;
+                setState(TCPS_CLOSED);
+            }
+        }
+    }
+
     // ------------------------------------------
     // Utility methods
     // ------------------------------------------
@@ -489,6 +612,10 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         // Create the FIN TCP reply
         final TCPHeader replyHdr = createOutgoingTCPHeader(extraFlags | TCPF_ACK, ackNr);
         // ACK takes 0 seq-nrs, so don't increment snd_next
+        if (sack && ((extraFlags & TCPF_SYN) == 0)) {
+            // Report out of order data
+            replyHdr.setSackBlocks(inChannel.getSackBlocks());
+        }
 
         // Create the IP reply header
         final IPv4Header replyIp = createOutgoingIPv4Header();
@@ -565,6 +692,7 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
             // threads.
             readyToAcceptList.add(child);
             notifyAll();
+            notifyReadiness();
         } else {
             // I'm not listening anymore, close the connection.
             child.appClose();
@@ -587,6 +715,7 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
     private void notifyConnectionRefused() {
         this.refused = true;
         notifyAll();
+        notifyReadiness();
     }
 
     /**
@@ -612,6 +741,7 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
                 super.removeFromList();
             }
             notifyAll();
+            notifyReadiness();
         }
     }
 
@@ -644,12 +774,76 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      * @return The created TCP header
      */
     protected TCPHeader createOutgoingTCPHeader(int options, int ackNr) {
+        final boolean syn = ((options & TCPF_SYN) != 0);
+        final int window = inChannel.advertiseWindow(syn);
         final TCPHeader hdr =
-            new TCPHeader(getLocalPort(), getForeignPort(), 0, 0, ackNr, outWindowSize, 0);
+            new TCPHeader(getLocalPort(), getForeignPort(), 0, 0, ackNr, window, 0);
         hdr.setFlags(options);
+        if (syn) {
+            hdr.setMss(getLocalMss());
+            if (windowScaling) {
+                hdr.setWindowScale(inChannel.getWindowScale());
+            }
+            hdr.setSackPermitted(sack);
+        }
+        if (timestamps) {
+            hdr.setTimestamp(tcp.getTimestamp(), tsRecent);
+        }
+        if ((options & TCPF_ACK) != 0) {
+            lastAckSent = ackNr;
+        }
         return hdr;
     }
 
+    /**
+     * Update the ack-nr, window and timestamp of a queued outgoing segment
+     * just before it is (re)transmitted.
+     *
+     * @param hdr
+     */
+    final void refreshOutgoingTCPHeader(TCPHeader hdr) {
+        if (hdr.isFlagAcknowledgeSet()) {
+            final int ackNr = inChannel.getRcvNext();
+            hdr.updateAckNrAndWindow(ackNr, inChannel.advertiseWindow(false));
+            lastAckSent = ackNr;
+        }
+        if (timestamps) {
+            hdr.updateTimestampEcho(tsRecent);
+        }
+    }
+
+    /**
+     * Gets our MSS, derived from the MTU of the device used to reach
+     * the foreign address.
+     */
+    private int getLocalMss() {
+        if (localMss == 0) {
+            localMss = tcp.getMss(getForeignAddress());
+        }
+        return localMss;
+    }
+
+    /**
+     * Gets the maximum number of data bytes in a segment.
+     */
+    final int getMss() {
+        return outChannel.getMss();
+    }
+
+    /**
+     * Has a SYN been exchanged, so the connection is synchronized?
+     */
+    private boolean isSynchronized() {
+        switch (curState) {
+            case TCPS_CLOSED:
+            case TCPS_LISTEN:
+            case TCPS_SYN_SENT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
     // ------------------------------------------
     // Application methods
     // ------------------------------------------
@@ -701,20 +895,116 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         throw new ConnectException("Connection request timeout");
     }
 
+    /**
+     * Active connect to a foreign address without waiting for the connection
+     * to be established. The SYN is resent by the timer and
+     * {@link #appFinishConnect(boolean)} must be called to complete the connect.
+     *
+     * @throws SocketException
+     */
+    public synchronized void appStartConnect(IPv4Address fAddr, int fPort) throws SocketException {
+        if (!isState(TCPS_CLOSED)) {
+            throw new SocketException("Invalid connection state " + getStateName());
+        }
+        super.connect(getLocalAddress(), fAddr, fPort);
+        sendSYN();
+        connectAttempts = 1;
+        connectExpire = System.currentTimeMillis() + timeout;
+        setState(TCPS_SYN_SENT);
+    }
+
+    /**
+     * Complete a connect started by {@link #appStartConnect(IPv4Address, int)}.
+     *
+     * @param block If true, wait until the connection has been established or has failed.
+     * @return True if the connection has been established, false if it is still pending.
+     * @throws SocketException If the connection has failed
+     */
+    public synchronized boolean appFinishConnect(boolean block) throws SocketException {
+        while (true) {
+            if (isRefused()) {
+                throw new ConnectException("Connection refused");
+            } else if (isReset()) {
+                throw new SocketException("Connection reset");
+            } else if (isSynchronized()) {
+                return true;
+            } else if (!isState(TCPS_SYN_SENT)) {
+                throw new ConnectException("Connection request timeout");
+            } else if (!block) {
+                return false;
+            }
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Wait for an established connection.
+     *
+     * @return The accepted connection
+     * @throws SocketException If this control block is not listening anymore
+     */
+    public TCPControlBlock appAccept() throws SocketException {
+        return appAccept(true);
+    }
+
+    /**
+     * Gets an established connection.
+     *
+     * @param block If true, wait until there is an established connection.
+     * @return The accepted connection, or null if there is none and block is false.
+     * @throws SocketException If this control block is not listening anymore
+     */
+    public synchronized TCPControlBlock appAccept(boolean block) throws SocketException {
+        return accept(block, 0);
+    }
+
     /**
      * Wait for an established connection.
      *
+     * @param timeout The maximum time to wait in milliseconds, 0 to wait forever.
      * @return The accepted connection
+     * @throws SocketException If this control block is not listening anymore
+     * @throws SocketTimeoutException If no connection has been established within the timeout.
+     */
+    public synchronized TCPControlBlock appAccept(int timeout) throws SocketException, SocketTimeoutException {
+        final TCPControlBlock child = accept(true, timeout);
+        if (child == null) {
+            throw new SocketTimeoutException("Accept timed out");
+        }
+        return child;
+    }
+
+    /**
+     * Gets an established connection.
+     *
+     * @return The accepted connection, or null if there is none and block is false
+     *         or the timeout has expired.
      */
-    public synchronized TCPControlBlock appAccept() {
+    private TCPControlBlock accept(boolean block, int timeout) throws SocketException {
+        final long end = System.currentTimeMillis() + timeout;
         while (true) {
             if (!readyToAcceptList.isEmpty()) {
                 final TCPControlBlock child = (TCPControlBlock) readyToAcceptList.getFirst();
                 readyToAcceptList.remove(child);
                 return child;
+            } else if (!isState(TCPS_LISTEN)) {
+                throw new SocketException("Not listening");
+            } else if (!block) {
+                return null;
             } else {
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = end - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return null;
+                    }
+                }
                 try {
-                    wait();
+                    wait(wait);
                 } catch (InterruptedException ex) {
                     // Ignore
                 }
@@ -778,6 +1068,23 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      * @throws SocketException
      */
     public void appSendData(byte[] data, int offset, int length) throws SocketException {
+        appSendData(data, offset, length, true);
+    }
+
+    /**
+     * Send data to the foreign side. This method can split-up the data in
+     * chunks.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param block If true, block until there is space in the send buffer to
+     *              hold all data, otherwise only send the chunks that fit.
+     * @return The number of bytes that have been added to the send buffer
+     * @throws SocketException
+     */
+    public int appSendData(byte[] data, int offset, int length, boolean block)
+        throws SocketException {
         if (DEBUG) {
             log.debug("appSendData(data, " + offset + ", " + length + ')');
         }
@@ -790,7 +1097,8 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         if (length < 0) {
             throw new IllegalArgumentException("length " + length);
         }
-        final int mss = outChannel.getMss();
+        final int mss = Math.min(outChannel.getMss(), outChannel.getBufferSize());
+        int sent = 0;
         while (length > 0) {
             final int chunk = Math.min(length, mss);
             // Create the TCP header
@@ -798,11 +1106,16 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
             // Create the IP header
             final IPv4Header ipHdr = createOutgoingIPv4Header();
             // Send the chunk of data
-            outChannel.send(ipHdr, hdr, data, offset, chunk);
+            if (!outChannel.send(ipHdr, hdr, data, offset, chunk, block)) {
+                // The send buffer is full
+                break;
+            }
             // Update length & offset
             offset += chunk;
             length -= chunk;
+            sent += chunk;
         }
+        return sent;
     }
 
     /**
@@ -822,7 +1135,65 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
      * @return The number of bytes read
      */
     public int appRead(byte[] dst, int off, int len) throws SocketException {
-        return inChannel.read(dst, off, len);
+        return inChannel.read(dst, off, len, true);
+    }
+
+    /**
+     * Read data from the input buffer up to len bytes long.
+     *
+     * @param dst
+     * @param off
+     * @param len
+     * @param block If true, block until there is data available.
+     * @return The number of bytes read (0 if there is no data available and
+     *         block is false), or -1 on EOF.
+     */
+    public int appRead(byte[] dst, int off, int len, boolean block) throws SocketException {
+        return inChannel.read(dst, off, len, block);
+    }
+
+    /**
+     * Read data from the input buffer up to len bytes long. This method blocks until there
+     * is data available or the timeout expires.
+     *
+     * @param dst
+     * @param off
+     * @param len
+     * @param timeout The maximum time to wait in milliseconds, 0 to wait forever.
+     * @return The number of bytes read, or -1 on EOF.
+     * @throws SocketTimeoutException If no data has arrived within the timeout.
+     */
+    public int appRead(byte[] dst, int off, int len, int timeout) throws SocketException, SocketTimeoutException {
+        return inChannel.read(dst, off, len, timeout);
+    }
+
+    /**
+     * Is there an established connection that can be accepted without blocking?
+     */
+    public synchronized boolean isAcceptable() {
+        return !readyToAcceptList.isEmpty();
+    }
+
+    /**
+     * Can data be read without blocking?
+     */
+    public boolean isReadable() {
+        return inChannel.isReadable();
+    }
+
+    /**
+     * Can data be sent without blocking?
+     */
+    public boolean isWritable() {
+        return outChannel.isWritable();
+    }
+
+    /**
+     * Has a connect started by {@link #appStartConnect(IPv4Address, int)} completed,
+     * either successful or not, so {@link #appFinishConnect(boolean)} does not block?
+     */
+    public synchronized boolean isConnectFinished() {
+        return !isState(TCPS_SYN_SENT) || isRefused() || isReset();
     }
 
     /**
@@ -862,6 +1233,28 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
         return this.refused;
     }
 
+    /**
+     * Gets the congestion window of this connection.
+     */
+    public final int getCongestionWindow() {
+        return outChannel.getCongestionWindow();
+    }
+
+    /**
+     * Gets the smoothed round trip time of this connection in ms,
+     * or -1 if it has not been measured yet.
+     */
+    public final int getSmoothedRtt() {
+        return outChannel.getSmoothedRtt();
+    }
+
+    /**
+     * Gets the retransmission timeout of this connection in ms.
+     */
+    public final int getRto() {
+        return outChannel.getRto();
+    }
+
     public int getReceiveBufferSize() {
         return inChannel.getBufferSize();
     }
@@ -869,4 +1262,24 @@ public class TCPControlBlock extends IPv4ControlBlock implements TCPConstants {
     public int getSendBufferSize() {
         return outChannel.getBufferSize();
     }
+
+    /**
+     * Change the size of the input buffer. The buffer can only grow beyond
+     * 64Kb if this is done before the connection is opened, since the window
+     * scale is negotiated in the SYN segments.
+     *
+     * @param size
+     */
+    public void setReceiveBufferSize(int size) {
+        inChannel.setBufferSize(size, !isState(TCPS_CLOSED) && !isState(TCPS_LISTEN));
+    }
+
+    /**
+     * Change the size of the output buffer.
+     *
+     * @param size
+     */
+    public void setSendBufferSize(int size) {
+        outChannel.setBufferSize(size);
+    }
 }
@@ -60,4 +60,32 @@ public class TCPControlBlockList extends IPv4ControlBlockList {
             cb.timeout();
         }
     }
+
+    /**
+     * Gets the sum of the congestion windows of all connections.
+     */
+    public synchronized int getTotalCongestionWindow() {
+        int total = 0;
+        for (IPv4ControlBlock aList : list) {
+            total += ((TCPControlBlock) aList).getCongestionWindow();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the average smoothed round trip time (in ms) of all connections
+     * for which it has been measured.
+     */
+    public synchronized int getAverageRtt() {
+        int total = 0;
+        int count = 0;
+        for (IPv4ControlBlock aList : list) {
+            final int srtt = ((TCPControlBlock) aList).getSmoothedRtt();
+            if (srtt >= 0) {
+                total += srtt;
+                count++;
+            }
+        }
+        return (count == 0) ? 0 : total / count;
+    }
 }
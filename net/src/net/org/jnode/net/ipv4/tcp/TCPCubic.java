@@ -0,0 +1,138 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+/**
+ * CUBIC congestion control (RFC 9438).
+ * <p/>
+ * In congestion avoidance the window grows as a cubic function of the time
+ * since the last loss, with its plateau at the window size where that loss
+ * happened. This makes the growth independent of the round trip time and
+ * lets it recover quickly on paths with a large bandwidth-delay product.
+ *
+ * @author epr
+ */
+public class TCPCubic extends TCPNewReno {
+
+    /** The name of this algorithm */
+    public static final String NAME = "cubic";
+
+    /** Scaling constant of the cubic function */
+    private static final double C = 0.4;
+
+    /** Multiplicative window decrease factor */
+    private static final double BETA = 0.7;
+
+    /** Additive increase of the Reno friendly window estimate, per round trip */
+    private static final double ALPHA = 3.0 * (1.0 - BETA) / (1.0 + BETA);
+
+    /** Window (in segments) before the last reduction */
+    private double wMax;
+
+    /** wMax of the reduction before the last one, for fast convergence */
+    private double wLastMax;
+
+    /** Start of the current congestion avoidance epoch (ms), 0 if none */
+    private long epochStart;
+
+    /** Time (in s) it takes to grow back to the origin point */
+    private double k;
+
+    /** Window (in segments) where the cubic function has its plateau */
+    private double originPoint;
+
+    /** Reno friendly window estimate (in segments) */
+    private double wEst;
+
+    /** Fractional part of the window growth (in bytes) */
+    private double cwndFraction;
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPNewReno#getName()
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPNewReno#init(int)
+     */
+    public void init(int mss) {
+        super.init(mss);
+        wMax = 0;
+        wLastMax = 0;
+        epochStart = 0;
+        cwndFraction = 0;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPNewReno#congestionAvoidance(int, long, int)
+     */
+    protected void congestionAvoidance(int acked, long now, int rtt) {
+        final double segments = (double) cwnd / mss;
+        if (epochStart == 0) {
+            epochStart = now;
+            if (segments < wMax) {
+                k = Math.cbrt((wMax - segments) / C);
+                originPoint = wMax;
+            } else {
+                k = 0;
+                originPoint = segments;
+            }
+            wEst = segments;
+        }
+        // Target window one round trip ahead, limited to 1.5 times the window
+        final double t = (now - epochStart + rtt) / 1000.0;
+        double target = originPoint + C * (t - k) * (t - k) * (t - k);
+        target = Math.max(segments, Math.min(target, 1.5 * segments));
+
+        // Reno friendly region
+        wEst += ALPHA * acked / cwnd;
+        if (wEst > target) {
+            target = wEst;
+        }
+
+        cwndFraction += (target - segments) * mss * acked / cwnd;
+        if (cwndFraction >= 1) {
+            final int grow = (int) cwndFraction;
+            cwnd += grow;
+            cwndFraction -= grow;
+        }
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPNewReno#reduce(int, long)
+     */
+    protected int reduce(int flightSize, long now) {
+        final double segments = (double) cwnd / mss;
+        // Fast convergence: release bandwidth to new flows sooner
+        if (segments < wLastMax) {
+            wLastMax = segments;
+            wMax = segments * (1.0 + BETA) / 2.0;
+        } else {
+            wLastMax = segments;
+            wMax = segments;
+        }
+        epochStart = 0;
+        cwndFraction = 0;
+        return Math.max((int) (cwnd * BETA), 2 * mss);
+    }
+}
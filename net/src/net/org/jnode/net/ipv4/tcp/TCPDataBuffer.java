@@ -23,12 +23,18 @@ package org.jnode.net.ipv4.tcp;
 import org.jnode.net.SocketBuffer;
 
 /**
+ * Circular buffer holding the data of a TCP connection in one direction.
+ * Offsets given to and returned by the methods of this class are relative
+ * to the first byte in the buffer, so they shift when data is pulled.
+ *
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
 public class TCPDataBuffer {
 
-    private final byte[] data;
-    private final int length;
+    private byte[] data;
+    private int length;
+    /** Index in data of the first used byte */
+    private int head;
     private int used;
 
     /**
@@ -39,24 +45,59 @@ public class TCPDataBuffer {
     public TCPDataBuffer(int length) {
         this.data = new byte[length];
         this.length = length;
+        this.head = 0;
         this.used = 0;
     }
 
     /**
      * Create a socketbuffer for a given portion of this databuffer.
+     * The data is not copied, the created buffer refers to the data in this
+     * buffer, that stays unmodified until it is pulled.
      * 
      * @param offset
      * @param length
      * @return The created buffer
      */
     public SocketBuffer createSocketBuffer(int offset, int length) {
+        return createSocketBuffer(offset, length, false);
+    }
+
+    /**
+     * Create a socketbuffer for a given portion of this databuffer.
+     * 
+     * @param offset
+     * @param length
+     * @param copy If true, the data is copied, so the created buffer stays valid
+     *             after the data has been pulled and its space has been reused.
+     * @return The created buffer
+     */
+    public SocketBuffer createSocketBuffer(int offset, int length, boolean copy) {
         if ((offset < 0) || (offset >= used)) {
             throw new IndexOutOfBoundsException("offset " + offset);
         }
         if ((length < 0) || (offset + length > used)) {
             throw new IndexOutOfBoundsException("offset + length" + offset + '+' + length);
         }
-        return new SocketBuffer(data, offset, length);
+        final int pos = index(offset);
+        if (copy) {
+            final SocketBuffer skbuf =
+                new SocketBuffer(TCPConstants.TCP_HEADROOM + length, TCPConstants.TCP_HEADROOM);
+            final int first = Math.min(length, this.length - pos);
+            skbuf.append(data, pos, first);
+            skbuf.append(data, 0, length - first);
+            return skbuf;
+        }
+        // Room for the headers, followed by the data in 1 or 2 parts
+        final SocketBuffer skbuf =
+            new SocketBuffer(TCPConstants.TCP_HEADROOM, TCPConstants.TCP_HEADROOM);
+        final int first = Math.min(length, this.length - pos);
+        skbuf.append(SocketBuffer.wrap(data, pos, first));
+        if (first < length) {
+            skbuf.append(SocketBuffer.wrap(data, 0, length - first));
+        }
+        // Anything appended later on (e.g. padding) goes into a buffer of its own
+        skbuf.append(new SocketBuffer(0));
+        return skbuf;
     }
 
     /**
@@ -73,7 +114,7 @@ public class TCPDataBuffer {
             }
         } else {
             used -= count;
-            System.arraycopy(data, count, data, 0, used);
+            head = (used == 0) ? 0 : index(count);
         }
     }
 
@@ -90,7 +131,10 @@ public class TCPDataBuffer {
             throw new IllegalArgumentException("Not enough free space");
         }
         final int dstOffset = this.used;
-        System.arraycopy(src, srcOffset, this.data, dstOffset, length);
+        final int pos = index(dstOffset);
+        final int first = Math.min(length, this.length - pos);
+        System.arraycopy(src, srcOffset, this.data, pos, first);
+        System.arraycopy(src, srcOffset + first, this.data, 0, length - first);
         this.used += length;
         return dstOffset;
     }
@@ -105,11 +149,34 @@ public class TCPDataBuffer {
             throw new IllegalArgumentException("Not enough free space");
         }
         final int dstOffset = this.used;
-        skbuf.get(this.data, dstOffset, index, length);
+        final int pos = index(dstOffset);
+        final int first = Math.min(length, this.length - pos);
+        skbuf.get(this.data, pos, index, first);
+        if (first < length) {
+            skbuf.get(this.data, 0, index + first, length - first);
+        }
         this.used += length;
         return dstOffset;
     }
 
+    /**
+     * Change the length of this buffer, keeping its contents.
+     *
+     * @param length The new length, must be at least the number of used bytes.
+     */
+    public void setLength(int length) {
+        if (length < used) {
+            throw new IllegalArgumentException("length " + length + " < used " + used);
+        }
+        if (length != this.length) {
+            final byte[] newData = new byte[length];
+            copy(0, newData, 0, used);
+            this.data = newData;
+            this.length = length;
+            this.head = 0;
+        }
+    }
+
     /**
      * @return Returns the length.
      */
@@ -141,8 +208,33 @@ public class TCPDataBuffer {
      */
     public int read(byte[] b, int off, int len) {
         len = Math.min(used, len);
-        System.arraycopy(data, 0, b, off, len);
+        copy(0, b, off, len);
         pull(len);
         return len;
     }
+
+    /**
+     * Copy data from this buffer.
+     *
+     * @param offset Offset relative to the first byte of this buffer
+     * @param dst
+     * @param dstOffset
+     * @param len
+     */
+    private void copy(int offset, byte[] dst, int dstOffset, int len) {
+        final int pos = index(offset);
+        final int first = Math.min(len, length - pos);
+        System.arraycopy(data, pos, dst, dstOffset, first);
+        System.arraycopy(data, 0, dst, dstOffset + first, len - first);
+    }
+
+    /**
+     * Convert an offset relative to the first byte into an index in data.
+     *
+     * @param offset
+     */
+    private int index(int offset) {
+        final int idx = head + offset;
+        return (idx >= length) ? idx - length : idx;
+    }
 }
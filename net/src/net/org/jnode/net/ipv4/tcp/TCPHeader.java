@@ -36,14 +36,35 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
     private final int srcPort;
     private final int dstPort;
     private int sequenceNr;
-    private final int ackNr;
-    private final int headerLength;
+    private int ackNr;
+    private int headerLength;
     private int flags;
     private int tcpLength;
-    private final int windowSize;
+    private int windowSize;
     private final int urgentPointer;
     private final boolean checksumOk;
 
+    /** The MSS option, 0 if not present */
+    private int mss;
+
+    /** The window scale option, -1 if not present */
+    private int windowScale = -1;
+
+    /** Is the timestamp option present? */
+    private boolean timestamp;
+
+    /** Timestamp value of the timestamp option */
+    private int tsValue;
+
+    /** Timestamp echo reply of the timestamp option */
+    private int tsEcho;
+
+    /** Is the SACK permitted option present? */
+    private boolean sackPermitted;
+
+    /** Start and end seq-nrs of the blocks of the SACK option, null if not present */
+    private int[] sackBlocks;
+
     /**
      * Create a new instance
      * 
@@ -88,6 +109,9 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
         // 4));
 
         this.windowSize = skbuf.get16(14);
+        if (headerLength > TCP_HLEN) {
+            parseOptions(skbuf);
+        }
 
         final int checksum = skbuf.get16(16);
         this.urgentPointer = skbuf.get16(18);
@@ -120,6 +144,90 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
         }
     }
 
+    /**
+     * Read the options that are known to us, skip all others.
+     *
+     * @param skbuf
+     */
+    private void parseOptions(SocketBuffer skbuf) {
+        int ofs = TCP_HLEN;
+        while (ofs < headerLength) {
+            final int kind = skbuf.get(ofs);
+            if (kind == TCPOPT_EOL) {
+                break;
+            } else if (kind == TCPOPT_NOP) {
+                ofs++;
+                continue;
+            }
+            if (ofs + 1 >= headerLength) {
+                break;
+            }
+            final int len = skbuf.get(ofs + 1);
+            if ((len < 2) || (ofs + len > headerLength)) {
+                // Malformed option, ignore the rest
+                break;
+            }
+            switch (kind) {
+                case TCPOPT_MAXSEG:
+                    if (len == TCPOLEN_MAXSEG) {
+                        mss = skbuf.get16(ofs + 2);
+                    }
+                    break;
+                case TCPOPT_WINDOW:
+                    if (len == TCPOLEN_WINDOW) {
+                        windowScale = Math.min(skbuf.get(ofs + 2), TCP_MAX_WINSHIFT);
+                    }
+                    break;
+                case TCPOPT_TIMESTAMP:
+                    if (len == TCPOLEN_TIMESTAMP) {
+                        timestamp = true;
+                        tsValue = skbuf.get32(ofs + 2);
+                        tsEcho = skbuf.get32(ofs + 6);
+                    }
+                    break;
+                case TCPOPT_SACK_PERMITTED:
+                    if (len == TCPOLEN_SACK_PERMITTED) {
+                        sackPermitted = true;
+                    }
+                    break;
+                case TCPOPT_SACK:
+                    final int count = (len - 2) / 8;
+                    if (count > 0) {
+                        sackBlocks = new int[count * 2];
+                        for (int i = 0; i < sackBlocks.length; i++) {
+                            sackBlocks[i] = skbuf.get32(ofs + 2 + i * 4);
+                        }
+                    }
+                    break;
+            }
+            ofs += len;
+        }
+    }
+
+    /**
+     * Update the header length for the options that have been set.
+     * Each option is padded with NOP's to a multiple of 4 bytes.
+     */
+    private void updateHeaderLength() {
+        int length = TCP_HLEN;
+        if (mss > 0) {
+            length += 4;
+        }
+        if (windowScale >= 0) {
+            length += 4;
+        }
+        if (timestamp) {
+            length += 12;
+        }
+        if (sackPermitted) {
+            length += 4;
+        }
+        if (sackBlocks != null) {
+            length += 4 + sackBlocks.length * 4;
+        }
+        this.headerLength = length;
+    }
+
     /**
      * @see org.jnode.net.LayerHeader#getLength()
      */
@@ -154,6 +262,45 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
         skbuf.set16(14, windowSize);
         skbuf.set16(16, 0); // Checksum, calculate and overwrite later
         skbuf.set16(18, urgentPointer);
+        int ofs = TCP_HLEN;
+        if (mss > 0) {
+            skbuf.set(ofs, TCPOPT_MAXSEG);
+            skbuf.set(ofs + 1, TCPOLEN_MAXSEG);
+            skbuf.set16(ofs + 2, mss);
+            ofs += 4;
+        }
+        if (windowScale >= 0) {
+            skbuf.set(ofs, TCPOPT_NOP);
+            skbuf.set(ofs + 1, TCPOPT_WINDOW);
+            skbuf.set(ofs + 2, TCPOLEN_WINDOW);
+            skbuf.set(ofs + 3, windowScale);
+            ofs += 4;
+        }
+        if (timestamp) {
+            skbuf.set(ofs, TCPOPT_NOP);
+            skbuf.set(ofs + 1, TCPOPT_NOP);
+            skbuf.set(ofs + 2, TCPOPT_TIMESTAMP);
+            skbuf.set(ofs + 3, TCPOLEN_TIMESTAMP);
+            skbuf.set32(ofs + 4, tsValue);
+            skbuf.set32(ofs + 8, tsEcho);
+            ofs += 12;
+        }
+        if (sackPermitted) {
+            skbuf.set(ofs, TCPOPT_NOP);
+            skbuf.set(ofs + 1, TCPOPT_NOP);
+            skbuf.set(ofs + 2, TCPOPT_SACK_PERMITTED);
+            skbuf.set(ofs + 3, TCPOLEN_SACK_PERMITTED);
+            ofs += 4;
+        }
+        if (sackBlocks != null) {
+            skbuf.set(ofs, TCPOPT_NOP);
+            skbuf.set(ofs + 1, TCPOPT_NOP);
+            skbuf.set(ofs + 2, TCPOPT_SACK);
+            skbuf.set(ofs + 3, 2 + sackBlocks.length * 4);
+            for (int i = 0; i < sackBlocks.length; i++) {
+                skbuf.set32(ofs + 4 + i * 4, sackBlocks[i]);
+            }
+        }
     }
 
     /**
@@ -300,6 +447,40 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
         }
         b.append(", win ");
         b.append(windowSize);
+        if (headerLength > TCP_HLEN) {
+            b.append(" <");
+            if (mss > 0) {
+                b.append("mss ");
+                b.append(mss);
+                b.append(',');
+            }
+            if (windowScale >= 0) {
+                b.append("wscale ");
+                b.append(windowScale);
+                b.append(',');
+            }
+            if (timestamp) {
+                b.append("ts ");
+                b.append(tsValue & 0xFFFFFFFFL);
+                b.append(' ');
+                b.append(tsEcho & 0xFFFFFFFFL);
+                b.append(',');
+            }
+            if (sackPermitted) {
+                b.append("sackOK,");
+            }
+            if (sackBlocks != null) {
+                b.append("sack");
+                for (int i = 0; i < sackBlocks.length; i += 2) {
+                    b.append(' ');
+                    b.append(sackBlocks[i] & 0xFFFFFFFFL);
+                    b.append(':');
+                    b.append(sackBlocks[i + 1] & 0xFFFFFFFFL);
+                }
+                b.append(',');
+            }
+            b.setCharAt(b.length() - 1, '>');
+        }
         return b.toString();
     }
 
@@ -345,6 +526,147 @@ public class TCPHeader implements TransportLayerHeader, TCPConstants {
         return windowSize;
     }
 
+    /**
+     * Gets the MSS option.
+     *
+     * @return The MSS, or 0 if the option is not present.
+     */
+    public int getMss() {
+        return mss;
+    }
+
+    /**
+     * Sets the MSS option.
+     *
+     * @param mss The MSS, or 0 to remove the option.
+     */
+    public void setMss(int mss) {
+        this.mss = mss;
+        updateHeaderLength();
+    }
+
+    /**
+     * Gets the window scale option.
+     *
+     * @return The shift count, or -1 if the option is not present.
+     */
+    public int getWindowScale() {
+        return windowScale;
+    }
+
+    /**
+     * Sets the window scale option.
+     *
+     * @param shift The shift count, or -1 to remove the option.
+     */
+    public void setWindowScale(int shift) {
+        this.windowScale = shift;
+        updateHeaderLength();
+    }
+
+    /**
+     * Is the timestamp option present?
+     */
+    public boolean hasTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the value of the timestamp option.
+     */
+    public int getTimestampValue() {
+        return tsValue;
+    }
+
+    /**
+     * Gets the echo reply of the timestamp option.
+     */
+    public int getTimestampEcho() {
+        return tsEcho;
+    }
+
+    /**
+     * Sets the timestamp option.
+     *
+     * @param tsValue
+     * @param tsEcho
+     */
+    public void setTimestamp(int tsValue, int tsEcho) {
+        this.timestamp = true;
+        this.tsValue = tsValue;
+        this.tsEcho = tsEcho;
+        updateHeaderLength();
+    }
+
+    /**
+     * Is the SACK permitted option present?
+     */
+    public boolean isSackPermitted() {
+        return sackPermitted;
+    }
+
+    /**
+     * Sets the SACK permitted option.
+     *
+     * @param on
+     */
+    public void setSackPermitted(boolean on) {
+        this.sackPermitted = on;
+        updateHeaderLength();
+    }
+
+    /**
+     * Gets the blocks of the SACK option.
+     *
+     * @return The start and end seq-nr of each block, or null if the option is
+     *         not present.
+     */
+    public int[] getSackBlocks() {
+        return sackBlocks;
+    }
+
+    /**
+     * Sets the blocks of the SACK option.
+     *
+     * @param blocks The start and end seq-nr of each block, or null to
+     *            remove the option.
+     */
+    public void setSackBlocks(int[] blocks) {
+        this.sackBlocks = blocks;
+        updateHeaderLength();
+    }
+
+    /**
+     * Update the acknowledgment number and window size.
+     * This is done each time the segment is (re)transmitted.
+     *
+     * @param ackNr
+     * @param windowSize
+     */
+    final void updateAckNrAndWindow(int ackNr, int windowSize) {
+        this.ackNr = ackNr;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Update the value of the timestamp option, if present.
+     * This is done each time the segment is (re)transmitted.
+     *
+     * @param tsValue
+     */
+    final void updateTimestampValue(int tsValue) {
+        this.tsValue = tsValue;
+    }
+
+    /**
+     * Update the echo reply of the timestamp option, if present.
+     *
+     * @param tsEcho
+     */
+    final void updateTimestampEcho(int tsEcho) {
+        this.tsEcho = tsEcho;
+    }
+
     private int calcChecksum(SocketBuffer skbuf, int offset) {
         final IPv4Header ipHdr = (IPv4Header) skbuf.getNetworkLayerHeader();
         final SocketBuffer phdr = new SocketBuffer(12);
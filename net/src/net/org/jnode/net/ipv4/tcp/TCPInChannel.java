@@ -21,6 +21,7 @@
 package org.jnode.net.ipv4.tcp;
 
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.LinkedList;
 
 import org.apache.log4j.Logger;
@@ -36,7 +37,12 @@ public class TCPInChannel {
      * My logger
      */
     private static final Logger log = Logger.getLogger(TCPInChannel.class);
-    
+
+    /**
+     * Returned by a blocking read when its timeout has expired
+     */
+    private static final int TIMED_OUT = -2;
+
     /**
      * Segments that have been received, but are out of order
      */
@@ -62,13 +68,52 @@ public class TCPInChannel {
      */
     private boolean finReceived;
 
+    /**
+     * Number of data bytes in the out of order segments
+     */
+    private int futureBytes;
+
+    /**
+     * Seq-nr of the most recently received out of order segment
+     */
+    private int lastFutureSeqNr;
+
+    /**
+     * Shift count applied to the window we advertise
+     */
+    private int rcv_scale;
+
+    /**
+     * Highest seq-nr (exclusive) the foreign side may send, as last advertised
+     */
+    private int rcv_adv;
+
     /**
      * Create a new instance
+     *
+     * @param controlBlock
+     * @param bufferSize The size of the input buffer
      */
-    public TCPInChannel(TCPControlBlock controlBlock) {
+    public TCPInChannel(TCPControlBlock controlBlock, int bufferSize) {
         this.controlBlock = controlBlock;
-        this.dataBuffer = new TCPDataBuffer(TCPConstants.TCP_BUFFER_SIZE);
+        this.dataBuffer = new TCPDataBuffer(bufferSize);
         this.finReceived = false;
+        this.rcv_scale = calcWindowScale(bufferSize);
+    }
+
+    /**
+     * Calculate the smallest shift count that allows the complete buffer to
+     * be advertised.
+     *
+     * @param bufferSize
+     */
+    private static int calcWindowScale(int bufferSize) {
+        int shift = 0;
+        while ((shift < TCPConstants.TCP_MAX_WINSHIFT) &&
+            ((bufferSize >> shift) > TCPConstants.TCP_MAXWIN)) {
+            shift++;
+        }
+        return shift;
     }
 
     /**
@@ -81,42 +126,128 @@ public class TCPInChannel {
     }
 
     /**
-     * Process received data
+     * Process received data. In order data is added to the input buffer,
+     * out of order data is queued until the hole before it has been filled.
+     * Every segment that carries data is acknowledged immediately, so the
+     * foreign side sees duplicate acks (and SACK blocks) for out of order data.
      *
      * @param ipHdr
      * @param hdr
      * @param skbuf
      */
     public void processData(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf) throws SocketException {
-        final int seqNr = hdr.getSequenceNr();
-        // Check the seq-nr
-        if (TCPUtils.SEQ_LT(seqNr, rcv_next)) {
-            // Ignore segment, we've already got it
-            log.debug("Ignoring segment because we already got it");
-            return;
+        final boolean ack;
+        synchronized (this) {
+            ack = processSegment(ipHdr, hdr, skbuf);
+        }
+        if (ack) {
+            // Send the ack without holding my lock, the output channel may need it
+            controlBlock.sendACK(0, rcv_next);
         }
+    }
 
-        if (hdr.isFlagFinishedSet()) {
-            finReceived = true;
+    /**
+     * Process a received segment.
+     *
+     * @param ipHdr
+     * @param hdr
+     * @param skbuf
+     * @return True if the segment must be acknowledged, false otherwise.
+     */
+    private boolean processSegment(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf) {
+        if ((hdr.getDataLength() == 0) && !hdr.isFlagFinishedSet()) {
+            // Nothing to acknowledge
+            return false;
+        }
+        if (finReceived) {
+            // A retransmit of data we already have, our ack may have been lost
+            return true;
+        }
+        if (TCPUtils.SEQ_LT(hdr.getSequenceNr(), rcv_next) && !trim(hdr, skbuf)) {
+            // Ignore segment, we've already got it
+            log.debug("Ignoring segment because we already got it");
+            return true;
         }
 
-        if (seqNr == rcv_next) {
+        if (hdr.getSequenceNr() == rcv_next) {
             // This segment is the first expected segment
             if (processNextSegment(hdr, skbuf)) {
-                // See if we have the next segment already in the list
+                // See if we have the next segments already in the list
                 TCPInSegment seg;
                 while ((seg = findNextSegment()) != null) {
-                    // Next segment was in the list
-                    if (processNextSegment(seg.hdr, seg.skbuf)) {
-                        // Segment fully processed, remove it from the list
-                        futureSegments.remove(seg);
-                    } else {
-                        // No space left, stop sending data to application
-                        break;
+                    futureSegments.remove(seg);
+                    futureBytes -= seg.hdr.getDataLength();
+                    try {
+                        if (TCPUtils.SEQ_LT(seg.getSeqNr(), rcv_next) && !trim(seg.hdr, seg.skbuf)) {
+                            continue;
+                        }
+                        if (!processNextSegment(seg.hdr, seg.skbuf)) {
+                            // No space left, it will be retransmitted
+                            break;
+                        }
+                    } finally {
+                        seg.skbuf.release();
                     }
                 }
             }
+        } else {
+            addFutureSegment(ipHdr, hdr, skbuf);
         }
+        return true;
+    }
+
+    /**
+     * Remove the data we already have from the start of a segment that
+     * starts before rcv_next.
+     *
+     * @param hdr
+     * @param skbuf
+     * @return True if the segment still contains new data (or a new FIN), false otherwise.
+     */
+    private boolean trim(TCPHeader hdr, SocketBuffer skbuf) {
+        final int overlap = rcv_next - hdr.getSequenceNr();
+        final int dataLength = hdr.getDataLength();
+        if ((overlap > dataLength) || ((overlap == dataLength) && !hdr.isFlagFinishedSet())) {
+            return false;
+        }
+        skbuf.pull(overlap);
+        hdr.setSequenceNr(rcv_next);
+        hdr.setDataLength(dataLength - overlap);
+        return true;
+    }
+
+    /**
+     * Queue an out of order segment, if it fits in the window.
+     *
+     * @param ipHdr
+     * @param hdr
+     * @param skbuf
+     */
+    private void addFutureSegment(IPv4Header ipHdr, TCPHeader hdr, SocketBuffer skbuf) {
+        final int seqNr = hdr.getSequenceNr();
+        final int dataLength = hdr.getDataLength();
+        if (TCPUtils.SEQ_GT(seqNr + dataLength, rcv_next + dataBuffer.getFreeSize()) ||
+            (futureBytes + dataLength > dataBuffer.getFreeSize())) {
+            log.debug("Out of order segment dropped, outside of window");
+            return;
+        }
+        // Keep the list sorted by seq-nr
+        int index = 0;
+        for (TCPInSegment seg : futureSegments) {
+            if (seg.getSeqNr() == seqNr) {
+                // Got it already
+                lastFutureSeqNr = seqNr;
+                return;
+            } else if (TCPUtils.SEQ_GT(seg.getSeqNr(), seqNr)) {
+                break;
+            }
+            index++;
+        }
+        // Keep the buffer until the segment is processed
+        skbuf.retain();
+        futureSegments.add(index, new TCPInSegment(ipHdr, hdr, skbuf));
+        futureBytes += dataLength;
+        lastFutureSeqNr = seqNr;
     }
 
     /**
@@ -126,9 +257,8 @@ public class TCPInChannel {
      * @param hdr
      * @param skbuf
      * @return True if the segment has been fully processed, false otherwise.
-     * @throws SocketException
      */
-    private synchronized boolean processNextSegment(TCPHeader hdr, SocketBuffer skbuf) throws SocketException {
+    private boolean processNextSegment(TCPHeader hdr, SocketBuffer skbuf) {
         final int seqNr = hdr.getSequenceNr();
         if (seqNr != rcv_next) {
             throw new IllegalArgumentException("hdr.seqNr != rcv_next");
@@ -154,31 +284,87 @@ public class TCPInChannel {
                 // SYN & FIN take up 1 seq-nr
                 rcv_next++;
             }
-            if ((dataLength > 0) || fin) {
-                // And ACK it
-                controlBlock.sendACK(0, rcv_next);
+            if (fin) {
+                finReceived = true;
+                // Nothing can follow the FIN
+                for (TCPInSegment seg : futureSegments) {
+                    seg.skbuf.release();
+                }
+                futureSegments.clear();
+                futureBytes = 0;
             }
             // Notify threads blocked in read
             notifyAll();
+            controlBlock.notifyReadiness();
             // We've processed it fully
             return true;
         }
     }
 
     /**
-     * Find the segment that has sequnce-nr equal to rcv_next.
+     * Find a queued segment that starts at or before rcv_next.
      *
      * @return The segment or null if not found
      */
     private TCPInSegment findNextSegment() {
-        for (TCPInSegment seg : futureSegments) {
-            if (seg.getSeqNr() == rcv_next) {
+        if (!futureSegments.isEmpty()) {
+            final TCPInSegment seg = futureSegments.getFirst();
+            if (TCPUtils.SEQ_LE(seg.getSeqNr(), rcv_next)) {
                 return seg;
             }
         }
         return null;
     }
 
+    /**
+     * Gets the SACK blocks (RFC 2018) describing the queued out of order data.
+     * The block containing the most recently received segment comes first.
+     *
+     * @return Start and end sequence numbers of at most TCP_MAX_SACK_BLOCKS blocks,
+     *         or null if there is no out of order data.
+     */
+    public synchronized int[] getSackBlocks() {
+        if (futureSegments.isEmpty()) {
+            return null;
+        }
+        // Merge the sorted segments into contiguous blocks
+        final int[] ranges = new int[futureSegments.size() * 2];
+        int count = 0;
+        for (TCPInSegment seg : futureSegments) {
+            final int start = seg.getSeqNr();
+            final int end = start + seg.hdr.getDataLength();
+            if ((count > 0) && TCPUtils.SEQ_LE(start, ranges[count - 1])) {
+                if (TCPUtils.SEQ_GT(end, ranges[count - 1])) {
+                    ranges[count - 1] = end;
+                }
+            } else {
+                ranges[count++] = start;
+                ranges[count++] = end;
+            }
+        }
+        final int max = TCPConstants.TCP_MAX_SACK_BLOCKS * 2;
+        final int[] blocks = new int[Math.min(count, max)];
+        int first = count - 2;
+        for (int i = 0; i < count; i += 2) {
+            if (TCPUtils.SEQ_GE(lastFutureSeqNr, ranges[i]) &&
+                TCPUtils.SEQ_LT(lastFutureSeqNr, ranges[i + 1])) {
+                first = i;
+                break;
+            }
+        }
+        blocks[0] = ranges[first];
+        blocks[1] = ranges[first + 1];
+        // Then the other blocks, highest first
+        int n = 2;
+        for (int i = count - 2; (i >= 0) && (n < blocks.length); i -= 2) {
+            if (i != first) {
+                blocks[n++] = ranges[i];
+                blocks[n++] = ranges[i + 1];
+            }
+        }
+        return blocks;
+    }
+
     /**
      * Return the number of available bytes in the input buffer.
      */
@@ -190,6 +376,65 @@ public class TCPInChannel {
         return dataBuffer.getLength();
     }
 
+    /**
+     * Change the size of the input buffer. Once the window scale has been
+     * negotiated, the buffer cannot grow beyond what can be advertised.
+     *
+     * @param size
+     * @param connected Has the window scale been negotiated?
+     */
+    public synchronized void setBufferSize(int size, boolean connected) {
+        if (connected) {
+            size = Math.min(size, TCPConstants.TCP_MAXWIN << rcv_scale);
+        } else {
+            rcv_scale = calcWindowScale(size);
+        }
+        dataBuffer.setLength(Math.max(size, dataBuffer.getUsed()));
+    }
+
+    /**
+     * Gets the shift count we apply to the window we advertise.
+     */
+    public final int getWindowScale() {
+        return rcv_scale;
+    }
+
+    /**
+     * Disable window scaling, because the foreign side does not support it.
+     */
+    public final void disableWindowScale() {
+        this.rcv_scale = 0;
+    }
+
+    /**
+     * Gets the value of the window field for an outgoing segment and
+     * remember the advertised right edge of the window.
+     *
+     * @param syn Is the window for a SYN segment (which is never scaled)?
+     */
+    public synchronized int advertiseWindow(boolean syn) {
+        final int free = dataBuffer.getFreeSize();
+        final int window;
+        if (syn) {
+            window = Math.min(free, TCPConstants.TCP_MAXWIN);
+        } else {
+            window = Math.min(free >> rcv_scale, TCPConstants.TCP_MAXWIN);
+        }
+        rcv_adv = rcv_next + (syn ? window : (window << rcv_scale));
+        return window;
+    }
+
+    /**
+     * Should a window update be sent after the application has read data?
+     * This is the case if the window can be moved by at least 2 segments or by
+     * half of the buffer size.
+     */
+    private boolean isWindowUpdateNeeded() {
+        final int grow = (rcv_next + dataBuffer.getFreeSize()) - rcv_adv;
+        final int mss = controlBlock.getMss();
+        return (grow >= 2 * mss) || (grow >= dataBuffer.getLength() / 2);
+    }
+
     /**
      * Read data from the input buffer up to len bytes long. Block until there is data available.
      *
@@ -198,21 +443,83 @@ public class TCPInChannel {
      * @param len
      * @return The number of bytes read
      */
-    public synchronized int read(byte[] dst, int off, int len) throws SocketException {
-        while ((dataBuffer.getUsed() == 0) && !controlBlock.isReset() && !isEOF()) {
-            try {
-                wait();
-            } catch (InterruptedException ex) {
-                // Ignore
+    public int read(byte[] dst, int off, int len) throws SocketException {
+        return read(dst, off, len, true);
+    }
+
+    /**
+     * Read data from the input buffer up to len bytes long.
+     *
+     * @param dst
+     * @param off
+     * @param len
+     * @param block If true, block until there is data available, otherwise return
+     *              0 if there is no data available.
+     * @return The number of bytes read, or -1 on EOF
+     */
+    public int read(byte[] dst, int off, int len, boolean block) throws SocketException {
+        return read(dst, off, len, block, 0);
+    }
+
+    /**
+     * Read data from the input buffer up to len bytes long, blocking until
+     * there is data available.
+     *
+     * @param dst
+     * @param off
+     * @param len
+     * @param timeout The maximum time to wait in milliseconds, 0 to wait forever.
+     * @return The number of bytes read, or -1 on EOF
+     * @throws SocketTimeoutException If no data has arrived within the timeout.
+     */
+    public int read(byte[] dst, int off, int len, int timeout) throws SocketException, SocketTimeoutException {
+        final int count = read(dst, off, len, true, timeout);
+        if (count == TIMED_OUT) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        return count;
+    }
+
+    /**
+     * Read data from the input buffer up to len bytes long.
+     *
+     * @return The number of bytes read, -1 on EOF or TIMED_OUT
+     */
+    private int read(byte[] dst, int off, int len, boolean block, int timeout) throws SocketException {
+        final int count;
+        final boolean windowUpdate;
+        synchronized (this) {
+            final long end = System.currentTimeMillis() + timeout;
+            while ((dataBuffer.getUsed() == 0) && !controlBlock.isReset() && !isEOF()) {
+                if (!block) {
+                    return 0;
+                }
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = end - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return TIMED_OUT;
+                    }
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+            if (controlBlock.isReset()) {
+                throw new SocketException("Connection reset");
+            } else if (isEOF()) {
+                return -1;
             }
+            count = dataBuffer.read(dst, off, len);
+            windowUpdate = !finReceived && isWindowUpdateNeeded();
         }
-        if (controlBlock.isReset()) {
-            throw new SocketException("Connection reset");
-        } else if (isEOF()) {
-            return -1;
-        } else {
-            return dataBuffer.read(dst, off, len);
+        if (windowUpdate) {
+            // Tell the foreign side there is room again
+            controlBlock.sendACK(0, rcv_next);
         }
+        return count;
     }
 
     /**
@@ -220,6 +527,22 @@ public class TCPInChannel {
      */
     public synchronized void notifyConnectionReset() {
         notifyAll();
+        controlBlock.notifyReadiness();
+    }
+
+    /**
+     * Can the application read without blocking? This is the case if there is
+     * data available, EOF has been reached or the connection has been reset.
+     */
+    public synchronized boolean isReadable() {
+        return (dataBuffer.getUsed() > 0) || isEOF() || controlBlock.isReset();
+    }
+
+    /**
+     * Has a FIN been received and processed in order?
+     */
+    public final boolean isFinReceived() {
+        return finReceived;
     }
 
     /**
@@ -0,0 +1,149 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+/**
+ * The standard TCP congestion control: slow start and congestion avoidance
+ * (RFC 5681), with the window halved on a loss.
+ *
+ * @author epr
+ */
+public class TCPNewReno implements TCPCongestionControl {
+
+    /** The name of this algorithm */
+    public static final String NAME = "newreno";
+
+    /** The maximum segment size */
+    protected int mss;
+
+    /** The congestion window */
+    protected int cwnd;
+
+    /** The slow start threshold */
+    protected int ssthresh;
+
+    /** Bytes acknowledged in congestion avoidance, not yet used to grow cwnd */
+    private int bytesAcked;
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#getName()
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#init(int)
+     */
+    public void init(int mss) {
+        this.mss = mss;
+        // Initial window of RFC 6928
+        this.cwnd = Math.min(10 * mss, Math.max(2 * mss, 14600));
+        this.ssthresh = Integer.MAX_VALUE;
+        this.bytesAcked = 0;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#getCwnd()
+     */
+    public final int getCwnd() {
+        return cwnd;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#setCwnd(int)
+     */
+    public final void setCwnd(int cwnd) {
+        this.cwnd = Math.max(cwnd, mss);
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#getSsthresh()
+     */
+    public final int getSsthresh() {
+        return ssthresh;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#onAck(int, long, int)
+     */
+    public void onAck(int acked, long now, int rtt) {
+        if (cwnd < ssthresh) {
+            // Slow start, with appropriate byte counting (RFC 3465, L=2)
+            cwnd += Math.min(acked, 2 * mss);
+        } else {
+            congestionAvoidance(acked, now, rtt);
+        }
+    }
+
+    /**
+     * Grow the congestion window when it is above the slow start threshold.
+     * This implementation grows it with one segment per round trip.
+     *
+     * @param acked
+     * @param now
+     * @param rtt
+     */
+    protected void congestionAvoidance(int acked, long now, int rtt) {
+        bytesAcked += acked;
+        if (bytesAcked >= cwnd) {
+            bytesAcked -= cwnd;
+            cwnd += mss;
+        }
+    }
+
+    /**
+     * Calculate the slow start threshold after a loss.
+     *
+     * @param flightSize
+     * @param now
+     * @return The new slow start threshold
+     */
+    protected int reduce(int flightSize, long now) {
+        return Math.max(flightSize / 2, 2 * mss);
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#onFastRetransmit(int, long)
+     */
+    public void onFastRetransmit(int flightSize, long now) {
+        ssthresh = reduce(flightSize, now);
+        cwnd = ssthresh;
+        bytesAcked = 0;
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#onRecoveryEnd(int)
+     */
+    public void onRecoveryEnd(int flightSize) {
+        // Deflate the window (RFC 6582, option 1)
+        cwnd = Math.max(Math.min(ssthresh, flightSize + mss), mss);
+    }
+
+    /**
+     * @see org.jnode.net.ipv4.tcp.TCPCongestionControl#onTimeout(int, long)
+     */
+    public void onTimeout(int flightSize, long now) {
+        ssthresh = reduce(flightSize, now);
+        cwnd = mss;
+        bytesAcked = 0;
+    }
+}
@@ -24,6 +24,7 @@ import java.net.SocketException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import org.apache.log4j.Logger;
+import org.jnode.net.SocketBuffer;
 import org.jnode.net.ipv4.IPv4Header;
 
 /**
@@ -43,15 +44,30 @@ public class TCPOutChannel {
     private final TCPProtocol tcp;
 
     /**
-     * All unacked segments
+     * The statistics of the protocol
+     */
+    private final TCPStatistics stat;
+
+    /**
+     * All segments that have been sent but not yet acked, in sequence order
      */
     private final LinkedList<TCPOutSegment> unackedSegments = new LinkedList<TCPOutSegment>();
 
+    /**
+     * Segments waiting for room in the send or congestion window, in sequence order
+     */
+    private final LinkedList<TCPOutSegment> unsentSegments = new LinkedList<TCPOutSegment>();
+
     /**
      * The outgoing databuffer
      */
     private final TCPDataBuffer dataBuffer;
 
+    /**
+     * Sequence number of the first byte in the databuffer
+     */
+    private int bufferSeq;
+
     /**
      * Send unacknowledged
      */
@@ -67,6 +83,16 @@ public class TCPOutChannel {
      */
     private int snd_max;
 
+    /**
+     * Send window, as advertised by the foreign side (already scaled)
+     */
+    private int snd_wnd;
+
+    /**
+     * Shift count to apply to the window advertised by the foreign side
+     */
+    private int snd_scale;
+
     /**
      * Maximum segment size (determined by the foreign part of the connection
      */
@@ -78,38 +104,118 @@ public class TCPOutChannel {
     private final TCPControlBlock controlBlock;
 
     /**
-     * Number of ticks before a retransmit timeout
+     * The congestion control algorithm
+     */
+    private final TCPCongestionControl cc;
+
+    /**
+     * Smoothed round trip time in ms, -1 if there is no measurement yet
+     */
+    private int srtt = -1;
+
+    /**
+     * Round trip time variation in ms
+     */
+    private int rttvar;
+
+    /**
+     * Retransmission timeout in ms
+     */
+    private int rto = TCPConstants.TCP_INITIAL_RTO;
+
+    /**
+     * Time the retransmission timer expires, 0 if not running
+     */
+    private long rtoExpire;
+
+    /**
+     * Time the persist timer expires, 0 if not running
+     */
+    private long persistExpire;
+
+    /**
+     * Sequence number being timed for a round trip measurement
+     */
+    private int timedSeq;
+
+    /**
+     * Time the timed sequence number was sent, 0 if no segment is timed
      */
-    private int timeoutTicks = 6;
+    private long timedAt;
+
+    /**
+     * Are round trip times measured with timestamps?
+     */
+    private boolean timestamps;
+
+    /**
+     * Does the foreign side send selective acknowledgments?
+     */
+    private boolean sack;
+
+    /**
+     * Number of bytes selectively acknowledged
+     */
+    private int sackedBytes;
+
+    /**
+     * Highest sequence number selectively acknowledged
+     */
+    private int highestSacked;
+
+    /**
+     * Number of duplicate acks received in a row
+     */
+    private int dupAcks;
+
+    /**
+     * Are we recovering from a loss? (fast recovery or after a timeout)
+     */
+    private boolean inRecovery;
+
+    /**
+     * Was the current recovery started by fast retransmit (or by a timeout)?
+     */
+    private boolean fastRecovery;
+
+    /**
+     * Highest seq-nr sent when the last recovery started
+     */
+    private int recover;
 
     /**
      * Create a new instance
      */
-    public TCPOutChannel(TCPProtocol tcp, TCPControlBlock controlBlock, int isn) {
+    public TCPOutChannel(TCPProtocol tcp, TCPControlBlock controlBlock, int isn, int bufferSize) {
         this.tcp = tcp;
+        this.stat = tcp.getTCPStatistics();
         this.controlBlock = controlBlock;
-        this.dataBuffer = new TCPDataBuffer(TCPConstants.TCP_BUFFER_SIZE);
+        this.dataBuffer = new TCPDataBuffer(bufferSize);
+        this.bufferSeq = isn + 1;
         this.snd_unack = isn;
         this.snd_next = isn;
         this.snd_max = isn;
+        this.recover = isn;
+        this.snd_wnd = TCPConstants.TCP_DEFAULT_MSS;
         this.mss = TCPConstants.TCP_DEFAULT_MSS;
+        this.cc = tcp.createCongestionControl();
+        cc.init(mss);
     }
 
     /**
-     * Process an ack-nr.
+     * Process the ack-nr, window and SACK blocks of a received segment.
      * Remove all segments that have been acknowledged and remove
      * the occupied data from the databuffer.
+     * Detect losses and retransmit or send new segments as the windows allow.
      *
-     * @param ackNr
+     * @param hdr
      */
-    public synchronized void processAck(int ackNr) {
+    public synchronized void processAck(TCPHeader hdr) throws SocketException {
+        final int ackNr = hdr.getAckNr();
+        final boolean syn = hdr.isFlagSynchronizeSet();
         // Is the ack valid?
-        if (snd_unack == ackNr) {
-            // Not a new ack, ignore it
-            return;
-        } else if (!TCPUtils.SEQ_LT(snd_unack, ackNr)) {
-            // snd_unack < ackNr violated
-            log.debug("snd_unack < ackNr violated");
+        if (TCPUtils.SEQ_LT(ackNr, snd_unack)) {
+            // An old ack, ignore it
             return;
         }
         if (!TCPUtils.SEQ_LE(ackNr, snd_max)) {
@@ -117,41 +223,529 @@ public class TCPOutChannel {
             log.debug("ackNr <= snd_max violated");
             return;
         }
+        final long now = System.currentTimeMillis();
+        if (sack && (hdr.getSackBlocks() != null)) {
+            processSackBlocks(hdr.getSackBlocks());
+        }
+
+        if (ackNr == snd_unack) {
+            // Not a new ack, but it may open the window or signal a loss
+            final int window = syn ? hdr.getWindowSize() : (hdr.getWindowSize() << snd_scale);
+            final boolean dup = (snd_max != snd_unack) && (hdr.getDataLength() == 0) && !syn &&
+                !hdr.isFlagFinishedSet() && (window == snd_wnd);
+            updateWindow(hdr.getWindowSize(), syn);
+            if (dup) {
+                processDupAck(now);
+            }
+            transmitPending(now);
+            return;
+        }
 
-        // The ackNr is valid
-        final int diff = ackNr - snd_unack;
+        // The ackNr is valid and acknowledges new data, take a rtt sample
+        if (timestamps && hdr.hasTimestamp() && (hdr.getTimestampEcho() != 0)) {
+            rttSample(tcp.getTimestamp() - hdr.getTimestampEcho());
+        } else if ((timedAt != 0) && TCPUtils.SEQ_GT(ackNr, timedSeq)) {
+            rttSample((int) (now - timedAt));
+            timedAt = 0;
+        }
+
+        final int acked = ackNr - snd_unack;
+        // Only grow the congestion window when it limits the sender (RFC 7661)
+        final boolean cwndLimited = (flightSize() + mss > cc.getCwnd());
         snd_unack = ackNr;
-        // Remove data from the databuffer
-        dataBuffer.pull(diff);
+        // Remove all acknowledged segments and their data
+        int dataAcked = 0;
         for (Iterator<TCPOutSegment> i = unackedSegments.iterator(); i.hasNext();) {
-            final TCPOutSegment seg = (TCPOutSegment) i.next();
-            final int seqNr = seg.getSeqNr();
-            if (TCPUtils.SEQ_LT(seqNr, ackNr)) {
-                // Remove the segment
-                i.remove();
-            } else {
-                // Adjust the dataOffset
-                seg.adjustDataOffset(diff);
+            final TCPOutSegment seg = i.next();
+            if (TCPUtils.SEQ_GT(seg.getEndSeqNr(), ackNr)) {
+                break;
+            }
+            i.remove();
+            dataAcked += seg.getDataLength();
+            if (seg.isSacked()) {
+                sackedBytes -= seg.getLength();
+            }
+        }
+        dataBuffer.pull(dataAcked);
+        bufferSeq += dataAcked;
+        if (TCPUtils.SEQ_GT(snd_unack, highestSacked)) {
+            highestSacked = snd_unack;
+        }
+
+        if (inRecovery) {
+            if (TCPUtils.SEQ_GE(ackNr, recover)) {
+                // All data outstanding at the start of the recovery has been acked
+                inRecovery = false;
+                dupAcks = 0;
+                if (fastRecovery) {
+                    cc.onRecoveryEnd(flightSize());
+                } else if (cwndLimited) {
+                    cc.onAck(acked, now, Math.max(srtt, 0));
+                }
+            } else if (fastRecovery) {
+                // Partial ack, the next hole is lost as well
+                final TCPOutSegment seg = markFirstLost();
+                if (seg != null) {
+                    retransmit(seg);
+                }
+                if (!sack) {
+                    // Deflate the window by the amount acked (RFC 6582)
+                    cc.setCwnd(cc.getCwnd() - acked + (acked >= mss ? mss : 0));
+                }
+            } else if (cwndLimited) {
+                // Slow start after a timeout
+                cc.onAck(acked, now, Math.max(srtt, 0));
+            }
+        } else {
+            dupAcks = 0;
+            if (!syn && cwndLimited) {
+                cc.onAck(acked, now, Math.max(srtt, 0));
             }
         }
+
+        // Restart the retransmission timer
+        if (unackedSegments.isEmpty()) {
+            rtoExpire = 0;
+        } else {
+            rtoExpire = now + rto;
+        }
+        updateWindow(hdr.getWindowSize(), syn);
+        transmitPending(now);
         // Notify any blocked threads
         notifyAll();
+        if (dataAcked > 0) {
+            controlBlock.notifyReadiness();
+        }
+    }
+
+    /**
+     * Mark all segments covered by the given SACK blocks.
+     *
+     * @param blocks Start and end sequence numbers of the SACK blocks
+     */
+    private void processSackBlocks(int[] blocks) {
+        for (int b = 0; b < blocks.length; b += 2) {
+            final int start = blocks[b];
+            final int end = blocks[b + 1];
+            if (!TCPUtils.SEQ_GT(end, snd_unack) || TCPUtils.SEQ_GT(end, snd_max)) {
+                // D-SACK or invalid block
+                continue;
+            }
+            for (TCPOutSegment seg : unackedSegments) {
+                if (!TCPUtils.SEQ_LT(seg.getSeqNr(), end)) {
+                    break;
+                }
+                if (!seg.isSacked() && TCPUtils.SEQ_GE(seg.getSeqNr(), start) &&
+                    TCPUtils.SEQ_LE(seg.getEndSeqNr(), end)) {
+                    seg.setSacked(true);
+                    sackedBytes += seg.getLength();
+                }
+            }
+            if (TCPUtils.SEQ_GT(end, highestSacked)) {
+                highestSacked = end;
+            }
+        }
+        if (inRecovery && fastRecovery) {
+            markHolesLost();
+        }
+    }
+
+    /**
+     * Mark every segment below the highest sacked segment that has not
+     * been sacked itself as lost.
+     */
+    private void markHolesLost() {
+        for (TCPOutSegment seg : unackedSegments) {
+            if (!TCPUtils.SEQ_LT(seg.getSeqNr(), highestSacked)) {
+                break;
+            }
+            if (!seg.isSacked()) {
+                seg.setLost(true);
+            }
+        }
+    }
+
+    /**
+     * Process a duplicate ack. On the third one, start a fast retransmit.
+     *
+     * @param now
+     */
+    private void processDupAck(long now) throws SocketException {
+        stat.dupacks.inc();
+        dupAcks++;
+        if (inRecovery) {
+            if (fastRecovery && !sack) {
+                // Every dup ack means a segment has left the network
+                cc.setCwnd(cc.getCwnd() + mss);
+            }
+        } else if ((dupAcks == TCPConstants.TCP_DUPACK_THRESHOLD) &&
+            TCPUtils.SEQ_GT(snd_unack, recover)) {
+            // Fast retransmit (RFC 6582, RFC 6675)
+            if (DEBUG) {
+                log.debug("Fast retransmit " + snd_unack);
+            }
+            stat.fastrexmt.inc();
+            if (sack) {
+                stat.sackrecovery.inc();
+            }
+            cc.onFastRetransmit(flightSize(), now);
+            startRecovery(true);
+            if (sack) {
+                markHolesLost();
+            } else {
+                cc.setCwnd(cc.getSsthresh() + TCPConstants.TCP_DUPACK_THRESHOLD * mss);
+            }
+            // The first hole is retransmitted regardless of the window
+            final TCPOutSegment seg = markFirstLost();
+            if (seg != null) {
+                retransmit(seg);
+            }
+            rtoExpire = now + rto;
+        }
+    }
+
+    /**
+     * Start a loss recovery.
+     *
+     * @param fast True for a fast recovery, false for a recovery after a timeout
+     */
+    private void startRecovery(boolean fast) {
+        inRecovery = true;
+        fastRecovery = fast;
+        recover = snd_max;
+        for (TCPOutSegment seg : unackedSegments) {
+            seg.setRetransmitted(false);
+            seg.setLost(false);
+        }
+    }
+
+    /**
+     * Mark the first segment that is not acknowledged as lost.
+     *
+     * @return The segment if it still has to be retransmitted, null otherwise
+     */
+    private TCPOutSegment markFirstLost() {
+        for (TCPOutSegment seg : unackedSegments) {
+            if (!seg.isSacked()) {
+                if (!seg.isLost()) {
+                    seg.setLost(true);
+                    seg.setRetransmitted(false);
+                }
+                return seg.isRetransmitted() ? null : seg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of bytes in flight (the "pipe" of RFC 6675).
+     */
+    private int flightSize() {
+        if (!inRecovery || (fastRecovery && !sack)) {
+            return snd_max - snd_unack - sackedBytes;
+        }
+        int flight = 0;
+        for (TCPOutSegment seg : unackedSegments) {
+            if (seg.isSacked()) {
+                continue;
+            }
+            if (!seg.isLost()) {
+                flight += seg.getLength();
+            }
+            if (seg.isRetransmitted()) {
+                flight += seg.getLength();
+            }
+        }
+        return flight;
+    }
+
+    /**
+     * Retransmit lost segments, then send new segments, as far as the
+     * congestion and send windows allow.
+     *
+     * @param now
+     */
+    private void transmitPending(long now) throws SocketException {
+        int flight = flightSize();
+        final int cwnd = cc.getCwnd();
+        if (inRecovery) {
+            for (TCPOutSegment seg : unackedSegments) {
+                if (flight >= cwnd) {
+                    break;
+                }
+                if (seg.isLost() && !seg.isSacked() && !seg.isRetransmitted()) {
+                    retransmit(seg);
+                    flight += seg.getLength();
+                }
+            }
+        }
+        while (!unsentSegments.isEmpty()) {
+            final TCPOutSegment seg = unsentSegments.getFirst();
+            final int length = seg.getLength();
+            final boolean finOnly = (seg.getDataLength() == 0);
+            if (!finOnly) {
+                if (flight + length > cwnd) {
+                    break;
+                }
+                if (TCPUtils.SEQ_GT(seg.getEndSeqNr(), snd_unack + snd_wnd)) {
+                    // The send window is closed, probe it when nothing is in flight
+                    if (unackedSegments.isEmpty() && (persistExpire == 0)) {
+                        persistExpire = now + rto;
+                    }
+                    break;
+                }
+            }
+            unsentSegments.removeFirst();
+            transmitNew(seg, now);
+            flight += length;
+        }
+    }
+
+    /**
+     * Send a segment for the first time.
+     *
+     * @param seg
+     * @param now
+     */
+    private void transmitNew(TCPOutSegment seg, long now) throws SocketException {
+        if (TCPUtils.SEQ_GT(seg.getEndSeqNr(), snd_max)) {
+            snd_max = seg.getEndSeqNr();
+        }
+        unackedSegments.add(seg);
+        if (rtoExpire == 0) {
+            rtoExpire = now + rto;
+        }
+        persistExpire = 0;
+        if (!timestamps && (timedAt == 0)) {
+            timedSeq = seg.getSeqNr();
+            timedAt = now;
+        }
+        transmit(seg, false);
+    }
+
+    /**
+     * Retransmit a segment.
+     *
+     * @param seg
+     */
+    private void retransmit(TCPOutSegment seg) throws SocketException {
+        if (DEBUG) {
+            log.debug("Resend segment " + seg.getSeqNr());
+        }
+        stat.rexmtpackets.inc();
+        seg.setRetransmitted(true);
+        if ((timedAt != 0) && TCPUtils.SEQ_LE(seg.getSeqNr(), timedSeq)) {
+            // Karn's algorithm: do not time retransmitted segments
+            timedAt = 0;
+        }
+        // The data of the segment may be acked and its space in the data buffer
+        // reused while this copy still waits in the transmit queue of the device
+        transmit(seg, true);
+    }
+
+    /**
+     * Put a segment on the wire, with an up to date ack-nr and window.
+     *
+     * @param seg
+     * @param copy If true, the data is copied instead of referring to the data buffer
+     */
+    private void transmit(TCPOutSegment seg, boolean copy) throws SocketException {
+        final TCPHeader hdr = seg.getHeader();
+        controlBlock.refreshOutgoingTCPHeader(hdr);
+        final int length = seg.getDataLength();
+        final SocketBuffer skbuf;
+        if (length > 0) {
+            skbuf = dataBuffer.createSocketBuffer(seg.getSeqNr() - bufferSeq, length, copy);
+        } else {
+            skbuf = new SocketBuffer(0);
+        }
+        seg.send(tcp, skbuf);
+    }
+
+    /**
+     * Process a round trip time measurement (RFC 6298).
+     *
+     * @param rtt The measured time in ms
+     */
+    private void rttSample(int rtt) {
+        if (rtt < 0) {
+            return;
+        }
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        rto = srtt + Math.max(TCPConstants.TCP_TIMER_PERIOD, 4 * rttvar);
+        rto = Math.max(TCPConstants.TCP_MIN_RTO, Math.min(rto, TCPConstants.TCP_MAX_RTO));
+    }
+
+    /**
+     * Update the send window and wakeup senders waiting for it.
+     *
+     * @param window
+     * @param syn
+     */
+    private void updateWindow(int window, boolean syn) {
+        final int newWnd = syn ? window : (window << snd_scale);
+        if (newWnd != snd_wnd) {
+            snd_wnd = newWnd;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sets the initial send window, from the window field of a SYN segment.
+     *
+     * @param window
+     */
+    public synchronized void initWindow(int window) {
+        updateWindow(window, true);
+    }
+
+    /**
+     * Sets the shift count to apply to windows advertised by the foreign side.
+     *
+     * @param shift
+     */
+    public final void setWindowScale(int shift) {
+        this.snd_scale = shift;
+    }
+
+    /**
+     * Gets the send window.
+     */
+    public final int getWindow() {
+        return snd_wnd;
+    }
+
+    /**
+     * Use timestamps for round trip time measurements.
+     *
+     * @param timestamps
+     */
+    public final void setTimestamps(boolean timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Use the SACK blocks sent by the foreign side.
+     *
+     * @param sack
+     */
+    public final void setSack(boolean sack) {
+        this.sack = sack;
+    }
+
+    /**
+     * Gets the congestion window.
+     */
+    public final int getCongestionWindow() {
+        return cc.getCwnd();
+    }
+
+    /**
+     * Gets the slow start threshold.
+     */
+    public final int getSlowStartThreshold() {
+        return cc.getSsthresh();
+    }
+
+    /**
+     * Gets the smoothed round trip time in ms, or -1 if not measured yet.
+     */
+    public final int getSmoothedRtt() {
+        return srtt;
+    }
+
+    /**
+     * Gets the retransmission timeout in ms.
+     */
+    public final int getRto() {
+        return rto;
+    }
+
+    /**
+     * Gets the name of the congestion control algorithm.
+     */
+    public final String getCongestionControlName() {
+        return cc.getName();
+    }
+
+    /**
+     * Change the size of the output buffer.
+     *
+     * @param size
+     */
+    public synchronized void setBufferSize(int size) {
+        dataBuffer.setLength(Math.max(size, dataBuffer.getUsed()));
+        notifyAll();
+        controlBlock.notifyReadiness();
     }
 
     /**
      * Process timeout handling
      */
-    public void timeout() throws SocketException {
-        //allocation free looping
+    public synchronized void timeout() throws SocketException {
+        final long now = System.currentTimeMillis();
+        if ((rtoExpire != 0) && (now >= rtoExpire)) {
+            retransmitTimeout(now);
+        } else if ((persistExpire != 0) && (now >= persistExpire)) {
+            // The send window stays closed, send the next segment anyway as
+            // a window probe; it is retransmitted with backoff until accepted.
+            persistExpire = 0;
+            if (!unsentSegments.isEmpty()) {
+                transmitNew(unsentSegments.removeFirst(), now);
+            }
+        }
+    }
+
+    /**
+     * The retransmission timer has expired.
+     *
+     * @param now
+     */
+    private void retransmitTimeout(long now) throws SocketException {
+        if (unackedSegments.isEmpty()) {
+            rtoExpire = 0;
+            return;
+        }
+        stat.rexmttimeo.inc();
+        cc.onTimeout(snd_max - snd_unack, now);
+        dupAcks = 0;
+        timedAt = 0;
+        // The foreign side may have discarded sacked data (RFC 2018)
+        sackedBytes = 0;
+        highestSacked = snd_unack;
         for (TCPOutSegment seg : unackedSegments) {
-            seg.timeout(tcp);
+            seg.setSacked(false);
         }
+        startRecovery(false);
+        for (TCPOutSegment seg : unackedSegments) {
+            seg.setLost(true);
+        }
+        // Exponential backoff
+        rto = Math.min(rto * 2, TCPConstants.TCP_MAX_RTO);
+        rtoExpire = now + rto;
+        retransmit(unackedSegments.getFirst());
     }
 
     public int getBufferSize() {
         return dataBuffer.getLength();
     }
 
+    /**
+     * Can the application send data without blocking? This is the case if
+     * there is room for a full segment in the output buffer, or if the
+     * connection has been reset.
+     */
+    public synchronized boolean isWritable() {
+        return (dataBuffer.getFreeSize() >= Math.min(mss, dataBuffer.getLength())) ||
+            controlBlock.isReset();
+    }
+
     /**
      * Send a TCP segment containing no data
      *
@@ -163,23 +757,70 @@ public class TCPOutChannel {
         if (hdr.getDataLength() != 0) {
             throw new IllegalArgumentException("dataLength must be 0");
         }
-        // Do the actual send
-        sendHelper(ipHdr, hdr, 0);
+        if (hdr.isFlagSynchronizeSet() || hdr.isFlagFinishedSet()) {
+            sendControl(ipHdr, hdr);
+        } else {
+            // An ack or reset is sent right away, it does not occupy a seq-nr
+            hdr.setSequenceNr(snd_max);
+            new TCPOutSegment(ipHdr, hdr).send(tcp, new SocketBuffer(0));
+        }
+    }
+
+    /**
+     * Send a SYN or queue a FIN segment.
+     *
+     * @param ipHdr
+     * @param hdr
+     */
+    private synchronized void sendControl(IPv4Header ipHdr, TCPHeader hdr)
+        throws SocketException {
+        final TCPOutSegment seg = new TCPOutSegment(ipHdr, hdr);
+        hdr.setSequenceNr(snd_next);
+        snd_next++;
+        if (hdr.isFlagSynchronizeSet()) {
+            // Retransmission of the SYN is done by the connect logic
+            snd_max = snd_next;
+            bufferSeq = snd_next;
+            seg.send(tcp, new SocketBuffer(0));
+        } else {
+            // A FIN is sent after all queued data
+            unsentSegments.add(seg);
+            transmitPending(System.currentTimeMillis());
+        }
     }
 
     /**
      * Send a TCP segment containing the given data.
      * This method blocks until there is enough space in the output buffer
-     * to hold the data.
+     * to hold the data. The segment is sent as soon as the send and
+     * congestion windows allow it.
+     *
+     * @param ipHdr
+     * @param hdr
+     * @param data
+     * @param offset
+     * @param length Must be smaller or equal to mss.
+     */
+    public void send(IPv4Header ipHdr, TCPHeader hdr, byte[] data, int offset,
+                     int length) throws SocketException {
+        send(ipHdr, hdr, data, offset, length, true);
+    }
+
+    /**
+     * Send a TCP segment containing the given data.
+     * The segment is sent as soon as the send and congestion windows allow it.
      *
      * @param ipHdr
      * @param hdr
      * @param data
      * @param offset
      * @param length Must be smaller or equal to mss.
+     * @param block If true, block until there is enough space in the output buffer
+     *              to hold the data, otherwise return false if there is not enough space.
+     * @return True if the data has been added to the output buffer, false otherwise.
      */
-    public synchronized void send(IPv4Header ipHdr, TCPHeader hdr, byte[] data, int offset,
-                                  int length) throws SocketException {
+    public synchronized boolean send(IPv4Header ipHdr, TCPHeader hdr, byte[] data, int offset,
+                                     int length, boolean block) throws SocketException {
         if (DEBUG) {
             log.debug("outChannel.send(ipHdr,hdr,data," + offset + ", " + length + ')');
         }
@@ -189,6 +830,9 @@ public class TCPOutChannel {
         }
         // Wait until there is space in the output buffer
         while ((length > dataBuffer.getFreeSize()) && !controlBlock.isReset()) {
+            if (!block) {
+                return false;
+            }
             try {
                 wait();
             } catch (InterruptedException ex) {
@@ -199,41 +843,14 @@ public class TCPOutChannel {
             throw new SocketException("Connection reset");
         }
         // Add to databuffer
-        final int bufOfs = dataBuffer.add(data, offset, length);
+        dataBuffer.add(data, offset, length);
         // Update tcp header
         hdr.setDataLength(length);
-        // Do the actual send
-        sendHelper(ipHdr, hdr, bufOfs);
-    }
-
-    /**
-     * Do the actual sending and adjusting of sequence number.
-     *
-     * @param ipHdr
-     * @param hdr
-     * @param dataOffset
-     */
-    private void sendHelper(IPv4Header ipHdr, TCPHeader hdr, int dataOffset)
-        throws SocketException {
-        // Adjust the sequence numbers
         hdr.setSequenceNr(snd_next);
-        if (hdr.isFlagSynchronizeSet() || hdr.isFlagFinishedSet()) {
-            snd_next++;
-            //snd_unack++;
-        } else {
-            snd_next += hdr.getDataLength();
-        }
-        snd_max = snd_next;
-        // Create & send the segment
-        final TCPOutSegment seg =
-            new TCPOutSegment(ipHdr, hdr, dataBuffer, dataOffset, timeoutTicks);
-        seg.send(tcp);
-        if (!seg.isAckOnly() && !hdr.isFlagSynchronizeSet()) {
-            if (DEBUG) {
-                log.debug("Adding segment " + seg.getSeqNr() + " to unacklist");
-            }
-            unackedSegments.add(seg);
-        }
+        snd_next += length;
+        unsentSegments.add(new TCPOutSegment(ipHdr, hdr));
+        transmitPending(System.currentTimeMillis());
+        return true;
     }
 
     /**
@@ -241,6 +858,7 @@ public class TCPOutChannel {
      */
     public synchronized void notifyConnectionReset() {
         notifyAll();
+        controlBlock.notifyReadiness();
     }
 
     /**
@@ -253,8 +871,9 @@ public class TCPOutChannel {
     /**
      * @param mss The mss to set.
      */
-    public final void setMss(int mss) {
+    public final synchronized void setMss(int mss) {
         this.mss = mss;
+        cc.init(mss);
     }
 
 }
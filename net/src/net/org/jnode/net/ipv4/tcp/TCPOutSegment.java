@@ -21,7 +21,6 @@
 package org.jnode.net.ipv4.tcp;
 
 import java.net.SocketException;
-import org.apache.log4j.Logger;
 import org.jnode.net.SocketBuffer;
 import org.jnode.net.ipv4.IPv4Header;
 
@@ -29,81 +28,98 @@ import org.jnode.net.ipv4.IPv4Header;
  * @author Ewout Prangsma (epr@users.sourceforge.net)
  */
 public class TCPOutSegment extends TCPSegment {
-    private static final boolean DEBUG = false;
 
     /**
-     * My logger
+     * Has this segment been sent at least once?
      */
-    private static final Logger log = Logger.getLogger(TCPOutSegment.class);
+    private boolean sent;
 
-    private final TCPDataBuffer buffer;
-    private int dataOffset;
+    /**
+     * Has this segment been selectively acknowledged by the foreign side?
+     */
+    private boolean sacked;
 
     /**
-     * Timeout counter, if 0, re-transmit
+     * Is this segment considered lost (and waiting for retransmission)?
      */
-    private int timeout;
+    private boolean lost;
 
     /**
-     * Number of timeout ticks (usually grows)
+     * Has this segment been retransmitted during the current loss recovery?
      */
-    private int timeoutTicks;
+    private boolean retransmitted;
 
     /**
      * @param ipHdr
      * @param hdr
-     * @param dataOffset
      */
-    public TCPOutSegment(IPv4Header ipHdr, TCPHeader hdr, TCPDataBuffer buffer, int dataOffset,
-                         int timeout) {
+    public TCPOutSegment(IPv4Header ipHdr, TCPHeader hdr) {
         super(ipHdr, hdr);
-        this.buffer = buffer;
-        this.dataOffset = dataOffset;
-        this.timeout = timeout;
-        this.timeoutTicks = timeout;
-    }
-
-    /**
-     * Process timeout handling
-     */
-    public void timeout(TCPProtocol tcp) throws SocketException {
-        timeout--;
-        if (timeout == 0) {
-            if (DEBUG) {
-                log.debug("Resend segment " + getSeqNr());
-            }
-            send(tcp);
-            timeoutTicks = timeoutTicks * 2;
-            timeout = timeoutTicks;
-        }
     }
 
     /**
      * Send this segment
      *
      * @param tcp
+     * @param skbuf The data of this segment, or an empty buffer
      */
-    public void send(TCPProtocol tcp) throws SocketException {
-        final SocketBuffer skbuf;
-        if (hdr.getDataLength() > 0) {
-            skbuf = buffer.createSocketBuffer(dataOffset, hdr.getDataLength());
-        } else {
-            skbuf = new SocketBuffer(0);
-        }
+    public void send(TCPProtocol tcp, SocketBuffer skbuf) throws SocketException {
         tcp.send(ipHdr, hdr, skbuf);
+        sent = true;
+    }
+
+    /**
+     * Gets the number of sequence numbers occupied by this segment.
+     */
+    public final int getLength() {
+        final int length = hdr.getDataLength();
+        return hdr.isFlagFinishedSet() ? length + 1 : length;
+    }
+
+    /**
+     * Gets the sequence number following this segment.
+     */
+    public final int getEndSeqNr() {
+        return hdr.getSequenceNr() + getLength();
     }
 
     /**
-     * @return Returns the dataOffset.
+     * Gets the number of data bytes in this segment.
      */
-    public final int getDataOffset() {
-        return this.dataOffset;
+    public final int getDataLength() {
+        return hdr.getDataLength();
+    }
+
+    final TCPHeader getHeader() {
+        return hdr;
+    }
+
+    final boolean isSent() {
+        return sent;
+    }
+
+    final boolean isSacked() {
+        return sacked;
+    }
+
+    final void setSacked(boolean sacked) {
+        this.sacked = sacked;
+    }
+
+    final boolean isLost() {
+        return lost;
+    }
+
+    final void setLost(boolean lost) {
+        this.lost = lost;
+    }
+
+    final boolean isRetransmitted() {
+        return retransmitted;
     }
 
-    public final void adjustDataOffset(int diff) {
-        if (hdr.getDataLength() > 0) {
-            this.dataOffset -= diff;
-        }
+    final void setRetransmitted(boolean retransmitted) {
+        this.retransmitted = retransmitted;
     }
 
     /**
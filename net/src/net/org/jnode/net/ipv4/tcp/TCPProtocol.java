@@ -23,6 +23,7 @@ package org.jnode.net.ipv4.tcp;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.DatagramSocketImplFactory;
+import java.net.NoRouteToHostException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
@@ -37,6 +38,7 @@ import org.jnode.net.ipv4.IPv4Address;
 import org.jnode.net.ipv4.IPv4Constants;
 import org.jnode.net.ipv4.IPv4Header;
 import org.jnode.net.ipv4.IPv4Protocol;
+import org.jnode.net.ipv4.IPv4Route;
 import org.jnode.net.ipv4.IPv4Service;
 import org.jnode.vm.objects.Statistics;
 
@@ -57,7 +59,7 @@ public class TCPProtocol implements IPv4Protocol, IPv4Constants, TCPConstants {
     /**
      * My statistics
      */
-    private final TCPStatistics stat = new TCPStatistics();
+    private final TCPStatistics stat;
 
     /**
      * The SocketImpl factory for TCP
@@ -69,6 +71,11 @@ public class TCPProtocol implements IPv4Protocol, IPv4Constants, TCPConstants {
      */
     private final TCPControlBlockList controlBlocks;
 
+    /**
+     * Name of the congestion control algorithm for new connections
+     */
+    private String congestionControl = TCP_DEFAULT_CONGESTION_CONTROL;
+
     /**
      * The timer
      */
@@ -88,6 +95,7 @@ public class TCPProtocol implements IPv4Protocol, IPv4Constants, TCPConstants {
         this.ipService = ipService;
         // this.icmp = new ICMPUtils(ipService);
         this.controlBlocks = new TCPControlBlockList(this);
+        this.stat = new TCPStatistics(controlBlocks);
         this.timer = new TCPTimer(controlBlocks);
         try {
             socketImplFactory = new TCPSocketImplFactory(this);
@@ -249,6 +257,10 @@ public class TCPProtocol implements IPv4Protocol, IPv4Constants, TCPConstants {
                 log.debug("send(ipHdr, " + tcpHdr + ')');
             }
         }
+        if (tcpHdr.hasTimestamp()) {
+            // Each (re)transmission carries the current time
+            tcpHdr.updateTimestampValue(getTimestamp());
+        }
         skbuf.setTransportLayerHeader(tcpHdr);
         tcpHdr.prefixTo(skbuf);
         ipHdr.setDataLength(skbuf.getSize());
@@ -256,6 +268,65 @@ public class TCPProtocol implements IPv4Protocol, IPv4Constants, TCPConstants {
         stat.opackets.inc();
     }
 
+    /**
+     * Gets the MSS to announce for a connection to the given address,
+     * derived from the MTU of the device the packets are routed over.
+     *
+     * @param fAddr
+     */
+    protected int getMss(IPv4Address fAddr) {
+        try {
+            final IPv4Route route = ipService.getRoutingTable().search(fAddr);
+            return route.getDeviceAPI().getMTU() - TCP_IP_HLEN - TCP_HLEN;
+        } catch (NoRouteToHostException ex) {
+            return TCP_DEFAULT_MSS;
+        }
+    }
+
+    /**
+     * Gets the name of the congestion control algorithm used for new connections.
+     */
+    public String getCongestionControl() {
+        return congestionControl;
+    }
+
+    /**
+     * Sets the congestion control algorithm used for new connections.
+     *
+     * @param name {@link TCPCubic#NAME} or {@link TCPNewReno#NAME}
+     */
+    public void setCongestionControl(String name) {
+        if (!TCPCubic.NAME.equals(name) && !TCPNewReno.NAME.equals(name)) {
+            throw new IllegalArgumentException("Unknown congestion control " + name);
+        }
+        this.congestionControl = name;
+    }
+
+    /**
+     * Create the congestion control algorithm for a new connection.
+     */
+    protected TCPCongestionControl createCongestionControl() {
+        if (TCPNewReno.NAME.equals(congestionControl)) {
+            return new TCPNewReno();
+        } else {
+            return new TCPCubic();
+        }
+    }
+
+    /**
+     * Gets my statistics.
+     */
+    final TCPStatistics getTCPStatistics() {
+        return stat;
+    }
+
+    /**
+     * Gets the value of the timestamp clock (in ms) for the timestamp option.
+     */
+    protected int getTimestamp() {
+        return (int) System.currentTimeMillis();
+    }
+
     /**
      * Get the current time counter
      */
@@ -60,6 +60,45 @@ public class TCPSocketImpl extends SocketImpl {
      */
     private TCPInputStream is;
 
+    /**
+     * Send buffer size set before the control block was created, 0 if not set
+     */
+    private int sendBufferSize;
+
+    /**
+     * Receive buffer size set before the control block was created, 0 if not set
+     */
+    private int receiveBufferSize;
+
+    /**
+     * Timeout of accept and read in milliseconds, 0 to wait forever
+     */
+    private int timeout;
+
+    /**
+     * Has TCP_NODELAY been set? Segments are never delayed, so this does not
+     * change the behavior of the socket.
+     */
+    private boolean tcpNoDelay;
+
+    /**
+     * Values of SO_KEEPALIVE, SO_REUSEADDR and SO_OOBINLINE. They are only
+     * stored, keep-alive probes and urgent data are not implemented.
+     */
+    private boolean keepAlive;
+    private boolean reuseAddress;
+    private boolean oobInline;
+
+    /**
+     * Value of SO_LINGER in seconds, -1 if disabled. Only stored, close never lingers.
+     */
+    private int linger = -1;
+
+    /**
+     * Value of IP_TOS. Only stored, it is not sent in the IP header.
+     */
+    private int trafficClass;
+
     /**
      * My logger
      */
@@ -91,7 +130,7 @@ public class TCPSocketImpl extends SocketImpl {
         if (DEBUG) {
             log.debug("accept: blocking");
         }
-        impl.controlBlock = controlBlock.appAccept();
+        impl.controlBlock = controlBlock.appAccept(timeout);
         if (DEBUG) {
             log.debug("accept: got one");
         }
@@ -122,6 +161,13 @@ public class TCPSocketImpl extends SocketImpl {
             host = InetAddress.getLocalHost();
         }
         controlBlock = protocol.bind(new IPv4Address(host), port);
+        // Apply buffer sizes that have been set before
+        if (sendBufferSize > 0) {
+            controlBlock.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            controlBlock.setReceiveBufferSize(receiveBufferSize);
+        }
     }
 
     /**
@@ -199,12 +245,29 @@ public class TCPSocketImpl extends SocketImpl {
             case SocketOptions.SO_BINDADDR:
                 return controlBlock.getLocalAddress().toInetAddress();
             case SocketOptions.SO_RCVBUF:
-                return controlBlock.getReceiveBufferSize();
+                if (controlBlock != null) {
+                    return controlBlock.getReceiveBufferSize();
+                }
+                return (receiveBufferSize > 0) ? receiveBufferSize : TCPConstants.TCP_BUFFER_SIZE;
             case SocketOptions.SO_SNDBUF:
-                return controlBlock.getSendBufferSize();
+                if (controlBlock != null) {
+                    return controlBlock.getSendBufferSize();
+                }
+                return (sendBufferSize > 0) ? sendBufferSize : TCPConstants.TCP_BUFFER_SIZE;
             case SocketOptions.SO_TIMEOUT:
-                // todo implement it, 0 means disabled
-                return 0;
+                return timeout;
+            case SocketOptions.TCP_NODELAY:
+                return tcpNoDelay;
+            case SocketOptions.SO_KEEPALIVE:
+                return keepAlive;
+            case SocketOptions.SO_REUSEADDR:
+                return reuseAddress;
+            case SocketOptions.SO_OOBINLINE:
+                return oobInline;
+            case SocketOptions.SO_LINGER:
+                return (linger < 0) ? (Object) Boolean.FALSE : (Object) linger;
+            case SocketOptions.IP_TOS:
+                return trafficClass;
             default:
                 throw new SocketException("Option " + option_id +
                     " is not recognised or not implemented");
@@ -253,8 +316,98 @@ public class TCPSocketImpl extends SocketImpl {
      * @see java.net.SocketOptions#setOption(int, java.lang.Object)
      */
     public void setOption(int option_id, Object val) throws SocketException {
-        // TODO Auto-generated method stub
+        switch (option_id) {
+            case SocketOptions.SO_RCVBUF:
+                receiveBufferSize = getBufferSize(val);
+                if (controlBlock != null) {
+                    controlBlock.setReceiveBufferSize(receiveBufferSize);
+                }
+                break;
+            case SocketOptions.SO_SNDBUF:
+                sendBufferSize = getBufferSize(val);
+                if (controlBlock != null) {
+                    controlBlock.setSendBufferSize(sendBufferSize);
+                }
+                break;
+            case SocketOptions.SO_TIMEOUT:
+                if (!(val instanceof Integer) || ((Integer) val < 0)) {
+                    throw new SocketException("Invalid timeout " + val);
+                }
+                timeout = (Integer) val;
+                break;
+            case SocketOptions.TCP_NODELAY:
+                tcpNoDelay = getBoolean(val);
+                break;
+            case SocketOptions.SO_KEEPALIVE:
+                keepAlive = getBoolean(val);
+                break;
+            case SocketOptions.SO_REUSEADDR:
+                reuseAddress = getBoolean(val);
+                break;
+            case SocketOptions.SO_OOBINLINE:
+                oobInline = getBoolean(val);
+                break;
+            case SocketOptions.SO_LINGER:
+                if (Boolean.FALSE.equals(val)) {
+                    linger = -1;
+                } else if ((val instanceof Integer) && ((Integer) val >= 0)) {
+                    linger = (Integer) val;
+                } else {
+                    throw new SocketException("Invalid linger " + val);
+                }
+                break;
+            case SocketOptions.IP_TOS:
+                if (!(val instanceof Integer)) {
+                    throw new SocketException("Integer value expected");
+                }
+                trafficClass = (Integer) val & 0xFF;
+                break;
+            default:
+                // TODO implement other options
+                break;
+        }
+    }
+
+    /**
+     * Gets the timeout of accept and read.
+     *
+     * @return The timeout in milliseconds, 0 to wait forever
+     */
+    final int getTimeout() {
+        return timeout;
+    }
 
+    /**
+     * Gets a boolean option value.
+     *
+     * @param val
+     * @return The boolean value
+     * @throws SocketException
+     */
+    private static boolean getBoolean(Object val) throws SocketException {
+        if (!(val instanceof Boolean)) {
+            throw new SocketException("Boolean value expected");
+        }
+        return (Boolean) val;
+    }
+
+    /**
+     * Gets a buffer size option value, limited to the supported range.
+     *
+     * @param val
+     * @return The buffer size
+     * @throws SocketException
+     */
+    private static int getBufferSize(Object val) throws SocketException {
+        if (!(val instanceof Integer)) {
+            throw new SocketException("Integer value expected");
+        }
+        final int size = (Integer) val;
+        if (size <= 0) {
+            throw new SocketException("Invalid buffer size " + size);
+        }
+        return Math.max(TCPConstants.TCP_MIN_BUFFER_SIZE,
+            Math.min(size, TCPConstants.TCP_MAX_BUFFER_SIZE));
     }
 
     /**
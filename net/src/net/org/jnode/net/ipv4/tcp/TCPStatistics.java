@@ -56,10 +56,52 @@ public class TCPStatistics implements Statistics {
     /** total #output datagrams */
     protected final Counter opackets = new Counter("opackets");
 
+    /** #retransmission timeouts */
+    protected final Counter rexmttimeo = new Counter("rexmttimeo");
+
+    /** #fast retransmits */
+    protected final Counter fastrexmt = new Counter("fastrexmt");
+
+    /** #fast recoveries that used SACK information */
+    protected final Counter sackrecovery = new Counter("sackrecovery");
+
+    /** total #retransmitted segments */
+    protected final Counter rexmtpackets = new Counter("rexmtpackets");
+
+    /** #duplicate acks received */
+    protected final Counter dupacks = new Counter("dupacks");
+
+    /** Sum of the congestion windows of all connections (bytes) */
+    protected final Statistic cwnd = new Gauge("cwnd", "Total congestion window") {
+        protected int get() {
+            return controlBlocks.getTotalCongestionWindow();
+        }
+    };
+
+    /** Average smoothed round trip time of all connections (ms) */
+    protected final Statistic rtt = new Gauge("rtt", "Average smoothed round trip time") {
+        protected int get() {
+            return controlBlocks.getAverageRtt();
+        }
+    };
+
     /** The list of statistics */
     protected final Statistic[] list =
             new Statistic[] {badlen, badsum, fullsock, hdrops, ipackets, noport, noportbcast,
-                opackets};
+                opackets, rexmttimeo, fastrexmt, sackrecovery, rexmtpackets, dupacks, cwnd,
+                rtt};
+
+    /** The connections */
+    private final TCPControlBlockList controlBlocks;
+
+    /**
+     * Create a new instance
+     *
+     * @param controlBlocks The connections to gather the window and rtt from
+     */
+    public TCPStatistics(TCPControlBlockList controlBlocks) {
+        this.controlBlocks = controlBlocks;
+    }
 
     /**
      * Gets all statistics
@@ -67,4 +109,24 @@ public class TCPStatistics implements Statistics {
     public Statistic[] getStatistics() {
         return list;
     }
+
+    /**
+     * A statistic whose value is calculated when it is requested.
+     */
+    private abstract static class Gauge extends Statistic {
+
+        public Gauge(String name, String description) {
+            super(name, description);
+        }
+
+        protected abstract int get();
+
+        public Object getValue() {
+            return get();
+        }
+
+        public String toString() {
+            return getName() + '=' + get();
+        }
+    }
 }
@@ -88,7 +88,7 @@ public class UDPDatagramSocketImpl extends AbstractDatagramSocketImpl implements
     /**
      * @see java.net.DatagramSocketImpl#send(java.net.DatagramPacket)
      */
-    protected void send(DatagramPacket p) throws IOException {
+    public void send(DatagramPacket p) throws IOException {
 
         final IPv4Address dstAddress = new IPv4Address(p.getAddress());
         final IPv4Header ipHdr;
@@ -30,6 +30,7 @@ import org.jnode.driver.ApiNotFoundException;
 import org.jnode.driver.Device;
 import org.jnode.driver.net.NetDeviceAPI;
 import org.jnode.driver.net.NetworkException;
+import org.jnode.net.FlowClassifier;
 import org.jnode.net.LayerAlreadyRegisteredException;
 import org.jnode.net.NetworkLayer;
 import org.jnode.net.NetworkLayerManager;
@@ -52,23 +53,47 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
     /** My logger */
     private static final Logger log = Logger.getLogger(DefaultNetworkLayerManager.class);
 
-    /** Registered packet types */
-    private final HashMap<Integer, NetworkLayer> layers = new HashMap<Integer, NetworkLayer>();
+    /**
+     * Registered packet types. The map is never modified once published;
+     * it is replaced instead, so received packets can be dispatched without
+     * holding a lock.
+     */
+    private volatile Map<Integer, NetworkLayer> layers = new HashMap<Integer, NetworkLayer>();
 
-    /** Queue of received packets */
-    private final Queue<SocketBuffer> packetQueue = new Queue<SocketBuffer>();
+    /** Queues of received packets, selected by flow hash */
+    private final Queue<SocketBuffer>[] packetQueues;
 
     /** The networkLayers extension-point */
     private final ExtensionPoint networkLayersEP;
 
     /**
-     * Initialize a new instance
+     * Initialize a new instance with a single receive queue
      * 
      * @param networkLayersEP
      */
     public DefaultNetworkLayerManager(ExtensionPoint networkLayersEP) {
+        this(networkLayersEP, 1);
+    }
+
+    /**
+     * Initialize a new instance
+     * 
+     * @param networkLayersEP
+     * @param queueCount The number of receive queues
+     */
+    @SuppressWarnings("unchecked")
+    public DefaultNetworkLayerManager(ExtensionPoint networkLayersEP, int queueCount) {
+        if (queueCount < 1) {
+            throw new IllegalArgumentException("queueCount " + queueCount);
+        }
+        this.packetQueues = new Queue[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            packetQueues[i] = new Queue<SocketBuffer>();
+        }
         this.networkLayersEP = networkLayersEP;
-        networkLayersEP.addListener(this);
+        if (networkLayersEP != null) {
+            networkLayersEP.addListener(this);
+        }
         refreshNetworkLayers();
     }
 
@@ -79,7 +104,9 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
      */
     protected synchronized void registerNetworkLayer(NetworkLayer pt)
         throws LayerAlreadyRegisteredException {
-        layers.put(pt.getProtocolID(), pt);
+        final HashMap<Integer, NetworkLayer> newLayers = new HashMap<Integer, NetworkLayer>(layers);
+        newLayers.put(pt.getProtocolID(), pt);
+        layers = newLayers;
     }
 
     /**
@@ -89,7 +116,13 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
      * @param pt
      */
     public synchronized void unregisterNetworkLayer(NetworkLayer pt) {
-        layers.remove(pt);
+        final Integer protoID = pt.getProtocolID();
+        if (layers.get(protoID) == pt) {
+            final HashMap<Integer, NetworkLayer> newLayers =
+                    new HashMap<Integer, NetworkLayer>(layers);
+            newLayers.remove(protoID);
+            layers = newLayers;
+        }
     }
 
     /**
@@ -97,7 +130,7 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
      * 
      * @return A collection of PacketType instances
      */
-    public synchronized Collection<NetworkLayer> getNetworkLayers() {
+    public Collection<NetworkLayer> getNetworkLayers() {
         return new ArrayList<NetworkLayer>(layers.values());
     }
 
@@ -124,15 +157,41 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
      * @param skbuf
      */
     public void receive(SocketBuffer skbuf) {
-        packetQueue.add(skbuf);
+        final int count = packetQueues.length;
+        if (count == 1) {
+            packetQueues[0].add(skbuf);
+        } else {
+            packetQueues[(getFlowHash(skbuf) & 0x7FFFFFFF) % count].add(skbuf);
+        }
+    }
+
+    /**
+     * Gets the flow hash of a received packet. If the network layer of the
+     * packet can classify flows, its hash is used, otherwise all packets of a
+     * device belong to the same flow.
+     * 
+     * @param skbuf
+     * @return The flow hash
+     */
+    protected int getFlowHash(SocketBuffer skbuf) {
+        int hash = System.identityHashCode(skbuf.getDevice());
+        final NetworkLayer pt = layers.get(skbuf.getProtocolID());
+        if (pt instanceof FlowClassifier) {
+            hash = hash * 31 + ((FlowClassifier) pt).getFlowHash(skbuf);
+        }
+        // Spread the bits, so the low bits select the queue well
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
     }
 
     /**
-     * Process the received packet
+     * Process the received packet. This method is called concurrently by the
+     * processors of all receive queues. Packets of a single flow are always
+     * processed by the same queue processor, so in the order they were received.
      * 
      * @param skbuf
      */
-    public synchronized void process(SocketBuffer skbuf) {
+    public void process(SocketBuffer skbuf) {
         try {
             final int protoID = skbuf.getProtocolID();
             final Device dev = skbuf.getDevice();
@@ -157,29 +216,42 @@ public class DefaultNetworkLayerManager implements NetworkLayerManager,
             }
         } catch (SocketException ex) {
             log.error("Cannot process packet", ex);
+        } finally {
+            // Layers that keep the packet have retained it
+            skbuf.release();
         }
     }
 
     /**
-     * Gets the packet queue
+     * Gets the number of receive queues
+     */
+    protected final int getQueueCount() {
+        return packetQueues.length;
+    }
+
+    /**
+     * Gets a receive queue
+     * 
+     * @param index The index of the queue, 0 .. getQueueCount() - 1
      */
-    protected final Queue<SocketBuffer> getQueue() {
-        return packetQueue;
+    protected final Queue<SocketBuffer> getQueue(int index) {
+        return packetQueues[index];
     }
 
     /**
      * Reload the network layer list from the extension-point
      */
-    protected void refreshNetworkLayers() {
+    protected synchronized void refreshNetworkLayers() {
         if (networkLayersEP != null) {
-            layers.clear();
+            final HashMap<Integer, NetworkLayer> newLayers = new HashMap<Integer, NetworkLayer>();
             final Extension[] extensions = networkLayersEP.getExtensions();
             for (final Extension ext : extensions) {
                 final ConfigurationElement[] elements = ext.getConfigurationElements();
                 for (ConfigurationElement element : elements) {
-                    configureLayer(layers, element);
+                    configureLayer(newLayers, element);
                 }
             }
+            layers = newLayers;
         }
         log.debug("Found " + layers.size() + " network layers");
     }
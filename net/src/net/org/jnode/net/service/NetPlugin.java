@@ -20,8 +20,11 @@
  
 package org.jnode.net.service;
 
+import gnu.java.security.action.GetPropertyAction;
+
 import java.net.VMNetAPI;
 import java.net.VMNetUtils;
+import java.security.AccessController;
 
 import javax.naming.NamingException;
 
@@ -40,11 +43,17 @@ import org.jnode.util.QueueProcessorThread;
  */
 public class NetPlugin extends Plugin {
 
+    /** Name of the property that sets the number of receive queues */
+    private static final String RX_QUEUES_PROPERTY = "jnode.net.rxqueues";
+
+    /** Maximum number of receive queues used by default */
+    private static final int MAX_DEFAULT_RX_QUEUES = 4;
+
     /** The packet type manager */
     private DefaultNetworkLayerManager ptm;
     
-    /** The processor for the packet queue */
-    private QueueProcessorThread<SocketBuffer> packetProcessorThread;
+    /** The processors for the packet queues */
+    private final QueueProcessorThread<SocketBuffer>[] packetProcessorThreads;
     
     /** The NetAPI implementation */
     private final VMNetAPI api;
@@ -52,12 +61,37 @@ public class NetPlugin extends Plugin {
     /**
      * Create a new instance
      */
+    @SuppressWarnings("unchecked")
     public NetPlugin(PluginDescriptor descriptor) {
         super(descriptor);
-        ptm = new DefaultNetworkLayerManager(descriptor.getExtensionPoint("networkLayers"));
+        final int queueCount = getReceiveQueueCount();
+        ptm = new DefaultNetworkLayerManager(descriptor.getExtensionPoint("networkLayers"),
+                queueCount);
         api = new NetAPIImpl(ptm);
-        packetProcessorThread =
-                new QueueProcessorThread<SocketBuffer>("net-packet-processor", ptm.getQueue(), ptm);
+        packetProcessorThreads = new QueueProcessorThread[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            final String name = (queueCount == 1) ? "net-packet-processor" : "net-packet-processor-" + i;
+            packetProcessorThreads[i] =
+                    new QueueProcessorThread<SocketBuffer>(name, ptm.getQueue(i), ptm);
+        }
+    }
+
+    /**
+     * Gets the number of receive queues. This is the value of the
+     * jnode.net.rxqueues property, or the number of processors (up to a
+     * maximum) when that property is not set.
+     */
+    private static int getReceiveQueueCount() {
+        final String value = (String) AccessController.doPrivileged(
+                new GetPropertyAction(RX_QUEUES_PROPERTY, ""));
+        if (value.length() > 0) {
+            try {
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException ex) {
+                // Use the default
+            }
+        }
+        return Math.min(MAX_DEFAULT_RX_QUEUES, Runtime.getRuntime().availableProcessors());
     }
 
     /**
@@ -66,7 +100,9 @@ public class NetPlugin extends Plugin {
     protected void startPlugin() throws PluginException {
         try {
             InitialNaming.bind(NetworkLayerManager.NAME, ptm);
-            packetProcessorThread.start();
+            for (QueueProcessorThread<SocketBuffer> t : packetProcessorThreads) {
+                t.start();
+            }
             VMNetUtils.setAPI(api, this);
         } catch (NamingException ex) {
             throw new PluginException(ex);
@@ -79,7 +115,9 @@ public class NetPlugin extends Plugin {
     protected void stopPlugin() throws PluginException {
         VMNetUtils.resetAPI(this);
         InitialNaming.unbind(NetworkLayerManager.NAME);
-        packetProcessorThread.stopProcessor();
+        for (QueueProcessorThread<SocketBuffer> t : packetProcessorThreads) {
+            t.stopProcessor();
+        }
     }
 
 }
@@ -33,6 +33,7 @@ import org.jnode.bootlog.BootLogInstance;
 import org.jnode.driver.Device;
 import org.jnode.driver.DeviceNotFoundException;
 import org.jnode.driver.DeviceUtils;
+import org.jnode.net.ReadinessListener;
 import org.jnode.net.SocketBuffer;
 import org.jnode.net.ethernet.EthernetConstants;
 import org.jnode.util.Queue;
@@ -67,6 +68,9 @@ public abstract class AbstractDatagramSocketImpl extends DatagramSocketImpl impl
     /** Device used for transmission (can be null) */
     private Device device;
 
+    /** Listener notified about readiness changes (can be null) */
+    private volatile ReadinessListener readinessListener;
+
     /**
      * Create a new instance
      */
@@ -77,7 +81,7 @@ public abstract class AbstractDatagramSocketImpl extends DatagramSocketImpl impl
     /**
      * @see java.net.DatagramSocketImpl#bind(int, java.net.InetAddress)
      */
-    protected final synchronized void bind(int lport, InetAddress laddr) throws SocketException {
+    public final synchronized void bind(int lport, InetAddress laddr) throws SocketException {
         this.localPort = lport;
         this.laddr = laddr;
         doBind(lport, laddr);
@@ -88,11 +92,12 @@ public abstract class AbstractDatagramSocketImpl extends DatagramSocketImpl impl
     /**
      * @see java.net.DatagramSocketImpl#close()
      */
-    protected final synchronized void close() {
+    public final synchronized void close() {
         if (!closed) {
             this.closed = true;
             doClose();
             receiveQueue.close();
+            notifyReadiness();
         }
     }
 
@@ -243,18 +248,36 @@ public abstract class AbstractDatagramSocketImpl extends DatagramSocketImpl impl
      * @see java.net.DatagramSocketImpl#receive(java.net.DatagramPacket)
      */
     protected final void receive(DatagramPacket p) throws IOException {
+        if (!receive(p, true)) {
+            throw new SocketTimeoutException("Timeout in receive");
+        }
+    }
+
+    /**
+     * Receive a packet.
+     *
+     * @param p
+     * @param block If true, wait (up to the timeout) for a packet to arrive,
+     *              otherwise return immediately when there is no packet.
+     * @return True if a packet has been received, false otherwise.
+     */
+    public final boolean receive(DatagramPacket p, boolean block) throws IOException {
         if (closed) {
             throw new SocketException("DatagramSocket has been closed");
         }
-        final SocketBuffer skbuf = (SocketBuffer) receiveQueue.get(timeout);
+        final SocketBuffer skbuf = receiveQueue.get(block ? timeout : Queue.NO_WAIT);
         if (skbuf == null) {
             if (closed) {
                 throw new SocketException("DatagramSocket has been closed");
-            } else {
-                throw new SocketTimeoutException("Timeout in receive");
             }
+            return false;
         } else {
-            onReceive(p, skbuf);
+            try {
+                onReceive(p, skbuf);
+            } finally {
+                skbuf.release();
+            }
+            return true;
         }
     }
 
@@ -267,13 +290,50 @@ public abstract class AbstractDatagramSocketImpl extends DatagramSocketImpl impl
      */
     public final boolean deliverReceived(SocketBuffer skbuf) {
         if (!closed) {
+            // Keep the buffer until it has been received
+            skbuf.retain();
             receiveQueue.add(skbuf);
+            notifyReadiness();
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Can a packet be received without blocking?
+     */
+    public final boolean isReadable() {
+        return closed || !receiveQueue.isEmpty();
+    }
+
+    /**
+     * Has this socket been closed?
+     */
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sets the listener that is notified when a packet has been received or
+     * this socket has been closed.
+     *
+     * @param listener The listener, or null to remove the current listener.
+     */
+    public final void setReadinessListener(ReadinessListener listener) {
+        this.readinessListener = listener;
+    }
+
+    /**
+     * Notify the readiness listener (if any).
+     */
+    private void notifyReadiness() {
+        final ReadinessListener listener = this.readinessListener;
+        if (listener != null) {
+            listener.readinessChanged(this);
+        }
+    }
+
     /**
      * @see java.net.DatagramSocketImpl#setTimeToLive(int)
      */
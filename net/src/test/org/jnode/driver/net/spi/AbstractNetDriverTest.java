@@ -0,0 +1,144 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.driver.net.spi;
+
+import org.jnode.driver.Bus;
+import org.jnode.driver.Device;
+import org.jnode.driver.net.NetworkException;
+import org.jnode.net.HardwareAddress;
+import org.jnode.net.SocketBuffer;
+import org.jnode.vm.objects.Counter;
+import org.jnode.vm.objects.Statistic;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractNetDriverTest {
+
+    private PollingDriver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        driver = new PollingDriver();
+        new Device(new Bus((Bus) null) { }, "test").setDriver(driver);
+    }
+
+    @Test
+    public void testPollUntilDrained() throws Exception {
+        driver.setReceiveBudget(64);
+        driver.pending = 150;
+        driver.scheduleReceivePoll();
+        driver.waitForInterrupts();
+
+        assertEquals(0, driver.pending);
+        assertEquals(1, getCount("rxinterrupts"));
+        assertEquals(3, getCount("rxpolls"));
+        assertEquals(150, getCount("rxpackets"));
+        assertEquals(2, getCount("rxexhausted"));
+        assertEquals(2, getCount("rxpoll32+"));
+        assertEquals(1, getCount("rxpoll16-31"));
+    }
+
+    @Test
+    public void testPollAgain() throws Exception {
+        driver.pending = 3;
+        driver.scheduleReceivePoll();
+        driver.waitForInterrupts();
+        driver.pending = 1;
+        driver.scheduleReceivePoll();
+        driver.waitForInterrupts();
+
+        assertEquals(2, getCount("rxinterrupts"));
+        assertEquals(2, getCount("rxpolls"));
+        assertEquals(0, getCount("rxexhausted"));
+        assertEquals(1, getCount("rxpoll2-3"));
+        assertEquals(1, getCount("rxpoll1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBudget() {
+        driver.setReceiveBudget(0);
+    }
+
+    @Test
+    public void testBatchSizes() {
+        final NetDeviceStatistics stat = (NetDeviceStatistics) driver.getStatistics();
+        stat.transmitted(1);
+        stat.transmitted(5);
+        stat.transmitted(32);
+        assertEquals(3, getCount("txbatches"));
+        assertEquals(38, getCount("txpackets"));
+        assertEquals(1, getCount("txbatch1"));
+        assertEquals(1, getCount("txbatch4-7"));
+        assertEquals(1, getCount("txbatch32+"));
+    }
+
+    private int getCount(String name) {
+        for (Statistic s : driver.getStatistics().getStatistics()) {
+            if (s.getName().equals(name)) {
+                return ((Counter) s).get();
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static class PollingDriver extends AbstractNetDriver {
+        int pending;
+        private boolean interrupts = true;
+
+        protected synchronized int pollReceive(int budget) {
+            final int cnt = Math.min(budget, pending);
+            pending -= cnt;
+            return cnt;
+        }
+
+        protected synchronized void setReceiveInterrupts(boolean enabled) {
+            interrupts = enabled;
+            notifyAll();
+        }
+
+        synchronized void waitForInterrupts() throws InterruptedException {
+            final long end = System.currentTimeMillis() + 5000;
+            while (!interrupts && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            assertTrue("receive interrupts enabled", interrupts);
+        }
+
+        protected void doTransmit(SocketBuffer skbuf, HardwareAddress destination)
+            throws NetworkException {
+        }
+
+        protected String getDevicePrefix() {
+            return ETH_DEVICE_PREFIX;
+        }
+
+        public HardwareAddress getAddress() {
+            return null;
+        }
+
+        public int getMTU() {
+            return 1500;
+        }
+    }
+}
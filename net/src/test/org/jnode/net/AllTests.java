@@ -20,13 +20,30 @@
  
 package org.jnode.net;
 
+import org.jnode.driver.net.spi.AbstractNetDriverTest;
 import org.jnode.net.arp.ARPHeaderTest;
 import org.jnode.net.ethernet.EthernetAddressTest;
+import org.jnode.net.ipv4.IPv4ControlBlockListTest;
+import org.jnode.net.ipv4.IPv4RoutingTableTest;
+import org.jnode.net.ipv4.nio.IPv4SelectorProviderTest;
+import org.jnode.net.ipv4.tcp.TCPCongestionControlTest;
+import org.jnode.net.ipv4.tcp.TCPDataBufferTest;
+import org.jnode.net.ipv4.tcp.TCPSocketImplTest;
+import org.jnode.net.service.DefaultNetworkLayerManagerTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ARPHeaderTest.class, //
-    EthernetAddressTest.class })
+    EthernetAddressTest.class, //
+    IPv4ControlBlockListTest.class, //
+    IPv4RoutingTableTest.class, //
+    TCPDataBufferTest.class, //
+    TCPCongestionControlTest.class, //
+    TCPSocketImplTest.class, //
+    IPv4SelectorProviderTest.class, //
+    DefaultNetworkLayerManagerTest.class, //
+    SocketBufferPoolTest.class, //
+    AbstractNetDriverTest.class })
 public class AllTests {
 }
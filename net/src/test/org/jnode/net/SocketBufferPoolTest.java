@@ -0,0 +1,128 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net;
+
+import org.jnode.vm.objects.Statistic;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SocketBufferPoolTest {
+
+    private static int get(SocketBufferPool pool, String name) {
+        for (Statistic s : pool.getStatistics()) {
+            if (s.getName().equals(name)) {
+                return (Integer) s.getValue();
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void testRecycle() {
+        final SocketBufferPool pool = new SocketBufferPool(1664, 128, 4);
+        final SocketBuffer skbuf = pool.allocate(1500);
+        skbuf.append(new byte[1500], 0, 1500);
+        // Headers fit in the headroom
+        skbuf.insert(20);
+        skbuf.insert(20);
+        skbuf.insert(14);
+        assertEquals(1554, skbuf.getSize());
+        assertEquals(0, pool.getFreeCount());
+
+        skbuf.release();
+        assertEquals(0, skbuf.getSize());
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(1, get(pool, "recycled"));
+
+        pool.allocate().release();
+        assertEquals(2, get(pool, "allocated"));
+        assertEquals(1, get(pool, "reused"));
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testRetain() {
+        final SocketBufferPool pool = new SocketBufferPool(256, 64, 4);
+        final SocketBuffer skbuf = pool.allocate(new byte[] {1, 2, 3, 4}, 0, 4);
+        skbuf.retain();
+        skbuf.release();
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0x01020304, skbuf.get32(0));
+        skbuf.release();
+        assertEquals(1, pool.getFreeCount());
+        // Releasing too often has no effect
+        skbuf.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        final SocketBufferPool pool = new SocketBufferPool(256, 64, 4);
+        final SocketBuffer skbuf = pool.allocate(new byte[] {1, 2, 3, 4}, 0, 4);
+        final SocketBuffer clone = new SocketBuffer(skbuf);
+        assertEquals(0x01020304, clone.get32(0));
+        assertEquals(0, get(pool, "copied"));
+
+        clone.insert(2);
+        clone.set(0, 9);
+        assertEquals(1, get(pool, "copied"));
+        assertEquals(6, clone.getSize());
+        assertEquals(9, clone.get(0));
+        assertEquals(0x01020304, clone.get32(2));
+        assertEquals(4, skbuf.getSize());
+        assertEquals(0x01020304, skbuf.get32(0));
+
+        skbuf.release();
+        clone.release();
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void testSharedRelease() {
+        final SocketBufferPool pool = new SocketBufferPool(256, 64, 4);
+        final SocketBuffer skbuf = pool.allocate(new byte[] {1, 2, 3, 4}, 0, 4);
+        final SocketBuffer clone = new SocketBuffer(skbuf);
+        skbuf.release();
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0x01020304, clone.get32(0));
+        clone.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testOversize() {
+        final SocketBufferPool pool = new SocketBufferPool(256, 64, 4);
+        final SocketBuffer big = pool.allocate(1000);
+        big.append(1000);
+        big.release();
+        assertEquals(1, get(pool, "oversize"));
+        assertEquals(0, pool.getFreeCount());
+
+        // A pooled buffer that outgrows its slab gives the slab back
+        final SocketBuffer grown = pool.allocate();
+        grown.append(new byte[1000], 0, 1000);
+        assertEquals(1000, grown.getSize());
+        assertEquals(1, pool.getFreeCount());
+        grown.release();
+        assertEquals(1000, grown.getSize());
+    }
+}
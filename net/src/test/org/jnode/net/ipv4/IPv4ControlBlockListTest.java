@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4;
+
+import java.net.BindException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IPv4ControlBlockListTest {
+
+    private static final IPv4Address LOCAL = new IPv4Address("10.0.0.1");
+    private static final IPv4Address OTHER_LOCAL = new IPv4Address("10.0.0.2");
+
+    private static IPv4Address foreign(int i) {
+        return new IPv4Address("192.168." + ((i >> 8) & 0xFF) + '.' + (i & 0xFF));
+    }
+
+    private static class TestList extends IPv4ControlBlockList {
+        protected IPv4ControlBlock createControlBlock(IPv4ControlBlock parent) {
+            return new IPv4ControlBlock(this, 6, 64);
+        }
+
+        int size() {
+            return list.size();
+        }
+    }
+
+    @Test
+    public void testListenerAndConnections() throws Exception {
+        final TestList list = new TestList();
+        final IPv4ControlBlock listener = list.bind(IPv4Address.ANY, 80);
+        final IPv4ControlBlock[] children = new IPv4ControlBlock[1000];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = listener.copyAndConnect(LOCAL, foreign(i), 1024 + i);
+        }
+        assertEquals(children.length + 1, list.size());
+
+        for (int i = 0; i < children.length; i++) {
+            assertSame(children[i], list.lookup(foreign(i), 1024 + i, LOCAL, 80, true));
+            assertSame(children[i], list.lookup(foreign(i), 1024 + i, LOCAL, 80, false));
+        }
+        // A new connection goes to the listener
+        assertSame(listener, list.lookup(foreign(5), 999, LOCAL, 80, true));
+        assertNull(list.lookup(foreign(5), 999, LOCAL, 80, false));
+        assertNull(list.lookup(foreign(5), 1029, LOCAL, 81, true));
+
+        children[5].removeFromList();
+        assertSame(listener, list.lookup(foreign(5), 1029, LOCAL, 80, true));
+        assertSame(children[6], list.lookup(foreign(6), 1030, LOCAL, 80, true));
+    }
+
+    @Test
+    public void testSameBucket() throws Exception {
+        final TestList list = new TestList();
+        final IPv4ControlBlock first = list.bind(IPv4Address.ANY, 80);
+        final IPv4ControlBlock second = list.bind(LOCAL, 80 + 256);
+        assertSame(first, list.lookup(foreign(1), 1024, LOCAL, 80, true));
+        assertSame(second, list.lookup(foreign(1), 1024, LOCAL, 80 + 256, true));
+        assertNull(list.lookup(foreign(1), 1024, OTHER_LOCAL, 80 + 256, true));
+        assertNull(list.lookup(foreign(1), 1024, LOCAL, 80 + 512, true));
+    }
+
+    @Test
+    public void testConnectRehashes() throws Exception {
+        final TestList list = new TestList();
+        final IPv4ControlBlock cb = list.bind(IPv4Address.ANY, 0);
+        final int port = cb.getLocalPort();
+        assertSame(cb, list.lookup(foreign(1), 80, LOCAL, port, true));
+        cb.connect(LOCAL, foreign(1), 80);
+        assertSame(cb, list.lookup(foreign(1), 80, LOCAL, port, false));
+        assertNull(list.lookup(foreign(2), 80, LOCAL, port, true));
+    }
+
+    @Test
+    public void testBindInUse() throws Exception {
+        final TestList list = new TestList();
+        list.bind(LOCAL, 80);
+        try {
+            list.bind(LOCAL, 80);
+            fail("Address in use expected");
+        } catch (BindException ex) {
+            // Expected
+        }
+        // Another local address is allowed
+        list.bind(OTHER_LOCAL, 80);
+    }
+
+    @Test
+    public void testEphemeralPorts() throws Exception {
+        final TestList list = new TestList();
+        final IPv4ControlBlock first = list.bind(IPv4Address.ANY, 0);
+        final IPv4ControlBlock second = list.bind(IPv4Address.ANY, 0);
+        assertTrue(first.getLocalPort() > IPv4Constants.IPPORT_RESERVED);
+        assertEquals(first.getLocalPort() + 1, second.getLocalPort());
+
+        // Exhaust the range, then a freed port is found again
+        final int count = IPv4Constants.IPPORT_USERRESERVED - IPv4Constants.IPPORT_RESERVED - 1;
+        for (int i = 0; i < count; i++) {
+            list.bind(IPv4Address.ANY, 0);
+        }
+        try {
+            list.bind(IPv4Address.ANY, 0);
+            fail("No free port expected");
+        } catch (BindException ex) {
+            // Expected
+        }
+        first.removeFromList();
+        assertEquals(first.getLocalPort(), list.bind(IPv4Address.ANY, 0).getLocalPort());
+    }
+}
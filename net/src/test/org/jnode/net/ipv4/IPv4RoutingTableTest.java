@@ -0,0 +1,122 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.NoRouteToHostException;
+import org.jnode.driver.Device;
+import org.jnode.driver.net.NetDeviceAPI;
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class IPv4RoutingTableTest {
+
+    private static Device createDevice(String id) {
+        final Device dev = new Device(null, id);
+        final NetDeviceAPI api = (NetDeviceAPI) Proxy.newProxyInstance(
+            NetDeviceAPI.class.getClassLoader(), new Class[] {NetDeviceAPI.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+        dev.registerAPI(NetDeviceAPI.class, api);
+        return dev;
+    }
+
+    private static IPv4Address addr(String s) {
+        return new IPv4Address(s);
+    }
+
+    private final Device eth0 = createDevice("eth0");
+
+    private IPv4Route route(String dest, String mask, String gateway) {
+        return new IPv4Route(addr(dest), (mask == null) ? null : addr(mask),
+            (gateway == null) ? null : addr(gateway), eth0);
+    }
+
+    @Test
+    public void testLongestPrefix() throws Exception {
+        final IPv4RoutingTable rt = new IPv4RoutingTable();
+        final IPv4Route def = route("0.0.0.0", "0.0.0.0", "10.0.0.1");
+        final IPv4Route net8 = route("10.0.0.0", "255.0.0.0", null);
+        final IPv4Route net16 = route("10.1.0.0", "255.255.0.0", "10.0.0.2");
+        final IPv4Route net24 = route("10.1.2.0", "255.255.255.0", null);
+        final IPv4Route host = route("10.1.2.3", null, null);
+        // Add them in an order that would confuse a first match search
+        rt.add(def);
+        rt.add(net8);
+        rt.add(net16);
+        rt.add(net24);
+        rt.add(host);
+
+        assertSame(host, rt.search(addr("10.1.2.3")));
+        assertSame(net24, rt.search(addr("10.1.2.4")));
+        assertSame(net16, rt.search(addr("10.1.3.4")));
+        assertSame(net8, rt.search(addr("10.2.3.4")));
+        assertSame(def, rt.search(addr("192.168.1.1")));
+        // Again, now from the cache
+        assertSame(net24, rt.search(addr("10.1.2.4")));
+    }
+
+    @Test
+    public void testChangesInvalidateCache() throws Exception {
+        final IPv4RoutingTable rt = new IPv4RoutingTable();
+        final IPv4Route net8 = route("10.0.0.0", "255.0.0.0", null);
+        rt.add(net8);
+        assertSame(net8, rt.search(addr("10.1.2.3")));
+
+        final IPv4Route net16 = route("10.1.0.0", "255.255.0.0", null);
+        rt.add(net16);
+        assertSame(net16, rt.search(addr("10.1.2.3")));
+
+        rt.remove(net16);
+        assertSame(net8, rt.search(addr("10.1.2.3")));
+
+        // A route that is down is skipped
+        net8.setUp(false);
+        try {
+            rt.search(addr("10.1.2.3"));
+            fail("No route expected");
+        } catch (NoRouteToHostException ex) {
+            // Expected
+        }
+        net8.setUp(true);
+        assertSame(net8, rt.search(addr("10.1.2.3")));
+    }
+
+    @Test
+    public void testGatewayFallback() throws Exception {
+        final IPv4RoutingTable rt = new IPv4RoutingTable();
+        final IPv4Route local = route("192.168.1.0", "255.255.255.0", null);
+        final IPv4Route gw = route("172.16.0.0", "255.255.0.0", "192.168.1.1");
+        rt.add(local);
+        rt.add(gw);
+        assertSame(local, rt.search(addr("192.168.1.7")));
+        assertSame(gw, rt.search(addr("172.16.5.5")));
+        // Without a default route, the gateway route is used
+        assertSame(gw, rt.search(addr("8.8.8.8")));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.nio;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.jnode.net.NoSuchProtocolException;
+import org.jnode.net.SocketBuffer;
+import org.jnode.net.ipv4.IPv4Address;
+import org.jnode.net.ipv4.IPv4Constants;
+import org.jnode.net.ipv4.IPv4Header;
+import org.jnode.net.ipv4.IPv4Protocol;
+import org.jnode.net.ipv4.IPv4RoutingTable;
+import org.jnode.net.ipv4.IPv4Service;
+import org.jnode.net.ipv4.tcp.TCPProtocol;
+import org.jnode.net.ipv4.udp.UDPProtocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IPv4SelectorProviderTest {
+
+    private static final IPv4Address LOOPBACK = new IPv4Address("127.0.0.1");
+
+    /**
+     * Delivers all transmitted packets back to the protocols from a separate thread.
+     */
+    private static class Loopback implements IPv4Service, Runnable {
+        private final IPv4RoutingTable rt = new IPv4RoutingTable();
+        private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+        private TCPProtocol tcp;
+        private UDPProtocol udp;
+
+        public IPv4RoutingTable getRoutingTable() {
+            return rt;
+        }
+
+        public IPv4Protocol getProtocol(int protocolID) throws NoSuchProtocolException {
+            switch (protocolID) {
+                case IPv4Constants.IPPROTO_TCP:
+                    return tcp;
+                case IPv4Constants.IPPROTO_UDP:
+                    return udp;
+                default:
+                    throw new NoSuchProtocolException("protocol " + protocolID);
+            }
+        }
+
+        public void transmit(IPv4Header hdr, SocketBuffer skbuf) throws SocketException {
+            hdr.setSource(LOOPBACK);
+            hdr.setDataLength(skbuf.getSize());
+            hdr.prefixTo(skbuf);
+            skbuf.setNetworkLayerHeader(hdr);
+            hdr.finalizeHeader(skbuf, 0);
+            skbuf.getTransportLayerHeader().finalizeHeader(skbuf, hdr.getLength());
+            queue.add(skbuf.toByteArray());
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    final byte[] data = queue.take();
+                    final SocketBuffer skbuf = new SocketBuffer(data, 0, data.length);
+                    final IPv4Header hdr = new IPv4Header(skbuf);
+                    skbuf.setNetworkLayerHeader(hdr);
+                    skbuf.pull(hdr.getLength());
+                    skbuf.trim(hdr.getDataLength());
+                    getProtocol(hdr.getProtocol()).receive(skbuf);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static IPv4SelectorProvider provider;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final Loopback loopback = new Loopback();
+        loopback.tcp = new TCPProtocol(loopback);
+        loopback.udp = new UDPProtocol(loopback);
+        final Thread t = new Thread(loopback, "loopback");
+        t.setDaemon(true);
+        t.start();
+        provider = new IPv4SelectorProvider(loopback.tcp, loopback.udp);
+    }
+
+    private static InetSocketAddress address(int port) throws Exception {
+        return new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port);
+    }
+
+    @Test
+    public void testSelectNowAndWakeup() throws Exception {
+        final Selector selector = provider.openSelector();
+        final ServerSocketChannel server = provider.openServerSocketChannel();
+        server.socket().bind(address(7001));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        assertEquals(0, selector.selectNow());
+        assertNull(server.accept());
+
+        selector.wakeup();
+        final long start = System.currentTimeMillis();
+        assertEquals(0, selector.select(10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0, selector.select(50));
+
+        server.close();
+        selector.close();
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        final Selector selector = provider.openSelector();
+        final ServerSocketChannel server = provider.openServerSocketChannel();
+        server.socket().bind(address(7002));
+        server.configureBlocking(false);
+        final SelectionKey serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+
+        final SocketChannel client = provider.openSocketChannel();
+        client.configureBlocking(false);
+        client.socket().bind(address(0));
+        assertFalse(client.connect(address(7002)));
+        assertTrue(client.isConnectionPending());
+        final SelectionKey clientKey = client.register(selector, SelectionKey.OP_CONNECT);
+
+        final int count = 20000;
+        final ByteBuffer out = ByteBuffer.allocate(count);
+        for (int i = 0; i < count; i++) {
+            out.put((byte) i);
+        }
+        out.flip();
+        final ByteBuffer echoed = ByteBuffer.allocate(count);
+        final ByteBuffer buf = ByteBuffer.allocate(1000);
+
+        final long end = System.currentTimeMillis() + 30000;
+        while (echoed.hasRemaining() && (System.currentTimeMillis() < end)) {
+            selector.select(1000);
+            for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+                final SelectionKey key = i.next();
+                i.remove();
+                if (key == serverKey) {
+                    assertTrue(key.isAcceptable());
+                    final SocketChannel accepted = server.accept();
+                    assertNotNull(accepted);
+                    accepted.configureBlocking(false);
+                    accepted.register(selector, SelectionKey.OP_READ);
+                } else if (key == clientKey) {
+                    if (key.isConnectable()) {
+                        assertTrue(client.finishConnect());
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                    if (key.isWritable()) {
+                        client.write(out);
+                        if (!out.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                    if (key.isReadable()) {
+                        client.read(echoed);
+                    }
+                } else if (key.isReadable()) {
+                    // Echo all data read by the server
+                    final SocketChannel sc = (SocketChannel) key.channel();
+                    buf.clear();
+                    sc.read(buf);
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        sc.write(buf);
+                    }
+                }
+            }
+        }
+        assertFalse(echoed.hasRemaining());
+        echoed.flip();
+        for (int i = 0; i < count; i++) {
+            assertEquals((byte) i, echoed.get());
+        }
+        assertTrue(client.isConnected());
+        client.close();
+        server.close();
+        selector.close();
+    }
+
+    @Test
+    public void testDatagram() throws Exception {
+        final Selector selector = provider.openSelector();
+        final DatagramChannel receiver = provider.openDatagramChannel();
+        receiver.socket().bind(address(7003));
+        receiver.configureBlocking(false);
+        receiver.register(selector, SelectionKey.OP_READ);
+        final DatagramChannel sender = provider.openDatagramChannel();
+        sender.socket().bind(address(7004));
+
+        final ByteBuffer buf = ByteBuffer.allocate(100);
+        assertNull(receiver.receive(buf));
+        assertEquals(0, selector.selectNow());
+
+        sender.send(ByteBuffer.wrap("hello".getBytes()), address(7003));
+        assertEquals(1, selector.select(10000));
+        final InetSocketAddress source = (InetSocketAddress) receiver.receive(buf);
+        assertEquals(7004, source.getPort());
+        assertEquals("hello", new String(buf.array(), 0, buf.position()));
+
+        receiver.close();
+        sender.close();
+        selector.close();
+    }
+}
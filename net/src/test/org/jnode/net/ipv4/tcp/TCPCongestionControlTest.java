@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TCPCongestionControlTest {
+
+    private static final int MSS = 1000;
+
+    /**
+     * Acknowledge a window worth of data every rtt ms, in 10 acks per round trip.
+     *
+     * @return The time after the last ack
+     */
+    private static long ackRounds(TCPCongestionControl cc, long now, int rounds, int rtt) {
+        for (int i = 0; i < rounds * 10; i++) {
+            cc.onAck(cc.getCwnd() / 10, now, rtt);
+            now += rtt / 10;
+        }
+        return now;
+    }
+
+    @Test
+    public void testSlowStart() {
+        final TCPNewReno cc = new TCPNewReno();
+        cc.init(MSS);
+        assertEquals(10 * MSS, cc.getCwnd());
+        cc.onAck(MSS, 0, 0);
+        assertEquals(11 * MSS, cc.getCwnd());
+        // Growth per ack is limited to 2 segments
+        cc.onAck(5 * MSS, 0, 0);
+        assertEquals(13 * MSS, cc.getCwnd());
+    }
+
+    @Test
+    public void testNewRenoLoss() {
+        final TCPNewReno cc = new TCPNewReno();
+        cc.init(MSS);
+        cc.setCwnd(40 * MSS);
+        cc.onFastRetransmit(40 * MSS, 0);
+        assertEquals(20 * MSS, cc.getSsthresh());
+        assertEquals(20 * MSS, cc.getCwnd());
+        cc.onRecoveryEnd(30 * MSS);
+        assertEquals(20 * MSS, cc.getCwnd());
+
+        // Congestion avoidance: one segment per round trip
+        for (int i = 0; i < 20; i++) {
+            cc.onAck(MSS, 0, 0);
+        }
+        assertEquals(21 * MSS, cc.getCwnd());
+
+        cc.onTimeout(21 * MSS, 0);
+        assertEquals(MSS, cc.getCwnd());
+        assertEquals(10 * MSS + MSS / 2, cc.getSsthresh());
+        // Never below 2 segments
+        cc.onTimeout(MSS, 0);
+        assertEquals(2 * MSS, cc.getSsthresh());
+    }
+
+    @Test
+    public void testCubicReduction() {
+        final TCPCubic cc = new TCPCubic();
+        cc.init(MSS);
+        cc.setCwnd(100 * MSS);
+        cc.onFastRetransmit(100 * MSS, 0);
+        assertEquals(70 * MSS, cc.getSsthresh());
+        assertEquals(70 * MSS, cc.getCwnd());
+    }
+
+    @Test
+    public void testCubicGrowth() {
+        final TCPCubic cc = new TCPCubic();
+        cc.init(MSS);
+        cc.setCwnd(100 * MSS);
+        cc.onFastRetransmit(100 * MSS, 1000);
+        final int rtt = 100;
+
+        // Concave region: fast at first, slowing down near the old maximum
+        long now = ackRounds(cc, 1000, 10, rtt);
+        final int after1s = cc.getCwnd();
+        now = ackRounds(cc, now, 10, rtt);
+        final int after2s = cc.getCwnd();
+        assertTrue(after1s > 70 * MSS);
+        assertTrue(after2s - after1s < after1s - 70 * MSS);
+        assertTrue(after2s < 100 * MSS);
+
+        // K = cbrt(30 / 0.4) = 4.2 s, then the old maximum is reached
+        now = ackRounds(cc, now, 23, rtt);
+        assertTrue(Math.abs(cc.getCwnd() - 100 * MSS) < 5 * MSS);
+
+        // Convex region: probing beyond the old maximum
+        ackRounds(cc, now, 30, rtt);
+        assertTrue(cc.getCwnd() > 105 * MSS);
+    }
+
+    @Test
+    public void testCubicFastConvergence() {
+        final TCPCubic cc = new TCPCubic();
+        cc.init(MSS);
+        cc.setCwnd(100 * MSS);
+        cc.onFastRetransmit(100 * MSS, 1000);
+        // A second loss before the old maximum is reached
+        cc.onFastRetransmit(70 * MSS, 2000);
+        assertEquals(49 * MSS, cc.getCwnd());
+
+        // The plateau is now at (1 + 0.7) / 2 * 70 = 59.5 segments,
+        // instead of at the 70 segments where the loss happened
+        ackRounds(cc, 2000, 20, 100);
+        assertTrue(Math.abs(cc.getCwnd() - 59500) < 2 * MSS);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+import org.jnode.net.SocketBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TCPDataBufferTest {
+
+    private static byte[] bytes(int start, int length) {
+        final byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) (start + i);
+        }
+        return b;
+    }
+
+    /**
+     * Fill the buffer, so that the next data added wraps around the end.
+     */
+    private static TCPDataBuffer createWrapped() {
+        final TCPDataBuffer buf = new TCPDataBuffer(16);
+        buf.add(bytes(0, 12), 0, 12);
+        buf.pull(10);
+        assertEquals(2, buf.add(bytes(12, 10), 0, 10));
+        assertEquals(12, buf.getUsed());
+        assertEquals(4, buf.getFreeSize());
+        return buf;
+    }
+
+    @Test
+    public void testReadAcrossEnd() {
+        final TCPDataBuffer buf = createWrapped();
+        final byte[] dst = new byte[20];
+        assertEquals(12, buf.read(dst, 0, dst.length));
+        assertArrayEquals(bytes(10, 12), copyOf(dst, 12));
+        assertEquals(0, buf.getUsed());
+        assertEquals(16, buf.getFreeSize());
+    }
+
+    @Test
+    public void testAddSocketBufferAcrossEnd() {
+        final TCPDataBuffer buf = new TCPDataBuffer(16);
+        buf.add(bytes(0, 14), 0, 14);
+        buf.pull(14);
+        final SocketBuffer skbuf = new SocketBuffer(10);
+        skbuf.append(bytes(20, 10), 0, 10);
+        buf.add(skbuf, 2, 8);
+        final byte[] dst = new byte[8];
+        assertEquals(8, buf.read(dst, 0, 8));
+        assertArrayEquals(bytes(22, 8), dst);
+    }
+
+    @Test
+    public void testCreateSocketBufferAcrossEnd() {
+        final TCPDataBuffer buf = createWrapped();
+        final SocketBuffer skbuf = buf.createSocketBuffer(4, 8);
+        assertEquals(8, skbuf.getSize());
+        // Prefixing a header must not touch the data of the buffer
+        skbuf.insert(20);
+        skbuf.set32(0, -1);
+        assertEquals(28, skbuf.getSize());
+        final byte[] data = skbuf.toByteArray();
+        assertArrayEquals(bytes(14, 8), copyOfRange(data, 20, 28));
+        final byte[] dst = new byte[12];
+        buf.read(dst, 0, 12);
+        assertArrayEquals(bytes(10, 12), dst);
+    }
+
+    @Test
+    public void testCopiedSocketBufferSurvivesReuse() {
+        final TCPDataBuffer buf = createWrapped();
+        final SocketBuffer skbuf = buf.createSocketBuffer(4, 8, true);
+        assertEquals(8, skbuf.getSize());
+        // The data is acked and its space is used for new data
+        buf.pull(12);
+        buf.add(bytes(50, 16), 0, 16);
+        skbuf.insert(20);
+        assertArrayEquals(bytes(14, 8), copyOfRange(skbuf.toByteArray(), 20, 28));
+    }
+
+    @Test
+    public void testSetLength() {
+        final TCPDataBuffer buf = createWrapped();
+        buf.setLength(64);
+        assertEquals(64, buf.getLength());
+        assertEquals(52, buf.getFreeSize());
+        buf.add(bytes(22, 40), 0, 40);
+        final byte[] dst = new byte[52];
+        assertEquals(52, buf.read(dst, 0, dst.length));
+        assertArrayEquals(bytes(10, 52), dst);
+    }
+
+    private static byte[] copyOf(byte[] src, int length) {
+        return copyOfRange(src, 0, length);
+    }
+
+    private static byte[] copyOfRange(byte[] src, int from, int to) {
+        final byte[] b = new byte[to - from];
+        System.arraycopy(src, from, b, 0, b.length);
+        return b;
+    }
+}
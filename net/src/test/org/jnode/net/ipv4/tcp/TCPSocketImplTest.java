@@ -0,0 +1,81 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.ipv4.tcp;
+
+import java.net.SocketException;
+import java.net.SocketOptions;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TCPSocketImplTest {
+
+    @Test
+    public void testTimeout() throws SocketException {
+        final TCPSocketImpl impl = new TCPSocketImpl(null);
+        assertEquals(0, impl.getOption(SocketOptions.SO_TIMEOUT));
+        impl.setOption(SocketOptions.SO_TIMEOUT, 250);
+        assertEquals(250, impl.getOption(SocketOptions.SO_TIMEOUT));
+        assertEquals(250, impl.getTimeout());
+    }
+
+    @Test(expected = SocketException.class)
+    public void testNegativeTimeout() throws SocketException {
+        new TCPSocketImpl(null).setOption(SocketOptions.SO_TIMEOUT, -1);
+    }
+
+    @Test
+    public void testNoDelay() throws SocketException {
+        final TCPSocketImpl impl = new TCPSocketImpl(null);
+        assertEquals(Boolean.FALSE, impl.getOption(SocketOptions.TCP_NODELAY));
+        impl.setOption(SocketOptions.TCP_NODELAY, Boolean.TRUE);
+        assertEquals(Boolean.TRUE, impl.getOption(SocketOptions.TCP_NODELAY));
+    }
+
+    @Test
+    public void testStoredOptions() throws SocketException {
+        final TCPSocketImpl impl = new TCPSocketImpl(null);
+        assertEquals(Boolean.FALSE, impl.getOption(SocketOptions.SO_KEEPALIVE));
+        impl.setOption(SocketOptions.SO_KEEPALIVE, Boolean.TRUE);
+        assertEquals(Boolean.TRUE, impl.getOption(SocketOptions.SO_KEEPALIVE));
+        impl.setOption(SocketOptions.SO_REUSEADDR, Boolean.TRUE);
+        assertEquals(Boolean.TRUE, impl.getOption(SocketOptions.SO_REUSEADDR));
+        impl.setOption(SocketOptions.SO_OOBINLINE, Boolean.TRUE);
+        assertEquals(Boolean.TRUE, impl.getOption(SocketOptions.SO_OOBINLINE));
+        impl.setOption(SocketOptions.IP_TOS, 0x10);
+        assertEquals(0x10, impl.getOption(SocketOptions.IP_TOS));
+    }
+
+    @Test
+    public void testLinger() throws SocketException {
+        final TCPSocketImpl impl = new TCPSocketImpl(null);
+        assertEquals(Boolean.FALSE, impl.getOption(SocketOptions.SO_LINGER));
+        impl.setOption(SocketOptions.SO_LINGER, 5);
+        assertEquals(5, impl.getOption(SocketOptions.SO_LINGER));
+        impl.setOption(SocketOptions.SO_LINGER, Boolean.FALSE);
+        assertEquals(Boolean.FALSE, impl.getOption(SocketOptions.SO_LINGER));
+    }
+
+    @Test(expected = SocketException.class)
+    public void testInvalidOptionValue() throws SocketException {
+        new TCPSocketImpl(null).setOption(SocketOptions.SO_KEEPALIVE, 1);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.net.service;
+
+import java.net.SocketException;
+import java.util.Collection;
+import java.util.Collections;
+import org.jnode.driver.Device;
+import org.jnode.driver.net.NetDeviceAPI;
+import org.jnode.net.FlowClassifier;
+import org.jnode.net.NetworkLayer;
+import org.jnode.net.NoSuchProtocolException;
+import org.jnode.net.ProtocolAddress;
+import org.jnode.net.SocketBuffer;
+import org.jnode.net.TransportLayer;
+import org.jnode.vm.objects.Statistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DefaultNetworkLayerManagerTest {
+
+    private static final int PROTOCOL_ID = 0x0800;
+
+    /**
+     * A network layer whose flows are identified by the first 4 bytes of a packet.
+     */
+    private static class TestLayer implements NetworkLayer, FlowClassifier {
+        public String getName() {
+            return "test";
+        }
+
+        public int getProtocolID() {
+            return PROTOCOL_ID;
+        }
+
+        public boolean isAllowedForDevice(Device dev) {
+            return true;
+        }
+
+        public void receive(SocketBuffer skbuf, NetDeviceAPI deviceAPI) throws SocketException {
+        }
+
+        public Statistics getStatistics() {
+            return null;
+        }
+
+        public void registerTransportLayer(TransportLayer layer) {
+        }
+
+        public void unregisterTransportLayer(TransportLayer layer) {
+        }
+
+        public Collection<TransportLayer> getTransportLayers() {
+            return Collections.emptyList();
+        }
+
+        public TransportLayer getTransportLayer(int protocolID) throws NoSuchProtocolException {
+            throw new NoSuchProtocolException();
+        }
+
+        public ProtocolAddress[] getHostByName(String hostname) {
+            return null;
+        }
+
+        public int getFlowHash(SocketBuffer skbuf) {
+            return skbuf.get32(0);
+        }
+    }
+
+    private static SocketBuffer packet(int flow, int seq) {
+        final SocketBuffer skbuf = new SocketBuffer();
+        skbuf.append(8);
+        skbuf.set32(0, flow);
+        skbuf.set32(4, seq);
+        skbuf.setProtocolID(PROTOCOL_ID);
+        return skbuf;
+    }
+
+    @Test
+    public void testFlowAffinity() throws Exception {
+        final DefaultNetworkLayerManager nlm = new DefaultNetworkLayerManager(null, 4);
+        nlm.registerNetworkLayer(new TestLayer());
+        assertEquals(4, nlm.getQueueCount());
+
+        final int flows = 64;
+        final int packets = 10;
+        for (int seq = 0; seq < packets; seq++) {
+            for (int flow = 0; flow < flows; flow++) {
+                nlm.receive(packet(flow, seq));
+            }
+        }
+
+        int total = 0;
+        for (int i = 0; i < nlm.getQueueCount(); i++) {
+            final int size = nlm.getQueue(i).size();
+            // All queues must be used
+            assertTrue(size > 0);
+            total += size;
+            // All packets of a flow are in this queue, in order
+            final int[] next = new int[flows];
+            while (!nlm.getQueue(i).isEmpty()) {
+                final SocketBuffer skbuf = nlm.getQueue(i).get();
+                final int flow = skbuf.get32(0);
+                assertEquals(next[flow]++, skbuf.get32(4));
+            }
+            for (int flow = 0; flow < flows; flow++) {
+                assertTrue((next[flow] == 0) || (next[flow] == packets));
+            }
+        }
+        assertEquals(flows * packets, total);
+    }
+
+    @Test
+    public void testSingleQueue() throws Exception {
+        final DefaultNetworkLayerManager nlm = new DefaultNetworkLayerManager(null, 1);
+        nlm.registerNetworkLayer(new TestLayer());
+        for (int flow = 0; flow < 16; flow++) {
+            nlm.receive(packet(flow, 0));
+        }
+        assertEquals(16, nlm.getQueue(0).size());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        final DefaultNetworkLayerManager nlm = new DefaultNetworkLayerManager(null, 2);
+        final TestLayer layer = new TestLayer();
+        nlm.registerNetworkLayer(layer);
+        assertSame(layer, nlm.getNetworkLayer(PROTOCOL_ID));
+        assertEquals(1, nlm.getNetworkLayers().size());
+
+        nlm.unregisterNetworkLayer(layer);
+        assertEquals(0, nlm.getNetworkLayers().size());
+        try {
+            nlm.getNetworkLayer(PROTOCOL_ID);
+            fail("Layer should have been unregistered");
+        } catch (NoSuchProtocolException ex) {
+            // Expected
+        }
+    }
+}
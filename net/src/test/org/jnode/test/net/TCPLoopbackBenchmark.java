@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2003-2015 JNode.org
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but 
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public 
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc., 
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+ 
+package org.jnode.test.net;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Measures the throughput of a single TCP connection over the loopback device,
+ * followed by the latency of small request/response round trips.
+ * <p/>
+ * Usage: TCPLoopbackBenchmark [megabytes [buffersize [roundtrips]]]
+ *
+ * @author epr
+ */
+public class TCPLoopbackBenchmark {
+
+    private static final int PORT = 5001;
+
+    public static void main(String[] args) throws Exception {
+        final int mb = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        final int bufSize = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+        final int roundTrips = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        measureThroughput(mb * 1024L * 1024L, bufSize);
+        measureLatency(roundTrips);
+    }
+
+    private static void measureThroughput(final long total, int bufSize) throws Exception {
+
+        final ServerSocket server = new ServerSocket();
+        if (bufSize > 0) {
+            // Must be set before listening, to get a large enough window scale
+            server.setReceiveBufferSize(bufSize);
+        }
+        server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT));
+
+        final long[] received = new long[1];
+        final Thread reader = new Thread("tcp-benchmark-reader") {
+            public void run() {
+                try {
+                    final Socket s = server.accept();
+                    final InputStream is = s.getInputStream();
+                    final byte[] buf = new byte[64 * 1024];
+                    long count = 0;
+                    int len;
+                    while ((count < total) && ((len = is.read(buf)) > 0)) {
+                        count += len;
+                    }
+                    received[0] = count;
+                    s.close();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+
+        final Socket client = new Socket();
+        if (bufSize > 0) {
+            client.setSendBufferSize(bufSize);
+            client.setReceiveBufferSize(bufSize);
+        }
+        client.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT));
+        System.out.println("Send buffer " + client.getSendBufferSize() + ", receive buffer " +
+            client.getReceiveBufferSize());
+
+        final OutputStream os = client.getOutputStream();
+        final byte[] data = new byte[64 * 1024];
+        final long start = System.currentTimeMillis();
+        long sent = 0;
+        while (sent < total) {
+            final int len = (int) Math.min(data.length, total - sent);
+            os.write(data, 0, len);
+            sent += len;
+        }
+        reader.join();
+        final long time = Math.max(1, System.currentTimeMillis() - start);
+        client.close();
+        server.close();
+
+        System.out.println("Transferred " + received[0] + " bytes in " + time + "ms: " +
+            (received[0] * 1000 / time / 1024) + " KB/s");
+    }
+
+    private static void measureLatency(final int roundTrips) throws Exception {
+        final ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT + 1));
+
+        final Thread echo = new Thread("tcp-benchmark-echo") {
+            public void run() {
+                try {
+                    final Socket s = server.accept();
+                    s.setTcpNoDelay(true);
+                    final InputStream is = s.getInputStream();
+                    final OutputStream os = s.getOutputStream();
+                    int b;
+                    while ((b = is.read()) >= 0) {
+                        os.write(b);
+                    }
+                    s.close();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        echo.start();
+
+        final Socket client = new Socket();
+        client.setTcpNoDelay(true);
+        client.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT + 1));
+        final InputStream is = client.getInputStream();
+        final OutputStream os = client.getOutputStream();
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long sum = 0;
+        for (int i = 0; i < roundTrips; i++) {
+            final long start = System.nanoTime();
+            os.write(i & 0x7F);
+            if (is.read() != (i & 0x7F)) {
+                throw new IllegalStateException("Unexpected echo in round trip " + i);
+            }
+            final long time = System.nanoTime() - start;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            sum += time;
+        }
+        client.close();
+        echo.join();
+        server.close();
+
+        if (roundTrips > 0) {
+            System.out.println(roundTrips + " round trips: min/avg/max = " + (min / 1000) + '/' +
+                (sum / roundTrips / 1000) + '/' + (max / 1000) + "us");
+        }
+    }
+}